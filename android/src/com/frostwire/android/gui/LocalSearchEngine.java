@@ -18,7 +18,6 @@
 
 package com.frostwire.android.gui;
 
-import android.text.Html;
 import com.frostwire.android.gui.views.AbstractListAdapter;
 import com.frostwire.search.*;
 import com.frostwire.search.extratorrent.ExtratorrentSearchResult;
@@ -26,7 +25,6 @@ import com.frostwire.search.torrent.TorrentSearchResult;
 import com.frostwire.search.youtube.YouTubeCrawledSearchResult;
 import com.frostwire.util.StringUtils;
 
-import java.text.Normalizer;
 import java.util.*;
 
 /**
@@ -45,7 +43,7 @@ public final class LocalSearchEngine {
     private static LocalSearchEngine instance;
     private final HashSet<Integer> opened = new HashSet<>();
     private long currentSearchToken;
-    private List<String> currentSearchTokens;
+    private RelevanceFilter relevanceFilter;
     private boolean searchFinished;
 
     public synchronized static void create() {
@@ -98,7 +96,7 @@ public final class LocalSearchEngine {
         manager.stop();
 
         currentSearchToken = Math.abs(System.nanoTime());
-        currentSearchTokens = tokenize(query);
+        relevanceFilter = RelevanceFilter.compile(query);
         searchFinished = false;
 
         for (SearchEngine se : SearchEngine.getEngines()) {
@@ -112,7 +110,7 @@ public final class LocalSearchEngine {
     public void cancelSearch() {
         manager.stop();
         currentSearchToken = 0;
-        currentSearchTokens = null;
+        relevanceFilter = null;
         searchFinished = true;
     }
 
@@ -168,16 +166,17 @@ public final class LocalSearchEngine {
     private List<SearchResult> filter(List<? extends SearchResult> results) {
         List<SearchResult> list;
 
-        if (currentSearchTokens == null || currentSearchTokens.isEmpty()) {
+        RelevanceFilter f = relevanceFilter;
+        if (f == null) {
             list = Collections.emptyList();
         } else {
-            list = filter2(results);
+            list = filter2(results, f);
         }
 
         return list;
     }
 
-    private List<SearchResult> filter2(List<? extends SearchResult> results) {
+    private List<SearchResult> filter2(List<? extends SearchResult> results, RelevanceFilter relevanceFilter) {
         List<SearchResult> list = new LinkedList<SearchResult>();
 
         try {
@@ -212,7 +211,7 @@ public final class LocalSearchEngine {
                         }
                     } else if (sr instanceof ScrapedTorrentFileSearchResult) {
                         list.add(sr);
-                    } else if (filter(new LinkedList<String>(currentSearchTokens), sr)) {
+                    } else if (relevanceFilter.accept(sr)) {
                         list.add(sr);
                     }
                 } else {
@@ -226,65 +225,4 @@ public final class LocalSearchEngine {
 
         return list;
     }
-
-    private boolean filter(List<String> tokens, SearchResult sr) {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append(sr.getDisplayName());
-        if (sr instanceof CrawledSearchResult) {
-            sb.append(((CrawledSearchResult) sr).getParent().getDisplayName());
-        }
-
-        if (sr instanceof FileSearchResult) {
-            sb.append(((FileSearchResult) sr).getFilename());
-        }
-
-        String str = sanitize(sb.toString());
-        str = normalize(str);
-
-        Iterator<String> it = tokens.iterator();
-        while (it.hasNext()) {
-            String token = it.next();
-            if (str.contains(token)) {
-                it.remove();
-            }
-        }
-
-        return tokens.isEmpty();
-    }
-
-    private String sanitize(String str) {
-        str = Html.fromHtml(str).toString();
-        str = str.replaceAll("\\.torrent|www\\.|\\.com|\\.net|[\\\\\\/%_;\\-\\.\\(\\)\\[\\]\\n\\rÐ&~{}\\*@\\^'=!,¡|#ÀÁ]", " ");
-        str = StringUtils.removeDoubleSpaces(str);
-
-        return str.trim();
-    }
-
-    private String normalize(String token) {
-        String norm = Normalizer.normalize(token, Normalizer.Form.NFKD);
-        norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-        norm = norm.toLowerCase(Locale.US);
-
-        return norm;
-    }
-
-    private Set<String> normalizeTokens(Set<String> tokens) {
-        Set<String> normalizedTokens = new HashSet<String>();
-
-        for (String token : tokens) {
-            String norm = normalize(token);
-            normalizedTokens.add(norm);
-        }
-
-        return normalizedTokens;
-    }
-
-    private List<String> tokenize(String keywords) {
-        keywords = sanitize(keywords);
-
-        Set<String> tokens = new HashSet<String>(Arrays.asList(keywords.toLowerCase(Locale.US).split(" ")));
-
-        return new ArrayList<String>(normalizeTokens(tokens));
-    }
 }
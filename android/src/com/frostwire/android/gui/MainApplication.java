@@ -35,6 +35,7 @@ import com.frostwire.logging.Logger;
 import com.frostwire.platform.Platforms;
 import com.frostwire.platform.SystemPaths;
 import com.frostwire.search.CrawlPagedWebSearchPerformer;
+import com.frostwire.search.TieredCrawlCache;
 import org.apache.commons.io.FileUtils;
 
 import java.io.File;
@@ -49,6 +50,8 @@ public class MainApplication extends Application {
 
     private static final Logger LOG = Logger.getLogger(MainApplication.class);
 
+    private static final long CRAWL_CACHE_MEMORY_SIZE = 4 * 1024 * 1024; // 4MB
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -70,7 +73,7 @@ public class MainApplication extends Application {
             Engine.create(this);
 
             ImageLoader.getInstance(this);
-            CrawlPagedWebSearchPerformer.setCache(new DiskCrawlCache(this));
+            CrawlPagedWebSearchPerformer.setCache(new TieredCrawlCache(new DiskCrawlCache(this), CRAWL_CACHE_MEMORY_SIZE));
             CrawlPagedWebSearchPerformer.setMagnetDownloader(null); // this effectively turn off magnet downloads
 
             LocalSearchEngine.create();
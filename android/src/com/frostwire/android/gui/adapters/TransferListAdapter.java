@@ -286,6 +286,15 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
             }
             items.add(new OpenMenuAction(context.get(), download.getDisplayName(), download.getSavePath().getAbsolutePath(), extractMime(download)));
         }
+        if (tag instanceof BaseHttpDownload && !download.isComplete()) {
+            BaseHttpDownload httpDownload = (BaseHttpDownload) tag;
+            TransferState state = httpDownload.getState();
+            if (state == TransferState.PAUSED) {
+                items.add(new ResumeDownloadMenuAction(context.get(), httpDownload, R.string.resume_torrent_menu_action));
+            } else if (state == TransferState.WAITING || state == TransferState.DOWNLOADING) {
+                items.add(new PauseDownloadMenuAction(context.get(), httpDownload));
+            }
+        }
         items.add(new CancelMenuAction(context.get(), download, !finishedSuccessfully));
         return title;
     }
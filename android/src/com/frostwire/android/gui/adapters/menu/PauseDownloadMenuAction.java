@@ -22,6 +22,7 @@ import android.content.Context;
 
 import com.frostwire.android.R;
 import com.frostwire.android.gui.views.MenuAction;
+import com.frostwire.transfers.BaseHttpDownload;
 import com.frostwire.transfers.BittorrentDownload;
 import com.frostwire.uxstats.UXAction;
 import com.frostwire.uxstats.UXStats;
@@ -34,17 +35,28 @@ import com.frostwire.uxstats.UXStats;
 public final class PauseDownloadMenuAction extends MenuAction {
 
     private final BittorrentDownload download;
+    private final BaseHttpDownload httpDownload;
 
     public PauseDownloadMenuAction(Context context, BittorrentDownload download) {
         super(context, R.drawable.contextmenu_icon_pause_transfer, R.string.pause_torrent_menu_action);
         this.download = download;
+        this.httpDownload = null;
+    }
+
+    public PauseDownloadMenuAction(Context context, BaseHttpDownload download) {
+        super(context, R.drawable.contextmenu_icon_pause_transfer, R.string.pause_torrent_menu_action);
+        this.download = null;
+        this.httpDownload = download;
     }
 
     @Override
     protected void onClick(Context context) {
-        if (!download.isPaused()) {
+        if (download != null && !download.isPaused()) {
             download.pause();
             UXStats.instance().log(UXAction.DOWNLOAD_PAUSE);
+        } else if (httpDownload != null && !httpDownload.isPaused()) {
+            httpDownload.pause();
+            UXStats.instance().log(UXAction.DOWNLOAD_PAUSE);
         }
     }
 }
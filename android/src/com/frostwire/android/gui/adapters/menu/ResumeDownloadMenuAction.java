@@ -25,6 +25,7 @@ import com.frostwire.android.gui.NetworkManager;
 import com.frostwire.android.gui.transfers.TransferManager;
 import com.frostwire.android.gui.util.UIUtils;
 import com.frostwire.android.gui.views.MenuAction;
+import com.frostwire.transfers.BaseHttpDownload;
 import com.frostwire.transfers.BittorrentDownload;
 import com.frostwire.uxstats.UXAction;
 import com.frostwire.uxstats.UXStats;
@@ -36,14 +37,35 @@ import com.frostwire.uxstats.UXStats;
 public final class ResumeDownloadMenuAction extends MenuAction {
 
     private final BittorrentDownload download;
+    private final BaseHttpDownload httpDownload;
 
     public ResumeDownloadMenuAction(Context context, BittorrentDownload download, int stringId) {
         super(context, R.drawable.contextmenu_icon_play_transfer, stringId);
         this.download = download;
+        this.httpDownload = null;
+    }
+
+    public ResumeDownloadMenuAction(Context context, BaseHttpDownload download, int stringId) {
+        super(context, R.drawable.contextmenu_icon_play_transfer, stringId);
+        this.download = null;
+        this.httpDownload = download;
     }
 
     @Override
     protected void onClick(Context context) {
+        if (httpDownload != null) {
+            // not affected by the bittorrent engine state
+            if (NetworkManager.instance().isDataUp()) {
+                if (httpDownload.isPaused()) {
+                    httpDownload.resume();
+                    UXStats.instance().log(UXAction.DOWNLOAD_RESUME);
+                }
+            } else {
+                UIUtils.showShortMessage(context, R.string.please_check_connection_status_before_resuming_download);
+            }
+            return;
+        }
+
         boolean bittorrentDisconnected = TransferManager.instance().isBittorrentDisconnected();
         if (bittorrentDisconnected) {
             UIUtils.showLongMessage(context, R.string.cant_resume_torrent_transfers);
@@ -1,6 +1,7 @@
 package com.frostwire.android.gui.transfers;
 
 import com.frostwire.bittorrent.BTDownload;
+import com.frostwire.bittorrent.BTEngine;
 import com.frostwire.logging.Logger;
 import com.frostwire.transfers.Transfer;
 import com.frostwire.transfers.TransferItem;
@@ -50,16 +51,7 @@ public final class Transfers {
     }
 
     public static Set<File> getIncompleteFiles() {
-        Set<File> set = new HashSet<File>();
-        List<Transfer> transfers = TransferManager.instance().getTransfers();
-
-        for (Transfer t : transfers) {
-            if (t instanceof UIBittorrentDownload) {
-                set.addAll(((UIBittorrentDownload) t).getDl().getIncompleteFiles());
-            }
-        }
-
-        return set;
+        return new HashSet<File>(BTEngine.getInstance().incompleteFiles().files());
     }
 
     public static Set<File> getIgnorableFiles() {
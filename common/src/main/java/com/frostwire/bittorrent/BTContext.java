@@ -32,4 +32,22 @@ public final class BTContext {
     public String interfaces;
     public int retries;
     public boolean optimizeMemory;
+
+    /**
+     * Interval in milliseconds to save the resume data of the
+     * torrents with progress.
+     */
+    public long resumeDataInterval = 10000;
+
+    /**
+     * Keep the torrents and resume data in a single log file instead of
+     * two files per download in the home dir, the existing files are
+     * migrated when this changes.
+     */
+    public boolean metadataLog;
+
+    /**
+     * Interval in milliseconds to sample the session metrics.
+     */
+    public long metricsInterval = 1000;
 }
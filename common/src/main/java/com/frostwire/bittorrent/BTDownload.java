@@ -20,15 +20,17 @@ package com.frostwire.bittorrent;
 
 import com.frostwire.jlibtorrent.*;
 import com.frostwire.jlibtorrent.alerts.*;
+import com.frostwire.jlibtorrent.swig.bitfield;
 import com.frostwire.jlibtorrent.swig.entry;
 import com.frostwire.jlibtorrent.swig.string_entry_map;
 import com.frostwire.jlibtorrent.swig.string_vector;
+import com.frostwire.jlibtorrent.swig.torrent_handle;
+import com.frostwire.jlibtorrent.swig.torrent_status;
 import com.frostwire.logging.Logger;
 import com.frostwire.platform.Platforms;
 import com.frostwire.transfers.BittorrentDownload;
 import com.frostwire.transfers.TransferItem;
 import com.frostwire.transfers.TransferState;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.File;
@@ -42,24 +44,28 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
 
     private static final Logger LOG = Logger.getLogger(BTDownload.class);
 
-    private static final long SAVE_RESUME_RESOLUTION_MILLIS = 10000;
-
     private static final int[] ALERT_TYPES = {
             AlertType.TORRENT_FINISHED.swig(),
             AlertType.TORRENT_REMOVED.swig(),
             AlertType.TORRENT_CHECKED.swig(),
             AlertType.SAVE_RESUME_DATA.swig(),
-            AlertType.PIECE_FINISHED.swig()};
+            AlertType.PIECE_FINISHED.swig(),
+            AlertType.FILE_COMPLETED.swig()};
 
     private static final String EXTRA_DATA_KEY = "extra_data";
     private static final String WAS_PAUSED_EXTRA_KEY = "was_paused";
 
     private final BTEngine engine;
     private final TorrentHandle th;
-    private final File savePath;
+    private final String infoHash;
+    // updated when the storage is moved
+    private volatile File savePath;
     private final Date created;
-    private final PiecesTracker piecesTracker;
-    private final File parts;
+    private volatile BTDownloadProgress progress;
+    private volatile List<TransferItem> items;
+    private String itemsSavePath;
+    private volatile File parts;
+    private final Object incompleteLock;
 
     private final Map<String, String> extra;
 
@@ -67,22 +73,26 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
 
     private Set<File> incompleteFilesToRemove;
 
-    private long lastSaveResumeTime;
     private final PaymentOptions paymentOptions;
 
     public BTDownload(BTEngine engine, TorrentHandle th) {
         super(th);
         this.engine = engine;
         this.th = th;
+        this.infoHash = th.getInfoHash().toString();
         this.savePath = new File(th.getSavePath());
         this.created = new Date(th.getStatus().getAddedTime());
         TorrentInfo ti = th.getTorrentInfo();
-        this.piecesTracker = ti != null ? new PiecesTracker(ti) : null;
-        this.parts = ti != null ? new File(savePath, "." + ti.infoHash() + ".parts") : null;
+        this.parts = partsFile(savePath, ti);
+        this.incompleteLock = new Object();
 
         this.extra = createExtra();
         this.paymentOptions = loadPaymentOptions(ti);
         engine.getSession().addListener(this);
+
+        updateFileIndex();
+        // loads the pieces, not in the alerts thread
+        updateIncompleteFilesInBackground(false);
     }
 
     public Map<String, String> getExtra() {
@@ -123,15 +133,15 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
     }
 
     public boolean isPaused() {
-        return th.getStatus().isPaused() || engine.isPaused() || !engine.isStarted();
+        return status().paused || engine.isPaused() || !engine.isStarted();
     }
 
     public boolean isSeeding() {
-        return th.getStatus().isSeeding();
+        return status().seeding;
     }
 
     public boolean isFinished() {
-        return th.getStatus().isFinished();
+        return status().finished;
     }
 
     public TransferState getState() {
@@ -147,21 +157,21 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
             return TransferState.ERROR;
         }
 
-        final TorrentStatus status = th.getStatus();
+        final BTDownloadStatus status = status();
 
-        if (status.isPaused() && status.isFinished()) {
+        if (status.paused && status.finished) {
             return TransferState.FINISHED;
         }
 
-        if (status.isPaused() && !status.isFinished()) {
+        if (status.paused && !status.finished) {
             return TransferState.PAUSED;
         }
 
-        if (!status.isPaused() && status.isFinished()) { // see the docs of isFinished
+        if (!status.paused && status.finished) { // see the docs of isFinished
             return TransferState.SEEDING;
         }
 
-        final TorrentStatus.State state = status.getState();
+        final TorrentStatus.State state = status.state;
 
         switch (state) {
             case QUEUED_FOR_CHECKING:
@@ -210,23 +220,21 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
             return 0;
         }
 
-        if (th.getTorrentInfo() == null) {
+        final BTDownloadStatus status = status();
+
+        if (!status.hasMetadata) {
             return 0;
         }
 
         // TODO: Add logic to check completion logic for merkle based torrents.
-        if (th.getTorrentInfo().isMerkleTorrent()) {
-            //final ArrayList<Sha1Hash> sha1Hashes = th.getTorrentInfo().merkleTree();
-            //perform sha1Hash check
-        }
 
-        float fp = th.getStatus().getProgress();
+        float fp = status.progress;
 
         if (Float.compare(fp, 1f) == 0) {
             return 100;
         }
 
-        int p = (int) (th.getStatus().getProgress() * 100);
+        int p = (int) (fp * 100);
         return Math.min(p, 100);
     }
 
@@ -236,27 +244,29 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
     }
 
     public long getBytesReceived() {
-        return th.getStatus().totalDownload();
+        return status().totalDownload;
     }
 
     public long getTotalBytesReceived() {
-        return th.getStatus().getAllTimeDownload();
+        return status().allTimeDownload;
     }
 
     public long getBytesSent() {
-        return th.getStatus().totalUpload();
+        return status().totalUpload;
     }
 
     public long getTotalBytesSent() {
-        return th.getStatus().getAllTimeUpload();
+        return status().allTimeUpload;
     }
 
     public long getDownloadSpeed() {
-        return (isFinished() || isPaused() || isSeeding()) ? 0 : th.getStatus().getDownloadPayloadRate();
+        final BTDownloadStatus status = status();
+        return (status.finished || isPaused() || status.seeding) ? 0 : status.downloadPayloadRate;
     }
 
     public long getUploadSpeed() {
-        return ((isFinished() && !isSeeding()) || isPaused()) ? 0 : th.getStatus().getUploadPayloadRate();
+        final BTDownloadStatus status = status();
+        return ((status.finished && !status.seeding) || isPaused()) ? 0 : status.uploadPayloadRate;
     }
 
     @Override
@@ -265,19 +275,19 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
     }
 
     public int getConnectedPeers() {
-        return th.getStatus().getNumPeers();
+        return status().numPeers;
     }
 
     public int getTotalPeers() {
-        return th.getStatus().getListPeers();
+        return status().listPeers;
     }
 
     public int getConnectedSeeds() {
-        return th.getStatus().getNumSeeds();
+        return status().numSeeds;
     }
 
     public int getTotalSeeds() {
-        return th.getStatus().getListSeeds();
+        return status().listSeeds;
     }
 
     @Override
@@ -299,7 +309,7 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
     }
 
     public String getInfoHash() {
-        return th.getInfoHash().toString();
+        return infoHash;
     }
 
     @Override
@@ -313,19 +323,7 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
             return 0;
         }
 
-        TorrentStatus status = th.getStatus();
-        long left = ti.totalSize() - status.getTotalDone();
-        long rate = status.getDownloadPayloadRate();
-
-        if (left <= 0) {
-            return 0;
-        }
-
-        if (rate <= 0) {
-            return -1;
-        }
-
-        return left / rate;
+        return engine.eta(th, infoHash, ti.totalSize());
     }
 
     public void pause() {
@@ -333,7 +331,8 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
 
         th.setAutoManaged(false);
         th.pause();
-        th.saveResumeData();
+        engine.resumeDataWriter().flush(infoHash);
+        engine.invalidateStatus(infoHash);
     }
 
     public void resume() {
@@ -341,7 +340,8 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
 
         th.setAutoManaged(true);
         th.resume();
-        th.saveResumeData();
+        engine.resumeDataWriter().flush(infoHash);
+        engine.invalidateStatus(infoHash);
     }
 
     public void remove() {
@@ -375,8 +375,12 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
             }
         }
 
-        engine.resumeDataFile(infoHash).delete();
-        engine.resumeTorrentFile(infoHash).delete();
+        engine.resumeDataWriter().remove(infoHash);
+        try {
+            engine.metadata().remove(infoHash);
+        } catch (Throwable e) {
+            LOG.warn("Error removing download metadata: " + infoHash, e);
+        }
     }
 
     public BTDownloadListener getListener() {
@@ -402,13 +406,20 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
             }
         }
 
-        th.saveResumeData();
+        engine.resumeDataWriter().flush(infoHash);
+
+        // only the parts file (and the skipped files) should be left
+        updateIncompleteFilesInBackground(false);
     }
 
     @Override
     public void torrentRemoved(TorrentRemovedAlert alert) {
         engine.getSession().removeListener(this);
+        engine.removeStatus(infoHash);
+        engine.incompleteFiles().removeAll(infoHash);
+        engine.fileIndex().removeAll(infoHash);
 
+        File parts = this.parts;
         if (parts != null) {
             parts.delete();
         }
@@ -420,8 +431,9 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
     public void torrentChecked(TorrentCheckedAlert alert) {
         try {
             if (th.isValid()) {
-                // trigger items calculation
-                getItems();
+                updateFileIndex();
+                // the pieces could have changed, reload them
+                updateIncompleteFilesInBackground(true);
             }
 
         } catch (Throwable e) {
@@ -431,29 +443,34 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
 
     @Override
     public void saveResumeData(SaveResumeDataAlert alert) {
-        long now = System.currentTimeMillis();
-        final TorrentStatus status = th.getStatus();
-        boolean forceSerialization = status.isFinished() || status.isPaused();
-        if (forceSerialization || (now - lastSaveResumeTime) >= SAVE_RESUME_RESOLUTION_MILLIS) {
-            lastSaveResumeTime = now;
-        } else {
-            // skip, too fast, see SAVE_RESUME_RESOLUTION_MILLIS
-            return;
-        }
         serializeResumeData(alert);
     }
 
     @Override
     public void pieceFinished(PieceFinishedAlert alert) {
         try {
-            if (piecesTracker != null) {
-                piecesTracker.setComplete(alert.pieceIndex(), true);
+            BTDownloadProgress p = progress;
+            if (p != null) {
+                p.setComplete(alert.pieceIndex());
             }
         } catch (Throwable e) {
             LOG.warn("Error handling piece finished logic", e);
         }
     }
 
+    @Override
+    public void fileCompleted(FileCompletedAlert alert) {
+        try {
+            TorrentInfo ti = th.getTorrentInfo();
+            if (ti != null) {
+                File f = new File(savePath, ti.files().filePath(alert.getIndex()));
+                engine.incompleteFiles().remove(infoHash, f);
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error handling file completed logic", e);
+        }
+    }
+
     public boolean isPartial() {
         Priority[] priorities = th.getFilePriorities();
 
@@ -519,33 +536,89 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
 
     @Override
     public List<TransferItem> getItems() {
-        ArrayList<TransferItem> items = new ArrayList<>();
+        if (!th.isValid()) {
+            return new ArrayList<>();
+        }
 
-        if (th.isValid()) {
-            TorrentInfo ti = th.getTorrentInfo();
-            if (ti != null && ti.isValid()) {
-                FileStorage fs = ti.files();
-                int numFiles = ti.numFiles();
+        List<TransferItem> l = items;
+        String path = th.getSavePath();
+        synchronized (this) {
+            if (l == null || !path.equals(itemsSavePath)) {
+                l = createItems(path);
+            }
+        }
 
-                for (int i = 0; i < numFiles; i++) {
-                    BTDownloadItem item = new BTDownloadItem(th, i, fs.filePath(i), fs.fileSize(i), piecesTracker);
-                    items.add(item);
-                }
+        return new ArrayList<>(l);
+    }
+
+    /**
+     * The items are created only once (and again if the storage is
+     * moved), they share the progress model of the download.
+     */
+    private List<TransferItem> createItems(String path) {
+        BTDownloadProgress p = loadProgress(false);
+        if (p == null) {
+            // still downloading the info (from magnet)
+            return new ArrayList<>();
+        }
 
-                if (piecesTracker != null) {
-                    int numPieces = ti.numPieces();
+        TorrentInfo ti = th.getTorrentInfo();
+        FileStorage fs = ti.files();
+        int numFiles = p.numFiles();
 
-                    // perform piece complete check
-                    for (int i = 0; i < numPieces; i++) {
-                        if (th.havePiece(i)) {
-                            piecesTracker.setComplete(i, true);
-                        }
-                    }
+        ArrayList<TransferItem> l = new ArrayList<>(numFiles);
+        for (int i = 0; i < numFiles; i++) {
+            l.add(new BTDownloadItem(th, i, path, fs.filePath(i), fs.fileSize(i), p));
+        }
+
+        itemsSavePath = path;
+        items = l;
+        return l;
+    }
+
+    /**
+     * Creates the progress model and loads the completed pieces, only
+     * once, after that the piece finished alerts keep it up to date.
+     *
+     * @param reload load the pieces again if already created
+     * @return the model, or {@code null} if the torrent info is not available
+     */
+    private synchronized BTDownloadProgress loadProgress(boolean reload) {
+        BTDownloadProgress p = progress;
+        if (p != null && !reload) {
+            return p;
+        }
+
+        TorrentInfo ti = th.getTorrentInfo();
+        if (ti == null || !ti.isValid()) {
+            return null;
+        }
+
+        if (p == null) {
+            p = BTDownloadProgress.create(ti);
+            progress = p;
+        } else {
+            p.reset();
+        }
+
+        // one status query with the pieces, instead of a call per piece
+        torrent_status ts = th.swig().status(torrent_handle.status_flags_t.query_pieces.swigValue());
+        bitfield pieces = ts.getPieces();
+        int numPieces = p.numPieces();
+        if (pieces.size() < numPieces && ts.getIs_seeding()) {
+            for (int i = 0; i < numPieces; i++) {
+                p.setComplete(i);
+            }
+        } else {
+            int n = Math.min(numPieces, pieces.size());
+            for (int i = 0; i < n; i++) {
+                if (pieces.get_bit(i)) {
+                    p.setComplete(i);
                 }
             }
         }
 
-        return items;
+        return p;
     }
 
     public File getTorrentFile() {
@@ -560,23 +633,24 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
                 return s;
             }
 
-            long[] progress = th.getFileProgress(TorrentHandle.FileProgressFlags.PIECE_GRANULARITY);
-
-            TorrentInfo ti = th.getTorrentInfo();
-            if (ti == null) {
+            BTDownloadProgress p = loadProgress(false);
+            if (p == null) {
                 // still downloading the info (from magnet)
                 return s;
             }
+
+            TorrentInfo ti = th.getTorrentInfo();
             FileStorage fs = ti.files();
             String prefix = savePath.getAbsolutePath();
 
             long createdTime = created.getTime();
 
-            for (int i = 0; i < progress.length; i++) {
+            int numFiles = p.numFiles();
+            for (int i = 0; i < numFiles; i++) {
                 String fePath = fs.filePath(i);
                 long feSize = fs.fileSize(i);
 
-                if (progress[i] < feSize) {
+                if (p.downloaded(i) < feSize) {
                     // lets see if indeed the file is incomplete
                     File f = new File(prefix, fePath);
 
@@ -597,18 +671,120 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
         return s;
     }
 
+    /**
+     * Publishes the parts file and the files not completed yet (according
+     * to the progress model) in the engine index, with the current save
+     * path. A file that was there before this transfer was created is not
+     * included, it's not being modified by this transfer.
+     */
+    private void updateIncompleteFiles(boolean reload) {
+        synchronized (incompleteLock) {
+            try {
+                Set<File> s = new HashSet<>();
+                File parts = this.parts;
+                if (parts != null) {
+                    s.add(parts);
+                }
+
+                BTDownloadProgress p = th.isValid() ? loadProgress(reload) : null;
+                if (p != null) {
+                    FileStorage fs = th.getTorrentInfo().files();
+                    File path = savePath;
+                    long createdTime = created.getTime();
+                    int numFiles = p.numFiles();
+                    for (int i = 0; i < numFiles; i++) {
+                        if (p.downloaded(i) < fs.fileSize(i)) {
+                            File f = new File(path, fs.filePath(i));
+                            if (!f.exists() || f.lastModified() >= createdTime) {
+                                s.add(f);
+                            }
+                        }
+                    }
+                }
+
+                engine.incompleteFiles().update(infoHash, s);
+            } catch (Throwable e) {
+                LOG.error("Error updating the incomplete files index", e);
+            }
+        }
+    }
+
+    private void updateIncompleteFilesInBackground(final boolean reload) {
+        engine.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                updateIncompleteFiles(reload);
+            }
+        });
+    }
+
+    /**
+     * Updates the paths of the files in the engine indexes after the
+     * storage was moved.
+     */
+    void storageMoved() {
+        try {
+            if (!th.isValid()) {
+                return;
+            }
+            savePath = new File(th.getSavePath());
+            parts = partsFile(savePath, th.getTorrentInfo());
+            updateFileIndex();
+            updateIncompleteFilesInBackground(false);
+        } catch (Throwable e) {
+            LOG.error("Error updating the paths after storage moved", e);
+        }
+    }
+
+    private static File partsFile(File savePath, TorrentInfo ti) {
+        return ti != null ? new File(savePath, "." + ti.infoHash() + ".parts") : null;
+    }
+
+    /**
+     * Publishes the files of the download in the engine path index, with
+     * the current save path of the torrent.
+     */
+    void updateFileIndex() {
+        try {
+            if (!th.isValid()) {
+                return;
+            }
+            TorrentInfo ti = th.getTorrentInfo();
+            if (ti == null || !ti.isValid()) {
+                // still downloading the info (from magnet)
+                return;
+            }
+
+            FileStorage fs = ti.files();
+            String path = th.getSavePath();
+            File[] files = new File[ti.numFiles()];
+            for (int i = 0; i < files.length; i++) {
+                files[i] = new File(path, fs.filePath(i));
+            }
+
+            engine.fileIndex().update(infoHash, this, files);
+        } catch (Throwable e) {
+            LOG.error("Error updating the file index", e);
+        }
+    }
+
     public boolean isSequentialDownload() {
-        return th.getStatus().isSequentialDownload();
+        return status().sequentialDownload;
     }
 
     public void setSequentialDownload(boolean sequential) {
         th.setSequentialDownload(sequential);
+        engine.invalidateStatus(infoHash);
     }
 
     public File partsFile() {
         return parts;
     }
 
+    private BTDownloadStatus status() {
+        return engine.status(th, infoHash);
+    }
+
     private PaymentOptions loadPaymentOptions(TorrentInfo ti) {
         try {
             BTInfoAdditionalMetadataHolder holder = new BTInfoAdditionalMetadataHolder(ti, getDisplayName());
@@ -621,13 +797,10 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
     private void serializeResumeData(SaveResumeDataAlert alert) {
         try {
             if (th.isValid()) {
-                String infoHash = th.getInfoHash().toString();
-                File file = engine.resumeDataFile(infoHash);
-
                 Entry e = alert.resumeData();
                 e.swig().dict().set(EXTRA_DATA_KEY, Entry.fromMap(extra).swig());
 
-                FileUtils.writeByteArrayToFile(file, e.bencode());
+                engine.resumeDataWriter().write(infoHash, e.bencode());
             }
         } catch (Throwable e) {
             LOG.warn("Error saving resume data", e);
@@ -638,11 +811,9 @@ public final class BTDownload extends TorrentAlertAdapter implements BittorrentD
         Map<String, String> map = new HashMap<>();
 
         try {
-            String infoHash = getInfoHash();
-            File file = engine.resumeDataFile(infoHash);
+            byte[] arr = engine.metadata().resume(getInfoHash());
 
-            if (file.exists()) {
-                byte[] arr = FileUtils.readFileToByteArray(file);
+            if (arr != null) {
                 entry e = entry.bdecode(Vectors.bytes2byte_vector(arr));
                 string_entry_map d = e.dict();
 
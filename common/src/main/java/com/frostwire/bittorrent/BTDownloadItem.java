@@ -18,7 +18,6 @@
 
 package com.frostwire.bittorrent;
 
-import com.frostwire.jlibtorrent.PiecesTracker;
 import com.frostwire.jlibtorrent.Priority;
 import com.frostwire.jlibtorrent.TorrentHandle;
 import com.frostwire.transfers.TransferItem;
@@ -38,17 +37,17 @@ public class BTDownloadItem implements TransferItem {
     private final String name;
     private final long size;
 
-    private PiecesTracker piecesTracker;
+    private final BTDownloadProgress progress;
 
-    public BTDownloadItem(TorrentHandle th, int index, String filePath, long fileSize, PiecesTracker piecesTracker) {
+    BTDownloadItem(TorrentHandle th, int index, String savePath, String filePath, long fileSize, BTDownloadProgress progress) {
         this.th = th;
         this.index = index;
 
-        this.file = new File(th.getSavePath(), filePath);
+        this.file = new File(savePath, filePath);
         this.name = file.getName();
         this.size = fileSize;
 
-        this.piecesTracker = piecesTracker;
+        this.progress = progress;
     }
 
     @Override
@@ -78,17 +77,12 @@ public class BTDownloadItem implements TransferItem {
 
     @Override
     public long getDownloaded() {
-        if (!th.isValid()) {
-            return 0;
-        }
-
-        long[] progress = th.getFileProgress(TorrentHandle.FileProgressFlags.PIECE_GRANULARITY);
-        return progress[index];
+        return progress.downloaded(index);
     }
 
     @Override
     public int getProgress() {
-        if (!th.isValid() || size == 0) { // edge cases
+        if (size == 0) { // edge cases
             return 0;
         }
 
@@ -98,7 +92,7 @@ public class BTDownloadItem implements TransferItem {
         if (downloaded == size) {
             progress = 100;
         } else {
-            progress = (int) ((float) (getDownloaded() * 100) / (float) size);
+            progress = (int) ((float) (downloaded * 100) / (float) size);
         }
 
         return progress;
@@ -113,6 +107,6 @@ public class BTDownloadItem implements TransferItem {
      * @return
      */
     public long getSequentialDownloaded() {
-        return piecesTracker != null ? piecesTracker.getSequentialDownloadedBytes(index) : 0;
+        return progress.sequentialDownloaded(index);
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import com.frostwire.jlibtorrent.FileStorage;
+import com.frostwire.jlibtorrent.TorrentInfo;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The pieces and per-file downloaded bytes (with piece granularity) of a
+ * download, kept up to date from the piece finished alerts, so the file
+ * progress is a field read instead of a full native progress call.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+final class BTDownloadProgress {
+
+    private final long[] fileOffsets;
+    private final long[] fileSizes;
+    private final long pieceLength;
+    private final int numPieces;
+    private final long totalSize;
+
+    private final BitSet pieces;
+    private final long[] downloaded;
+    // first piece of the file not completed yet, for the sequential bytes
+    private final int[] cursors;
+
+    BTDownloadProgress(long[] fileOffsets, long[] fileSizes, int pieceLength, int numPieces, long totalSize) {
+        this.fileOffsets = fileOffsets;
+        this.fileSizes = fileSizes;
+        this.pieceLength = pieceLength;
+        this.numPieces = numPieces;
+        this.totalSize = totalSize;
+
+        this.pieces = new BitSet(numPieces);
+        this.downloaded = new long[fileOffsets.length];
+        this.cursors = new int[fileOffsets.length];
+        resetCursors();
+    }
+
+    static BTDownloadProgress create(TorrentInfo ti) {
+        FileStorage fs = ti.files();
+        int numFiles = ti.numFiles();
+
+        long[] offsets = new long[numFiles];
+        long[] sizes = new long[numFiles];
+        for (int i = 0; i < numFiles; i++) {
+            offsets[i] = fs.fileOffset(i);
+            sizes[i] = fs.fileSize(i);
+        }
+
+        return new BTDownloadProgress(offsets, sizes, ti.pieceLength(), ti.numPieces(), ti.totalSize());
+    }
+
+    int numFiles() {
+        return fileOffsets.length;
+    }
+
+    int numPieces() {
+        return numPieces;
+    }
+
+    /**
+     * Marks the piece as completed and adds its bytes to the files it
+     * overlaps.
+     *
+     * @return false if it was already completed
+     */
+    synchronized boolean setComplete(int piece) {
+        if (piece < 0 || piece >= numPieces || pieces.get(piece)) {
+            return false;
+        }
+        pieces.set(piece);
+
+        long start = piece * pieceLength;
+        long end = Math.min(start + pieceLength, totalSize);
+
+        for (int i = firstFile(start); i < fileOffsets.length && fileOffsets[i] < end; i++) {
+            long fileEnd = fileOffsets[i] + fileSizes[i];
+            long overlap = Math.min(end, fileEnd) - Math.max(start, fileOffsets[i]);
+            if (overlap > 0) {
+                downloaded[i] += overlap;
+            }
+        }
+
+        return true;
+    }
+
+    synchronized boolean isComplete(int piece) {
+        return pieces.get(piece);
+    }
+
+    /**
+     * Forgets all the completed pieces, for example after a recheck.
+     */
+    synchronized void reset() {
+        pieces.clear();
+        Arrays.fill(downloaded, 0);
+        resetCursors();
+    }
+
+    /**
+     * @return the downloaded bytes of the file, with piece granularity
+     */
+    synchronized long downloaded(int file) {
+        return downloaded[file];
+    }
+
+    /**
+     * @return the bytes of the file completed from its start without gaps
+     */
+    synchronized long sequentialDownloaded(int file) {
+        long size = fileSizes[file];
+        if (size == 0) {
+            return 0;
+        }
+
+        int last = lastPiece(file);
+        int cursor = cursors[file];
+        while (cursor <= last && pieces.get(cursor)) {
+            cursor++;
+        }
+        cursors[file] = cursor;
+
+        if (cursor > last) {
+            return size;
+        }
+        long n = cursor * pieceLength - fileOffsets[file];
+        return n > 0 ? Math.min(n, size) : 0;
+    }
+
+    private void resetCursors() {
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = (int) (fileOffsets[i] / pieceLength);
+        }
+    }
+
+    private int lastPiece(int file) {
+        return (int) ((fileOffsets[file] + fileSizes[file] - 1) / pieceLength);
+    }
+
+    /**
+     * @return the index of the first file that could overlap the offset
+     */
+    private int firstFile(long offset) {
+        int i = Arrays.binarySearch(fileOffsets, offset);
+        if (i < 0) {
+            i = -i - 2; // the file that starts before the offset
+        }
+        // several files could start at the same offset (empty ones)
+        while (i > 0 && fileOffsets[i - 1] == fileOffsets[i]) {
+            i--;
+        }
+        return Math.max(i, 0);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import com.frostwire.jlibtorrent.TorrentStatus;
+
+/**
+ * Immutable copy of the fields of a {@link TorrentStatus} used by
+ * {@link BTDownload}, taken once per engine tick so the getters don't
+ * go to the native side every time.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+final class BTDownloadStatus {
+
+    final boolean paused;
+    final boolean seeding;
+    final boolean finished;
+    final TorrentStatus.State state;
+    final float progress;
+    final long totalDownload;
+    final long allTimeDownload;
+    final long totalUpload;
+    final long allTimeUpload;
+    final int downloadPayloadRate;
+    final int uploadPayloadRate;
+    final int numPeers;
+    final int listPeers;
+    final int numSeeds;
+    final int listSeeds;
+    final long totalDone;
+    final boolean sequentialDownload;
+    final boolean hasMetadata;
+
+    BTDownloadStatus(TorrentStatus status) {
+        this.paused = status.isPaused();
+        this.seeding = status.isSeeding();
+        this.finished = status.isFinished();
+        this.state = status.getState();
+        this.progress = status.getProgress();
+        this.totalDownload = status.totalDownload();
+        this.allTimeDownload = status.getAllTimeDownload();
+        this.totalUpload = status.totalUpload();
+        this.allTimeUpload = status.getAllTimeUpload();
+        this.downloadPayloadRate = status.getDownloadPayloadRate();
+        this.uploadPayloadRate = status.getUploadPayloadRate();
+        this.numPeers = status.getNumPeers();
+        this.listPeers = status.getListPeers();
+        this.numSeeds = status.getNumSeeds();
+        this.listSeeds = status.getListSeeds();
+        this.totalDone = status.getTotalDone();
+        this.sequentialDownload = status.isSequentialDownload();
+        this.hasMetadata = status.hasMetadata();
+    }
+}
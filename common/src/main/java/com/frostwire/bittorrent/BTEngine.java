@@ -25,12 +25,23 @@ import com.frostwire.logging.Logger;
 import com.frostwire.platform.FileSystem;
 import com.frostwire.platform.Platforms;
 import com.frostwire.search.torrent.TorrentCrawledSearchResult;
+import com.frostwire.transfers.SpeedStat;
+import com.frostwire.util.ThreadPool;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.frostwire.jlibtorrent.alerts.AlertType.*;
@@ -44,6 +55,7 @@ public final class BTEngine {
     private static final Logger LOGGER = Logger.getLogger(BTEngine.class);
 
     private static final int[] INNER_LISTENER_TYPES = new int[]{TORRENT_ADDED.swig(),
+            ADD_TORRENT.swig(),
             PIECE_FINISHED.swig(),
             PORTMAP.swig(),
             PORTMAP_ERROR.swig(),
@@ -52,17 +64,38 @@ public final class BTEngine {
             LISTEN_SUCCEEDED.swig(),
             LISTEN_FAILED.swig(),
             EXTERNAL_IP.swig(),
-            METADATA_RECEIVED.swig()
+            METADATA_RECEIVED.swig(),
+            STATE_UPDATE.swig(),
+            SAVE_RESUME_DATA_FAILED.swig(),
+            SESSION_STATS.swig()
     };
 
+    private static final long STATUS_UPDATE_INTERVAL_MILLIS = 1000;
+    private static final int MAX_CONCURRENT_MAGNETS = 8;
+    private static final long RESUME_DATA_FLUSH_TIMEOUT_MILLIS = 5000;
+    private static final int WORKER_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int RESTORE_WINDOW = 32;
+    private static final int RESTORE_PREFETCH = 64;
+    private static final int METRICS_HISTORY = 600;
+
     private static final String TORRENT_ORIG_PATH_KEY = "torrent_orig_path";
     public static BTContext ctx;
 
     private final ReentrantLock sync;
     private final InnerListener innerListener;
-    private final Queue<RestoreDownloadTask> restoreDownloadsQueue;
-
-    private Session session;
+    private final ExecutorService workers;
+    private final ConcurrentMap<String, BTDownloadStatus> statuses;
+    private final ConcurrentMap<String, SpeedStat> doneRates;
+    private final ScheduledExecutorService timer;
+    private final Map<String, MagnetFuture> magnets;
+    private final Queue<MagnetFuture> magnetsQueue;
+    private volatile TorrentMetadataStore metadata;
+    private boolean metadataClosed;
+    private final ResumeDataWriter resumeDataWriter;
+    private final IncompleteFilesIndex incompleteFiles;
+    private final TransferFileIndex fileIndex;
+
+    private volatile Session session;
     private Downloader downloader;
     private BTEngineListener listener;
     private int totalDHTNodes;
@@ -70,6 +103,11 @@ public final class BTEngine {
     private boolean firewalled;
     private List<TcpEndpoint> listenEndpoints;
     private Address externalAddress;
+    private ScheduledFuture<?> statusUpdates;
+    private ScheduledFuture<?> metricsUpdates;
+    private volatile BTMetricsRecorder metricsRecorder;
+    private int activeMagnets;
+    private volatile RestorePipeline<RestoreDownloadTask, RestoreItem> restorePipeline;
 
     private static final LruCache<String, byte[]> MAGNET_CACHE = new LruCache<String, byte[]>(50);
     private static final Object MAGNET_LOCK = new Object();
@@ -77,7 +115,21 @@ public final class BTEngine {
     private BTEngine() {
         this.sync = new ReentrantLock();
         this.innerListener = new InnerListener();
-        this.restoreDownloadsQueue = new LinkedList<>();
+        this.workers = newWorkers();
+        this.statuses = new ConcurrentHashMap<>();
+        this.doneRates = new ConcurrentHashMap<>();
+        this.timer = newTimer();
+        this.magnets = new HashMap<>();
+        this.magnetsQueue = new LinkedList<>();
+        this.metadata = openMetadataStore();
+        this.resumeDataWriter = new ResumeDataWriter(ctx.resumeDataInterval, metadata, new ResumeDataWriter.Requester() {
+            @Override
+            public boolean request(String infoHash) {
+                return requestResumeData(infoHash);
+            }
+        });
+        this.incompleteFiles = new IncompleteFilesIndex();
+        this.fileIndex = new TransferFileIndex();
 
         this.listenEndpoints = new LinkedList<>();
     }
@@ -170,10 +222,18 @@ public final class BTEngine {
             firewalled = true;
             listenEndpoints.clear();
             externalAddress = null;
+            metricsRecorder = new BTMetricsRecorder(METRICS_HISTORY, BTMetricsRecorder.findIndexes());
+
+            if (metadataClosed) {
+                metadata = openMetadataStore();
+                resumeDataWriter.store(metadata);
+                metadataClosed = false;
+            }
 
             session = new Session(ctx.interfaces, ctx.retries, false, innerListener);
             downloader = new Downloader(session);
             loadSettings();
+            scheduleStatusUpdates();
             fireStarted();
         } finally {
             sync.unlock();
@@ -191,9 +251,23 @@ public final class BTEngine {
                 return;
             }
 
+            resumeDataWriter.flushAll(RESUME_DATA_FLUSH_TIMEOUT_MILLIS);
+            // saves the index of the log, reopened in the next start
+            metadata.close();
+            metadataClosed = true;
+
             session.removeListener(innerListener);
             saveSettings();
 
+            statusUpdates.cancel(false);
+            statusUpdates = null;
+            metricsUpdates.cancel(false);
+            metricsUpdates = null;
+            statuses.clear();
+            doneRates.clear();
+            cancelMagnets();
+            cancelRestore();
+
             downloader = null;
 
             session.abort();
@@ -290,6 +364,233 @@ public final class BTEngine {
         }
     }
 
+    /**
+     * The last status of the torrent reported by the session, the session
+     * is asked for the status of all the torrents that changed once per
+     * tick instead of one native call per getter. Only the torrents still
+     * in the session are kept, a removed torrent is queried every time.
+     *
+     * @param th       the torrent handle, used if there is no status yet
+     * @param infoHash the info hash of the torrent
+     * @return
+     */
+    BTDownloadStatus status(TorrentHandle th, String infoHash) {
+        BTDownloadStatus s = statuses.get(infoHash);
+        if (s == null) {
+            s = new BTDownloadStatus(th.getStatus());
+            if (th.isValid()) {
+                statuses.put(infoHash, s);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Drops the last status of the torrent, the next read will go to the
+     * native side, used after the actions that change the state right away.
+     *
+     * @param infoHash the info hash of the torrent
+     */
+    void invalidateStatus(String infoHash) {
+        statuses.remove(infoHash);
+    }
+
+    /**
+     * Forgets the status and the rate of a removed torrent.
+     *
+     * @param infoHash the info hash of the torrent
+     */
+    void removeStatus(String infoHash) {
+        statuses.remove(infoHash);
+        doneRates.remove(infoHash);
+    }
+
+    /**
+     * The estimated time to download the torrent, from the smoothed rate
+     * of the done bytes (the payload rate jumps around). The rate is fed
+     * by the status tick, the first call only starts it.
+     *
+     * @param th       the torrent handle, used if there is no status yet
+     * @param infoHash the info hash of the torrent
+     * @param size     the total size of the torrent
+     * @return the seconds left, or -1 if unknown
+     */
+    long eta(TorrentHandle th, String infoHash, long size) {
+        SpeedStat rate = doneRates.get(infoHash);
+        if (rate == null) {
+            rate = new SpeedStat();
+            rate.updateTotal(status(th, infoHash).totalDone);
+            if (th.isValid()) {
+                SpeedStat r = doneRates.putIfAbsent(infoHash, rate);
+                if (r != null) {
+                    rate = r;
+                }
+            }
+        }
+        return rate.eta(size);
+    }
+
+    private void scheduleStatusUpdates() {
+        final Session s = session;
+        statusUpdates = timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    s.postTorrentUpdates();
+                } catch (Throwable e) {
+                    LOGGER.error("Error requesting torrent status updates", e);
+                }
+            }
+        }, 0, STATUS_UPDATE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        metricsUpdates = timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    s.postSessionStats();
+                } catch (Throwable e) {
+                    LOGGER.error("Error requesting session stats", e);
+                }
+            }
+        }, 0, ctx.metricsInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void onSessionStats(SessionStatsAlert alert) {
+        BTMetricsRecorder r = metricsRecorder;
+        if (r != null) {
+            r.record(alert);
+        }
+    }
+
+    /**
+     * @return the last snapshot of the session metrics, or {@code null} if there is none yet
+     */
+    public BTMetrics metrics() {
+        BTMetricsRecorder r = metricsRecorder;
+        return r != null ? r.last() : null;
+    }
+
+    /**
+     * @return the snapshots of the session metrics of the last minutes, the oldest first
+     */
+    public List<BTMetrics> metricsHistory() {
+        BTMetricsRecorder r = metricsRecorder;
+        return r != null ? r.snapshots() : Collections.<BTMetrics>emptyList();
+    }
+
+    /**
+     * Writes the metrics history to the file, as CSV.
+     */
+    public void dumpMetrics(File file) throws IOException {
+        BTMetricsRecorder r = metricsRecorder;
+        if (r == null) {
+            throw new IOException("No metrics, the engine was never started");
+        }
+        r.dump(file);
+    }
+
+    private void onStateUpdate(StateUpdateAlert alert) {
+        // only refreshes the entries, an update posted before a remove
+        // must not bring back the status of the removed torrent
+        for (TorrentStatus ts : alert.getStatus()) {
+            String infoHash = ts.getInfoHash().toString();
+            statuses.replace(infoHash, new BTDownloadStatus(ts));
+            SpeedStat rate = doneRates.get(infoHash);
+            if (rate != null) {
+                rate.updateTotal(ts.getTotalDone());
+            }
+        }
+    }
+
+    private static ExecutorService newWorkers() {
+        ThreadPool pool = new ThreadPool("BTEngine-workers", WORKER_THREADS, WORKER_THREADS, 1L, new LinkedBlockingQueue<Runnable>(), true);
+        pool.allowCoreThreadTimeOut(true);
+        return Executors.unconfigurableExecutorService(pool);
+    }
+
+    /**
+     * Opens the store selected by {@link BTContext#metadataLog}, moving
+     * the downloads saved in the other one.
+     */
+    private static TorrentMetadataStore openMetadataStore() {
+        DirMetadataStore dir = new DirMetadataStore(ctx.homeDir);
+
+        if (ctx.metadataLog) {
+            try {
+                LogMetadataStore log = new LogMetadataStore(ctx.homeDir);
+                migrateMetadata(dir, log);
+                return log;
+            } catch (Throwable e) {
+                LOGGER.error("Unable to open the metadata log, using the home dir files", e);
+                return dir;
+            }
+        }
+
+        if (LogMetadataStore.exists(ctx.homeDir)) {
+            try {
+                LogMetadataStore log = new LogMetadataStore(ctx.homeDir);
+                boolean migrated = migrateMetadata(log, dir);
+                log.close();
+                if (migrated) {
+                    LogMetadataStore.delete(ctx.homeDir);
+                }
+            } catch (Throwable e) {
+                LOGGER.error("Unable to migrate the metadata log to the home dir files", e);
+            }
+        }
+
+        return dir;
+    }
+
+    /**
+     * Copies all the downloads, syncs the destination and only then
+     * removes them from the source.
+     */
+    private static boolean migrateMetadata(TorrentMetadataStore from, TorrentMetadataStore to) throws IOException {
+        Set<String> infoHashes = from.infoHashes();
+        if (infoHashes.isEmpty()) {
+            return true;
+        }
+
+        boolean migrated = true;
+        List<String> copied = new ArrayList<>(infoHashes.size());
+        for (String infoHash : infoHashes) {
+            byte[] torrent = from.torrent(infoHash);
+            if (torrent == null) {
+                migrated = false;
+                continue;
+            }
+            to.putTorrent(infoHash, torrent);
+            byte[] resume = from.resume(infoHash);
+            if (resume != null) {
+                to.putResume(infoHash, resume);
+            }
+            copied.add(infoHash);
+        }
+        to.sync();
+
+        for (String infoHash : copied) {
+            from.remove(infoHash);
+        }
+        from.sync();
+
+        LOGGER.info("Migrated " + copied.size() + " downloads metadata");
+        return migrated;
+    }
+
+    private static ScheduledExecutorService newTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BTEngine-timer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
     private void saveSettings(SettingsPack sp) {
         if (session == null) {
             return;
@@ -444,15 +745,34 @@ public final class BTEngine {
     }
 
     /**
+     * Blocking version of {@link #fetchMagnetAsync(String, int)}.
+     *
      * @param uri
      * @param timeout in seconds
-     * @return
+     * @return the bencoded torrent, or {@code null} if the metadata
+     * was not received in time
      */
     public byte[] fetchMagnet(String uri, int timeout) {
-        if (session == null) {
+        try {
+            return fetchMagnetAsync(uri, timeout).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return null;
         }
+    }
 
+    /**
+     * Starts the download of the metadata of a magnet, without blocking.
+     * The requests for the same info-hash join the fetch in progress, and
+     * only a few fetches (8) run at the same time, the others wait for
+     * their turn (the timeout includes the wait).
+     *
+     * @param uri
+     * @param timeout in seconds
+     * @return the future of the bencoded torrent, completed with {@code null}
+     * if the metadata was not received in time
+     */
+    public MagnetFuture fetchMagnetAsync(String uri, int timeout) {
         add_torrent_params p = add_torrent_params.create_instance_disabled_storage();
         error_code ec = new error_code();
         libtorrent.parse_magnet_uri(uri, p, ec);
@@ -462,60 +782,121 @@ public final class BTEngine {
             throw new IllegalArgumentException(ec.message());
         }
 
-        final sha1_hash info_hash = p.getInfo_hash();
-        String sha1 = info_hash.to_hex();
+        String sha1 = p.getInfo_hash().to_hex();
 
-        byte[] data = MAGNET_CACHE.get(sha1);
-        if (data != null) {
-            return data;
-        }
+        MagnetFuture f;
+        synchronized (MAGNET_LOCK) {
+            f = magnets.get(sha1);
+            if (f != null) {
+                return f;
+            }
 
-        boolean add;
-        torrent_handle th;
+            f = new MagnetFuture(sha1, p);
 
-        synchronized (MAGNET_LOCK) {
-            th = session.swig().find_torrent(info_hash);
-            if (th != null && th.is_valid()) {
-                // we have a download with the same info-hash, let's wait
-                add = false;
+            byte[] data = MAGNET_CACHE.get(sha1);
+            if (data != null || session == null) {
+                f.complete(data);
+                return f;
+            }
+
+            p.setName("fetch_magnet:" + uri);
+            p.setSave_path("fetch_magnet/" + uri);
+
+            long flags = p.get_flags();
+            flags &= ~add_torrent_params.flags_t.flag_auto_managed.swigValue();
+            p.set_flags(flags);
+
+            magnets.put(sha1, f);
+            if (activeMagnets < MAX_CONCURRENT_MAGNETS) {
+                startMagnet(f);
             } else {
-                add = true;
+                magnetsQueue.add(f);
             }
+        }
 
-            if (add) {
-                p.setName("fetch_magnet:" + uri);
-                p.setSave_path("fetch_magnet/" + uri);
+        final String infoHash = sha1;
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                completeMagnet(infoHash, null);
+            }
+        }, timeout, TimeUnit.SECONDS);
+
+        return f;
+    }
 
-                long flags = p.get_flags();
-                flags &= ~add_torrent_params.flags_t.flag_auto_managed.swigValue();
-                p.set_flags(flags);
+    // guarded by MAGNET_LOCK
+    private void startMagnet(MagnetFuture f) {
+        f.started = true;
+        activeMagnets++;
 
-                ec.clear();
-                th = session.swig().add_torrent(p, ec);
+        try {
+            sha1_hash info_hash = f.params.getInfo_hash();
+            torrent_handle th = session.swig().find_torrent(info_hash);
+            if (th != null && th.is_valid()) {
+                // we have a download with the same info-hash
+                if (th.status().getHas_metadata()) {
+                    byte[] data = new TorrentInfo(th.get_torrent_copy()).bencode();
+                    MAGNET_CACHE.put(f.infoHash(), data);
+                    completeMagnetLater(f.infoHash(), data);
+                }
+                // else, let's wait for its metadata
+            } else {
+                error_code ec = new error_code();
+                th = session.swig().add_torrent(f.params, ec);
                 th.resume();
+                f.th = th;
+                f.added = true;
             }
+        } catch (Throwable e) {
+            LOGGER.error("Error starting magnet fetch: " + f.infoHash(), e);
+            completeMagnetLater(f.infoHash(), null);
         }
+    }
 
-        int n = 0;
-        do {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                // ignore
+    // the caller holds the lock, the listeners must not run there
+    private void completeMagnetLater(final String infoHash, final byte[] data) {
+        timer.execute(new Runnable() {
+            @Override
+            public void run() {
+                completeMagnet(infoHash, data);
             }
+        });
+    }
 
-            data = MAGNET_CACHE.get(sha1);
+    private void completeMagnet(String infoHash, byte[] data) {
+        MagnetFuture f;
+        synchronized (MAGNET_LOCK) {
+            f = magnets.remove(infoHash);
+            if (f == null) {
+                return;
+            }
 
-            n++;
-        } while (n < timeout && data == null);
+            if (f.started) {
+                activeMagnets--;
+                if (f.added && f.th.is_valid() && session != null) {
+                    session.swig().remove_torrent(f.th);
+                }
+            } else {
+                magnetsQueue.remove(f);
+            }
 
-        synchronized (MAGNET_LOCK) {
-            if (add && th != null && th.is_valid()) {
-                session.swig().remove_torrent(th);
+            while (activeMagnets < MAX_CONCURRENT_MAGNETS && !magnetsQueue.isEmpty() && session != null) {
+                startMagnet(magnetsQueue.poll());
             }
         }
 
-        return data;
+        f.complete(data);
+    }
+
+    private void cancelMagnets() {
+        List<String> pending;
+        synchronized (MAGNET_LOCK) {
+            pending = new ArrayList<>(magnets.keySet());
+        }
+        for (String infoHash : pending) {
+            completeMagnet(infoHash, null);
+        }
     }
 
     public void restoreDownloads() {
@@ -528,56 +909,84 @@ public final class BTEngine {
             return;
         }
 
-        File[] torrents = ctx.homeDir.listFiles(new FilenameFilter() {
+        List<RestoreDownloadTask> tasks = new ArrayList<>();
+
+        for (String infoHash : metadata.infoHashes()) {
+            tasks.add(new RestoreDownloadTask(infoHash, null, null, null));
+        }
+
+        migrateVuzeDownloads(tasks);
+
+        RestorePipeline<RestoreDownloadTask, RestoreItem> pipeline = new RestorePipeline<>(tasks, new RestoreStage(),
+                workers, RESTORE_WINDOW, RESTORE_PREFETCH, new RestorePipeline.Listener() {
             @Override
-            public boolean accept(File dir, String name) {
-                return name != null && FilenameUtils.getExtension(name).equals("torrent");
+            public void progress(int done, int total) {
+                fireRestoreProgress(done, total);
             }
         });
+        cancelRestore();
+        restorePipeline = pipeline;
+        pipeline.start();
+    }
 
-        if (torrents != null) {
-            for (File t : torrents) {
-                try {
-                    String infoHash = FilenameUtils.getBaseName(t.getName());
-                    if (infoHash != null) {
-                        File resumeFile = resumeDataFile(infoHash);
-
-                        File savePath = readSavePath(infoHash);
-                        if (setupSaveDir(savePath) == null) {
-                            LOGGER.warn("Can't create data dir or mount point is not accessible");
-                            return;
-                        }
-
-                        restoreDownloadsQueue.add(new RestoreDownloadTask(t, null, null, resumeFile));
-                    }
-                } catch (Throwable e) {
-                    LOGGER.error("Error restoring torrent download: " + t, e);
-                }
-            }
+    private void cancelRestore() {
+        RestorePipeline<?, ?> pipeline = restorePipeline;
+        if (pipeline != null) {
+            pipeline.cancel();
+            restorePipeline = null;
         }
+    }
 
-        migrateVuzeDownloads();
+    private void onAddTorrent(AddTorrentAlert alert) {
+        RestorePipeline<?, ?> pipeline = restorePipeline;
+        if (pipeline == null) {
+            return;
+        }
+        TorrentHandle th = alert.handle();
+        if (th != null && th.isValid()) {
+            pipeline.added(th.getInfoHash().toString());
+        } else {
+            // only the failed adds of this restore, not the user ones
+            pipeline.failed(addedInfoHash(alert));
+        }
+    }
 
-        runNextRestoreDownloadTask();
+    /**
+     * @return the info-hash of the add params, or {@code null} if not available
+     */
+    private static String addedInfoHash(AddTorrentAlert alert) {
+        try {
+            AddTorrentParams p = alert.params();
+            TorrentInfo ti = p.torrentInfo();
+            Sha1Hash h = ti != null ? ti.infoHash() : p.infoHash();
+            return h != null && !h.isAllZeros() ? h.toString() : null;
+        } catch (Throwable e) {
+            LOGGER.warn("Unable to get the info-hash of a failed add", e);
+            return null;
+        }
     }
 
     File settingsFile() {
         return new File(ctx.homeDir, "settings.dat");
     }
 
-    File resumeTorrentFile(String infoHash) {
-        return new File(ctx.homeDir, infoHash + ".torrent");
+    /**
+     * Runs the task in the engine workers, for the native queries and the
+     * disk access that should not block the alerts thread.
+     */
+    void runInBackground(Runnable task) {
+        workers.execute(task);
     }
 
-    File resumeDataFile(String infoHash) {
-        return new File(ctx.homeDir, infoHash + ".resume");
+    TorrentMetadataStore metadata() {
+        return metadata;
     }
 
     File readTorrentPath(String infoHash) {
         File torrent = null;
 
         try {
-            byte[] arr = FileUtils.readFileToByteArray(resumeTorrentFile(infoHash));
+            byte[] arr = metadata.torrent(infoHash);
             entry e = entry.bdecode(Vectors.bytes2byte_vector(arr));
             torrent = new File(e.dict().get(TORRENT_ORIG_PATH_KEY).string());
         } catch (Throwable e) {
@@ -588,11 +997,15 @@ public final class BTEngine {
     }
 
     File readSavePath(String infoHash) {
+        byte[] arr = metadata.resume(infoHash);
+        return arr != null ? readSavePath(arr) : null;
+    }
+
+    private static File readSavePath(byte[] resumeData) {
         File savePath = null;
 
         try {
-            byte[] arr = FileUtils.readFileToByteArray(resumeDataFile(infoHash));
-            entry e = entry.bdecode(Vectors.bytes2byte_vector(arr));
+            entry e = entry.bdecode(Vectors.bytes2byte_vector(resumeData));
             savePath = new File(e.dict().get("save_path").string());
         } catch (Throwable e) {
             // can't recover original torrent path
@@ -631,29 +1044,68 @@ public final class BTEngine {
             entry e = ti.toEntry().swig();
             e.dict().set(TORRENT_ORIG_PATH_KEY, new entry(torrent.getAbsolutePath()));
             byte[] arr = Vectors.byte_vector2bytes(e.bencode());
-            FileUtils.writeByteArrayToFile(resumeTorrentFile(ti.infoHash().toString()), arr);
+            metadata.putTorrent(ti.infoHash().toString(), arr);
+            metadata.sync();
         } catch (Throwable e) {
             LOGGER.warn("Error saving resume torrent", e);
         }
     }
 
+    ResumeDataWriter resumeDataWriter() {
+        return resumeDataWriter;
+    }
+
+    /**
+     * @return the incomplete and parts files of all the downloads
+     */
+    public IncompleteFilesIndex incompleteFiles() {
+        return incompleteFiles;
+    }
+
+    /**
+     * @return the lookup from the path of a file to the download that owns it
+     */
+    public TransferFileIndex fileIndex() {
+        return fileIndex;
+    }
+
+    /**
+     * @return the number of resume data files written in the last minute
+     */
+    public int resumeDataFlushesPerMinute() {
+        return resumeDataWriter.flushesPerMinute();
+    }
+
     private void doResumeData(TorrentAlert<?> alert, boolean force) {
         try {
-            if (!force) {
+            String infoHash = alert.handle().getInfoHash().toString();
+            if (force) {
+                resumeDataWriter.flush(infoHash);
+            } else {
                 // TODO: I need to restore this later
                 if (ctx.optimizeMemory) {
                     return;
                 }
-            }
-            TorrentHandle th = session.findTorrent(alert.handle().getInfoHash());
-            if (th != null && th.isValid()) {
-                th.saveResumeData();
+                resumeDataWriter.markDirty(infoHash);
             }
         } catch (Throwable e) {
             LOGGER.warn("Error triggering resume data", e);
         }
     }
 
+    private boolean requestResumeData(String infoHash) {
+        Session s = session;
+        if (s == null) {
+            return false;
+        }
+        TorrentHandle th = s.findTorrent(new Sha1Hash(infoHash));
+        if (th == null || !th.isValid()) {
+            return false;
+        }
+        th.saveResumeData();
+        return true;
+    }
+
     private void fireStarted() {
         if (listener != null) {
             listener.started(this);
@@ -666,6 +1118,16 @@ public final class BTEngine {
         }
     }
 
+    private void fireRestoreProgress(int done, int total) {
+        if (listener != null) {
+            try {
+                listener.restoreProgress(this, done, total);
+            } catch (Throwable e) {
+                LOGGER.error("Error calling restore progress listener", e);
+            }
+        }
+    }
+
     private void fireDownloadAdded(TorrentAlert<?> alert) {
         try {
             TorrentHandle th = session.findTorrent(alert.handle().getInfoHash());
@@ -689,6 +1151,17 @@ public final class BTEngine {
         }
     }
 
+    private void onStorageMoved(TorrentAlert<?> alert) {
+        try {
+            BTDownload dl = fileIndex.download(alert.handle().getInfoHash().toString());
+            if (dl != null) {
+                dl.storageMoved();
+            }
+        } catch (Throwable e) {
+            LOGGER.error("Error updating the file indexes after storage moved", e);
+        }
+    }
+
     private void onListenSucceeded(ListenSucceededAlert alert) {
         try {
             TcpEndpoint endp = alert.getEndpoint();
@@ -712,7 +1185,7 @@ public final class BTEngine {
         LOGGER.info("Listen failed on " + s + " (error: " + message + ")");
     }
 
-    private void migrateVuzeDownloads() {
+    private void migrateVuzeDownloads(List<RestoreDownloadTask> tasks) {
         try {
             File dir = new File(ctx.homeDir.getParent(), "azureus");
             File file = new File(dir, "downloads.config");
@@ -738,7 +1211,7 @@ public final class BTEngine {
 
                         if (torrent.exists() && saveDir.exists()) {
                             LOGGER.info("Restored old vuze download: " + torrent);
-                            restoreDownloadsQueue.add(new RestoreDownloadTask(torrent, saveDir, priorities, null));
+                            tasks.add(new RestoreDownloadTask(null, torrent, saveDir, priorities));
                             saveResumeTorrent(torrent);
                         }
                     } catch (Throwable e) {
@@ -781,19 +1254,6 @@ public final class BTEngine {
         return result;
     }
 
-    private void runNextRestoreDownloadTask() {
-        final RestoreDownloadTask task;
-        try {
-            task = restoreDownloadsQueue.poll();
-        } catch (Throwable t) {
-            // on Android, LinkedList's .poll() implementation throws a NoSuchElementException
-            return;
-        }
-        if (task != null) {
-            task.run();
-        }
-    }
-
     public void download(TorrentInfo ti, File saveDir, Priority[] priorities, File resumeFile, String magnetUrlParams) {
 
         TorrentHandle th = session.findTorrent(ti.infoHash());
@@ -823,13 +1283,32 @@ public final class BTEngine {
 
     private TorrentHandle addTorrentSupport(TorrentInfo ti, File saveDir, Priority[] priorities, File resumeFile, boolean async, String magnetUrlParams) {
 
-        String savePath = null;
-        if (saveDir != null) {
-            savePath = saveDir.getAbsolutePath();
-        } else if (resumeFile == null) {
+        if (saveDir == null && resumeFile == null) {
             throw new IllegalArgumentException("Both saveDir and resumeFile can't be null at the same time");
         }
 
+        byte[] resumeData = null;
+        if (resumeFile != null) {
+            try {
+                resumeData = FileUtils.readFileToByteArray(resumeFile);
+            } catch (Throwable e) {
+                LOGGER.warn("Unable to set resume data", e);
+            }
+        }
+
+        add_torrent_params p = newAddTorrentParams(ti, saveDir, priorities, resumeData, magnetUrlParams);
+
+        if (async) {
+            session.swig().async_add_torrent(p);
+            return null;
+        } else {
+            error_code ec = new error_code();
+            torrent_handle th = session.swig().add_torrent(p, ec);
+            return new TorrentHandle(th);
+        }
+    }
+
+    private static add_torrent_params newAddTorrentParams(TorrentInfo ti, File saveDir, Priority[] priorities, byte[] resumeData, String magnetUrlParams) {
         add_torrent_params p = add_torrent_params.create_instance();
 
         if (magnetUrlParams != null) {
@@ -837,8 +1316,8 @@ public final class BTEngine {
         }
 
         p.set_ti(ti.swig());
-        if (savePath != null) {
-            p.setSave_path(savePath);
+        if (saveDir != null) {
+            p.setSave_path(saveDir.getAbsolutePath());
         }
 
         if (priorities != null) {
@@ -854,27 +1333,15 @@ public final class BTEngine {
 
         flags &= ~add_torrent_params.flags_t.flag_auto_managed.swigValue();
 
-        if (resumeFile != null) {
-            try {
-                byte[] data = FileUtils.readFileToByteArray(resumeFile);
-                p.set_resume_data(Vectors.bytes2byte_vector(data));
+        if (resumeData != null) {
+            p.set_resume_data(Vectors.bytes2byte_vector(resumeData));
 
-                flags |= add_torrent_params.flags_t.flag_use_resume_save_path.swigValue();
-            } catch (Throwable e) {
-                LOGGER.warn("Unable to set resume data", e);
-            }
+            flags |= add_torrent_params.flags_t.flag_use_resume_save_path.swigValue();
         }
 
         p.set_flags(flags);
 
-        if (async) {
-            session.swig().async_add_torrent(p);
-            return null;
-        } else {
-            error_code ec = new error_code();
-            torrent_handle th = session.swig().add_torrent(p, ec);
-            return new TorrentHandle(th);
-        }
+        return p;
     }
 
     // this is here until we have a properly done OS utils.
@@ -929,7 +1396,9 @@ public final class BTEngine {
                 case TORRENT_ADDED:
                     TorrentAlert<?> torrentAlert = (TorrentAlert<?>) alert;
                     fireDownloadAdded(torrentAlert);
-                    runNextRestoreDownloadTask();
+                    break;
+                case ADD_TORRENT:
+                    onAddTorrent((AddTorrentAlert) alert);
                     break;
                 case PIECE_FINISHED:
                     doResumeData((TorrentAlert<?>) alert, false);
@@ -945,6 +1414,10 @@ public final class BTEngine {
                     break;
                 case STORAGE_MOVED:
                     doResumeData((TorrentAlert<?>) alert, true);
+                    onStorageMoved((TorrentAlert<?>) alert);
+                    break;
+                case SAVE_RESUME_DATA_FAILED:
+                    resumeDataWriter.failed(((TorrentAlert<?>) alert).handle().getInfoHash().toString());
                     break;
                 case LISTEN_SUCCEEDED:
                     onListenSucceeded((ListenSucceededAlert) alert);
@@ -958,6 +1431,12 @@ public final class BTEngine {
                 case METADATA_RECEIVED:
                     saveMagnetData((MetadataReceivedAlert) alert);
                     break;
+                case STATE_UPDATE:
+                    onStateUpdate((StateUpdateAlert) alert);
+                    break;
+                case SESSION_STATS:
+                    onSessionStats((SessionStatsAlert) alert);
+                    break;
             }
         }
     }
@@ -989,33 +1468,101 @@ public final class BTEngine {
             String sha1 = ti.infoHash().toHex();
             byte[] data = ti.bencode();
 
-            MAGNET_CACHE.put(sha1, data);
+            synchronized (MAGNET_LOCK) {
+                MAGNET_CACHE.put(sha1, data);
+            }
+            completeMagnet(sha1, data);
         } catch (Throwable e) {
             LOGGER.error("Error in saving magnet in internal cache", e);
         }
     }
 
-    private final class RestoreDownloadTask implements Runnable {
+    /**
+     * A download saved in the metadata store (by info-hash) or an external
+     * torrent file (from a migration).
+     */
+    private static final class RestoreDownloadTask {
 
+        private final String infoHash;
         private final File torrent;
         private final File saveDir;
         private final Priority[] priorities;
-        private final File resume;
 
-        public RestoreDownloadTask(File torrent, File saveDir, Priority[] priorities, File resume) {
+        public RestoreDownloadTask(String infoHash, File torrent, File saveDir, Priority[] priorities) {
+            this.infoHash = infoHash;
             this.torrent = torrent;
             this.saveDir = saveDir;
             this.priorities = priorities;
-            this.resume = resume;
         }
 
         @Override
-        public void run() {
-            try {
-                session.asyncAddTorrent(new TorrentInfo(torrent), saveDir, priorities, resume);
-            } catch (Throwable e) {
-                LOGGER.error("Unable to restore download from previous session. (" + torrent.getAbsolutePath() + ")", e);
+        public String toString() {
+            return infoHash != null ? infoHash : torrent.getAbsolutePath();
+        }
+    }
+
+    private static final class RestoreItem {
+
+        private final String infoHash;
+        private final add_torrent_params params;
+
+        public RestoreItem(String infoHash, add_torrent_params params) {
+            this.infoHash = infoHash;
+            this.params = params;
+        }
+    }
+
+    /**
+     * Reads the torrent and the resume data only once, in the restore
+     * workers, the session only receives the ready to use params.
+     */
+    private final class RestoreStage implements RestorePipeline.Stage<RestoreDownloadTask, RestoreItem> {
+
+        @Override
+        public RestoreItem prepare(RestoreDownloadTask task) throws Throwable {
+            byte[] torrentData;
+            byte[] resumeData = null;
+            if (task.infoHash != null) {
+                torrentData = metadata.torrent(task.infoHash);
+                resumeData = metadata.resume(task.infoHash);
+            } else {
+                torrentData = FileUtils.readFileToByteArray(task.torrent);
+            }
+            if (torrentData == null) {
+                LOGGER.warn("No torrent data to restore: " + task);
+                return null;
+            }
+            TorrentInfo ti = TorrentInfo.bdecode(torrentData);
+
+            File saveDir = task.saveDir;
+            if (resumeData != null) {
+                if (setupSaveDir(readSavePath(resumeData)) == null) {
+                    LOGGER.warn("Can't create data dir or mount point is not accessible: " + task);
+                    return null;
+                }
+            } else {
+                saveDir = setupSaveDir(saveDir);
+                if (saveDir == null) {
+                    LOGGER.warn("Can't create data dir or mount point is not accessible: " + task);
+                    return null;
+                }
+            }
+
+            return new RestoreItem(ti.infoHash().toString(), newAddTorrentParams(ti, saveDir, task.priorities, resumeData, null));
+        }
+
+        @Override
+        public String key(RestoreItem item) {
+            return item.infoHash;
+        }
+
+        @Override
+        public void add(RestoreItem item) {
+            Session s = session;
+            if (s == null) {
+                throw new IllegalStateException("Session stopped");
             }
+            s.swig().async_add_torrent(item.params);
         }
     }
 
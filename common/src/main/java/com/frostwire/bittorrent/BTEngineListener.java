@@ -31,4 +31,10 @@ public interface BTEngineListener {
     void downloadAdded(BTEngine engine, BTDownload dl);
 
     void downloadUpdate(BTEngine engine, BTDownload dl);
+
+    /**
+     * Progress of {@link BTEngine#restoreDownloads()}, {@code done}
+     * includes the downloads that failed to restore.
+     */
+    void restoreProgress(BTEngine engine, int done, int total);
 }
@@ -0,0 +1,169 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+/**
+ * Immutable snapshot of the session metrics, the rates are per second
+ * and the latencies in microseconds per operation, both over the
+ * interval since the previous snapshot.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class BTMetrics {
+
+    static final String CSV_HEADER = "timestamp,disk_queue,disk_read_latency_us,disk_write_latency_us,cache_hit_rate," +
+            "peers_connected,peers_half_open,peers_uploading,peers_downloading," +
+            "dht_nodes,dht_lookups,payload_down,payload_up,overhead_down,overhead_up";
+
+    private final long timestamp;
+
+    private final long diskQueue;
+    private final long diskReadLatency;
+    private final long diskWriteLatency;
+    private final float cacheHitRate;
+
+    private final long peersConnected;
+    private final long peersHalfOpen;
+    private final long peersUploading;
+    private final long peersDownloading;
+
+    private final long dhtNodes;
+    private final long dhtLookups;
+
+    private final long payloadDownRate;
+    private final long payloadUpRate;
+    private final long overheadDownRate;
+    private final long overheadUpRate;
+
+    BTMetrics(long timestamp,
+              long diskQueue, long diskReadLatency, long diskWriteLatency, float cacheHitRate,
+              long peersConnected, long peersHalfOpen, long peersUploading, long peersDownloading,
+              long dhtNodes, long dhtLookups,
+              long payloadDownRate, long payloadUpRate, long overheadDownRate, long overheadUpRate) {
+        this.timestamp = timestamp;
+        this.diskQueue = diskQueue;
+        this.diskReadLatency = diskReadLatency;
+        this.diskWriteLatency = diskWriteLatency;
+        this.cacheHitRate = cacheHitRate;
+        this.peersConnected = peersConnected;
+        this.peersHalfOpen = peersHalfOpen;
+        this.peersUploading = peersUploading;
+        this.peersDownloading = peersDownloading;
+        this.dhtNodes = dhtNodes;
+        this.dhtLookups = dhtLookups;
+        this.payloadDownRate = payloadDownRate;
+        this.payloadUpRate = payloadUpRate;
+        this.overheadDownRate = overheadDownRate;
+        this.overheadUpRate = overheadUpRate;
+    }
+
+    /**
+     * @return the wall clock time of the snapshot, in milliseconds
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the disk jobs waiting in the queue
+     */
+    public long diskQueue() {
+        return diskQueue;
+    }
+
+    public long diskReadLatency() {
+        return diskReadLatency;
+    }
+
+    public long diskWriteLatency() {
+        return diskWriteLatency;
+    }
+
+    /**
+     * @return the fraction of the blocks read served from the cache, in [0, 1]
+     */
+    public float cacheHitRate() {
+        return cacheHitRate;
+    }
+
+    public long peersConnected() {
+        return peersConnected;
+    }
+
+    public long peersHalfOpen() {
+        return peersHalfOpen;
+    }
+
+    /**
+     * @return the peers we are uploading to (unchoked by us)
+     */
+    public long peersUploading() {
+        return peersUploading;
+    }
+
+    /**
+     * @return the peers we are downloading from (they unchoked us)
+     */
+    public long peersDownloading() {
+        return peersDownloading;
+    }
+
+    public long dhtNodes() {
+        return dhtNodes;
+    }
+
+    /**
+     * @return the DHT lookup queries sent per second
+     */
+    public long dhtLookups() {
+        return dhtLookups;
+    }
+
+    public long payloadDownRate() {
+        return payloadDownRate;
+    }
+
+    public long payloadUpRate() {
+        return payloadUpRate;
+    }
+
+    /**
+     * @return the received protocol bytes per second, everything but the payload
+     */
+    public long overheadDownRate() {
+        return overheadDownRate;
+    }
+
+    public long overheadUpRate() {
+        return overheadUpRate;
+    }
+
+    String toCsv() {
+        return timestamp + "," + diskQueue + "," + diskReadLatency + "," + diskWriteLatency + "," + cacheHitRate + "," +
+                peersConnected + "," + peersHalfOpen + "," + peersUploading + "," + peersDownloading + "," +
+                dhtNodes + "," + dhtLookups + "," +
+                payloadDownRate + "," + payloadUpRate + "," + overheadDownRate + "," + overheadUpRate;
+    }
+
+    @Override
+    public String toString() {
+        return "BTMetrics(" + toCsv() + ")";
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import com.frostwire.jlibtorrent.alerts.SessionStatsAlert;
+import com.frostwire.jlibtorrent.swig.libtorrent;
+import com.frostwire.logging.Logger;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Turns the session stats alerts (raw libtorrent counters and gauges)
+ * into {@link BTMetrics} snapshots, kept in a ring of the last ones.
+ * <p>
+ * There is only one writer, the alerts thread, the readers don't take
+ * any lock.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+final class BTMetricsRecorder {
+
+    private static final Logger LOG = Logger.getLogger(BTMetricsRecorder.class);
+
+    static final String[] METRICS = {
+            "disk.queued_disk_jobs",
+            "disk.disk_read_time",
+            "disk.disk_write_time",
+            "disk.num_read_ops",
+            "disk.num_write_ops",
+            "disk.num_blocks_read",
+            "disk.num_blocks_cache_hits",
+            "peer.num_peers_connected",
+            "peer.num_peers_half_open",
+            "peer.num_peers_up_unchoked",
+            "peer.num_peers_down_unchoked",
+            "dht.dht_nodes",
+            "dht.dht_get_peers_out",
+            "net.recv_payload_bytes",
+            "net.sent_payload_bytes",
+            "net.recv_bytes",
+            "net.sent_bytes"
+    };
+
+    static final int DISK_QUEUE = 0;
+    static final int DISK_READ_TIME = 1;
+    static final int DISK_WRITE_TIME = 2;
+    static final int DISK_READ_OPS = 3;
+    static final int DISK_WRITE_OPS = 4;
+    static final int BLOCKS_READ = 5;
+    static final int CACHE_HITS = 6;
+    static final int PEERS_CONNECTED = 7;
+    static final int PEERS_HALF_OPEN = 8;
+    static final int PEERS_UP_UNCHOKED = 9;
+    static final int PEERS_DOWN_UNCHOKED = 10;
+    static final int DHT_NODES = 11;
+    static final int DHT_LOOKUPS = 12;
+    static final int RECV_PAYLOAD = 13;
+    static final int SENT_PAYLOAD = 14;
+    static final int RECV_BYTES = 15;
+    static final int SENT_BYTES = 16;
+
+    private final AtomicReferenceArray<BTMetrics> ring;
+    // number of snapshots ever recorded
+    private final AtomicLong count;
+
+    // writer state
+    private final int[] indexes;
+    private final long[] values;
+    private long[] previous;
+    private long previousTime;
+
+    BTMetricsRecorder(int capacity, int[] indexes) {
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.count = new AtomicLong();
+        this.indexes = indexes;
+        this.values = new long[METRICS.length];
+    }
+
+    /**
+     * @return the indexes of the metrics in the session stats alert, -1 for the
+     * ones not available in this version of libtorrent
+     */
+    static int[] findIndexes() {
+        int[] indexes = new int[METRICS.length];
+        for (int i = 0; i < METRICS.length; i++) {
+            indexes[i] = libtorrent.find_metric_idx(METRICS[i]);
+            if (indexes[i] < 0) {
+                LOG.warn("Session metric not available: " + METRICS[i]);
+            }
+        }
+        return indexes;
+    }
+
+    void record(SessionStatsAlert alert) {
+        for (int i = 0; i < indexes.length; i++) {
+            int idx = indexes[i];
+            values[i] = idx >= 0 ? alert.value(idx) : 0;
+        }
+        record(System.currentTimeMillis(), values);
+    }
+
+    /**
+     * @param values the raw values, in the order of {@link #METRICS}
+     */
+    void record(long now, long[] values) {
+        long[] prev = previous;
+        long millis = prev != null ? Math.max(now - previousTime, 1) : 0;
+
+        long readOps = delta(prev, values, DISK_READ_OPS);
+        long writeOps = delta(prev, values, DISK_WRITE_OPS);
+        long blocksRead = delta(prev, values, BLOCKS_READ);
+        long cacheHits = delta(prev, values, CACHE_HITS);
+
+        long recvPayload = rate(prev, values, RECV_PAYLOAD, millis);
+        long sentPayload = rate(prev, values, SENT_PAYLOAD, millis);
+
+        BTMetrics m = new BTMetrics(now,
+                values[DISK_QUEUE],
+                readOps > 0 ? delta(prev, values, DISK_READ_TIME) / readOps : 0,
+                writeOps > 0 ? delta(prev, values, DISK_WRITE_TIME) / writeOps : 0,
+                blocksRead > 0 ? Math.min(1f, (float) cacheHits / blocksRead) : 0f,
+                values[PEERS_CONNECTED],
+                values[PEERS_HALF_OPEN],
+                values[PEERS_UP_UNCHOKED],
+                values[PEERS_DOWN_UNCHOKED],
+                values[DHT_NODES],
+                rate(prev, values, DHT_LOOKUPS, millis),
+                recvPayload,
+                sentPayload,
+                Math.max(rate(prev, values, RECV_BYTES, millis) - recvPayload, 0),
+                Math.max(rate(prev, values, SENT_BYTES, millis) - sentPayload, 0));
+
+        if (prev == null) {
+            prev = new long[values.length];
+            previous = prev;
+        }
+        System.arraycopy(values, 0, prev, 0, values.length);
+        previousTime = now;
+
+        long n = count.get();
+        ring.set((int) (n % ring.length()), m);
+        count.set(n + 1);
+    }
+
+    /**
+     * @return the last snapshot, or {@code null} if there is none yet
+     */
+    BTMetrics last() {
+        long n = count.get();
+        return n > 0 ? ring.get((int) ((n - 1) % ring.length())) : null;
+    }
+
+    /**
+     * @return the snapshots in the ring, the oldest first
+     */
+    List<BTMetrics> snapshots() {
+        int capacity = ring.length();
+        long end = count.get();
+        long start = Math.max(end - capacity, 0);
+
+        List<BTMetrics> l = new ArrayList<>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            l.add(ring.get((int) (i % capacity)));
+        }
+
+        // the writer could have overwritten the oldest ones while copying
+        long overwritten = count.get() - capacity - start;
+        if (overwritten > 0) {
+            l = new ArrayList<>(l.subList((int) Math.min(overwritten, l.size()), l.size()));
+        }
+
+        return l;
+    }
+
+    /**
+     * Writes the snapshots as CSV, with a header line.
+     */
+    void dump(File file) throws IOException {
+        List<BTMetrics> l = snapshots();
+        try (PrintWriter w = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8")))) {
+            w.println(BTMetrics.CSV_HEADER);
+            for (BTMetrics m : l) {
+                w.println(m.toCsv());
+            }
+            if (w.checkError()) {
+                throw new IOException("Error writing metrics to " + file);
+            }
+        }
+    }
+
+    private static long delta(long[] prev, long[] values, int i) {
+        // the counters are reset with the session
+        return prev != null ? Math.max(values[i] - prev[i], 0) : 0;
+    }
+
+    private static long rate(long[] prev, long[] values, int i, long millis) {
+        return millis > 0 ? delta(prev, values, i) * 1000 / millis : 0;
+    }
+}
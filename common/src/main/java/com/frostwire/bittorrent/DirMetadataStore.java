@@ -0,0 +1,150 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The classic layout, two files per download in the home dir,
+ * {@code <infohash>.torrent} and {@code <infohash>.resume}.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+final class DirMetadataStore implements TorrentMetadataStore {
+
+    private final File dir;
+
+    DirMetadataStore(File dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public Set<String> infoHashes() {
+        Set<String> s = new HashSet<>();
+
+        File[] torrents = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name != null && FilenameUtils.getExtension(name).equals("torrent");
+            }
+        });
+
+        if (torrents != null) {
+            for (File t : torrents) {
+                s.add(FilenameUtils.getBaseName(t.getName()));
+            }
+        }
+
+        return s;
+    }
+
+    @Override
+    public byte[] torrent(String infoHash) {
+        return read(torrentFile(infoHash));
+    }
+
+    @Override
+    public byte[] resume(String infoHash) {
+        return read(resumeFile(infoHash));
+    }
+
+    @Override
+    public void putTorrent(String infoHash, byte[] data) throws IOException {
+        writeAtomic(torrentFile(infoHash), data);
+    }
+
+    @Override
+    public void putResume(String infoHash, byte[] data) throws IOException {
+        writeAtomic(resumeFile(infoHash), data);
+    }
+
+    @Override
+    public void remove(String infoHash) {
+        resumeFile(infoHash).delete();
+        torrentFile(infoHash).delete();
+    }
+
+    @Override
+    public void sync() {
+        // every write is synced
+    }
+
+    @Override
+    public void close() {
+    }
+
+    File torrentFile(String infoHash) {
+        return new File(dir, infoHash + ".torrent");
+    }
+
+    File resumeFile(String infoHash) {
+        return new File(dir, infoHash + ".resume");
+    }
+
+    private static byte[] read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return FileUtils.readFileToByteArray(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the data to a temp file, syncs it and renames it to the
+     * final name, a crash never leaves a truncated file.
+     */
+    static void writeAtomic(File file, byte[] data) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory: " + dir);
+        }
+
+        File tmp = new File(dir, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        rename(tmp, file);
+    }
+
+    static void rename(File src, File dest) throws IOException {
+        if (!src.renameTo(dest)) {
+            // some platforms (windows) can't rename over an existing file
+            if (!dest.delete() || !src.renameTo(dest)) {
+                throw new IOException("Unable to rename " + src + " to " + dest);
+            }
+        }
+    }
+}
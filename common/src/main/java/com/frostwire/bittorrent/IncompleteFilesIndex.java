@@ -0,0 +1,108 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The incomplete files and the parts files of all the downloads of the
+ * engine, kept up to date from the download events, so the library can
+ * hide them without asking every download.
+ * <p>
+ * The library asks {@link #contains(File)} for every file it scans, so
+ * the files are counted in a concurrent map (two downloads can share a
+ * parts dir) and the per download sets are only touched by the engine.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class IncompleteFilesIndex {
+
+    // file -> number of downloads with it
+    private final ConcurrentHashMap<File, Integer> files;
+    private final Map<String, Set<File>> downloads;
+    private final Set<File> view;
+
+    IncompleteFilesIndex() {
+        this.files = new ConcurrentHashMap<>();
+        this.downloads = new HashMap<>();
+        this.view = Collections.unmodifiableSet(files.keySet());
+    }
+
+    public boolean contains(File file) {
+        return files.containsKey(file);
+    }
+
+    /**
+     * @return a live, read only, view of the files
+     */
+    public Set<File> files() {
+        return view;
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Replaces the files of the download.
+     */
+    synchronized void update(String infoHash, Set<File> s) {
+        removeAll(infoHash);
+        if (s.isEmpty()) {
+            return;
+        }
+        Set<File> copy = new HashSet<>(s);
+        downloads.put(infoHash, copy);
+        for (File f : copy) {
+            Integer n = files.get(f);
+            files.put(f, n != null ? n + 1 : 1);
+        }
+    }
+
+    /**
+     * The file of the download is complete.
+     */
+    synchronized void remove(String infoHash, File file) {
+        Set<File> s = downloads.get(infoHash);
+        if (s != null && s.remove(file)) {
+            release(file);
+        }
+    }
+
+    synchronized void removeAll(String infoHash) {
+        Set<File> s = downloads.remove(infoHash);
+        if (s != null) {
+            for (File f : s) {
+                release(f);
+            }
+        }
+    }
+
+    private void release(File file) {
+        Integer n = files.get(file);
+        if (n == null || n <= 1) {
+            files.remove(file);
+        } else {
+            files.put(file, n - 1);
+        }
+    }
+}
@@ -0,0 +1,726 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import com.frostwire.logging.Logger;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * All the torrents and resume data in a single append-only file, with a
+ * compact index to avoid the full scan at startup.
+ * <p>
+ * Every put or remove appends a checksummed record, the records of the
+ * same info-hash shadow the previous ones. At open, the records after
+ * the last saved index are scanned and a torn or corrupted tail (a crash
+ * in the middle of an append) is truncated. When the shadowed records
+ * take more space than the live ones, the file is compacted in the
+ * background. The compacted file is never deleted once the data file is
+ * gone, an interrupted swap is finished at the next open.
+ * <p>
+ * Data file: {@code [magic][generation]} followed by records
+ * {@code [magic][type][key length][key][data length][data][crc32]}.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+class LogMetadataStore implements TorrentMetadataStore {
+
+    private static final Logger LOG = Logger.getLogger(LogMetadataStore.class);
+
+    static final String DATA_FILE = "metadata.dat";
+    static final String INDEX_FILE = "metadata.idx";
+    static final String COMPACT_FILE = DATA_FILE + ".compact";
+
+    private static final int FILE_MAGIC = 0x46574d53; // FWMS
+    private static final int RECORD_MAGIC = 0x46575244; // FWRD
+    private static final int INDEX_MAGIC = 0x46574958; // FWIX
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_OVERHEAD = 15;
+    private static final int MAX_KEY_LENGTH = 1024;
+    private static final int MAX_DATA_LENGTH = 64 * 1024 * 1024;
+
+    private static final byte TYPE_TORRENT = 1;
+    private static final byte TYPE_RESUME = 2;
+    private static final byte TYPE_REMOVE = 3;
+
+    private static final long MIN_COMPACT_GARBAGE = 1024 * 1024;
+    private static final long INDEX_SAVE_TAIL = 4 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File dir;
+    private final File dataFile;
+    private final File indexFile;
+    private final File compactFile;
+    private final ExecutorService compactor;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long generation;
+    private long size;
+    private long indexed;
+    private long live;
+    private Map<String, Entry> entries;
+    private boolean compacting;
+    private boolean closed;
+
+    LogMetadataStore(File dir) throws IOException {
+        this.dir = dir;
+        this.dataFile = new File(dir, DATA_FILE);
+        this.indexFile = new File(dir, INDEX_FILE);
+        this.compactFile = new File(dir, COMPACT_FILE);
+        this.compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LogMetadataStore-compactor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        open();
+    }
+
+    static boolean exists(File dir) {
+        return new File(dir, DATA_FILE).exists() || new File(dir, COMPACT_FILE).exists();
+    }
+
+    /**
+     * Deletes the store files, it must not be open.
+     */
+    static void delete(File dir) {
+        new File(dir, DATA_FILE).delete();
+        new File(dir, INDEX_FILE).delete();
+        new File(dir, COMPACT_FILE).delete();
+    }
+
+    @Override
+    public synchronized Set<String> infoHashes() {
+        Set<String> s = new HashSet<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getValue().torrentOffset != -1) {
+                s.add(e.getKey());
+            }
+        }
+        return s;
+    }
+
+    @Override
+    public synchronized byte[] torrent(String infoHash) {
+        Entry e = entries.get(infoHash);
+        return e != null ? read(e.torrentOffset, e.torrentLength) : null;
+    }
+
+    @Override
+    public synchronized byte[] resume(String infoHash) {
+        Entry e = entries.get(infoHash);
+        return e != null ? read(e.resumeOffset, e.resumeLength) : null;
+    }
+
+    @Override
+    public void putTorrent(String infoHash, byte[] data) throws IOException {
+        append(TYPE_TORRENT, infoHash, data);
+    }
+
+    @Override
+    public void putResume(String infoHash, byte[] data) throws IOException {
+        append(TYPE_RESUME, infoHash, data);
+    }
+
+    @Override
+    public void remove(String infoHash) throws IOException {
+        synchronized (this) {
+            if (!entries.containsKey(infoHash)) {
+                return;
+            }
+        }
+        append(TYPE_REMOVE, infoHash, new byte[0]);
+    }
+
+    @Override
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        channel.force(false);
+        if (size - indexed >= INDEX_SAVE_TAIL) {
+            writeIndex();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                channel.force(false);
+                writeIndex();
+            } catch (Throwable e) {
+                LOG.warn("Error saving metadata index", e);
+            }
+            closeQuietly(raf);
+        }
+        compactor.shutdown();
+    }
+
+    /**
+     * @return the bytes of the records shadowed by newer ones
+     */
+    synchronized long garbage() {
+        return size - HEADER_SIZE - live;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Rewrites the live records in a new file, the appends during the
+     * copy are replayed at the end, under the lock. If a compaction is
+     * in progress, it waits for it and runs again.
+     */
+    void compact() {
+        Map<String, Entry> snapshot;
+        FileChannel src;
+        long end;
+        long newGeneration;
+        synchronized (this) {
+            while (compacting && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (closed) {
+                return;
+            }
+            compacting = true;
+            snapshot = copy(entries);
+            src = channel;
+            end = size;
+            newGeneration = generation + 1;
+        }
+
+        File tmp = compactFile;
+        RandomAccessFile out = null;
+        try {
+            out = new RandomAccessFile(tmp, "rw");
+            out.setLength(0);
+            FileChannel dest = out.getChannel();
+            dest.write(header(newGeneration), 0);
+
+            Map<String, Entry> newEntries = new HashMap<>();
+            long[] pos = {HEADER_SIZE};
+            for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.torrentOffset != -1) {
+                    copyRecord(TYPE_TORRENT, e.getKey(), readData(src, entry.torrentOffset, entry.torrentLength), dest, pos, newEntries);
+                }
+                if (entry.resumeOffset != -1) {
+                    copyRecord(TYPE_RESUME, e.getKey(), readData(src, entry.resumeOffset, entry.resumeLength), dest, pos, newEntries);
+                }
+            }
+
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Store closed during compaction");
+                }
+                // replay the records appended during the copy
+                long p = end;
+                while (p < size) {
+                    Record r = readRecord(channel, p, size);
+                    if (r == null) {
+                        throw new IOException("Invalid record during compaction at " + p);
+                    }
+                    copyRecord(r.type, r.key, readData(channel, r.dataOffset, r.dataLength), dest, pos, newEntries);
+                    p += r.size;
+                }
+
+                dest.force(true);
+                closeQuietly(out);
+                out = null;
+                closeQuietly(raf);
+                rename(tmp, dataFile);
+
+                raf = new RandomAccessFile(dataFile, "rw");
+                channel = raf.getChannel();
+                generation = newGeneration;
+                size = pos[0];
+                entries = newEntries;
+                live = liveBytes(newEntries);
+                writeIndex();
+            }
+        } catch (Throwable e) {
+            LOG.error("Error compacting metadata store", e);
+            closeQuietly(out);
+            // once the data file is gone, the compacted one is the only copy
+            if (dataFile.exists()) {
+                tmp.delete();
+            }
+            reopenIfNeeded();
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                notifyAll();
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        recover();
+
+        raf = new RandomAccessFile(dataFile, "rw");
+        channel = raf.getChannel();
+
+        long length = channel.size();
+        if (length < HEADER_SIZE || !readHeader()) {
+            if (length > 0) {
+                LOG.warn("Invalid metadata store header, starting empty: " + dataFile);
+            }
+            generation = System.currentTimeMillis();
+            channel.truncate(0);
+            channel.write(header(generation), 0);
+            channel.force(true);
+            length = HEADER_SIZE;
+        }
+
+        entries = new HashMap<>();
+        long start = HEADER_SIZE;
+        indexed = HEADER_SIZE;
+        long covered = readIndex(entries, length);
+        if (covered != -1) {
+            start = covered;
+            indexed = covered;
+        } else {
+            entries.clear();
+        }
+
+        long p = start;
+        while (p < length) {
+            Record r = readRecord(channel, p, length);
+            if (r == null) {
+                LOG.warn("Truncating metadata store at " + p + " of " + length + " (torn or corrupted tail)");
+                channel.truncate(p);
+                channel.force(true);
+                break;
+            }
+            apply(entries, r.type, r.key, r.dataOffset, r.dataLength);
+            p += r.size;
+        }
+
+        size = p;
+        live = liveBytes(entries);
+    }
+
+    /**
+     * Finishes the swap of an interrupted compaction, if the data file is
+     * missing or invalid and the compacted file is complete. Otherwise the
+     * compacted file is a leftover of a copy that never finished.
+     */
+    private void recover() throws IOException {
+        if (!compactFile.exists()) {
+            return;
+        }
+        if (validHeader(dataFile) || !validHeader(compactFile)) {
+            compactFile.delete();
+            return;
+        }
+
+        LOG.warn("Recovering metadata store from the compacted file: " + compactFile);
+        try {
+            rename(compactFile, dataFile);
+        } catch (IOException e) {
+            // the compacted file is still there, keep it until the copy is synced
+            LOG.warn("Unable to rename the compacted file, copying it", e);
+            FileUtils.copyFile(compactFile, dataFile);
+            RandomAccessFile f = new RandomAccessFile(dataFile, "rw");
+            try {
+                f.getFD().sync();
+            } finally {
+                f.close();
+            }
+            compactFile.delete();
+        }
+    }
+
+    /**
+     * Replaces the data file with the compacted one, overridable for testing.
+     */
+    void rename(File src, File dest) throws IOException {
+        DirMetadataStore.rename(src, dest);
+    }
+
+    private void append(byte type, String infoHash, byte[] data) throws IOException {
+        boolean compact;
+        synchronized (this) {
+            checkOpen();
+            ByteBuffer b = record(type, infoHash, data);
+            long offset = size;
+            writeFully(channel, b, offset);
+            size += b.capacity();
+            live -= liveBytes(entries.get(infoHash), infoHash);
+            apply(entries, type, infoHash, offset + dataOffset(infoHash), data.length);
+            live += liveBytes(entries.get(infoHash), infoHash);
+
+            compact = !compacting && garbage() >= Math.max(MIN_COMPACT_GARBAGE, live);
+        }
+
+        if (compact) {
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compact();
+                }
+            });
+        }
+    }
+
+    private byte[] read(long offset, int length) {
+        if (offset == -1 || closed) {
+            return null;
+        }
+        try {
+            return readData(channel, offset, length);
+        } catch (IOException e) {
+            LOG.warn("Error reading from metadata store", e);
+            return null;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Metadata store closed");
+        }
+    }
+
+    private synchronized void reopenIfNeeded() {
+        if (closed || channel.isOpen()) {
+            return;
+        }
+        try {
+            open();
+        } catch (Throwable e) {
+            LOG.error("Unable to reopen the metadata store", e);
+            closed = true;
+        }
+    }
+
+    private boolean readHeader() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, b, 0);
+        b.flip();
+        if (b.getInt() != FILE_MAGIC) {
+            return false;
+        }
+        generation = b.getLong();
+        return true;
+    }
+
+    /**
+     * The compacted file is synced before the data file is replaced, a
+     * valid header means it's complete.
+     */
+    private static boolean validHeader(File file) {
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                return in.readInt() == FILE_MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the length of the data file covered by the index, or -1
+     * if there is no valid index for this data file
+     */
+    private long readIndex(Map<String, Entry> map, long length) {
+        if (!indexFile.exists()) {
+            return -1;
+        }
+        try {
+            byte[] arr = FileUtils.readFileToByteArray(indexFile);
+            if (arr.length < 8) {
+                return -1;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(arr, 0, arr.length - 8);
+            ByteBuffer b = ByteBuffer.wrap(arr);
+            if (b.getLong(arr.length - 8) != crc.getValue()) {
+                LOG.warn("Invalid metadata index checksum, scanning the data file");
+                return -1;
+            }
+            if (b.getInt() != INDEX_MAGIC || b.getLong() != generation) {
+                return -1;
+            }
+            long covered = b.getLong();
+            if (covered < HEADER_SIZE || covered > length) {
+                return -1;
+            }
+            int count = b.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[b.getShort()];
+                b.get(key);
+                Entry e = new Entry();
+                e.torrentOffset = b.getLong();
+                e.torrentLength = b.getInt();
+                e.resumeOffset = b.getLong();
+                e.resumeLength = b.getInt();
+                map.put(new String(key, UTF_8), e);
+            }
+            return covered;
+        } catch (Throwable e) {
+            LOG.warn("Error reading metadata index, scanning the data file", e);
+            return -1;
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + entries.size() * 80);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(INDEX_MAGIC);
+        out.writeLong(generation);
+        out.writeLong(size);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            byte[] key = e.getKey().getBytes(UTF_8);
+            out.writeShort(key.length);
+            out.write(key);
+            out.writeLong(e.getValue().torrentOffset);
+            out.writeInt(e.getValue().torrentLength);
+            out.writeLong(e.getValue().resumeOffset);
+            out.writeInt(e.getValue().resumeLength);
+        }
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        DirMetadataStore.writeAtomic(indexFile, bytes.toByteArray());
+        indexed = size;
+    }
+
+    private static void copyRecord(byte type, String key, byte[] data, FileChannel dest, long[] pos, Map<String, Entry> map) throws IOException {
+        ByteBuffer b = record(type, key, data);
+        writeFully(dest, b, pos[0]);
+        apply(map, type, key, pos[0] + dataOffset(key), data.length);
+        pos[0] += b.capacity();
+    }
+
+    private static void apply(Map<String, Entry> map, byte type, String key, long dataOffset, int dataLength) {
+        if (type == TYPE_REMOVE) {
+            map.remove(key);
+            return;
+        }
+        Entry e = map.get(key);
+        if (e == null) {
+            e = new Entry();
+            map.put(key, e);
+        }
+        if (type == TYPE_TORRENT) {
+            e.torrentOffset = dataOffset;
+            e.torrentLength = dataLength;
+        } else {
+            e.resumeOffset = dataOffset;
+            e.resumeLength = dataLength;
+        }
+    }
+
+    private static ByteBuffer header(long generation) {
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
+        b.putInt(FILE_MAGIC);
+        b.putLong(generation);
+        b.flip();
+        return b;
+    }
+
+    private static ByteBuffer record(byte type, String key, byte[] data) {
+        byte[] k = key.getBytes(UTF_8);
+        ByteBuffer b = ByteBuffer.allocate(RECORD_OVERHEAD + k.length + data.length);
+        b.putInt(RECORD_MAGIC);
+        b.put(type);
+        b.putShort((short) k.length);
+        b.put(k);
+        b.putInt(data.length);
+        b.put(data);
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 4, b.position() - 4);
+        b.putInt((int) crc.getValue());
+        b.flip();
+        return b;
+    }
+
+    private static int dataOffset(String key) {
+        return 4 + 1 + 2 + key.getBytes(UTF_8).length + 4;
+    }
+
+    /**
+     * @return the record at the position, or {@code null} if it's
+     * truncated or corrupted
+     */
+    private static Record readRecord(FileChannel ch, long pos, long length) throws IOException {
+        if (length - pos < RECORD_OVERHEAD) {
+            return null;
+        }
+        ByteBuffer h = ByteBuffer.allocate(7);
+        readFully(ch, h, pos);
+        h.flip();
+        if (h.getInt() != RECORD_MAGIC) {
+            return null;
+        }
+        byte type = h.get();
+        int keyLength = h.getShort() & 0xffff;
+        if (type < TYPE_TORRENT || type > TYPE_REMOVE || keyLength > MAX_KEY_LENGTH || length - pos < RECORD_OVERHEAD + keyLength) {
+            return null;
+        }
+
+        ByteBuffer k = ByteBuffer.allocate(keyLength + 4);
+        readFully(ch, k, pos + 7);
+        k.flip();
+        int dataLength = k.getInt(keyLength);
+        if (dataLength < 0 || dataLength > MAX_DATA_LENGTH || length - pos < (long) RECORD_OVERHEAD + keyLength + dataLength) {
+            return null;
+        }
+
+        ByteBuffer rest = ByteBuffer.allocate(dataLength + 4);
+        readFully(ch, rest, pos + 7 + keyLength + 4);
+        rest.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(h.array(), 4, 3);
+        crc.update(k.array(), 0, keyLength + 4);
+        crc.update(rest.array(), 0, dataLength);
+        if (rest.getInt(dataLength) != (int) crc.getValue()) {
+            return null;
+        }
+
+        Record r = new Record();
+        r.type = type;
+        r.key = new String(k.array(), 0, keyLength, UTF_8);
+        r.dataOffset = pos + 7 + keyLength + 4;
+        r.dataLength = dataLength;
+        r.size = RECORD_OVERHEAD + keyLength + dataLength;
+        return r;
+    }
+
+    private static byte[] readData(FileChannel ch, long offset, int length) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(length);
+        readFully(ch, b, offset);
+        return b.array();
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            int n = ch.read(b, pos);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            pos += ch.write(b, pos);
+        }
+    }
+
+    private static long liveBytes(Map<String, Entry> map) {
+        long n = 0;
+        for (Map.Entry<String, Entry> e : map.entrySet()) {
+            n += liveBytes(e.getValue(), e.getKey());
+        }
+        return n;
+    }
+
+    private static long liveBytes(Entry e, String key) {
+        if (e == null) {
+            return 0;
+        }
+        int k = key.getBytes(UTF_8).length;
+        long n = 0;
+        if (e.torrentOffset != -1) {
+            n += RECORD_OVERHEAD + k + e.torrentLength;
+        }
+        if (e.resumeOffset != -1) {
+            n += RECORD_OVERHEAD + k + e.resumeLength;
+        }
+        return n;
+    }
+
+    private static Map<String, Entry> copy(Map<String, Entry> map) {
+        Map<String, Entry> m = new HashMap<>(map.size());
+        for (Map.Entry<String, Entry> e : map.entrySet()) {
+            Entry c = new Entry();
+            c.torrentOffset = e.getValue().torrentOffset;
+            c.torrentLength = e.getValue().torrentLength;
+            c.resumeOffset = e.getValue().resumeOffset;
+            c.resumeLength = e.getValue().resumeLength;
+            m.put(e.getKey(), c);
+        }
+        return m;
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        long torrentOffset = -1;
+        int torrentLength;
+        long resumeOffset = -1;
+        int resumeLength;
+    }
+
+    private static final class Record {
+
+        byte type;
+        String key;
+        long dataOffset;
+        int dataLength;
+        int size;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import com.frostwire.jlibtorrent.swig.add_torrent_params;
+import com.frostwire.jlibtorrent.swig.torrent_handle;
+import com.frostwire.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending fetch of the metadata of a magnet, shared by all the
+ * requests for the same info-hash. It's completed by the engine with the
+ * bencoded torrent when the metadata is received, or with {@code null}
+ * when the fetch times out or the engine is stopped.
+ * <p>
+ * A fetch can't be cancelled, the other requests could be waiting for it.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class MagnetFuture implements Future<byte[]> {
+
+    private static final Logger LOG = Logger.getLogger(MagnetFuture.class);
+
+    private final String infoHash;
+    private final CountDownLatch latch;
+    private final List<Runnable> listeners;
+
+    private volatile byte[] data;
+
+    // engine state, guarded by the magnets lock
+    final add_torrent_params params;
+    torrent_handle th;
+    boolean started;
+    boolean added;
+
+    MagnetFuture(String infoHash, add_torrent_params params) {
+        this.infoHash = infoHash;
+        this.latch = new CountDownLatch(1);
+        this.listeners = new ArrayList<>();
+        this.params = params;
+    }
+
+    public String infoHash() {
+        return infoHash;
+    }
+
+    /**
+     * Runs the listener once the fetch is done, right away if already done.
+     * The listener runs in the thread that completes the fetch (for example,
+     * the libtorrent alerts thread), it must not block.
+     *
+     * @param listener
+     */
+    public void addListener(Runnable listener) {
+        synchronized (listeners) {
+            if (!isDone()) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        run(listener);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    /**
+     * @return the bencoded torrent, or {@code null} if the fetch failed
+     */
+    @Override
+    public byte[] get() throws InterruptedException {
+        latch.await();
+        return data;
+    }
+
+    @Override
+    public byte[] get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException("Magnet fetch still in progress: " + infoHash);
+        }
+        return data;
+    }
+
+    void complete(byte[] data) {
+        List<Runnable> l;
+        synchronized (listeners) {
+            if (isDone()) {
+                return;
+            }
+            this.data = data;
+            latch.countDown();
+            l = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        for (Runnable r : l) {
+            run(r);
+        }
+    }
+
+    private static void run(Runnable listener) {
+        try {
+            listener.run();
+        } catch (Throwable e) {
+            LOG.error("Error calling magnet fetch listener", e);
+        }
+    }
+}
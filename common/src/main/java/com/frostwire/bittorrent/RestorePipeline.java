@@ -0,0 +1,281 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import com.frostwire.logging.Logger;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Restores a list of downloads in two overlapped stages.
+ * <p>
+ * The sources (torrent and resume files) are read and decoded in the
+ * worker threads, a few ahead of the add stage. The prepared items are
+ * added asynchronously, with at most {@code window} adds in flight, each
+ * add is acknowledged by the session alert (see {@link #added(String)}).
+ *
+ * @param <S> the type of the sources
+ * @param <T> the type of the prepared items
+ * @author gubatron
+ * @author aldenml
+ */
+final class RestorePipeline<S, T> {
+
+    private static final Logger LOG = Logger.getLogger(RestorePipeline.class);
+
+    private final Stage<S, T> stage;
+    private final Executor workers;
+    private final int window;
+    private final int prefetch;
+    private final Listener listener;
+
+    private final Object lock;
+    private final Queue<S> sources;
+    private final Queue<T> ready;
+    private final LinkedHashSet<String> inFlight;
+    private final int total;
+    private int preparing;
+    private int added;
+    private int failed;
+    private boolean cancelled;
+
+    RestorePipeline(Collection<S> sources, Stage<S, T> stage, Executor workers, int window, int prefetch, Listener listener) {
+        this.stage = stage;
+        this.workers = workers;
+        this.window = window;
+        this.prefetch = prefetch;
+        this.listener = listener;
+
+        this.lock = new Object();
+        this.sources = new LinkedList<>(sources);
+        this.ready = new LinkedList<>();
+        this.inFlight = new LinkedHashSet<>();
+        this.total = sources.size();
+    }
+
+    void start() {
+        if (total == 0) {
+            fireProgress(0);
+            return;
+        }
+        prepareNext();
+    }
+
+    /**
+     * Stops feeding the session, the adds in flight are not tracked anymore.
+     */
+    void cancel() {
+        synchronized (lock) {
+            cancelled = true;
+            sources.clear();
+            ready.clear();
+            inFlight.clear();
+        }
+    }
+
+    /**
+     * The add of the item with the key was confirmed by the session,
+     * returns false if the key is not part of this restore.
+     */
+    boolean added(String key) {
+        int done;
+        synchronized (lock) {
+            if (!inFlight.remove(key)) {
+                return false;
+            }
+            added++;
+            done = added + failed;
+        }
+        fireProgress(done);
+        addNext();
+        return true;
+    }
+
+    /**
+     * The session failed to add the item with the key, returns false if
+     * the key is not part of this restore. Without a key (the session
+     * didn't say which) the oldest in flight is released, since the adds
+     * are processed in order.
+     */
+    boolean failed(String key) {
+        int done;
+        synchronized (lock) {
+            if (key != null) {
+                if (!inFlight.remove(key)) {
+                    return false;
+                }
+            } else {
+                Iterator<String> it = inFlight.iterator();
+                if (!it.hasNext()) {
+                    return false;
+                }
+                it.next();
+                it.remove();
+            }
+            failed++;
+            done = added + failed;
+        }
+        fireProgress(done);
+        addNext();
+        return true;
+    }
+
+    int total() {
+        return total;
+    }
+
+    int done() {
+        synchronized (lock) {
+            return added + failed;
+        }
+    }
+
+    boolean isFinished() {
+        synchronized (lock) {
+            return cancelled || added + failed == total;
+        }
+    }
+
+    private void prepareNext() {
+        while (true) {
+            final S source;
+            synchronized (lock) {
+                if (cancelled || sources.isEmpty() || ready.size() + preparing >= prefetch) {
+                    return;
+                }
+                source = sources.poll();
+                preparing++;
+            }
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    prepare(source);
+                }
+            });
+        }
+    }
+
+    private void prepare(S source) {
+        T item = null;
+        try {
+            item = stage.prepare(source);
+        } catch (Throwable e) {
+            LOG.error("Unable to prepare download for restore: " + source, e);
+        }
+
+        int done = -1;
+        synchronized (lock) {
+            preparing--;
+            if (cancelled) {
+                return;
+            }
+            if (item != null) {
+                ready.add(item);
+            } else {
+                failed++;
+                done = added + failed;
+            }
+        }
+        if (done != -1) {
+            fireProgress(done);
+        }
+
+        addNext();
+    }
+
+    private void addNext() {
+        while (true) {
+            T item;
+            String key;
+            int done = -1;
+            synchronized (lock) {
+                if (cancelled || ready.isEmpty() || inFlight.size() >= window) {
+                    break;
+                }
+                item = ready.poll();
+                key = stage.key(item);
+                if (!inFlight.add(key)) {
+                    // duplicated, the first one is enough
+                    failed++;
+                    done = added + failed;
+                }
+            }
+            if (done != -1) {
+                fireProgress(done);
+                continue;
+            }
+
+            try {
+                stage.add(item);
+            } catch (Throwable e) {
+                LOG.error("Unable to restore download: " + key, e);
+                synchronized (lock) {
+                    if (inFlight.remove(key)) {
+                        failed++;
+                        done = added + failed;
+                    }
+                }
+                if (done != -1) {
+                    fireProgress(done);
+                }
+            }
+        }
+        prepareNext();
+    }
+
+    private void fireProgress(int done) {
+        if (listener != null) {
+            try {
+                listener.progress(done, total);
+            } catch (Throwable e) {
+                LOG.error("Error calling restore listener", e);
+            }
+        }
+    }
+
+    interface Stage<S, T> {
+
+        /**
+         * Reads and decodes the source, runs in the worker threads.
+         *
+         * @return the item ready to add, or {@code null} to skip the source
+         */
+        T prepare(S source) throws Throwable;
+
+        /**
+         * @return the key (info-hash) used by the session to acknowledge the add
+         */
+        String key(T item);
+
+        /**
+         * Submits the asynchronous add of the item, it must not block.
+         */
+        void add(T item) throws Throwable;
+    }
+
+    interface Listener {
+
+        /**
+         * @param done  the number of sources restored or failed
+         * @param total the number of sources
+         */
+        void progress(int done, int total);
+    }
+}
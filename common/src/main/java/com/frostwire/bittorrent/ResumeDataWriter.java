@@ -0,0 +1,330 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import com.frostwire.logging.Logger;
+
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the resume data of the torrents in batches.
+ * <p>
+ * The torrents with progress are marked as dirty and, once per interval,
+ * libtorrent is asked to serialize the resume data of all of them. The
+ * serialized data (from the alerts) is written to the metadata store by a
+ * background thread, only the latest data of a torrent is written and the
+ * store is synced once per batch. Pause, finish and shutdown flush right
+ * away.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+final class ResumeDataWriter {
+
+    private static final Logger LOG = Logger.getLogger(ResumeDataWriter.class);
+
+    private static final long ONE_MINUTE_MILLIS = 60000;
+
+    private volatile TorrentMetadataStore store;
+    private final Requester requester;
+
+    private final Object lock;
+    private final Set<String> dirty;
+    private final Set<String> requested;
+    private final Map<String, byte[]> pending;
+    // the data of an alert requested before the remove is dropped
+    private final Set<String> removed;
+    private final ArrayDeque<Long> flushTimes;
+    private final ScheduledExecutorService executor;
+    private final Runnable writeTask;
+    private boolean writing;
+    private long flushes;
+
+    // serializes the writes of the files with the removes of the torrents
+    private final Object fileLock;
+
+    ResumeDataWriter(long interval, TorrentMetadataStore store, Requester requester) {
+        this.store = store;
+        this.requester = requester;
+
+        this.lock = new Object();
+        this.dirty = new LinkedHashSet<>();
+        this.requested = new HashSet<>();
+        this.pending = new LinkedHashMap<>();
+        this.removed = new HashSet<>();
+        this.flushTimes = new ArrayDeque<>();
+        this.executor = newExecutor();
+        this.writeTask = new Runnable() {
+            @Override
+            public void run() {
+                writePending();
+            }
+        };
+        this.fileLock = new Object();
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                requestDirty();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The torrent made progress, its resume data will be requested in
+     * the next batch.
+     */
+    void markDirty(String infoHash) {
+        synchronized (lock) {
+            removed.remove(infoHash);
+            dirty.add(infoHash);
+        }
+    }
+
+    /**
+     * Requests the resume data of the torrent now.
+     */
+    void flush(String infoHash) {
+        synchronized (lock) {
+            removed.remove(infoHash);
+            dirty.remove(infoHash);
+            requested.add(infoHash);
+        }
+        request(infoHash);
+    }
+
+    /**
+     * Queues the serialized resume data for writing, called from the alerts.
+     * The data of a removed torrent is ignored.
+     */
+    void write(String infoHash, byte[] data) {
+        synchronized (lock) {
+            requested.remove(infoHash);
+            if (removed.contains(infoHash)) {
+                return;
+            }
+            pending.put(infoHash, data);
+            if (!writing) {
+                writing = true;
+                executor.execute(writeTask);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * libtorrent was unable to serialize the resume data, no data will
+     * come for the last request.
+     */
+    void failed(String infoHash) {
+        synchronized (lock) {
+            requested.remove(infoHash);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Forgets everything about the torrent, after this returns there is
+     * no write in progress or pending for it and it can be removed from the
+     * store. Nothing is written for it until it's marked dirty or flushed
+     * again (added back).
+     */
+    void remove(String infoHash) {
+        synchronized (fileLock) {
+            synchronized (lock) {
+                removed.add(infoHash);
+                dirty.remove(infoHash);
+                requested.remove(infoHash);
+                pending.remove(infoHash);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Requests the resume data of all the dirty torrents, waits for it
+     * (at most the timeout) and writes all the pending data in the
+     * calling thread. Used before the session is stopped.
+     *
+     * @param timeout in milliseconds
+     */
+    void flushAll(long timeout) {
+        requestDirty();
+
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (lock) {
+            long wait;
+            while (!requested.isEmpty() && (wait = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    lock.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (!requested.isEmpty()) {
+                LOG.warn("Resume data not received for " + requested.size() + " torrents");
+                requested.clear();
+            }
+        }
+
+        writePending();
+    }
+
+    /**
+     * Replaces the store, after the engine reopened it. The previous store
+     * should be flushed and closed first.
+     */
+    void store(TorrentMetadataStore store) {
+        synchronized (fileLock) {
+            this.store = store;
+        }
+    }
+
+    /**
+     * @return the number of resume data written in the last minute
+     */
+    int flushesPerMinute() {
+        synchronized (lock) {
+            pruneFlushTimes(System.currentTimeMillis());
+            return flushTimes.size();
+        }
+    }
+
+    /**
+     * @return the number of resume data written since the start
+     */
+    long flushes() {
+        synchronized (lock) {
+            return flushes;
+        }
+    }
+
+    private void requestDirty() {
+        List<String> batch;
+        synchronized (lock) {
+            if (dirty.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(dirty);
+            dirty.clear();
+            requested.addAll(batch);
+        }
+        for (String infoHash : batch) {
+            request(infoHash);
+        }
+    }
+
+    private void request(String infoHash) {
+        boolean ok;
+        try {
+            ok = requester.request(infoHash);
+        } catch (Throwable e) {
+            LOG.warn("Error requesting resume data: " + infoHash, e);
+            ok = false;
+        }
+        if (!ok) {
+            // no alert will come
+            synchronized (lock) {
+                requested.remove(infoHash);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void writePending() {
+        boolean written = false;
+        while (true) {
+            synchronized (fileLock) {
+                String infoHash;
+                byte[] data;
+                synchronized (lock) {
+                    Iterator<Map.Entry<String, byte[]>> it = pending.entrySet().iterator();
+                    if (!it.hasNext()) {
+                        writing = false;
+                        break;
+                    }
+                    Map.Entry<String, byte[]> e = it.next();
+                    it.remove();
+                    infoHash = e.getKey();
+                    data = e.getValue();
+                }
+
+                try {
+                    store.putResume(infoHash, data);
+                    written = true;
+                    flushed();
+                } catch (Throwable e) {
+                    LOG.warn("Error saving resume data: " + infoHash, e);
+                }
+            }
+        }
+
+        if (written) {
+            try {
+                store.sync();
+            } catch (Throwable e) {
+                LOG.warn("Error syncing resume data", e);
+            }
+        }
+    }
+
+    private void flushed() {
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            flushes++;
+            flushTimes.addLast(now);
+            pruneFlushTimes(now);
+        }
+    }
+
+    private void pruneFlushTimes(long now) {
+        while (!flushTimes.isEmpty() && now - flushTimes.peekFirst() > ONE_MINUTE_MILLIS) {
+            flushTimes.pollFirst();
+        }
+    }
+
+    private static ScheduledExecutorService newExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ResumeDataWriter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    interface Requester {
+
+        /**
+         * Asks libtorrent to serialize the resume data of the torrent,
+         * the data arrives later in an alert.
+         *
+         * @return false if the torrent is gone and no alert will come
+         */
+        boolean request(String infoHash);
+    }
+}
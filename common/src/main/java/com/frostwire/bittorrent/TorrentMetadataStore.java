@@ -0,0 +1,63 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Storage of the bencoded torrent and resume data of the downloads
+ * of the engine, by info-hash.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public interface TorrentMetadataStore {
+
+    /**
+     * @return the info-hashes with a saved torrent
+     */
+    Set<String> infoHashes();
+
+    /**
+     * @return the saved torrent, or {@code null} if there is none
+     */
+    byte[] torrent(String infoHash);
+
+    /**
+     * @return the saved resume data, or {@code null} if there is none
+     */
+    byte[] resume(String infoHash);
+
+    void putTorrent(String infoHash, byte[] data) throws IOException;
+
+    void putResume(String infoHash, byte[] data) throws IOException;
+
+    /**
+     * Removes the torrent and the resume data.
+     */
+    void remove(String infoHash) throws IOException;
+
+    /**
+     * Makes the previous puts and removes durable.
+     */
+    void sync() throws IOException;
+
+    void close();
+}
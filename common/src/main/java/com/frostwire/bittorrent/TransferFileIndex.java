@@ -0,0 +1,126 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The reverse lookup from the absolute path of a file to the download
+ * that owns it (and the index of the file in the torrent), kept up to
+ * date from the download events.
+ * <p>
+ * A path maps to only one location, the last download indexed with it
+ * wins, and removing a download doesn't drop a path another download
+ * took over.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class TransferFileIndex {
+
+    private final ConcurrentHashMap<String, Location> paths;
+    private final Map<String, Entry> downloads;
+
+    TransferFileIndex() {
+        this.paths = new ConcurrentHashMap<>();
+        this.downloads = new HashMap<>();
+    }
+
+    /**
+     * @return the owner of the file, or {@code null} if it's not part of any download
+     */
+    public Location lookup(File file) {
+        return paths.get(file.getAbsolutePath());
+    }
+
+    /**
+     * @return the download with the info hash, if indexed
+     */
+    public BTDownload download(String infoHash) {
+        synchronized (this) {
+            Entry e = downloads.get(infoHash);
+            return e != null ? e.download : null;
+        }
+    }
+
+    public int size() {
+        return paths.size();
+    }
+
+    /**
+     * Replaces the files of the download, the position in the array
+     * is the index of the file in the torrent.
+     */
+    synchronized void update(String infoHash, BTDownload download, File[] files) {
+        removeAll(infoHash);
+
+        String[] keys = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            String key = files[i].getAbsolutePath();
+            keys[i] = key;
+            paths.put(key, new Location(download, i));
+        }
+        downloads.put(infoHash, new Entry(download, keys));
+    }
+
+    synchronized void removeAll(String infoHash) {
+        Entry e = downloads.remove(infoHash);
+        if (e != null) {
+            for (String key : e.keys) {
+                Location l = paths.get(key);
+                // another download could have taken the path
+                if (l != null && l.download == e.download) {
+                    paths.remove(key);
+                }
+            }
+        }
+    }
+
+    public static final class Location {
+
+        private final BTDownload download;
+        private final int index;
+
+        Location(BTDownload download, int index) {
+            this.download = download;
+            this.index = index;
+        }
+
+        public BTDownload download() {
+            return download;
+        }
+
+        public int index() {
+            return index;
+        }
+    }
+
+    private static final class Entry {
+
+        private final BTDownload download;
+        private final String[] keys;
+
+        Entry(BTDownload download, String[] keys) {
+            this.download = download;
+            this.keys = keys;
+        }
+    }
+}
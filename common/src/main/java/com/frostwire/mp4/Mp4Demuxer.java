@@ -277,7 +277,7 @@ public final class Mp4Demuxer {
         IsoMedia.write(out, boxes, buf, IsoMedia.OnBoxListener.ALL);
     }
 
-    private static <T extends Box> T readNext(final InputChannel ch, final ByteBuffer buf) throws IOException {
+    static <T extends Box> T readNext(final InputChannel ch, final ByteBuffer buf) throws IOException {
         IO.read(ch, 8, buf);
         int size = buf.getInt();
         int type = buf.getInt();
@@ -343,7 +343,7 @@ public final class Mp4Demuxer {
         return len;
     }
 
-    private static void processChunk(FragmentCtx ctx, long offset) {
+    static void processChunk(FragmentCtx ctx, long offset) {
         TrackFragmentHeaderBox tfhd = ctx.moof.findFirst(Box.tfhd);
         TrackRunBox trun = ctx.moof.findFirst(Box.trun);
 
@@ -429,7 +429,7 @@ public final class Mp4Demuxer {
         ctx.chunkNumber++;
     }
 
-    private static TrackBox createTrak(int id, FragmentCtx ctx) {
+    static TrackBox createTrak(int id, FragmentCtx ctx) {
         SampleTableBox stbl = ctx.moov.findFirst(Box.stbl);
         TimeToSampleBox stts = stbl.findFirst(Box.stts);
         if (stts != null) {
@@ -478,7 +478,7 @@ public final class Mp4Demuxer {
         return trak;
     }
 
-    private static UserDataBox createUdta(Mp4Info inf) {
+    static UserDataBox createUdta(Mp4Info inf) {
         UserDataBox udta = new UserDataBox();
 
         MetaBox meta = new MetaBox();
@@ -527,7 +527,7 @@ public final class Mp4Demuxer {
         return udta;
     }
 
-    private static final class FragmentCtx {
+    static final class FragmentCtx {
 
         public FragmentCtx(long len) {
             this.len = len;
@@ -0,0 +1,284 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.mp4;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+
+/**
+ * Muxes fragmented tracks (DASH) as their bytes arrive, without the
+ * intermediate files of {@link Mp4Demuxer#muxFragments(File, File, File, Mp4Info, Mp4Demuxer.DemuxerListener)}.
+ * <p>
+ * The samples of each fragment are written in the mdat as soon as they
+ * are received, in a region reserved for the fragment, so the tracks
+ * can be fed from different threads. The sample tables are collected
+ * on the way and the moov is written after the mdat by {@link #finish(Mp4Info)}.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class Mp4StreamMuxer {
+
+    // room for the ftyp at the start, the rest is a free box
+    private static final int HEAD_SIZE = 64;
+    // mdat header with a 64 bits size
+    private static final int MDAT_HEADER_SIZE = 16;
+    // the boxes other than mdat are parsed in memory
+    private static final int MAX_BOX_SIZE = 32 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Track[] tracks;
+
+    // end of the mdat
+    private long end;
+
+    public Mp4StreamMuxer(File output, int tracks) throws IOException {
+        this.file = new RandomAccessFile(output, "rw");
+        this.file.setLength(0);
+        this.channel = file.getChannel();
+        this.tracks = new Track[tracks];
+        for (int i = 0; i < tracks; i++) {
+            this.tracks[i] = new Track();
+        }
+        this.end = HEAD_SIZE + MDAT_HEADER_SIZE;
+    }
+
+    /**
+     * @param index the position of the track in the moov, the video first
+     */
+    public Track track(int index) {
+        return tracks[index];
+    }
+
+    /**
+     * Writes the file type and the moov after the samples and closes the
+     * file, all the tracks should be complete.
+     */
+    public void finish(Mp4Info inf) throws IOException {
+        try {
+            for (Track t : tracks) {
+                if (t.ctx.moov == null || !t.idle()) {
+                    throw new IOException("Incomplete track, position: " + t.position());
+                }
+            }
+
+            long mdatEnd;
+            synchronized (this) {
+                mdatEnd = end;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(100 * 1024);
+
+            MovieBox moov = new MovieBox();
+            moov.boxes.add(tracks[0].ctx.moov.findFirst(Box.mvhd));
+            for (int i = 0; i < tracks.length; i++) {
+                moov.boxes.add(Mp4Demuxer.createTrak(i + 1, tracks[i].ctx));
+            }
+            moov.boxes.add(Mp4Demuxer.createUdta(inf));
+
+            LinkedList<Box> tail = new LinkedList<>();
+            tail.add(moov);
+            ContainerBox.length(tail); // this update the boxes
+            channel.position(mdatEnd);
+            IsoMedia.write(new OutputChannel(channel), tail, buf, IsoMedia.OnBoxListener.ALL);
+            channel.truncate(channel.position());
+
+            FileTypeBox ftyp = new FileTypeBox();
+            ftyp.major_brand = inf.majorBrand;
+            ftyp.minor_version = 0;
+            ftyp.compatible_brands = inf.compatibleBrands;
+            LinkedList<Box> head = new LinkedList<>();
+            head.add(ftyp);
+            long ftypLen = ContainerBox.length(head);
+            if (ftypLen > HEAD_SIZE - 8) {
+                throw new IOException("File type box too big: " + ftypLen);
+            }
+            head.add(FreeSpaceBox.free(HEAD_SIZE - ftypLen - 8));
+
+            channel.position(0);
+            IsoMedia.write(new OutputChannel(channel), head, buf, IsoMedia.OnBoxListener.ALL);
+
+            buf.clear();
+            buf.putInt(1);
+            buf.putInt(Box.mdat);
+            buf.putLong(mdatEnd - HEAD_SIZE);
+            buf.flip();
+            write(buf, HEAD_SIZE);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Closes the output, the file is not valid if it wasn't finished.
+     */
+    public void close() {
+        IO.close(file);
+    }
+
+    private synchronized long reserve(long length) {
+        long offset = end;
+        end += length;
+        return offset;
+    }
+
+    private void write(ByteBuffer src, long position) throws IOException {
+        long p = position;
+        while (src.hasRemaining()) {
+            p += channel.write(src, p);
+        }
+    }
+
+    /**
+     * The input of one fragmented track, the bytes should be written in
+     * order by one thread at a time.
+     */
+    public final class Track {
+
+        private final Mp4Demuxer.FragmentCtx ctx;
+        private final ByteBuffer buf;
+
+        // bytes received
+        private long position;
+
+        private final byte[] header;
+        private int headerLen;
+
+        // a box being read, other than mdat
+        private byte[] box;
+        private int boxLen;
+
+        // the samples being written
+        private long mdatPos;
+        private long mdatRemaining;
+
+        Track() {
+            this.ctx = new Mp4Demuxer.FragmentCtx(-1);
+            this.buf = ByteBuffer.allocate(100 * 1024);
+            this.header = new byte[16];
+        }
+
+        /**
+         * @return the bytes of the track received, where to continue after an interruption
+         */
+        public synchronized long position() {
+            return position;
+        }
+
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n;
+                if (mdatRemaining > 0) {
+                    n = (int) Math.min(len, mdatRemaining);
+                    Mp4StreamMuxer.this.write(ByteBuffer.wrap(b, off, n), mdatPos);
+                    mdatPos += n;
+                    mdatRemaining -= n;
+                } else if (box != null) {
+                    n = Math.min(len, box.length - boxLen);
+                    System.arraycopy(b, off, box, boxLen, n);
+                    boxLen += n;
+                    if (boxLen == box.length) {
+                        onBox(box);
+                        box = null;
+                    }
+                } else {
+                    n = readHeader(b, off, len);
+                }
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private int readHeader(byte[] b, int off, int len) throws IOException {
+            int need = headerLen < 8 ? 8 : 16;
+            int n = Math.min(len, need - headerLen);
+            System.arraycopy(b, off, header, headerLen, n);
+            headerLen += n;
+            if (headerLen < 8) {
+                return n;
+            }
+
+            ByteBuffer h = ByteBuffer.wrap(header);
+            long size = h.getInt() & 0xFFFFFFFFL;
+            int type = h.getInt();
+            if (size == 1) {
+                if (headerLen < 16) {
+                    return n;
+                }
+                size = h.getLong();
+            } else if (size == 0) {
+                throw new IOException("Box to the end of the stream not supported");
+            }
+            int headerSize = headerLen;
+            headerLen = 0;
+
+            if (type == Box.mdat) {
+                onMdat(size - headerSize);
+            } else {
+                if (size > MAX_BOX_SIZE || size < headerSize) {
+                    throw new IOException("Invalid box size: " + size);
+                }
+                box = new byte[(int) size];
+                System.arraycopy(header, 0, box, 0, headerSize);
+                boxLen = headerSize;
+                if (boxLen == box.length) {
+                    onBox(box);
+                    box = null;
+                }
+            }
+
+            return n;
+        }
+
+        private void onBox(byte[] data) throws IOException {
+            InputChannel ch = new InputChannel(Channels.newChannel(new ByteArrayInputStream(data)));
+            Box b = Mp4Demuxer.readNext(ch, buf);
+            if (b.type == Box.moov) {
+                ctx.moov = (MovieBox) b;
+                ctx.trex = ctx.moov.findFirst(Box.trex);
+            } else if (b.type == Box.moof) {
+                ctx.moof = (MovieFragmentBox) b;
+            }
+        }
+
+        private void onMdat(long length) throws IOException {
+            if (ctx.moov == null || ctx.moof == null) {
+                throw new IOException("Samples without a fragment, the track is not fragmented");
+            }
+            long offset = reserve(length);
+            Mp4Demuxer.processChunk(ctx, offset);
+            ctx.moof = null;
+            mdatPos = offset;
+            mdatRemaining = length;
+        }
+
+        /**
+         * @return true if not in the middle of a box
+         */
+        private synchronized boolean idle() {
+            return headerLen == 0 && box == null && mdatRemaining == 0;
+        }
+    }
+}
@@ -30,6 +30,7 @@ public abstract class AbstractSearchPerformer implements SearchPerformer {
     private static final Logger LOG = Logger.getLogger(AbstractSearchPerformer.class);
 
     private final long token;
+    private final SearchMetrics metrics;
 
     private SearchListener listener;
     private boolean stopped;
@@ -37,6 +38,7 @@ public abstract class AbstractSearchPerformer implements SearchPerformer {
     public AbstractSearchPerformer(long token) {
         this.token = token;
         this.stopped = false;
+        this.metrics = new SearchMetrics();
     }
 
     @Override
@@ -71,6 +73,10 @@ public abstract class AbstractSearchPerformer implements SearchPerformer {
         this.listener = listener;
     }
 
+    SearchMetrics metrics() {
+        return metrics;
+    }
+
     protected void onResults(List<? extends SearchResult> results) {
         try {
             if (results != null && !stopped) {
@@ -18,7 +18,9 @@
 package com.frostwire.search;
 
 /**
- * 
+ * Implementations set directly in {@link CrawlPagedWebSearchPerformer} must be
+ * thread safe, or be wrapped by a {@link TieredCrawlCache}.
+ *
  * @author gubatron
  * @author aldenml
  *
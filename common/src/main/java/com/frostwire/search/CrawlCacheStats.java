@@ -0,0 +1,130 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+/**
+ * Immutable snapshot of the counters of a {@link TieredCrawlCache}.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class CrawlCacheStats {
+
+    private final long hits;
+    private final long misses;
+    private final long storeHits;
+    private final long evictions;
+    private final long failedHits;
+    private final long writes;
+    private final int pendingWrites;
+    private final long memoryBytes;
+    private final long maxMemoryBytes;
+    private final int memoryEntries;
+
+    CrawlCacheStats(long hits, long misses, long storeHits, long evictions, long failedHits,
+                    long writes, int pendingWrites, long memoryBytes, long maxMemoryBytes, int memoryEntries) {
+        this.hits = hits;
+        this.misses = misses;
+        this.storeHits = storeHits;
+        this.evictions = evictions;
+        this.failedHits = failedHits;
+        this.writes = writes;
+        this.pendingWrites = pendingWrites;
+        this.memoryBytes = memoryBytes;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.memoryEntries = memoryEntries;
+    }
+
+    /**
+     * @return lookups served from memory
+     */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+     * @return lookups not in memory, that had to go to the persistent store
+     */
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * @return misses found in the persistent store
+     */
+    public long storeHits() {
+        return storeHits;
+    }
+
+    /**
+     * @return entries removed from memory to stay inside the byte budget
+     */
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * @return lookups answered by the in-memory failed urls
+     */
+    public long failedHits() {
+        return failedHits;
+    }
+
+    /**
+     * @return writes done to the persistent store
+     */
+    public long writes() {
+        return writes;
+    }
+
+    /**
+     * @return writes waiting to be done to the persistent store
+     */
+    public int pendingWrites() {
+        return pendingWrites;
+    }
+
+    public long memoryBytes() {
+        return memoryBytes;
+    }
+
+    public long maxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+
+    public int memoryEntries() {
+        return memoryEntries;
+    }
+
+    /**
+     * @return hits over total lookups, from 0 to 1
+     */
+    public double hitRatio() {
+        long n = hits + misses;
+        return n > 0 ? (double) hits / n : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "CrawlCache[hits=" + hits + ", misses=" + misses + ", storeHits=" + storeHits +
+                ", evictions=" + evictions + ", failedHits=" + failedHits + ", writes=" + writes +
+                ", pendingWrites=" + pendingWrites + ", memory=" + memoryBytes + "/" + maxMemoryBytes +
+                " bytes in " + memoryEntries + " entries]";
+    }
+}
@@ -20,11 +20,15 @@ package com.frostwire.search;
 
 import com.frostwire.logging.Logger;
 import com.frostwire.search.torrent.TorrentSearchResult;
+import com.frostwire.util.SingleFlight;
 
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author gubatron
@@ -37,9 +41,13 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
     private static final int DEFAULT_CRAWL_TIMEOUT = 10000; // 10 seconds.
     private static final int FAILED_CRAWL_URL_CACHE_LIFETIME = 600000; // 10 minutes.
     private static final int DEFAULT_MAGNET_DOWNLOAD_TIMEOUT_SECS = 20; // 20 seconds.
+    private static final int FLIGHT_WAIT_TIMEOUT = 30000; // 30 seconds, longer than any download.
 
-    private static CrawlCache cache = null;
-    private static MagnetDownloader magnetDownloader = null;
+    private static volatile CrawlCache cache = null;
+    private static volatile MagnetDownloader magnetDownloader = null;
+
+    // in flight downloads, by url and info-hash
+    private static final SingleFlight<byte[]> flights = new SingleFlight<>();
 
     private int numCrawls;
 
@@ -58,6 +66,12 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
         this.numCrawls = numCrawls;
     }
 
+    /**
+     * The cache is used without any external synchronization, it must be
+     * thread safe, see {@link TieredCrawlCache}.
+     *
+     * @param cache the cache
+     */
     public static void setCache(CrawlCache cache) {
         CrawlPagedWebSearchPerformer.cache = cache;
     }
@@ -74,6 +88,7 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
     public void crawl(CrawlableSearchResult sr) {
         if (numCrawls > 0) {
             numCrawls--;
+            metrics().crawled();
 
             T obj = cast(sr);
             if (obj != null) {
@@ -83,7 +98,7 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                 if (url != null) {
 
                     // this block is an early check for failed in cache, quick return
-                    byte[] failed = cacheGet("failed:" + url);
+                    byte[] failed = cacheGet(TieredCrawlCache.FAILED_PREFIX + url);
                     if (failed != null) {
                         long failedWhen = array2long(failed);
                         if ((System.currentTimeMillis() - failedWhen) < FAILED_CRAWL_URL_CACHE_LIFETIME) {
@@ -92,7 +107,7 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                             onResults(Collections.EMPTY_LIST);
                             return;
                         } else {
-                            cacheRemove("failed:" + url);
+                            cacheRemove(TieredCrawlCache.FAILED_PREFIX + url);
                         }
                     }
 
@@ -109,42 +124,24 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                         }
                     }
 
-                    if (data == null) { // not a big deal about synchronization here
-                        LOG.debug("Downloading data for: " + url);
-
-                        if (url.startsWith("magnet")) {
-                            data = fetchMagnet(url);
-                        } else {
-                            data = fetchBytes(url, sr.getDetailsUrl(), DEFAULT_CRAWL_TIMEOUT);
-                        }
-
-                        //we put this here optimistically hoping this is actually
-                        //valid data. if no data can be crawled from this we remove it
-                        //from the cache. we do this because this same data may come
-                        //from another search engine and this way we avoid the
-                        //expense of performing another download.
-                        if (data != null) {
-                            cachePut(url, data);
-
-                            if (sr instanceof TorrentSearchResult) {
-                                // if the search result has an infohash we can use...
-                                String infohash = ((TorrentSearchResult) sr).getHash();
-                                cachePut(infohash, data);
-                            }
-                        } else {
-                            LOG.warn("Failed to download data: " + url);
-                            cachePut("failed:" + url, long2array(System.currentTimeMillis()));
-                        }
+                    if (data == null) {
+                        String infohash = sr instanceof TorrentSearchResult ? ((TorrentSearchResult) sr).getHash() : null;
+                        data = download(url, infohash, sr.getDetailsUrl());
                     }
 
                     try {
                         if (data != null) {
+                            long start = System.nanoTime();
                             List<? extends SearchResult> results = crawlResult(obj, data);
+                            metrics().parsed(System.nanoTime() - start);
                             if (results != null) {
                                 onResults(results);
                             }
+                        } else {
+                            metrics().error();
                         }
                     } catch (Throwable e) {
+                        metrics().error();
                         LOG.warn("Error creating crawled results from downloaded data: " + e.getMessage(), e);
                         cacheRemove(url); // invalidating cache data
                     }
@@ -155,6 +152,7 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                             onResults(results);
                         }
                     } catch (Throwable e) {
+                        metrics().error();
                         LOG.warn("Error creating crawled results from search result alone: " + obj.getDetailsUrl() + ", e=" + e.getMessage());//,e);
                     }
                 }
@@ -166,38 +164,99 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
     protected abstract List<? extends SearchResult> crawlResult(T sr, byte[] data) throws Exception;
 
-    private byte[] fetchMagnet(String magnet) {
-        if (magnetDownloader != null) {
-            return magnetDownloader.download(magnet, DEFAULT_MAGNET_DOWNLOAD_TIMEOUT_SECS);
-        } else {
-            LOG.warn("Magnet downloader not set, download not supported: " + magnet);
+    /**
+     * Downloads the data of the url, sharing the download with the concurrent
+     * crawls of the same url or info-hash (the same torrent comes from
+     * several engines in the same search).
+     */
+    private byte[] download(final String url, final String infohash, final String referrer) {
+        try {
+            return flights.execute(url, infohash, FLIGHT_WAIT_TIMEOUT, new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return downloadAndCache(url, infohash, referrer);
+                }
+            });
+        } catch (Throwable e) {
+            LOG.warn("Failed to download data: " + url + ", e=" + e.getMessage());
             return null;
         }
     }
 
-    private byte[] cacheGet(String key) {
-        if (cache != null) {
-            synchronized (cache) {
-                return cache.get(key);
+    private byte[] downloadAndCache(String url, String infohash, String referrer) {
+        // a flight for the same data could have landed just before this one
+        byte[] data = cacheGet(url);
+        if (data == null && infohash != null) {
+            data = cacheGet(infohash);
+        }
+        if (data != null) {
+            return data;
+        }
+
+        LOG.debug("Downloading data for: " + url);
+
+        if (url.startsWith("magnet")) {
+            data = fetchMagnet(url);
+        } else {
+            data = fetchBytes(url, referrer, DEFAULT_CRAWL_TIMEOUT);
+        }
+
+        //we put this here optimistically hoping this is actually
+        //valid data. if no data can be crawled from this we remove it
+        //from the cache. we do this because this same data may come
+        //from another search engine and this way we avoid the
+        //expense of performing another download.
+        if (data != null) {
+            cachePut(url, data);
+
+            if (infohash != null) {
+                cachePut(infohash, data);
             }
         } else {
+            LOG.warn("Failed to download data: " + url);
+            cachePut(TieredCrawlCache.FAILED_PREFIX + url, long2array(System.currentTimeMillis()));
+        }
+
+        return data;
+    }
+
+    private byte[] fetchMagnet(String magnet) {
+        MagnetDownloader downloader = magnetDownloader;
+        if (downloader != null) {
+            try {
+                // completed as soon as the metadata arrives, the extra second
+                // is just a guard against a downloader without a timeout
+                Future<byte[]> f = downloader.downloadAsync(magnet, DEFAULT_MAGNET_DOWNLOAD_TIMEOUT_SECS);
+                return f.get(DEFAULT_MAGNET_DOWNLOAD_TIMEOUT_SECS + 1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (Throwable e) {
+                LOG.warn("Error downloading magnet: " + magnet + ", e=" + e.getMessage());
+                return null;
+            }
+        } else {
+            LOG.warn("Magnet downloader not set, download not supported: " + magnet);
             return null;
         }
     }
 
+    private byte[] cacheGet(String key) {
+        CrawlCache c = cache;
+        return c != null ? c.get(key) : null;
+    }
+
     private void cachePut(String key, byte[] data) {
-        if (cache != null) {
-            synchronized (cache) {
-                cache.put(key, data);
-            }
+        CrawlCache c = cache;
+        if (c != null) {
+            c.put(key, data);
         }
     }
 
     private void cacheRemove(String key) {
-        if (cache != null) {
-            synchronized (cache) {
-                cache.remove(key);
-            }
+        CrawlCache c = cache;
+        if (c != null) {
+            c.remove(key);
         }
     }
 
@@ -224,21 +283,23 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
 
     public static void clearCache() {
-        if (cache != null) {
-            synchronized (cache) {
-                cache.clear();
-            }
+        CrawlCache c = cache;
+        if (c != null) {
+            c.clear();
         }
     }
 
     public static long getCacheSize() {
-        long result = 0;
-        if (cache != null) {
-            synchronized (cache) {
-                result = cache.size();
-            }
-        }
-        return result;
+        CrawlCache c = cache;
+        return c != null ? c.size() : 0;
+    }
+
+    /**
+     * @return the counters of the cache, or {@code null} if the cache is not tiered
+     */
+    public static CrawlCacheStats getCacheStats() {
+        CrawlCache c = cache;
+        return c instanceof TieredCrawlCache ? ((TieredCrawlCache) c).stats() : null;
     }
 
     private static long byteArrayToLong(final byte[] src, final int srcPos, final long dstInit, final int dstPos,
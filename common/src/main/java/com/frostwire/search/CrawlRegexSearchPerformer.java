@@ -18,14 +18,24 @@
 
 package com.frostwire.search;
 
+import com.frostwire.logging.Logger;
+
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 
 /**
+ * The search pages are fetched as raw bytes and decoded into a reusable
+ * {@link PageBuffer}, the prefix/suffix offsets and the regex run over
+ * that buffer without making copies of the (usually big) html.
+ *
  * @author gubatron
  * @author aldenml
  */
 public abstract class CrawlRegexSearchPerformer<T extends CrawlableSearchResult> extends CrawlPagedWebSearchPerformer<T> implements RegexSearchPerformer<T> {
 
+    private static final Logger LOG = Logger.getLogger(CrawlRegexSearchPerformer.class);
+
     private final int regexMaxResults;
 
     public CrawlRegexSearchPerformer(String domainName, long token, String keywords, int timeout, int pages, int numCrawls, int regexMaxResults) {
@@ -34,17 +44,65 @@ public abstract class CrawlRegexSearchPerformer<T extends CrawlableSearchResult>
     }
 
     @Override
-    protected List<? extends SearchResult> searchPage(String page) {
+    protected List<? extends SearchResult> searchPage(int page) {
+        List<? extends SearchResult> result = Collections.emptyList();
+        String url = null;
+        PageBuffer buffer = null;
+        try {
+            url = getUrl(page, getEncodedKeywords());
+            buffer = fetchSearchPageBuffer(url);
+            if (buffer != null) {
+                metrics().page();
+                long start = System.nanoTime();
+                result = searchPage(buffer);
+                metrics().parsed(System.nanoTime() - start);
+            }
+        } catch (Throwable e) {
+            metrics().error();
+            if (url == null) {
+                url = "n.a";
+            }
+            LOG.error("Error searching page [" + url + "]: " + e.getMessage(), e);
+        } finally {
+            if (buffer != null) {
+                buffer.release();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected final List<? extends SearchResult> searchPage(String page) {
+        PageBuffer buffer = PageBuffer.wrap(page);
+        try {
+            return searchPage(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    protected List<? extends SearchResult> searchPage(PageBuffer page) {
         final int prefixOffset = preliminaryHtmlPrefixOffset(page);
-        String reducedPage = PerformersHelper.reduceHtml(page, prefixOffset, preliminaryHtmlSuffixOffset(page));
+        PageBuffer reducedPage = page.reduce(prefixOffset, preliminaryHtmlSuffixOffset(page));
         return PerformersHelper.searchPageHelper(this, reducedPage, regexMaxResults);
     }
 
-    protected int preliminaryHtmlSuffixOffset(String page) {
+    /**
+     * Override to customize the request, for example to send cookies or to
+     * get the page from a string with {@link PageBuffer#wrap(String)}.
+     *
+     * @param url the url of the search page
+     * @return the page, or {@code null} if it could not be fetched
+     */
+    protected PageBuffer fetchSearchPageBuffer(String url) throws IOException {
+        return fetchPageBuffer(url, null, getTimeout());
+    }
+
+    protected int preliminaryHtmlSuffixOffset(PageBuffer page) {
         return page.length();
     }
 
-    protected int preliminaryHtmlPrefixOffset(String page) {
+    protected int preliminaryHtmlPrefixOffset(PageBuffer page) {
         return 0;
     }
 }
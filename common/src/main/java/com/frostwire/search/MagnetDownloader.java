@@ -17,6 +17,8 @@
 
 package com.frostwire.search;
 
+import java.util.concurrent.Future;
+
 /**
  * 
  * @author gubatron
@@ -26,4 +28,14 @@ package com.frostwire.search;
 public interface MagnetDownloader {
 
     public byte[] download(String magnet, int timeout);
+
+    /**
+     * Starts the download without blocking, the future is completed with
+     * {@code null} if the download fails or times out.
+     *
+     * @param magnet
+     * @param timeout in seconds
+     * @return
+     */
+    public Future<byte[]> downloadAsync(String magnet, int timeout);
 }
@@ -0,0 +1,272 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A window over the text of a page, decoded into a char buffer that is
+ * reused by the same thread for the next page.
+ * <p>
+ * The regex matchers run directly over this view (it's a {@link CharSequence}),
+ * finding the prefix/suffix offsets doesn't copy anything, and only the
+ * values captured by the matchers are materialized as strings.
+ * <p>
+ * The buffer must be released once the page is parsed, and no reference
+ * to it should be kept after that.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class PageBuffer implements CharSequence {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // bigger buffers are not kept for reuse
+    private static final int MAX_REUSE_SIZE = 2 * 1024 * 1024;
+
+    private static final ThreadLocal<Cache> CACHE = new ThreadLocal<Cache>() {
+        @Override
+        protected Cache initialValue() {
+            return new Cache();
+        }
+    };
+
+    private final Cache cache;
+    private final char[] chars;
+    private final int start;
+    private final int end;
+
+    private PageBuffer(Cache cache, char[] chars, int start, int end) {
+        this.cache = cache;
+        this.chars = chars;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Decodes the UTF-8 bytes of a page into the buffer of the current thread.
+     *
+     * @param data the raw bytes of the page
+     * @return the page
+     */
+    public static PageBuffer decode(byte[] data) {
+        return decode(data, null);
+    }
+
+    /**
+     * Decodes the bytes of a page into the buffer of the current thread.
+     *
+     * @param data    the raw bytes of the page
+     * @param charset the charset of the response, UTF-8 if {@code null} or not supported
+     * @return the page
+     */
+    public static PageBuffer decode(byte[] data, String charset) {
+        Cache cache = CACHE.get();
+
+        CharsetDecoder decoder = cache.decoder(charset);
+        decoder.reset();
+        char[] chars = cache.borrow((int) Math.ceil(data.length * (double) decoder.maxCharsPerByte()));
+        CharBuffer out = CharBuffer.wrap(chars);
+        decoder.decode(ByteBuffer.wrap(data), out, true);
+        decoder.flush(out);
+
+        return new PageBuffer(cache, chars, 0, out.position());
+    }
+
+    /**
+     * Copies the text into the buffer of the current thread, for the pages
+     * that are only available as a string.
+     *
+     * @param text the page
+     * @return the page
+     */
+    public static PageBuffer wrap(String text) {
+        Cache cache = CACHE.get();
+        char[] chars = cache.borrow(text.length());
+        text.getChars(0, text.length(), chars, 0);
+
+        return new PageBuffer(cache, chars, 0, text.length());
+    }
+
+    /**
+     * Returns a view of this page between the two offsets, without copying.
+     * The offsets are the ones returned by the prefix/suffix methods of the
+     * performers, -1 means that the offset could not be found.
+     *
+     * @param prefixOffset the start, inclusive
+     * @param suffixOffset the end, exclusive
+     * @return the reduced page, or {@code null} if one of the offsets is -1
+     */
+    public PageBuffer reduce(int prefixOffset, int suffixOffset) {
+        if (prefixOffset == -1 || suffixOffset == -1) {
+            return null;
+        }
+        return window(prefixOffset, suffixOffset);
+    }
+
+    /**
+     * @param beginIndex the start, inclusive
+     * @param endIndex   the end, exclusive
+     * @return a view of this page, sharing the same buffer
+     */
+    public PageBuffer window(int beginIndex, int endIndex) {
+        checkBounds(beginIndex, endIndex);
+        if (beginIndex == 0 && endIndex == length()) {
+            return this;
+        }
+        return new PageBuffer(cache, chars, start + beginIndex, start + endIndex);
+    }
+
+    public int indexOf(String str) {
+        return indexOf(str, 0);
+    }
+
+    public int indexOf(String str, int fromIndex) {
+        int n = str.length();
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        }
+        if (n == 0) {
+            return fromIndex <= length() ? fromIndex : -1;
+        }
+
+        char first = str.charAt(0);
+        int max = end - n;
+        for (int i = start + fromIndex; i <= max; i++) {
+            if (chars[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < n && chars[i + j] == str.charAt(j)) {
+                j++;
+            }
+            if (j == n) {
+                return i - start;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+        }
+        return chars[start + index];
+    }
+
+    /**
+     * This is where the values captured by the matchers are materialized,
+     * the returned value doesn't reference the buffer.
+     */
+    @Override
+    public CharSequence subSequence(int beginIndex, int endIndex) {
+        checkBounds(beginIndex, endIndex);
+        return new String(chars, start + beginIndex, endIndex - beginIndex);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, start, end - start);
+    }
+
+    /**
+     * Gives the buffer back to the current thread for the next page, this
+     * view (and all the views over the same buffer) can't be used after this.
+     */
+    public void release() {
+        if (Thread.currentThread() == cache.thread) {
+            cache.giveBack(chars);
+        }
+    }
+
+    private void checkBounds(int beginIndex, int endIndex) {
+        if (beginIndex < 0 || endIndex > length() || beginIndex > endIndex) {
+            throw new IndexOutOfBoundsException("begin: " + beginIndex + ", end: " + endIndex + ", length: " + length());
+        }
+    }
+
+    private static final class Cache {
+
+        private final Thread thread;
+        private final CharsetDecoder decoder;
+
+        private char[] chars;
+        private boolean borrowed;
+
+        Cache() {
+            this.thread = Thread.currentThread();
+            this.decoder = newDecoder(UTF_8);
+        }
+
+        /**
+         * The decoder of UTF-8, the charset of almost every page, is reused.
+         */
+        CharsetDecoder decoder(String charset) {
+            if (charset == null) {
+                return decoder;
+            }
+            Charset cs;
+            try {
+                cs = Charset.forName(charset);
+            } catch (Throwable e) {
+                return decoder;
+            }
+            return cs.equals(UTF_8) ? decoder : newDecoder(cs);
+        }
+
+        private static CharsetDecoder newDecoder(Charset charset) {
+            return charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        char[] borrow(int size) {
+            // a second page parsed while the first is in use, do not share
+            if (borrowed) {
+                return new char[size];
+            }
+            if (chars == null || chars.length < size) {
+                chars = new char[size];
+            }
+            borrowed = true;
+            return chars;
+        }
+
+        void giveBack(char[] arr) {
+            if (arr == chars) {
+                borrowed = false;
+                if (chars.length > MAX_REUSE_SIZE) {
+                    chars = null;
+                }
+            }
+        }
+    }
+}
@@ -19,10 +19,12 @@
 package com.frostwire.search;
 
 import com.frostwire.logging.Logger;
+import com.frostwire.util.ThreadPool;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author gubatron
@@ -32,20 +34,118 @@ public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
 
     private static final Logger LOG = Logger.getLogger(PagedWebSearchPerformer.class);
 
+    private static final int MAX_CONCURRENT_PAGES_PER_DOMAIN = 3;
+    private static final int POLL_INTERVAL_MILLIS = 250;
+
+    private static final ThreadPool PAGES_EXECUTOR = newPagesExecutor();
+    private static final Map<String, Semaphore> DOMAIN_PERMITS = new HashMap<>();
+
     private final int pages;
 
+    private boolean concurrentPages;
+    private boolean pageOrder;
+
     public PagedWebSearchPerformer(String domainName, long token, String keywords, int timeout, int pages) {
         super(domainName, token, keywords, timeout);
         this.pages = pages;
+        this.concurrentPages = true;
+        this.pageOrder = false;
+    }
+
+    /**
+     * Controls how the pages are fetched when there is more than one.
+     * When concurrent, up to {@link #MAX_CONCURRENT_PAGES_PER_DOMAIN} pages of
+     * the same domain (across all searches) are fetched at the same time, and
+     * the results are delivered as they arrive or, if {@code pageOrder} is
+     * {@code true}, in page order.
+     *
+     * @param concurrent
+     * @param pageOrder
+     */
+    protected final void setPaging(boolean concurrent, boolean pageOrder) {
+        this.concurrentPages = concurrent;
+        this.pageOrder = pageOrder;
     }
 
     @Override
     public void perform() {
-        for (int i = 1; !isStopped() && i <= pages; i++) {
-            onResults(searchPage(i));
+        if (concurrentPages && pages > 1) {
+            performConcurrent();
+        } else {
+            for (int i = 1; !isStopped() && i <= pages; i++) {
+                onResults(searchPage(i));
+            }
         }
     }
 
+    /**
+     * The permit of the domain is taken before a page is submitted, so the
+     * pages waiting for a busy domain don't hold the threads of the pool
+     * shared by all the engines.
+     */
+    private void performConcurrent() {
+        Semaphore permits = domainPermits(getDomainName());
+        BlockingQueue<PageTask> completed = new LinkedBlockingQueue<>();
+        List<PageTask> tasks = new ArrayList<>(pages);
+
+        // every page has its own http timeout, the waves are the pages
+        // queued behind the domain permits
+        int waves = (pages + MAX_CONCURRENT_PAGES_PER_DOMAIN - 1) / MAX_CONCURRENT_PAGES_PER_DOMAIN;
+        long deadline = System.currentTimeMillis() + (long) getTimeout() * waves + POLL_INTERVAL_MILLIS;
+
+        try {
+            int received = 0;
+            while (received < pages && !isStopped() && System.currentTimeMillis() < deadline) {
+                while (tasks.size() < pages && permits.tryAcquire()) {
+                    submit(tasks, permits, completed);
+                }
+                if (tasks.size() == received) {
+                    // all the permits are taken by other searches of the domain
+                    if (permits.tryAcquire(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        submit(tasks, permits, completed);
+                    }
+                    continue;
+                }
+
+                PageTask t;
+                if (pageOrder) {
+                    t = tasks.get(received);
+                    try {
+                        t.get(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        continue;
+                    } catch (ExecutionException e) {
+                        // reported below
+                    }
+                } else {
+                    t = completed.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (t == null) {
+                        continue;
+                    }
+                }
+
+                received++;
+                try {
+                    onResults(t.get());
+                } catch (ExecutionException e) {
+                    LOG.error("Error searching page of " + getDomainName() + ": " + e.getMessage(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (PageTask t : tasks) {
+                t.cancel(true);
+            }
+        }
+    }
+
+    private void submit(List<PageTask> tasks, Semaphore permits, BlockingQueue<PageTask> completed) {
+        PageTask t = new PageTask(tasks.size() + 1, permits, completed);
+        tasks.add(t);
+        PAGES_EXECUTOR.execute(t);
+    }
+
     protected List<? extends SearchResult> searchPage(int page) {
         List<? extends SearchResult> result = Collections.emptyList();
         String url = null;
@@ -53,9 +153,13 @@ public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
             url = getUrl(page, getEncodedKeywords());
             String text = fetchSearchPage(url);
             if (text != null) {
+                metrics().page();
+                long start = System.nanoTime();
                 result = searchPage(text);
+                metrics().parsed(System.nanoTime() - start);
             }
         } catch (Throwable e) {
+            metrics().error();
             if (url == null) {
                 url = "n.a";
             }
@@ -71,4 +175,64 @@ public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
     protected abstract String getUrl(int page, String encodedKeywords);
 
     protected abstract List<? extends SearchResult> searchPage(String page);
+
+    private static Semaphore domainPermits(String domainName) {
+        synchronized (DOMAIN_PERMITS) {
+            Semaphore permits = DOMAIN_PERMITS.get(domainName);
+            if (permits == null) {
+                permits = new Semaphore(MAX_CONCURRENT_PAGES_PER_DOMAIN);
+                DOMAIN_PERMITS.put(domainName, permits);
+            }
+            return permits;
+        }
+    }
+
+    private static ThreadPool newPagesExecutor() {
+        ThreadPool pool = new ThreadPool("PagedWebSearchPerformer", 8, 8, 1L, new LinkedBlockingQueue<Runnable>(), true);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * A page holding a permit of the domain, the permit is released once,
+     * when the page finishes or when it's cancelled before it starts.
+     */
+    private final class PageTask extends FutureTask<List<? extends SearchResult>> {
+
+        private final Semaphore permits;
+        private final BlockingQueue<PageTask> completed;
+        private final AtomicBoolean claimed;
+
+        PageTask(final int page, final Semaphore permits, BlockingQueue<PageTask> completed) {
+            this(page, permits, completed, new AtomicBoolean());
+        }
+
+        private PageTask(final int page, final Semaphore permits, BlockingQueue<PageTask> completed, final AtomicBoolean claimed) {
+            super(new Callable<List<? extends SearchResult>>() {
+                @Override
+                public List<? extends SearchResult> call() throws Exception {
+                    if (!claimed.compareAndSet(false, true)) {
+                        // cancelled, the permit was already released
+                        return Collections.emptyList();
+                    }
+                    try {
+                        return isStopped() ? Collections.<SearchResult>emptyList() : searchPage(page);
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+            this.permits = permits;
+            this.completed = completed;
+            this.claimed = claimed;
+        }
+
+        @Override
+        protected void done() {
+            if (claimed.compareAndSet(false, true)) {
+                permits.release();
+            }
+            completed.add(this);
+        }
+    }
 }
@@ -41,14 +41,21 @@ public final class PerformersHelper {
     }
 
     public static List<? extends SearchResult> searchPageHelper(RegexSearchPerformer<?> performer, String page, int regexMaxResults) {
+        return searchPageHelper(performer, page != null ? SearchMatcher.from(performer.getPattern().matcher(page)) : null, regexMaxResults);
+    }
+
+    public static List<? extends SearchResult> searchPageHelper(RegexSearchPerformer<?> performer, PageBuffer page, int regexMaxResults) {
+        return searchPageHelper(performer, page != null ? SearchMatcher.from(performer.getPattern(), page) : null, regexMaxResults);
+    }
+
+    private static List<? extends SearchResult> searchPageHelper(RegexSearchPerformer<?> performer, SearchMatcher matcher, int regexMaxResults) {
         List<SearchResult> result = new LinkedList<SearchResult>();
 
-        if (page == null) {
+        if (matcher == null) {
             LOG.warn(performer.getClass().getSimpleName() + " returning null page. Issue fetching page or issue getting page prefix/suffix offsets. Notify developers at contact@frostwire.com");
             return result;
         }
 
-        SearchMatcher matcher = SearchMatcher.from(performer.getPattern().matcher(page));
         int max = regexMaxResults;
         int i = 0;
         boolean matcherFound;
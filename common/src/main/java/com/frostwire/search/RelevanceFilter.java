@@ -0,0 +1,436 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ * Checks if a result is relevant for a query, that is, if all the
+ * keywords of the query are present in the names of the result.
+ * <p>
+ * The query is compiled once into a multi-pattern (Aho-Corasick) automaton,
+ * and the text of each result is normalized (html stripped, separators
+ * removed, diacritics removed, lower case) in a single pass that feeds the
+ * automaton directly, without intermediate strings for ASCII text.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class RelevanceFilter {
+
+    // one bit per token in the output masks
+    private static final int MAX_TOKENS = 64;
+
+    // lazy cache of the decomposition of the most common non ASCII chars
+    // (latin, greek, cyrillic), racy but the values are immutable
+    private static final String[] DECOMPOSED = new String[0x0600];
+
+    private final List<String> tokens;
+    private final long all;
+
+    // automaton, node 0 is the root
+    private final char[][] keys;
+    private final int[][] targets;
+    private final int[] fail;
+    private final long[] out;
+
+    private RelevanceFilter(List<String> tokens) {
+        this.tokens = Collections.unmodifiableList(tokens);
+        this.all = tokens.size() == MAX_TOKENS ? -1L : (1L << tokens.size()) - 1;
+
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Long> outs = new ArrayList<>();
+        trie.add(new TreeMap<Character, Integer>());
+        outs.add(0L);
+
+        for (int i = 0; i < tokens.size(); i++) {
+            String t = tokens.get(i);
+            int node = 0;
+            for (int j = 0; j < t.length(); j++) {
+                Character c = t.charAt(j);
+                Integer next = trie.get(node).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<Character, Integer>());
+                    outs.add(0L);
+                    trie.get(node).put(c, next);
+                }
+                node = next;
+            }
+            outs.set(node, outs.get(node) | (1L << i));
+        }
+
+        int n = trie.size();
+        this.keys = new char[n][];
+        this.targets = new int[n][];
+        this.fail = new int[n];
+        this.out = new long[n];
+
+        for (int i = 0; i < n; i++) {
+            TreeMap<Character, Integer> m = trie.get(i);
+            keys[i] = new char[m.size()];
+            targets[i] = new int[m.size()];
+            int k = 0;
+            for (Map.Entry<Character, Integer> e : m.entrySet()) {
+                keys[i][k] = e.getKey();
+                targets[i][k] = e.getValue();
+                k++;
+            }
+            out[i] = outs.get(i);
+        }
+
+        // breadth first, to have the fail link of the parent ready
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int k = 0; k < keys[node].length; k++) {
+                char c = keys[node][k];
+                int child = targets[node][k];
+
+                int f = fail[node];
+                int t;
+                while ((t = next(f, c)) == -1 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = t != -1 ? t : 0;
+                out[child] |= out[fail[child]];
+
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Compiles a search query, the keywords are normalized the same way
+     * the text of the results is.
+     *
+     * @param query the search query
+     * @return the filter for the query
+     */
+    public static RelevanceFilter compile(String query) {
+        Scan scan = new Scan(null, new StringBuilder(query != null ? query.length() : 0));
+        if (query != null) {
+            normalize(query, scan);
+        }
+
+        LinkedHashSet<String> set = new LinkedHashSet<>();
+        for (String t : scan.sb.toString().split(" ")) {
+            if (!t.isEmpty() && set.size() < MAX_TOKENS) {
+                set.add(t);
+            }
+        }
+
+        return new RelevanceFilter(new ArrayList<>(set));
+    }
+
+    /**
+     * @return the normalized keywords of the query
+     */
+    public List<String> tokens() {
+        return tokens;
+    }
+
+    /**
+     * Matches all the names of the result: the display name, the name of the
+     * parent if it's a crawled result and the file name if it's a file.
+     *
+     * @param sr the result
+     * @return {@code true} if all the keywords are present
+     */
+    public boolean accept(SearchResult sr) {
+        if (all == 0) {
+            return true;
+        }
+
+        Scan scan = new Scan(this, null);
+
+        if (normalize(sr.getDisplayName(), scan)) {
+            return true;
+        }
+        if (sr instanceof CrawledSearchResult) {
+            CrawlableSearchResult parent = ((CrawledSearchResult) sr).getParent();
+            if (parent != null && normalize(parent.getDisplayName(), scan)) {
+                return true;
+            }
+        }
+        if (sr instanceof FileSearchResult) {
+            if (normalize(((FileSearchResult) sr).getFilename(), scan)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param text the text to match
+     * @return {@code true} if all the keywords are present in the text
+     */
+    public boolean accept(CharSequence text) {
+        return all == 0 || normalize(text, new Scan(this, null));
+    }
+
+    private int next(int node, char c) {
+        char[] k = keys[node];
+        int lo = 0;
+        int hi = k.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char m = k[mid];
+            if (m < c) {
+                lo = mid + 1;
+            } else if (m > c) {
+                hi = mid - 1;
+            } else {
+                return targets[node][mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Single pass version of the old sanitize/normalize chain, that was:
+     * strip html tags and entities, replace some domain suffixes and
+     * separators with spaces, collapse spaces, decompose (NFKD) and
+     * remove diacritical marks, and lower case.
+     *
+     * @return {@code true} as soon as the scan matched all the tokens
+     */
+    private static boolean normalize(CharSequence s, Scan scan) {
+        if (s == null) {
+            return false;
+        }
+
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+
+            if (c < 0x80) {
+                switch (c) {
+                    case '<': {
+                        int end = lineIndexOf(s, '>', i + 1);
+                        if (end != -1) {
+                            i = end;
+                            continue;
+                        }
+                        break;
+                    }
+                    case '&': {
+                        int end = lineIndexOf(s, ';', i + 1);
+                        if (end != -1) {
+                            i = end;
+                            continue;
+                        }
+                        break;
+                    }
+                    case '.':
+                        if (regionMatches(s, i + 1, "torrent")) {
+                            i += 7;
+                        } else if (regionMatches(s, i + 1, "com") || regionMatches(s, i + 1, "net")) {
+                            i += 3;
+                        }
+                        break;
+                    case 'w':
+                        if (regionMatches(s, i, "www.")) {
+                            i += 3;
+                            scan.space();
+                            continue;
+                        }
+                        break;
+                }
+
+                if (isSeparator(c)) {
+                    scan.space();
+                } else {
+                    if (c >= 'A' && c <= 'Z') {
+                        c += 'a' - 'A';
+                    }
+                    if (scan.put(c)) {
+                        return true;
+                    }
+                }
+                continue;
+            }
+
+            if (isSeparator(c) || Character.isWhitespace(c)) {
+                scan.space();
+                continue;
+            }
+
+            String d;
+            if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                d = Normalizer.normalize(new String(new char[]{c, s.charAt(i + 1)}), Normalizer.Form.NFKD);
+                i++;
+            } else {
+                d = decompose(c);
+            }
+
+            for (int j = 0; j < d.length(); j++) {
+                char dc = d.charAt(j);
+                if (dc >= '\u0300' && dc <= '\u036F') { // combining diacritical marks
+                    continue;
+                }
+                if (dc == ' ') {
+                    scan.space();
+                } else if (scan.put(Character.toLowerCase(dc))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static String decompose(char c) {
+        if (c >= DECOMPOSED.length) {
+            return Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFKD);
+        }
+        String d = DECOMPOSED[c];
+        if (d == null) {
+            d = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFKD);
+            DECOMPOSED[c] = d;
+        }
+        return d;
+    }
+
+    private static boolean isSeparator(char c) {
+        switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\u000B':
+            case '\f':
+            case '\r':
+            case '\\':
+            case '/':
+            case '%':
+            case '_':
+            case ';':
+            case '-':
+            case '.':
+            case '(':
+            case ')':
+            case '[':
+            case ']':
+            case '\u00D0': // Ð
+            case '&':
+            case '~':
+            case '{':
+            case '}':
+            case '*':
+            case '@':
+            case '^':
+            case '\'':
+            case '=':
+            case '!':
+            case ',':
+            case '\u00A1': // ¡
+            case '|':
+            case '#':
+            case '\u00C0': // À
+            case '\u00C1': // Á
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int lineIndexOf(CharSequence s, char c, int from) {
+        int n = s.length();
+        for (int i = from; i < n; i++) {
+            char ch = s.charAt(i);
+            if (ch == c) {
+                return i;
+            }
+            if (ch == '\n' || ch == '\r') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(CharSequence s, int offset, String str) {
+        int len = str.length();
+        if (offset + len > s.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(offset + i) != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The state of a single scan, either feeding the automaton or
+     * collecting the normalized text.
+     */
+    private static final class Scan {
+
+        private final RelevanceFilter f;
+        private final StringBuilder sb;
+
+        private int state;
+        private long found;
+        private boolean space;
+
+        Scan(RelevanceFilter f, StringBuilder sb) {
+            this.f = f;
+            this.sb = sb;
+            this.space = true; // trims the leading spaces
+        }
+
+        void space() {
+            if (!space) {
+                space = true;
+                if (sb != null) {
+                    sb.append(' ');
+                } else {
+                    state = 0; // no token contains a space
+                }
+            }
+        }
+
+        boolean put(char c) {
+            space = false;
+
+            if (sb != null) {
+                sb.append(c);
+                return false;
+            }
+
+            int s = state;
+            int t;
+            while ((t = f.next(s, c)) == -1 && s != 0) {
+                s = f.fail[s];
+            }
+            state = t != -1 ? t : 0;
+            found |= f.out[state];
+
+            return found == f.all;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+/**
+ * Immutable snapshot of how one engine performed in one search.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class SearchEngineStats {
+
+    private final String engine;
+    private final long token;
+    private final long timeToFirstResult;
+    private final long timeToCompletion;
+    private final int pages;
+    private final long bytes;
+    private final long parseTime;
+    private final int crawls;
+    private final int errors;
+    private final int results;
+
+    SearchEngineStats(String engine, long token, long timeToFirstResult, long timeToCompletion,
+                      int pages, long bytes, long parseTime, int crawls, int errors, int results) {
+        this.engine = engine;
+        this.token = token;
+        this.timeToFirstResult = timeToFirstResult;
+        this.timeToCompletion = timeToCompletion;
+        this.pages = pages;
+        this.bytes = bytes;
+        this.parseTime = parseTime;
+        this.crawls = crawls;
+        this.errors = errors;
+        this.results = results;
+    }
+
+    public String engine() {
+        return engine;
+    }
+
+    public long token() {
+        return token;
+    }
+
+    /**
+     * @return milliseconds from the start of the search to the first result, -1 if none yet
+     */
+    public long timeToFirstResult() {
+        return timeToFirstResult >= 0 ? timeToFirstResult / 1000000 : -1;
+    }
+
+    /**
+     * @return milliseconds from the start of the search to the end of the last
+     * task (search or crawl) of the engine, -1 if still running
+     */
+    public long timeToCompletion() {
+        return timeToCompletion >= 0 ? timeToCompletion / 1000000 : -1;
+    }
+
+    /**
+     * @return search pages fetched
+     */
+    public int pages() {
+        return pages;
+    }
+
+    /**
+     * @return bytes downloaded by the engine, pages and crawls
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return milliseconds spent parsing pages and crawled data
+     */
+    public long parseTime() {
+        return parseTime / 1000000;
+    }
+
+    public int crawls() {
+        return crawls;
+    }
+
+    public int errors() {
+        return errors;
+    }
+
+    public int results() {
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return engine + "[token=" + token + ", firstResult=" + timeToFirstResult() + "ms, completion=" + timeToCompletion() +
+                "ms, pages=" + pages + ", bytes=" + bytes + ", parse=" + parseTime() + "ms, crawls=" + crawls +
+                ", errors=" + errors + ", results=" + results + "]";
+    }
+}
@@ -40,7 +40,7 @@ import com.frostwire.util.ThreadPool;
 import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * @author gubatron
@@ -50,17 +50,41 @@ public final class SearchManager {
 
     private static final Logger LOG = Logger.getLogger(SearchManager.class);
 
+    private static final int MAX_METRICS_SEARCHES = 32;
+
+    // sink for the performers that don't keep metrics
+    private static final SearchMetrics UNTRACKED = new SearchMetrics();
+
     private final ExecutorService executor;
-    private final List<SearchTask> tasks;
+    private final TaskQueue queue;
+    private final Runnable runNext;
+    private final Map<Long, TokenTasks> tokens;
     private final List<WeakReference<SearchTable>> tables;
+    private final Map<Long, List<EngineMetrics>> metrics;
 
     private SearchListener listener;
     private SearchTable lastTable;
 
-    private SearchManager(int nThreads) {
-        this.executor = new ThreadPool("SearchManager", nThreads, nThreads, 1L, new PriorityBlockingQueue<Runnable>(), true);
-        this.tasks = Collections.synchronizedList(new LinkedList<SearchTask>());
+    SearchManager(int nThreads) {
+        this.executor = new ThreadPool("SearchManager", nThreads, nThreads, 1L, new LinkedBlockingQueue<Runnable>(), true);
+        this.queue = new TaskQueue();
+        this.runNext = new Runnable() {
+            @Override
+            public void run() {
+                SearchTask task = queue.poll();
+                if (task != null) {
+                    queue.run(task);
+                }
+            }
+        };
+        this.tokens = new HashMap<>();
         this.tables = Collections.synchronizedList(new LinkedList<WeakReference<SearchTable>>());
+        this.metrics = new LinkedHashMap<Long, List<EngineMetrics>>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<EngineMetrics>> eldest) {
+                return size() > MAX_METRICS_SEARCHES;
+            }
+        };
     }
 
     private static class Loader {
@@ -92,6 +116,7 @@ public final class SearchManager {
 
                 @Override
                 public void onError(long token, SearchError error) {
+                    metrics(performer).error();
                     SearchManager.this.onError(token, error);
                 }
 
@@ -101,8 +126,8 @@ public final class SearchManager {
                 }
             });
 
-            SearchTask task = new PerformTask(this, performer, nextOrdinal(performer.getToken()));
-            submit(task);
+            track(performer);
+            submit(new PerformTask(this, performer));
         } else {
             LOG.warn("Search performer is null, review your logic");
         }
@@ -116,6 +141,69 @@ public final class SearchManager {
         stopTasks(token);
     }
 
+    /**
+     * Number of tasks (perform and crawl) submitted for this token that
+     * are still queued or running.
+     *
+     * @param token
+     * @return
+     */
+    public int pendingTasks(long token) {
+        synchronized (tokens) {
+            TokenTasks t = tokens.get(token);
+            return t != null ? t.pending : 0;
+        }
+    }
+
+    /**
+     * Snapshot of the scheduler queue per engine, in the order the
+     * engines were first seen.
+     *
+     * @return
+     */
+    public List<SearchQueueStats> queueStats() {
+        return queue.stats();
+    }
+
+    /**
+     * Snapshot of how each engine performed in the search, only the
+     * last searches (up to 32) are kept.
+     *
+     * @param token
+     * @return
+     */
+    public List<SearchEngineStats> engineStats(long token) {
+        synchronized (metrics) {
+            List<EngineMetrics> list = metrics.get(token);
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            List<SearchEngineStats> r = new ArrayList<>(list.size());
+            for (EngineMetrics m : list) {
+                r.add(m.metrics.snapshot(m.engine, token));
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Snapshot of how each engine performed in all the searches tracked,
+     * older searches first.
+     *
+     * @return
+     */
+    public List<SearchEngineStats> engineStats() {
+        synchronized (metrics) {
+            List<SearchEngineStats> r = new ArrayList<>();
+            for (Map.Entry<Long, List<EngineMetrics>> e : metrics.entrySet()) {
+                for (EngineMetrics m : e.getValue()) {
+                    r.add(m.metrics.snapshot(m.engine, e.getKey()));
+                }
+            }
+            return r;
+        }
+    }
+
     public SearchTable newTable(long token) {
         synchronized (tables) {
             Iterator<WeakReference<SearchTable>> it = tables.iterator();
@@ -145,8 +233,18 @@ public final class SearchManager {
     }
 
     private void submit(SearchTask task) {
-        tasks.add(task);
-        executor.execute(task);
+        synchronized (tokens) {
+            TokenTasks t = tokens.get(task.token());
+            if (t == null) {
+                t = new TokenTasks();
+                tokens.put(task.token(), t);
+            }
+            t.pending++;
+            t.performers.add(task.performer);
+        }
+        metrics(task.performer).taskSubmitted();
+        queue.offer(task);
+        executor.execute(runNext);
     }
 
     private void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
@@ -167,6 +265,7 @@ public final class SearchManager {
         }
 
         if (!list.isEmpty()) {
+            metrics(performer).results(list.size());
             onResults(performer.getToken(), list);
         }
     }
@@ -216,8 +315,7 @@ public final class SearchManager {
     private void crawl(SearchPerformer performer, CrawlableSearchResult sr) {
         if (performer != null && !performer.isStopped()) {
             try {
-                SearchTask task = new CrawlTask(this, performer, sr, nextOrdinal(performer.getToken()));
-                submit(task);
+                submit(new CrawlTask(this, performer, sr));
             } catch (Throwable e) {
                 LOG.warn("Error scheduling crawling of search result: " + sr);
             }
@@ -227,64 +325,235 @@ public final class SearchManager {
     }
 
     private void stopTasks(long token) {
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext()) {
-                SearchTask task = it.next();
-                if (token == -1L || task.token() == token) {
-                    task.stopSearch();
+        List<SearchPerformer> performers = new ArrayList<>();
+        synchronized (tokens) {
+            for (Map.Entry<Long, TokenTasks> e : tokens.entrySet()) {
+                if (token == -1L || e.getKey() == token) {
+                    performers.addAll(e.getValue().performers);
                 }
             }
         }
+        for (SearchPerformer p : performers) {
+            p.stop();
+        }
+        // the queued tasks would only find the performer stopped, release
+        // them now so the pending count drops and the search is signaled
+        for (SearchTask task : queue.remove(token)) {
+            taskFinished(task);
+        }
     }
 
-    private void checkIfFinished(long token) {
-        SearchTask pendingTask = null;
-
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext() && pendingTask == null) {
-                SearchTask task = it.next();
-                if (task.token() == token && !task.stopped()) {
-                    pendingTask = task;
-                }
-
-                if (task.stopped()) {
-                    it.remove();
+    private void taskFinished(SearchTask task) {
+        metrics(task.performer).taskFinished();
+
+        long token = task.token();
+        boolean finished = false;
+        synchronized (tokens) {
+            TokenTasks t = tokens.get(token);
+            if (t != null) {
+                t.pending--;
+                if (t.pending == 0) {
+                    tokens.remove(token);
+                    finished = true;
                 }
             }
         }
 
-        if (pendingTask == null) {
+        if (finished) {
             onStopped(token);
         }
     }
 
-    private int nextOrdinal(long token) {
-        int ordinal = 0;
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
+    private void track(SearchPerformer performer) {
+        SearchMetrics m = metrics(performer);
+        if (m == UNTRACKED) {
+            return;
+        }
+        m.started();
+        synchronized (metrics) {
+            List<EngineMetrics> list = metrics.get(performer.getToken());
+            if (list == null) {
+                list = new ArrayList<>();
+                metrics.put(performer.getToken(), list);
+            }
+            list.add(new EngineMetrics(engineName(performer), m));
+        }
+    }
+
+    private static SearchMetrics metrics(SearchPerformer performer) {
+        return performer instanceof AbstractSearchPerformer ? ((AbstractSearchPerformer) performer).metrics() : UNTRACKED;
+    }
+
+    private static String engineName(SearchPerformer performer) {
+        if (performer instanceof WebSearchPerformer) {
+            return ((WebSearchPerformer) performer).getDomainName();
+        }
+        return performer.getClass().getName();
+    }
+
+    private static final class EngineMetrics {
+
+        final String engine;
+        final SearchMetrics metrics;
+
+        EngineMetrics(String engine, SearchMetrics metrics) {
+            this.engine = engine;
+            this.metrics = metrics;
+        }
+    }
+
+    private static final class TokenTasks {
+
+        int pending;
+        final Set<SearchPerformer> performers = new HashSet<>();
+    }
+
+    /**
+     * Perform tasks go first, in FIFO order, since they are the ones
+     * feeding the crawls. Crawl tasks are round robin across engines, FIFO
+     * inside each engine, so a single engine with dozens of crawl tasks
+     * can't starve the others.
+     */
+    private static final class TaskQueue {
+
+        private final Map<String, EngineQueue> queues;
+        private final ArrayDeque<SearchTask> performs;
+        private final ArrayDeque<EngineQueue> ready;
+
+        TaskQueue() {
+            this.queues = new LinkedHashMap<>();
+            this.performs = new ArrayDeque<>();
+            this.ready = new ArrayDeque<>();
+        }
+
+        synchronized void offer(SearchTask task) {
+            EngineQueue q = queues.get(task.engine);
+            if (q == null) {
+                q = new EngineQueue(task.engine);
+                queues.put(task.engine, q);
+            }
+            task.queued = System.nanoTime();
+            if (task instanceof PerformTask) {
+                q.performs++;
+                performs.addLast(task);
+            } else {
+                if (q.tasks.isEmpty()) {
+                    ready.addLast(q);
+                }
+                q.tasks.addLast(task);
+            }
+        }
+
+        synchronized SearchTask poll() {
+            SearchTask task = performs.pollFirst();
+            EngineQueue q;
+            if (task != null) {
+                q = queues.get(task.engine);
+                q.performs--;
+            } else {
+                q = ready.pollFirst();
+                if (q == null) {
+                    return null;
+                }
+                task = q.tasks.pollFirst();
+                if (!q.tasks.isEmpty()) {
+                    ready.addLast(q);
+                }
+            }
+            q.waitTime += System.nanoTime() - task.queued;
+            q.running++;
+            return task;
+        }
+
+        /**
+         * Removes the queued tasks of the search, or all of them if the
+         * token is -1.
+         *
+         * @param token
+         * @return the tasks removed
+         */
+        synchronized List<SearchTask> remove(long token) {
+            List<SearchTask> removed = new ArrayList<>();
+            Iterator<SearchTask> it = performs.iterator();
             while (it.hasNext()) {
                 SearchTask task = it.next();
-                if (task.token() == token) {
-                    ordinal = ordinal + 1;
+                if (token == -1L || task.token() == token) {
+                    it.remove();
+                    queues.get(task.engine).performs--;
+                    removed.add(task);
                 }
             }
+            Iterator<EngineQueue> qit = ready.iterator();
+            while (qit.hasNext()) {
+                EngineQueue q = qit.next();
+                it = q.tasks.iterator();
+                while (it.hasNext()) {
+                    SearchTask task = it.next();
+                    if (token == -1L || task.token() == token) {
+                        it.remove();
+                        removed.add(task);
+                    }
+                }
+                if (q.tasks.isEmpty()) {
+                    qit.remove();
+                }
+            }
+            return removed;
+        }
+
+        void run(SearchTask task) {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                long runTime = System.nanoTime() - start;
+                synchronized (this) {
+                    EngineQueue q = queues.get(task.engine);
+                    q.running--;
+                    q.executed++;
+                    q.runTime += runTime;
+                }
+            }
+        }
+
+        synchronized List<SearchQueueStats> stats() {
+            List<SearchQueueStats> list = new ArrayList<>(queues.size());
+            for (EngineQueue q : queues.values()) {
+                list.add(new SearchQueueStats(q.engine, q.performs + q.tasks.size(), q.running, q.executed, q.waitTime, q.runTime));
+            }
+            return list;
+        }
+    }
+
+    private static final class EngineQueue {
+
+        final String engine;
+        final ArrayDeque<SearchTask> tasks;
+
+        int performs;
+        int running;
+        long executed;
+        long waitTime;
+        long runTime;
+
+        EngineQueue(String engine) {
+            this.engine = engine;
+            this.tasks = new ArrayDeque<>();
         }
-        return ordinal;
     }
 
-    private static abstract class SearchTask extends Thread implements Comparable<SearchTask> {
+    private static abstract class SearchTask implements Runnable {
 
         protected final SearchManager manager;
         protected final SearchPerformer performer;
-        private final int ordinal;
+        private final String engine;
 
-        public SearchTask(SearchManager manager, SearchPerformer performer, int ordinal) {
+        private long queued;
+
+        public SearchTask(SearchManager manager, SearchPerformer performer) {
             this.manager = manager;
             this.performer = performer;
-            this.ordinal = ordinal;
-            this.setName(performer.getClass().getName() + "-SearchTask");
+            this.engine = engineName(performer);
         }
 
         public long token() {
@@ -294,23 +563,12 @@ public final class SearchManager {
         public boolean stopped() {
             return performer.isStopped();
         }
-
-        public void stopSearch() {
-            performer.stop();
-        }
-
-        @Override
-        public int compareTo(SearchTask o) {
-            int x = ordinal;
-            int y = o.ordinal;
-            return (x < y) ? -1 : ((x == y) ? 0 : 1);
-        }
     }
 
     private static final class PerformTask extends SearchTask {
 
-        public PerformTask(SearchManager manager, SearchPerformer performer, int order) {
-            super(manager, performer, order);
+        public PerformTask(SearchManager manager, SearchPerformer performer) {
+            super(manager, performer);
         }
 
         @Override
@@ -320,11 +578,10 @@ public final class SearchManager {
                     performer.perform();
                 }
             } catch (Throwable e) {
+                metrics(performer).error();
                 LOG.warn("Error performing search: " + performer + ", e=" + e.getMessage());
             } finally {
-                if (manager.tasks.remove(this)) {
-                    manager.checkIfFinished(performer.getToken());
-                }
+                manager.taskFinished(this);
             }
         }
     }
@@ -333,8 +590,8 @@ public final class SearchManager {
 
         private final CrawlableSearchResult sr;
 
-        public CrawlTask(SearchManager manager, SearchPerformer performer, CrawlableSearchResult sr, int order) {
-            super(manager, performer, order);
+        public CrawlTask(SearchManager manager, SearchPerformer performer, CrawlableSearchResult sr) {
+            super(manager, performer);
             this.sr = sr;
         }
 
@@ -345,11 +602,10 @@ public final class SearchManager {
                     performer.crawl(sr);
                 }
             } catch (Throwable e) {
+                metrics(performer).error();
                 LOG.warn("Error performing crawling of: " + sr + ", e=" + e.getMessage());
             } finally {
-                if (manager.tasks.remove(this)) {
-                    manager.checkIfFinished(performer.getToken());
-                }
+                manager.taskFinished(this);
             }
         }
     }
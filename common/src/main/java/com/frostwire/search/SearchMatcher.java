@@ -19,12 +19,15 @@
 package com.frostwire.search;
 
 import com.frostwire.regex.Matcher;
+import com.frostwire.regex.Pattern;
 
 /**
  * <strong>A memory conscious Matcher</strong><br/>
  * Instead of using the groups() that reference the original HTML strings,
  * we just make copies of those substrings with this search matcher everytime
  * we invoke group(), this way the original HTML can be dereferenced and garbage collected.
+ * When matching over a {@link PageBuffer} the groups are already new strings and
+ * no extra copy is made.
  * 
  * @author gubatron
  * @author aldenml
@@ -33,13 +36,23 @@ import com.frostwire.regex.Matcher;
 public final class SearchMatcher {
 
     private final Matcher matcher;
+    private final boolean copy;
 
     public static SearchMatcher from(Matcher matcher) {
         return new SearchMatcher(matcher);
     }
+
+    public static SearchMatcher from(Pattern pattern, PageBuffer page) {
+        return new SearchMatcher(pattern.matcher(page), false);
+    }
     
     public SearchMatcher(Matcher matcher) {
+        this(matcher, true);
+    }
+
+    private SearchMatcher(Matcher matcher, boolean copy) {
         this.matcher = matcher;
+        this.copy = copy;
     }
     
     public boolean find() {
@@ -58,6 +71,9 @@ public final class SearchMatcher {
         if (str == null) {
             return null;
         }
+        if (!copy) {
+            return str;
+        }
         return new String(str.toCharArray());
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters of one performer (one engine in one search), updated
+ * by the performer itself and by the {@link SearchManager} tasks.
+ * All times are in nanoseconds.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+final class SearchMetrics {
+
+    private final AtomicInteger pending;
+    private final AtomicLong firstResult;
+    private final AtomicInteger pages;
+    private final AtomicLong bytes;
+    private final AtomicLong parseTime;
+    private final AtomicInteger crawls;
+    private final AtomicInteger errors;
+    private final AtomicInteger results;
+
+    private volatile long started;
+    private volatile long finished;
+
+    SearchMetrics() {
+        this.pending = new AtomicInteger();
+        this.firstResult = new AtomicLong();
+        this.pages = new AtomicInteger();
+        this.bytes = new AtomicLong();
+        this.parseTime = new AtomicLong();
+        this.crawls = new AtomicInteger();
+        this.errors = new AtomicInteger();
+        this.results = new AtomicInteger();
+    }
+
+    void started() {
+        started = System.nanoTime();
+    }
+
+    void taskSubmitted() {
+        pending.incrementAndGet();
+    }
+
+    void taskFinished() {
+        if (pending.decrementAndGet() == 0) {
+            finished = System.nanoTime();
+        }
+    }
+
+    void results(int n) {
+        if (n > 0) {
+            firstResult.compareAndSet(0, System.nanoTime());
+            results.addAndGet(n);
+        }
+    }
+
+    void page() {
+        pages.incrementAndGet();
+    }
+
+    void downloaded(long n) {
+        bytes.addAndGet(n);
+    }
+
+    void downloaded(CharSequence text) {
+        bytes.addAndGet(utf8Length(text));
+    }
+
+    void parsed(long nanos) {
+        parseTime.addAndGet(nanos);
+    }
+
+    void crawled() {
+        crawls.incrementAndGet();
+    }
+
+    void error() {
+        errors.incrementAndGet();
+    }
+
+    SearchEngineStats snapshot(String engine, long token) {
+        long s = started;
+        long first = firstResult.get();
+        long f = pending.get() == 0 ? finished : 0;
+        return new SearchEngineStats(engine, token,
+                s != 0 && first != 0 ? first - s : -1,
+                s != 0 && f != 0 ? f - s : -1,
+                pages.get(), bytes.get(), parseTime.get(), crawls.get(), errors.get(), results.get());
+    }
+
+    // the pages arrive decoded, this is what went through the wire
+    // without the headers and the compression
+    private static long utf8Length(CharSequence s) {
+        long n = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                n++;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                n += 4;
+                i++;
+            } else {
+                n += 3;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+/**
+ * Immutable snapshot of the {@link SearchManager} queue for one engine.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class SearchQueueStats {
+
+    private final String engine;
+    private final int queued;
+    private final int running;
+    private final long executed;
+    private final long waitTime;
+    private final long runTime;
+
+    SearchQueueStats(String engine, int queued, int running, long executed, long waitTime, long runTime) {
+        this.engine = engine;
+        this.queued = queued;
+        this.running = running;
+        this.executed = executed;
+        this.waitTime = waitTime;
+        this.runTime = runTime;
+    }
+
+    public String engine() {
+        return engine;
+    }
+
+    /**
+     * @return tasks waiting in the queue
+     */
+    public int queued() {
+        return queued;
+    }
+
+    public int running() {
+        return running;
+    }
+
+    public long executed() {
+        return executed;
+    }
+
+    /**
+     * @return average time in milliseconds a task waited in the queue
+     */
+    public long avgWaitTime() {
+        long n = executed + running;
+        return n > 0 ? waitTime / n / 1000000 : 0;
+    }
+
+    /**
+     * @return average time in milliseconds a task took to run
+     */
+    public long avgRunTime() {
+        return executed > 0 ? runTime / executed / 1000000 : 0;
+    }
+
+    @Override
+    public String toString() {
+        return engine + "[queued=" + queued + ", running=" + running + ", executed=" + executed +
+                ", avgWait=" + avgWaitTime() + "ms, avgRun=" + avgRunTime() + "ms]";
+    }
+}
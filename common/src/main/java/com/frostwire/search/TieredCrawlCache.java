@@ -0,0 +1,379 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import com.frostwire.logging.Logger;
+import com.frostwire.util.ThreadPool;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A crawl cache in two levels: an in-memory LRU bounded by the total
+ * size of the data in front of a persistent (and slow) store.
+ * <p>
+ * The memory level is split in segments with their own lock, there is no
+ * global lock for the reads. The writes to the store are done in the
+ * background by a single thread (write-behind), the pending writes are
+ * visible to the reads. The keys of failed urls are kept only in memory,
+ * with a time to live, and never reach the store.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class TieredCrawlCache implements CrawlCache {
+
+    private static final Logger LOG = Logger.getLogger(TieredCrawlCache.class);
+
+    /**
+     * Prefix of the keys used to remember the urls that failed to crawl.
+     */
+    static final String FAILED_PREFIX = "failed:";
+
+    private static final long DEFAULT_FAILED_TTL = 600000; // 10 minutes, the same as the crawl
+
+    private static final int NUM_SEGMENTS = 16;
+    private static final int MAX_FAILED_ENTRIES = 10000;
+
+    // marks a pending remove
+    private static final byte[] REMOVED = new byte[0];
+
+    private final CrawlCache store;
+    private final long maxBytes;
+    private final long failedTTL;
+
+    private final Segment[] segments;
+    private final ConcurrentHashMap<String, Failed> failed;
+    private final ConcurrentHashMap<String, byte[]> pending;
+    private final ExecutorService writer;
+    private final Object storeLock;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong storeHits;
+    private final AtomicLong evictions;
+    private final AtomicLong failedHits;
+    private final AtomicLong writes;
+
+    public TieredCrawlCache(CrawlCache store, long maxBytes) {
+        this(store, maxBytes, DEFAULT_FAILED_TTL);
+    }
+
+    /**
+     * @param store     the persistent store, accessed only by one thread at a time
+     * @param maxBytes  the maximum size of the data kept in memory
+     * @param failedTTL for how long the failed urls are kept, in milliseconds
+     */
+    public TieredCrawlCache(CrawlCache store, long maxBytes, long failedTTL) {
+        this.store = store;
+        this.maxBytes = maxBytes;
+        this.failedTTL = failedTTL;
+
+        this.segments = new Segment[NUM_SEGMENTS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(maxBytes / NUM_SEGMENTS);
+        }
+        this.failed = new ConcurrentHashMap<>();
+        this.pending = new ConcurrentHashMap<>();
+
+        ThreadPool pool = new ThreadPool("CrawlCache-writer", 1, 1, 5, new LinkedBlockingQueue<Runnable>(), true);
+        pool.allowCoreThreadTimeOut(true);
+        this.writer = pool;
+        this.storeLock = new Object();
+
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.storeHits = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.failedHits = new AtomicLong();
+        this.writes = new AtomicLong();
+    }
+
+    @Override
+    public byte[] get(String key) {
+        if (key.startsWith(FAILED_PREFIX)) {
+            return getFailed(key);
+        }
+
+        Segment segment = segment(key);
+        byte[] data = segment.get(key);
+        if (data != null) {
+            hits.incrementAndGet();
+            return data;
+        }
+
+        misses.incrementAndGet();
+
+        // taken before looking at the pending writes, see fill
+        long version = segment.version();
+
+        data = pending.get(key);
+        if (data != null) {
+            return data != REMOVED ? data : null;
+        }
+
+        synchronized (storeLock) {
+            data = store.get(key);
+        }
+
+        if (data != null) {
+            storeHits.incrementAndGet();
+            segment.fill(key, data, version);
+        }
+
+        return data;
+    }
+
+    @Override
+    public void put(String key, byte[] data) {
+        if (key.startsWith(FAILED_PREFIX)) {
+            putFailed(key, data);
+            return;
+        }
+
+        segment(key).put(key, data);
+        scheduleWrite(key, data);
+    }
+
+    @Override
+    public void remove(String key) {
+        if (key.startsWith(FAILED_PREFIX)) {
+            failed.remove(key);
+            return;
+        }
+
+        segment(key).remove(key);
+        scheduleWrite(key, REMOVED);
+    }
+
+    @Override
+    public void clear() {
+        for (Segment s : segments) {
+            s.clear();
+        }
+        failed.clear();
+        pending.clear();
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (storeLock) {
+                    store.clear();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the size of the persistent store, as reported by it
+     */
+    @Override
+    public long size() {
+        synchronized (storeLock) {
+            return store.size();
+        }
+    }
+
+    public CrawlCacheStats stats() {
+        long bytes = 0;
+        int entries = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                bytes += s.bytes;
+                entries += s.map.size();
+            }
+        }
+
+        return new CrawlCacheStats(hits.get(), misses.get(), storeHits.get(), evictions.get(), failedHits.get(),
+                writes.get(), pending.size(), bytes, maxBytes, entries);
+    }
+
+    private byte[] getFailed(String key) {
+        Failed f = failed.get(key);
+        if (f == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() > f.expires) {
+            failed.remove(key, f);
+            return null;
+        }
+        failedHits.incrementAndGet();
+        return f.data;
+    }
+
+    private void putFailed(String key, byte[] data) {
+        if (failed.size() >= MAX_FAILED_ENTRIES) {
+            purgeFailed();
+        }
+        failed.put(key, new Failed(data, System.currentTimeMillis() + failedTTL));
+    }
+
+    private void purgeFailed() {
+        long now = System.currentTimeMillis();
+        Iterator<Failed> it = failed.values().iterator();
+        while (it.hasNext()) {
+            if (now > it.next().expires) {
+                it.remove();
+            }
+        }
+        // all fresh, just make room
+        it = failed.values().iterator();
+        while (failed.size() >= MAX_FAILED_ENTRIES && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private void scheduleWrite(String key, byte[] data) {
+        // only the latest value of a key is written, and only one task per key
+        if (pending.put(key, data) == null) {
+            writer.execute(new WriteTask(key));
+        }
+    }
+
+    private Segment segment(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (NUM_SEGMENTS - 1)];
+    }
+
+    private final class WriteTask implements Runnable {
+
+        private final String key;
+
+        WriteTask(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            byte[] data = pending.get(key);
+            if (data == null) { // cleared
+                return;
+            }
+
+            try {
+                synchronized (storeLock) {
+                    if (data == REMOVED) {
+                        store.remove(key);
+                    } else {
+                        store.put(key, data);
+                    }
+                }
+                writes.incrementAndGet();
+            } catch (Throwable e) {
+                LOG.warn("Error writing crawl cache entry: " + key, e);
+            }
+
+            // a new value arrived while writing, write it again
+            if (!pending.remove(key, data)) {
+                if (pending.containsKey(key)) {
+                    writer.execute(this);
+                }
+            }
+        }
+    }
+
+    private final class Segment {
+
+        private final long maxBytes;
+        private final LinkedHashMap<String, byte[]> map;
+        private long bytes;
+        // changes with every put, remove and clear
+        private long version;
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+            this.map = new LinkedHashMap<>(16, 0.75f, true);
+        }
+
+        synchronized byte[] get(String key) {
+            return map.get(key);
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        /**
+         * Puts the data read from the store only if nothing changed in the
+         * segment since the version was taken. A put or remove of the key
+         * in between (even if already written and out of the pending ones)
+         * would be overwritten by the old data otherwise.
+         */
+        synchronized void fill(String key, byte[] data, long version) {
+            if (this.version == version && !pending.containsKey(key)) {
+                put(key, data);
+            }
+        }
+
+        synchronized void put(String key, byte[] data) {
+            version++;
+            byte[] old = map.remove(key);
+            if (old != null) {
+                bytes -= old.length;
+            }
+
+            // too big to be worth keeping in memory
+            if (data.length > maxBytes / 2) {
+                return;
+            }
+
+            map.put(key, data);
+            bytes += data.length;
+
+            Iterator<Map.Entry<String, byte[]>> it = map.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().getValue().length;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        synchronized void remove(String key) {
+            version++;
+            byte[] old = map.remove(key);
+            if (old != null) {
+                bytes -= old.length;
+            }
+        }
+
+        synchronized void clear() {
+            version++;
+            map.clear();
+            bytes = 0;
+        }
+    }
+
+    private static final class Failed {
+
+        private final byte[] data;
+        private final long expires;
+
+        Failed(byte[] data, long expires) {
+            this.data = data;
+            this.expires = expires;
+        }
+    }
+}
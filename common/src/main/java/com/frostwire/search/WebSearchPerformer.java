@@ -26,6 +26,8 @@ import com.frostwire.util.UserAgentGenerator;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -86,13 +88,22 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
     }
 
     public String fetch(String url, String cookie, Map<String, String> customHeaders) throws IOException {
-        return client.get(url, timeout, DEFAULT_USER_AGENT, null, cookie, customHeaders);
+        String text = client.get(url, timeout, DEFAULT_USER_AGENT, null, cookie, customHeaders);
+        if (text != null) {
+            metrics().downloaded(text);
+        }
+        return text;
     }
 
     public String post(String url, Map<String, String> formData) {
         try {
-            return client.post(url, timeout, DEFAULT_USER_AGENT, formData);
+            String text = client.post(url, timeout, DEFAULT_USER_AGENT, formData);
+            if (text != null) {
+                metrics().downloaded(text);
+            }
+            return text;
         } catch (IOException throwable) {
+            metrics().error();
             return null;
         }
     }
@@ -108,13 +119,61 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
     }
 
     protected final byte[] fetchBytes(String url, String referrer, int timeout) {
+        return fetchBytes(url, referrer, null, timeout);
+    }
+
+    protected final byte[] fetchBytes(String url, String referrer, String cookies, int timeout) {
         if (url.startsWith("htt")) { // http(s)
-            return client.getBytes(url, timeout, DEFAULT_USER_AGENT, referrer);
+            byte[] data = client.getBytes(url, timeout, DEFAULT_USER_AGENT, referrer, cookies);
+            if (data != null) {
+                metrics().downloaded(data.length);
+            }
+            return data;
         } else {
             return null;
         }
     }
 
+    /**
+     * Fetches a page and decodes it with the charset of the response.
+     *
+     * @return the page, or {@code null} if it could not be fetched
+     */
+    protected final PageBuffer fetchPageBuffer(String url, String cookies, int timeout) {
+        if (!url.startsWith("htt")) { // http(s)
+            return null;
+        }
+        Map<String, List<String>> headers = new HashMap<>();
+        byte[] data = client.getBytes(url, timeout, DEFAULT_USER_AGENT, null, cookies, headers);
+        if (data == null) {
+            return null;
+        }
+        metrics().downloaded(data.length);
+        return PageBuffer.decode(data, charset(headers));
+    }
+
+    /**
+     * @return the charset of the Content-Type header, or {@code null} if none is given
+     */
+    static String charset(Map<String, List<String>> headers) {
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            if (!"Content-Type".equalsIgnoreCase(e.getKey()) || e.getValue() == null || e.getValue().isEmpty()) {
+                continue;
+            }
+            for (String param : e.getValue().get(0).split(";")) {
+                param = param.trim();
+                if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                    String charset = param.substring(8).trim();
+                    if (charset.length() > 1 && charset.startsWith("\"") && charset.endsWith("\"")) {
+                        charset = charset.substring(1, charset.length() - 1);
+                    }
+                    return charset.isEmpty() ? null : charset;
+                }
+            }
+        }
+        return null;
+    }
+
     public static final boolean isStreamable(String filename) {
         String ext = FilenameUtils.getExtension(filename);
         for (String s : STREAMABLE_EXTENSIONS) {
@@ -129,4 +188,8 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
     public String getDomainName() {
         return domainName;
     }
+
+    public int getTimeout() {
+        return timeout;
+    }
 }
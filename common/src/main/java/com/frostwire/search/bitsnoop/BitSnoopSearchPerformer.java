@@ -61,7 +61,7 @@ public class BitSnoopSearchPerformer extends TorrentRegexSearchPerformer<BitSnoo
     }
 
     @Override
-    protected int preliminaryHtmlPrefixOffset(String html) {
+    protected int preliminaryHtmlPrefixOffset(PageBuffer html) {
         int offset = 0;
         final String HTML_CUE_POINT = "Search results for";
         try {
@@ -77,7 +77,7 @@ public class BitSnoopSearchPerformer extends TorrentRegexSearchPerformer<BitSnoo
     }
 
     @Override
-    protected int preliminaryHtmlSuffixOffset(String html) {
+    protected int preliminaryHtmlSuffixOffset(PageBuffer html) {
         int offset = html.length() - 1;
         try {
             offset = html.indexOf("<div id=\"pages\"");
@@ -94,7 +94,7 @@ public class BitSnoopSearchPerformer extends TorrentRegexSearchPerformer<BitSnoo
     }
 
     @Override
-    protected int htmlPrefixOffset(String html) {
+    protected int htmlPrefixOffset(PageBuffer html) {
         // we save at least 21kb of memory for every crawl.
         if (!isScrapingFile) {
             //when super.crawlResult is called it invokes htmlPrefixOffset
@@ -125,7 +125,7 @@ public class BitSnoopSearchPerformer extends TorrentRegexSearchPerformer<BitSnoo
     }
 
     @Override
-    protected int htmlSuffixOffset(String html) {
+    protected int htmlSuffixOffset(PageBuffer html) {
         if (!isScrapingFile) {
             // preliminaryHtmlSuffixOffset is not called on crawlResult() but this
             // is the offset we need when going for the parent result.
@@ -165,32 +165,36 @@ public class BitSnoopSearchPerformer extends TorrentRegexSearchPerformer<BitSnoo
             }
         }
 
-        final String fullHtml = new String(detailPageData, "UTF-8");
+        final PageBuffer fullHtml = PageBuffer.decode(detailPageData);
         final BitSnoopSearchResult parent = (BitSnoopSearchResult) searchResults.get(0);
         isScrapingFile = true;
-        final String scrapeHtml = PerformersHelper.reduceHtml(fullHtml, htmlPrefixOffset(fullHtml), htmlSuffixOffset(fullHtml));
-        final Matcher matcher = FILE_SCRAPE_PATTERN.matcher(scrapeHtml);
-        while (matcher.find()) {
-            try {
-                String line = matcher.group();
-                if (line != null && line.contains("\"filetype dir\"")) {
-                    continue;
+        try {
+            final PageBuffer scrapeHtml = fullHtml.reduce(htmlPrefixOffset(fullHtml), htmlSuffixOffset(fullHtml));
+            final Matcher matcher = FILE_SCRAPE_PATTERN.matcher(scrapeHtml);
+            while (matcher.find()) {
+                try {
+                    String line = matcher.group();
+                    if (line != null && line.contains("\"filetype dir\"")) {
+                        continue;
+                    }
+                    final String filePath = HtmlManipulator.replaceHtmlEntities(matcher.group("filepath"));
+                    final long fileSize = parseSize(matcher.group("filesize"), matcher.group("unit"));
+
+                    ScrapedTorrentFileSearchResult<BitSnoopSearchResult> scrapedResult =
+                            new ScrapedTorrentFileSearchResult<BitSnoopSearchResult>(parent,
+                                    filePath,
+                                    fileSize,
+                                    null,//"https://torcache.net/",
+                                    null
+                            );
+
+                    searchResults.add(scrapedResult);
+                } catch (Throwable t) {
+                    LOG.error(t.getMessage(), t);
                 }
-                final String filePath = HtmlManipulator.replaceHtmlEntities(matcher.group("filepath"));
-                final long fileSize = parseSize(matcher.group("filesize"), matcher.group("unit"));
-
-                ScrapedTorrentFileSearchResult<BitSnoopSearchResult> scrapedResult =
-                        new ScrapedTorrentFileSearchResult<BitSnoopSearchResult>(parent,
-                                filePath,
-                                fileSize,
-                                null,//"https://torcache.net/",
-                                null
-                        );
-
-                searchResults.add(scrapedResult);
-            } catch (Throwable t) {
-                LOG.error(t.getMessage(), t);
             }
+        } finally {
+            fullHtml.release();
         }
 
         // TODO: aldenml - Add album logic here, can't reason with isScrapingFile mutable flag.
@@ -143,12 +143,12 @@ public class BtjunkieSearchPerformer extends CrawlRegexSearchPerformer<BtjunkieS
     }
 
     @Override
-    protected int preliminaryHtmlPrefixOffset(String page) {
+    protected int preliminaryHtmlPrefixOffset(PageBuffer page) {
         return 18000;
     }
 
     @Override
-    protected int preliminaryHtmlSuffixOffset(String page) {
+    protected int preliminaryHtmlSuffixOffset(PageBuffer page) {
         return page.length() - 5000;
     }
 
@@ -19,6 +19,7 @@
 package com.frostwire.search.eztv;
 
 import com.frostwire.search.CrawlableSearchResult;
+import com.frostwire.search.PageBuffer;
 import com.frostwire.search.SearchMatcher;
 import com.frostwire.search.torrent.TorrentRegexSearchPerformer;
 import org.apache.commons.lang3.StringUtils;
@@ -70,6 +71,13 @@ public class EztvSearchPerformer extends TorrentRegexSearchPerformer<EztvSearchR
         return page != null && isValidPage(page) ? page : null;
     }
 
+    @Override
+    protected PageBuffer fetchSearchPageBuffer(String url) {
+        // the search is a form post, only available as a string
+        String page = fetchSearchPage(url);
+        return page != null ? PageBuffer.wrap(page) : null;
+    }
+
     @Override
     protected String getUrl(int page, String encodedKeywords) {
         return "https://" + getDomainName() + "/search/";
@@ -81,7 +89,7 @@ public class EztvSearchPerformer extends TorrentRegexSearchPerformer<EztvSearchR
     }
 
     @Override
-    protected int htmlPrefixOffset(String html) {
+    protected int htmlPrefixOffset(PageBuffer html) {
         int offset = html.indexOf("id=\"searchsearch_submit\"");
         return offset > 0 ? offset : 0;
     }
@@ -0,0 +1,120 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search.filter;
+
+import com.frostwire.search.CrawledSearchResult;
+import com.frostwire.search.HttpSearchResult;
+import com.frostwire.search.SearchResult;
+import com.frostwire.search.torrent.TorrentItemSearchResult;
+import com.frostwire.search.torrent.TorrentSearchResult;
+import com.frostwire.util.UrlUtils;
+
+import java.util.*;
+
+/**
+ * The same torrent (or http file) reported by several engines, the first
+ * result received is the one shown in the table and views.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class MergedResult {
+
+    private final String key;
+    private final SearchResult result;
+    private final List<SearchResult> results;
+
+    private int seeds;
+
+    MergedResult(String key, SearchResult result) {
+        this.key = key;
+        this.result = result;
+        this.results = new ArrayList<>(2);
+        this.seeds = -1;
+
+        add(result);
+    }
+
+    public String key() {
+        return key;
+    }
+
+    /**
+     * @return the result that represents all the duplicates
+     */
+    public SearchResult result() {
+        return result;
+    }
+
+    public List<SearchResult> results() {
+        return Collections.unmodifiableList(results);
+    }
+
+    public Set<String> sources() {
+        Set<String> s = new LinkedHashSet<>();
+        for (SearchResult sr : results) {
+            s.add(sr.getSource());
+        }
+        return s;
+    }
+
+    /**
+     * @return the best seed count of all the duplicates, -1 if these are not torrents
+     */
+    public int seeds() {
+        return seeds;
+    }
+
+    void add(SearchResult sr) {
+        results.add(sr);
+        if (sr instanceof TorrentSearchResult) {
+            seeds = Math.max(seeds, ((TorrentSearchResult) sr).getSeeds());
+        }
+    }
+
+    /**
+     * The info-hash for torrents (plus the file path for torrent items)
+     * and the normalized download url for http results.
+     *
+     * @param sr
+     * @return the key, or {@code null} if the result can't be merged
+     */
+    static String key(SearchResult sr) {
+        if (sr instanceof TorrentSearchResult) {
+            String hash = ((TorrentSearchResult) sr).getHash();
+            if (hash == null || hash.isEmpty()) {
+                return null;
+            }
+            hash = hash.toLowerCase(Locale.US);
+
+            if (sr instanceof TorrentItemSearchResult) {
+                return "btih:" + hash + "/" + ((TorrentItemSearchResult) sr).getFilePath();
+            }
+
+            // other crawled results, like albums, are not unique by info-hash
+            return sr instanceof CrawledSearchResult ? null : "btih:" + hash;
+        }
+
+        if (sr instanceof HttpSearchResult) {
+            String url = ((HttpSearchResult) sr).getDownloadUrl();
+            return url != null ? "url:" + UrlUtils.normalize(url) : null;
+        }
+
+        return null;
+    }
+}
@@ -35,10 +35,21 @@ public final class SearchGroup {
         this.data = new TreeSet<>(filter.comparator());
     }
 
+    private SearchGroup(SortedSet<SearchResult> data) {
+        this.data = data;
+    }
+
     public SortedSet<SearchResult> data() {
         return Collections.unmodifiableSortedSet(data);
     }
 
+    /**
+     * @return an independent copy of this group
+     */
+    SearchGroup snapshot() {
+        return new SearchGroup(new TreeSet<>(data));
+    }
+
     void add(SearchResult sr) {
         data.add(sr);
     }
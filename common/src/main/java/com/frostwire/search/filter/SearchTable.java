@@ -24,20 +24,32 @@ import java.lang.ref.WeakReference;
 import java.util.*;
 
 /**
+ * Thread safe table of search results.
+ * <p>
+ * All the writes are serialized by a single lock, and the views are
+ * updated inside it, so a view always reflects a prefix of the writes
+ * done to the table. Readers get immutable snapshots and never see a
+ * list in the middle of a modification.
+ *
  * @author gubatron
  * @author aldenml
  */
 public final class SearchTable {
 
     private final long token;
-    private final LinkedList<SearchResult> data;
+    private final ArrayList<SearchResult> data;
+    private final Map<String, MergedResult> index;
 
     private final LinkedList<WeakReference<SearchView>> views;
     private final Object lock;
 
+    // last snapshot of data, null if it needs to be rebuilt
+    private List<SearchResult> snapshot;
+
     public SearchTable(long token) {
         this.token = token;
-        this.data = new LinkedList<>();
+        this.data = new ArrayList<>();
+        this.index = new HashMap<>();
 
         this.views = new LinkedList<>();
         this.lock = new Object();
@@ -47,26 +59,103 @@ public final class SearchTable {
         return token;
     }
 
+    /**
+     * Returns an immutable snapshot of the results in the table, the
+     * snapshot is only rebuilt after a write.
+     *
+     * @return the current results
+     */
     public List<SearchResult> data() {
-        return Collections.unmodifiableList(data);
+        synchronized (lock) {
+            if (snapshot == null) {
+                snapshot = Collections.unmodifiableList(new ArrayList<>(data));
+            }
+            return snapshot;
+        }
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return data.size();
+        }
+    }
+
+    /**
+     * The duplicates are only merged for the consumers of the table, the
+     * crawls are scheduled and the listener of the search manager gets
+     * every result as the engines report it.
+     *
+     * @param sr a result of this table
+     * @return all the duplicates merged with this result, or {@code null}
+     * if this kind of result is not merged
+     */
+    public MergedResult merged(SearchResult sr) {
+        String key = MergedResult.key(sr);
+        if (key == null) {
+            return null;
+        }
+        synchronized (lock) {
+            return index.get(key);
+        }
     }
 
     public SearchView view(SearchFilter filter) {
-        SearchView v = new SearchView(this, filter);
+        // the view is filled and registered under the lock, this way
+        // no result is lost between the initial fill and the first add
         synchronized (lock) {
+            SearchView v = new SearchView(this, filter);
             views.add(Ref.weak(v));
+            return v;
+        }
+    }
+
+    void refresh(SearchView v) {
+        synchronized (lock) {
+            v.clear();
+            v.add(data);
         }
-        return v;
     }
 
     public void add(List<? extends SearchResult> results) {
-        data.addAll(results);
+        List<SearchResult> added = new ArrayList<>(results.size());
+        List<SearchResult> merged = new ArrayList<>(0);
+
         synchronized (lock) {
+            for (SearchResult sr : results) {
+                String key = MergedResult.key(sr);
+                if (key == null) {
+                    added.add(sr);
+                    continue;
+                }
+
+                MergedResult m = index.get(key);
+                if (m == null) {
+                    index.put(key, new MergedResult(key, sr));
+                    added.add(sr);
+                } else {
+                    m.add(sr);
+                    if (!merged.contains(m.result())) {
+                        merged.add(m.result());
+                    }
+                }
+            }
+
+            if (!added.isEmpty()) {
+                data.addAll(added);
+                snapshot = null;
+            }
+
             Iterator<WeakReference<SearchView>> it = views.iterator();
             while (it.hasNext()) {
                 WeakReference<SearchView> r = it.next();
                 if (Ref.alive(r)) {
-                    r.get().add(results);
+                    SearchView v = r.get();
+                    if (!added.isEmpty()) {
+                        v.add(added);
+                    }
+                    if (!merged.isEmpty()) {
+                        v.merged(merged);
+                    }
                 } else {
                     it.remove();
                 }
@@ -75,8 +164,11 @@ public final class SearchTable {
     }
 
     public void clear() {
-        data.clear();
         synchronized (lock) {
+            data.clear();
+            index.clear();
+            snapshot = null;
+
             Iterator<WeakReference<SearchView>> it = views.iterator();
             while (it.hasNext()) {
                 WeakReference<SearchView> r = it.next();
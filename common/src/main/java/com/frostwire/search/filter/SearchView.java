@@ -20,23 +20,72 @@ package com.frostwire.search.filter;
 import com.frostwire.search.SearchResult;
 
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * A filtered and grouped view of a {@link SearchTable}.
+ * <p>
+ * The view is updated incrementally with every write to the table, but
+ * the changes are accumulated and delivered to the listener in batches.
+ * By default a batch is delivered right away in the thread that wrote to
+ * the table, with {@link #setListener(SearchViewListener, Executor, long)}
+ * the changes are coalesced and delivered at most once per interval in
+ * the given executor (for example, the UI thread).
+ *
  * @author gubatron
  * @author aldenml
  */
 public final class SearchView {
 
+    private static final ScheduledExecutorService BATCHES_TIMER = newTimer();
+
     private final SearchTable table;
     private final SearchFilter filter;
     private final SortedMap<FilterKey, SearchGroup> groups;
+    private final Object lock;
+
+    private final Runnable flushTask;
+    private final Runnable scheduleTask;
 
-    private SearchViewListener listener;
+    private List<SearchResult> pendingAdded;
+    private List<SearchResult> pendingMerged;
+    private boolean pendingChanged;
+    private boolean flushScheduled;
+
+    private volatile SearchViewListener listener;
+    private volatile Executor executor;
+    private volatile long interval;
 
     public SearchView(SearchTable table, SearchFilter filter) {
         this.table = table;
         this.filter = filter;
         this.groups = new TreeMap<>();
+        this.lock = new Object();
+
+        this.flushTask = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+        this.scheduleTask = new Runnable() {
+            @Override
+            public void run() {
+                Executor e = executor;
+                if (e != null) {
+                    e.execute(flushTask);
+                } else {
+                    flush();
+                }
+            }
+        };
+
+        this.pendingAdded = new ArrayList<>();
+        this.pendingMerged = new ArrayList<>();
 
         add(table.data());
     }
@@ -45,54 +94,190 @@ public final class SearchView {
         return filter;
     }
 
+    /**
+     * Returns an immutable snapshot of the groups, it's safe to iterate
+     * over it while the table is being modified.
+     *
+     * @return the current groups
+     */
     public SortedMap<FilterKey, SearchGroup> groups() {
-        return Collections.unmodifiableSortedMap(groups);
+        synchronized (lock) {
+            SortedMap<FilterKey, SearchGroup> r = new TreeMap<>();
+            for (Map.Entry<FilterKey, SearchGroup> e : groups.entrySet()) {
+                r.put(e.getKey(), e.getValue().snapshot());
+            }
+            return Collections.unmodifiableSortedMap(r);
+        }
     }
 
     public void add(List<? extends SearchResult> results) {
-        LinkedList<SearchResult> added = new LinkedList<>();
+        synchronized (lock) {
+            boolean added = false;
+
+            for (SearchResult sr : results) {
+                if (filter.accept(sr)) {
+                    FilterKey key = filter.key(sr);
+                    SearchGroup group = groups.get(key);
 
-        for (SearchResult sr : results) {
-            if (filter.accept(sr)) {
-                FilterKey key = filter.key(sr);
-                SearchGroup group = groups.get(key);
+                    if (group == null) {
+                        group = new SearchGroup(filter);
+                        groups.put(key, group);
+                    }
 
-                if (group == null) {
-                    group = new SearchGroup(filter);
-                    groups.put(key, group);
+                    group.add(sr);
+                    pendingAdded.add(sr);
+                    added = true;
                 }
+            }
 
-                group.add(sr);
-                added.add(sr);
+            if (!added) {
+                return;
             }
         }
 
-        if (listener != null && added.size() > 0) {
-            listener.viewAdded(this, added);
+        dispatch();
+    }
+
+    /**
+     * Notifies the listener that more sources were found for results already
+     * in the view, see {@link SearchTable#merged(SearchResult)}.
+     *
+     * @param results the results that were merged with a duplicate
+     */
+    void merged(List<SearchResult> results) {
+        synchronized (lock) {
+            boolean merged = false;
+
+            for (SearchResult sr : results) {
+                if (filter.accept(sr) && !pendingMerged.contains(sr)) {
+                    pendingMerged.add(sr);
+                    merged = true;
+                }
+            }
+
+            if (!merged) {
+                return;
+            }
         }
+
+        dispatch();
     }
 
     public void refresh() {
-        clear();
-        add(table.data());
+        table.refresh(this);
     }
 
     public SearchViewListener getListener() {
         return listener;
     }
 
+    /**
+     * Sets a listener that is notified right away, in the thread that
+     * modified the table.
+     *
+     * @param listener
+     */
     public void setListener(SearchViewListener listener) {
+        setListener(listener, null, 0);
+    }
+
+    /**
+     * Sets a listener that receives the changes coalesced in batches, the
+     * pending changes are delivered at most once every {@code interval}
+     * milliseconds, always in {@code executor}.
+     *
+     * @param listener the listener, or {@code null} to remove it
+     * @param executor where to call the listener, {@code null} for the
+     *                 thread that modified the table
+     * @param interval the minimum time between two batches, in milliseconds
+     */
+    public void setListener(SearchViewListener listener, Executor executor, long interval) {
+        this.executor = executor;
+        this.interval = interval;
         this.listener = listener;
     }
 
     public void clear() {
-        for (SearchGroup g : groups.values()) {
-            g.clear();
+        synchronized (lock) {
+            for (SearchGroup g : groups.values()) {
+                g.clear();
+            }
+            groups.clear();
+
+            // everything pending is gone with this change
+            pendingAdded = new ArrayList<>();
+            pendingMerged = new ArrayList<>();
+            pendingChanged = true;
+        }
+
+        dispatch();
+    }
+
+    private void dispatch() {
+        long t = interval;
+        Executor e = executor;
+
+        if (t <= 0 && e == null) {
+            flush();
+            return;
+        }
+
+        synchronized (lock) {
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+
+        if (t > 0) {
+            BATCHES_TIMER.schedule(scheduleTask, t, TimeUnit.MILLISECONDS);
+        } else {
+            scheduleTask.run();
+        }
+    }
+
+    private void flush() {
+        List<SearchResult> added;
+        List<SearchResult> merged;
+        boolean changed;
+
+        synchronized (lock) {
+            added = pendingAdded;
+            merged = pendingMerged;
+            changed = pendingChanged;
+
+            pendingAdded = new ArrayList<>();
+            pendingMerged = new ArrayList<>();
+            pendingChanged = false;
+            flushScheduled = false;
+        }
+
+        SearchViewListener l = listener;
+        if (l == null) {
+            return;
         }
-        groups.clear();
 
-        if (listener != null) {
-            listener.viewChanged(this);
+        if (changed) {
+            l.viewChanged(this);
+        }
+        if (!added.isEmpty()) {
+            l.viewAdded(this, Collections.unmodifiableList(added));
+        }
+        if (!merged.isEmpty()) {
+            l.viewMerged(this, Collections.unmodifiableList(merged));
         }
     }
+
+    private static ScheduledExecutorService newTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SearchView-batches");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
 }
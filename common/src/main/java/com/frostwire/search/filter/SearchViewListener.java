@@ -30,4 +30,13 @@ public interface SearchViewListener {
     void viewChanged(SearchView view);
 
     void viewAdded(SearchView view, List<SearchResult> results);
+
+    /**
+     * Called with results already in the view that got new sources,
+     * instead of adding the duplicates as new results.
+     *
+     * @param view
+     * @param results
+     */
+    void viewMerged(SearchView view, List<SearchResult> results);
 }
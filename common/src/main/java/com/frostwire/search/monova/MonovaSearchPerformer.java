@@ -19,6 +19,7 @@
 package com.frostwire.search.monova;
 
 import com.frostwire.search.CrawlableSearchResult;
+import com.frostwire.search.PageBuffer;
 import com.frostwire.search.PerformersHelper;
 import com.frostwire.search.SearchMatcher;
 import com.frostwire.search.torrent.TorrentRegexSearchPerformer;
@@ -55,12 +56,12 @@ public class MonovaSearchPerformer extends TorrentRegexSearchPerformer<MonovaSea
     }
 
     @Override
-    protected String fetchSearchPage(String url) throws IOException {
-        return fetch(url, "MONOVA=1; MONOVA-ADULT=0; MONOVA-NON-ADULT=1;", null);
+    protected PageBuffer fetchSearchPageBuffer(String url) throws IOException {
+        return fetchPageBuffer(url, "MONOVA=1; MONOVA-ADULT=0; MONOVA-NON-ADULT=1;", getTimeout());
     }
 
     @Override
-    protected int preliminaryHtmlPrefixOffset(String page) {
+    protected int preliminaryHtmlPrefixOffset(PageBuffer page) {
         return page.indexOf("<div class=\"nav-wrapper\">");
     }
 
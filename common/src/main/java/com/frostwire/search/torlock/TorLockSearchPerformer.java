@@ -19,6 +19,7 @@
 package com.frostwire.search.torlock;
 
 import com.frostwire.search.CrawlableSearchResult;
+import com.frostwire.search.PageBuffer;
 import com.frostwire.search.SearchMatcher;
 import com.frostwire.search.torrent.TorrentRegexSearchPerformer;
 
@@ -53,13 +54,13 @@ public class TorLockSearchPerformer extends TorrentRegexSearchPerformer<TorLockS
     }
 
     @Override
-    protected int htmlPrefixOffset(String html) {
+    protected int htmlPrefixOffset(PageBuffer html) {
         int offset = html.indexOf("SIGN UP</a>");
         return offset > 0 ? offset : 0;
     }
 
     @Override
-    protected int htmlSuffixOffset(String html) {
+    protected int htmlSuffixOffset(PageBuffer html) {
         int offset = html.indexOf(">Description</a></li>");
         return offset > 0 ? offset : 0;
     }
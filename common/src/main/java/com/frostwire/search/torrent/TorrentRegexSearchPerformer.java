@@ -18,7 +18,6 @@
 package com.frostwire.search.torrent;
 
 import com.frostwire.logging.Logger;
-import com.frostwire.regex.Matcher;
 import com.frostwire.regex.Pattern;
 import com.frostwire.search.*;
 
@@ -77,27 +76,31 @@ public abstract class TorrentRegexSearchPerformer<T extends CrawlableSearchResul
             //in case we fetched a torrent's info (magnet, or the .torrent itself) to obtain 
             list.addAll(PerformersHelper.crawlTorrent(this, (TorrentCrawlableSearchResult) sr, data, detectAlbums));
         } else {
-            String unreducedHtml = new String(data, "UTF-8");
-            String html = PerformersHelper.reduceHtml(unreducedHtml, htmlPrefixOffset(unreducedHtml), htmlSuffixOffset(unreducedHtml));
-
-            if (html != null) {
-                Matcher matcher = htmlDetailPagePattern.matcher(html);
-    
-                try {
-                    if (matcher.find()) {
-                        T searchResult = fromHtmlMatcher(sr, SearchMatcher.from(matcher));
-                        if (searchResult != null) {
-                            list.add(searchResult);
+            PageBuffer unreducedHtml = PageBuffer.decode(data);
+            try {
+                PageBuffer html = unreducedHtml.reduce(htmlPrefixOffset(unreducedHtml), htmlSuffixOffset(unreducedHtml));
+
+                if (html != null) {
+                    SearchMatcher matcher = SearchMatcher.from(htmlDetailPagePattern, html);
+
+                    try {
+                        if (matcher.find()) {
+                            T searchResult = fromHtmlMatcher(sr, matcher);
+                            if (searchResult != null) {
+                                list.add(searchResult);
+                            }
+                        } else {
+                            LOG.error("Update Necessary: Search broken for " + sr.getClass().getPackage().getName() + "\n(please notify dev-team on twitter @frostwire or write to contact@frostwire.com if you keep seeing this message.)\n" + sr.getDetailsUrl()+"\n\n");
                         }
-                    } else {
-                        LOG.error("Update Necessary: Search broken for " + sr.getClass().getPackage().getName() + "\n(please notify dev-team on twitter @frostwire or write to contact@frostwire.com if you keep seeing this message.)\n" + sr.getDetailsUrl()+"\n\n");
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                        throw new Exception("URL:" + sr.getDetailsUrl() + " ("+ e.getMessage()+")", e);
                     }
-                } catch (Throwable e) {
-                    e.printStackTrace();
-                    throw new Exception("URL:" + sr.getDetailsUrl() + " ("+ e.getMessage()+")", e);
+                } else {
+                    LOG.error("Update Necessary: HTML could not be reduced for optimal search. Search broken for " + sr.getClass().getPackage().getName() + " (please notify dev-team on twitter @frostwire or write to contact@frostwire.com if you keep seeing this message.)");
                 }
-            } else {
-                LOG.error("Update Necessary: HTML could not be reduced for optimal search. Search broken for " + sr.getClass().getPackage().getName() + " (please notify dev-team on twitter @frostwire or write to contact@frostwire.com if you keep seeing this message.)");
+            } finally {
+                unreducedHtml.release();
             }
         }
 
@@ -110,7 +113,7 @@ public abstract class TorrentRegexSearchPerformer<T extends CrawlableSearchResul
      * override this methods to specify what offsets of the HTML file our
      * REGEX should be focusing on.
      */
-    protected int htmlPrefixOffset(String html) {
+    protected int htmlPrefixOffset(PageBuffer html) {
         return 0;
     }
     
@@ -120,7 +123,7 @@ public abstract class TorrentRegexSearchPerformer<T extends CrawlableSearchResul
      * override this methods to specify what offsets of the HTML file our
      * REGEX should be focusing on.
      */
-    protected int htmlSuffixOffset(String html) {
+    protected int htmlSuffixOffset(PageBuffer html) {
         return html.length();
     }
 
@@ -19,6 +19,7 @@
 package com.frostwire.search.torrentdownloads;
 
 import com.frostwire.search.CrawlableSearchResult;
+import com.frostwire.search.PageBuffer;
 import com.frostwire.search.SearchMatcher;
 import com.frostwire.search.torrent.TorrentRegexSearchPerformer;
 
@@ -52,13 +53,13 @@ public class TorrentDownloadsSearchPerformer extends TorrentRegexSearchPerformer
     }
 
     @Override
-    protected int htmlPrefixOffset(String html) {
+    protected int htmlPrefixOffset(PageBuffer html) {
         int offset = html.indexOf("Torrent Search Results<span>");
         return offset > 0 ? offset : 0;
     }
 
     @Override
-    protected int htmlSuffixOffset(String html) {
+    protected int htmlSuffixOffset(PageBuffer html) {
         int offset = html.indexOf("<h1>RECENT SEARCHES");
         return offset > 0 ? offset : 0;
     }
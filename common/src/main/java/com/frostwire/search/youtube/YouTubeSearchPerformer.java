@@ -21,6 +21,7 @@ package com.frostwire.search.youtube;
 import com.frostwire.logging.Logger;
 import com.frostwire.regex.Pattern;
 import com.frostwire.search.CrawlRegexSearchPerformer;
+import com.frostwire.search.PageBuffer;
 import com.frostwire.search.SearchMatcher;
 import com.frostwire.search.SearchResult;
 import com.frostwire.search.youtube.YouTubeExtractor.LinkInfo;
@@ -52,6 +53,8 @@ public final class YouTubeSearchPerformer extends CrawlRegexSearchPerformer<YouT
 
     public YouTubeSearchPerformer(String domainName, long token, String keywords, int timeout) {
         super(domainName, token, keywords, timeout, 2, MAX_RESULTS, MAX_RESULTS);
+        // the first page has the most relevant results
+        setPaging(true, true);
     }
 
     @Override
@@ -124,7 +127,7 @@ public final class YouTubeSearchPerformer extends CrawlRegexSearchPerformer<YouT
     }
 
     @Override
-    protected int preliminaryHtmlPrefixOffset(String page) {
+    protected int preliminaryHtmlPrefixOffset(PageBuffer page) {
         int offset = page.indexOf("<div class=\"yt-uix-hovercard-content\">");
         if (offset == -1) {
             offset = page.indexOf("class=\"num-results first-focus\"");
@@ -133,7 +136,7 @@ public final class YouTubeSearchPerformer extends CrawlRegexSearchPerformer<YouT
     }
 
     @Override
-    protected List<? extends SearchResult> searchPage(String page) {
+    protected List<? extends SearchResult> searchPage(PageBuffer page) {
         LinkedList<SearchResult> r = new LinkedList<>();
         r.addAll(super.searchPage(page));
 
@@ -143,7 +146,7 @@ public final class YouTubeSearchPerformer extends CrawlRegexSearchPerformer<YouT
     }
 
     @Override
-    protected int preliminaryHtmlSuffixOffset(String page) {
+    protected int preliminaryHtmlSuffixOffset(PageBuffer page) {
         return page.indexOf("<div id=\"footer-container\"");
     }
 
@@ -157,24 +160,24 @@ public final class YouTubeSearchPerformer extends CrawlRegexSearchPerformer<YouT
     }
 
     @Override
-    protected String fetchSearchPage(String url) throws IOException {
-        return fetch(url, "PREF=hl=en&f4=4000000&f5=30&f1=50000000;", null);
+    protected PageBuffer fetchSearchPageBuffer(String url) throws IOException {
+        return fetchPageBuffer(url, "PREF=hl=en&f4=4000000&f5=30&f1=50000000;", getTimeout());
     }
 
     // yes, mutable but private...performance and immutable from outside
-    private void performSecondaryContent(String page, LinkedList<SearchResult> r) {
+    private void performSecondaryContent(PageBuffer page, LinkedList<SearchResult> r) {
         try {
             String s1 = "earch-secondary-col-contents\">";
             String s2 = "<div id=\"ad_creative_1";
             int i1 = page.indexOf(s1);
             int i2 = page.indexOf(s2);
             if (i1 > 0 && i2 > 0 && i1 < i2) {
-                page = page.substring(i1 + s1.length(), i2);
+                page = page.window(i1 + s1.length(), i2);
 
-                SearchMatcher mTitle = SearchMatcher.from(TITLE_SECONDARY_PATTERN.matcher(page));
+                SearchMatcher mTitle = SearchMatcher.from(TITLE_SECONDARY_PATTERN, page);
                 if (mTitle.find()) {
                     String user = mTitle.group("title");
-                    SearchMatcher mList = SearchMatcher.from(LIST_SECONDARY_PATTERN.matcher(page));
+                    SearchMatcher mList = SearchMatcher.from(LIST_SECONDARY_PATTERN, page);
 
                     while (mList.find()) {
                         String link = mList.group("link");
@@ -28,15 +28,19 @@ import com.frostwire.util.http.HttpClient;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author gubatron
@@ -46,8 +50,17 @@ public abstract class BaseHttpDownload implements Transfer {
 
     private static final Logger LOG = Logger.getLogger(BaseHttpDownload.class);
 
-    // is 20 concurrent downloads enough?
-    private static final ExecutorService THREAD_POOL = ThreadPool.newThreadPool("HttpDownload", 20, true);
+    private static final HttpDownloadScheduler SCHEDULER = new HttpDownloadScheduler("HttpDownload", 20, 6);
+    private static final ExecutorService FINISHING_POOL = ThreadPool.newThreadPool("HttpDownload-finishing", true);
+    // not bounded here, the scheduler limits the active downloads (and the limit can change)
+    private static final ExecutorService SEGMENTS_POOL = ThreadPool.newThreadPool("HttpDownload-segments", true);
+
+    private static final int SEGMENTED_CONNECTIONS = 4;
+    // below this size one connection is good enough
+    private static final long SEGMENTED_MIN_SIZE = 4 * 1024 * 1024;
+    private static final int HEAD_TIMEOUT = 10000;
+    private static final int STREAM_TIMEOUT = 10000;
+    private static final int MAX_REDIRECTS = 5;
 
     protected final Info info;
 
@@ -59,6 +72,11 @@ public abstract class BaseHttpDownload implements Transfer {
     protected SpeedStat stat;
     protected boolean complete;
 
+    // downloaded at the same time, each one resumable on its own
+    private final List<Part> parts;
+    private volatile HttpDownloadScheduler.Priority priority;
+    private volatile boolean paused;
+
     protected BaseHttpDownload(Info info) {
         this.info = info;
 
@@ -81,6 +99,15 @@ public abstract class BaseHttpDownload implements Transfer {
         this.stat = new SpeedStat();
         this.state = TransferState.WAITING;
         this.complete = false;
+        this.parts = new CopyOnWriteArrayList<>();
+        this.priority = HttpDownloadScheduler.Priority.NORMAL;
+    }
+
+    /**
+     * The scheduler of all the HTTP downloads, to change the limits.
+     */
+    public static HttpDownloadScheduler scheduler() {
+        return SCHEDULER;
     }
 
     @Override
@@ -163,12 +190,68 @@ public abstract class BaseHttpDownload implements Transfer {
         return Collections.emptyList();
     }
 
+    public HttpDownloadScheduler.Priority priority() {
+        return priority;
+    }
+
+    /**
+     * Moves the download in the queue, it doesn't affect an active download.
+     */
+    public void priority(HttpDownloadScheduler.Priority priority) {
+        this.priority = priority;
+        for (Part part : parts) {
+            SCHEDULER.priority(part, priority);
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Stops the download, freeing its place in the scheduler. If it is
+     * active, the state is PAUSING until the connection is closed.
+     */
+    public void pause() {
+        if (complete || paused || (state != TransferState.WAITING && state != TransferState.DOWNLOADING)) {
+            return;
+        }
+
+        paused = true;
+        state = TransferState.PAUSING;
+        for (Part part : parts) {
+            SCHEDULER.cancel(part);
+        }
+        updatePaused();
+    }
+
+    /**
+     * Queues the download again, continuing the parts where they were paused.
+     */
+    public void resume() {
+        if (complete || state != TransferState.PAUSED) {
+            return;
+        }
+
+        paused = false;
+        state = TransferState.WAITING;
+        for (Part part : parts) {
+            if (!part.done) {
+                part.resume = true;
+                SCHEDULER.submit(part, part.url);
+            }
+        }
+    }
+
     @Override
     public void remove(boolean deleteData) {
         if (complete) {
             return;
         }
 
+        for (Part part : parts) {
+            SCHEDULER.cancel(part);
+        }
         complete(state = TransferState.CANCELED);
 
         FileSystem fs = Platforms.fileSystem();
@@ -176,6 +259,7 @@ public abstract class BaseHttpDownload implements Transfer {
         if (fs.delete(tempPath)) {
             LOG.warn("Error deleting temporary file: " + tempPath);
         }
+        fs.delete(SegmentedDownloader.stateFile(tempPath));
         if (deleteData) {
             if (fs.delete(savePath)) {
                 LOG.warn("Error deleting download data file: " + savePath);
@@ -183,27 +267,129 @@ public abstract class BaseHttpDownload implements Transfer {
         }
     }
 
+    /**
+     * Queues the download of a part in the scheduler, the parts started
+     * together run at the same time, {@link #onHttpComplete()} is called
+     * when all of them are done. An error in one part stops the others.
+     */
     protected void start(final String url, final File temp, final boolean resume) {
         if (complete) {
             return;
         }
 
-        THREAD_POOL.execute(new Thread(getDisplayName()) {
-            public void run() {
-                try {
-                    if (complete) {
-                        return;
-                    }
+        Part part = new Part(url, temp, resume);
+        parts.add(part);
+        paused = false;
+        if (state != TransferState.DOWNLOADING) {
+            state = TransferState.WAITING;
+        }
+        SCHEDULER.priority(part, priority);
+        SCHEDULER.submit(part, url);
+    }
 
-                    state = TransferState.DOWNLOADING;
-                    HttpClient client = HttpClientFactory.getInstance(HttpClientFactory.HttpContext.DOWNLOAD);
-                    client.setListener(new DownloadListener());
-                    client.save(url, temp, resume);
-                } catch (Throwable e) {
-                    error(e);
+    /**
+     * Queues a part that is not saved to a file, the body is passed to the
+     * sink as it arrives. After a pause it continues from the sink position.
+     */
+    protected void start(final String url, final PartSink sink) {
+        if (complete) {
+            return;
+        }
+
+        Part part = new Part(url, sink);
+        parts.add(part);
+        paused = false;
+        if (state != TransferState.DOWNLOADING) {
+            state = TransferState.WAITING;
+        }
+        SCHEDULER.priority(part, priority);
+        SCHEDULER.submit(part, url);
+    }
+
+    private void partComplete(Part part) throws Throwable {
+        boolean all;
+        synchronized (parts) {
+            part.done = true;
+            all = true;
+            for (Part p : parts) {
+                all = all && p.done;
+            }
+        }
+        if (all) {
+            onHttpComplete();
+        }
+    }
+
+    private void updatePaused() {
+        for (Part part : parts) {
+            if (part.running) {
+                return;
+            }
+        }
+        if (paused && state == TransferState.PAUSING) {
+            state = TransferState.PAUSED;
+        }
+    }
+
+    /**
+     * Downloads over several connections, if the server supports byte
+     * ranges and the file is big enough.
+     *
+     * @return false if the download should be done over one connection
+     */
+    private boolean segmentedDownload(Part part, String url, File temp, boolean resume) throws Throwable {
+        HttpClient client = HttpClientFactory.getInstance(HttpClientFactory.HttpContext.DOWNLOAD);
+
+        Map<String, List<String>> headers = new HashMap<>();
+        int code;
+        try {
+            code = client.head(url, HEAD_TIMEOUT, headers);
+            for (int i = 0; i < MAX_REDIRECTS && code >= 300 && code < 400; i++) {
+                String location = header(headers, "Location");
+                if (location == null) {
+                    return false;
                 }
+                url = new URL(new URL(url), location).toString();
+                headers.clear();
+                code = client.head(url, HEAD_TIMEOUT, headers);
             }
-        });
+        } catch (Throwable e) {
+            LOG.warn("Unable to probe for range support, using one connection: " + e.getMessage());
+            return false;
+        }
+
+        if (code != 200 || !"bytes".equalsIgnoreCase(header(headers, "Accept-Ranges"))) {
+            return false;
+        }
+        long size;
+        try {
+            size = Long.parseLong(header(headers, "Content-Length"));
+        } catch (Throwable e) {
+            return false;
+        }
+        if (size < SEGMENTED_MIN_SIZE) {
+            return false;
+        }
+
+        SegmentedDownloader downloader = new SegmentedDownloader(url, temp, size, SEGMENTED_CONNECTIONS, SEGMENTS_POOL, new DownloadListener(part));
+        long missing = downloader.prepare(resume) - part.received.get();
+        if (missing > 0) {
+            // downloaded in a previous session
+            part.received.addAndGet(missing);
+            stat.updateTotal(stat.totalBytes() + missing);
+        }
+        downloader.download();
+        partComplete(part);
+        return true;
+    }
+
+    private static String header(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            if (name.equalsIgnoreCase(e.getKey()) && e.getValue() != null && !e.getValue().isEmpty()) {
+                return e.getValue().get(0);
+            }
+        }
+        return null;
     }
 
     protected final void complete(TransferState state) {
@@ -216,6 +402,12 @@ public abstract class BaseHttpDownload implements Transfer {
                 } catch (Throwable e) {
                     error(e);
                 }
+            } else if (state != TransferState.CANCELED) {
+                try {
+                    onError();
+                } catch (Throwable e) {
+                    LOG.warn("Error releasing resources of failed download", e);
+                }
             }
         }
     }
@@ -226,7 +418,7 @@ public abstract class BaseHttpDownload implements Transfer {
         }
 
         state = TransferState.FINISHING;
-        THREAD_POOL.execute(new Runnable() {
+        FINISHING_POOL.execute(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -243,7 +435,10 @@ public abstract class BaseHttpDownload implements Transfer {
     }
 
     protected final void error(Throwable e) {
-        if (state != TransferState.CANCELED) {
+        // the pause breaks the connection, and the first error stops the other
+        // parts, their errors are not reported
+        boolean stopped = complete && state != TransferState.COMPLETE;
+        if (state != TransferState.CANCELED && !paused && !stopped) {
             complete(TransferState.ERROR);
             LOG.error("General error in download", e);
 
@@ -292,6 +487,13 @@ public abstract class BaseHttpDownload implements Transfer {
     protected void onComplete() throws Throwable {
     }
 
+    /**
+     * Called once when the download stops with an error state, the parts
+     * could still be running.
+     */
+    protected void onError() throws Throwable {
+    }
+
     static void simpleHTTP(String url, OutputStream out, int timeout) throws Throwable {
         URL u = new URL(url);
         URLConnection con = u.openConnection();
@@ -300,7 +502,7 @@ public abstract class BaseHttpDownload implements Transfer {
         InputStream in = con.getInputStream();
         try {
 
-            byte[] b = new byte[1024];
+            byte[] b = new byte[32 * 1024];
             int n = 0;
             while ((n = in.read(b, 0, b.length)) != -1) {
                 out.write(b, 0, n);
@@ -340,6 +542,12 @@ public abstract class BaseHttpDownload implements Transfer {
 
     private final class DownloadListener extends HttpClient.HttpClientListenerAdapter {
 
+        private final Part part;
+
+        DownloadListener(Part part) {
+            this.part = part;
+        }
+
         @Override
         public void onHeaders(HttpClient httpClient, Map<String, List<String>> headerFields) {
         }
@@ -351,8 +559,19 @@ public abstract class BaseHttpDownload implements Transfer {
 
         @Override
         public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+            if (part.sink != null) {
+                if (complete || paused) {
+                    throw new RuntimeException("Invalid status, transfer cancelled");
+                }
+                try {
+                    part.sink.write(buffer, offset, length);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            part.received.addAndGet(length);
             stat.update(length);
-            if (complete) {
+            if (complete || paused) {
                 // ok, this is not the most elegant solution but it effectively breaks the
                 // download logic flow.
                 throw new RuntimeException("Invalid status, transfer cancelled");
@@ -362,13 +581,95 @@ public abstract class BaseHttpDownload implements Transfer {
         @Override
         public void onComplete(HttpClient client) {
             try {
-                onHttpComplete();
+                partComplete(part);
+            } catch (Throwable e) {
+                error(e);
+            }
+        }
+    }
+
+    private final class Part extends HttpDownloadScheduler.Job {
+
+        final String url;
+        final File temp;
+        final PartSink sink;
+        volatile boolean resume;
+        volatile boolean running;
+        volatile boolean done;
+        // the segmented downloads report from several connections
+        final AtomicLong received;
+
+        Part(String url, File temp, boolean resume) {
+            this.url = url;
+            this.temp = temp;
+            this.sink = null;
+            this.resume = resume;
+            this.received = new AtomicLong();
+        }
+
+        Part(String url, PartSink sink) {
+            this.url = url;
+            this.temp = null;
+            this.sink = sink;
+            this.resume = false;
+            this.received = new AtomicLong();
+        }
+
+        @Override
+        protected void run() {
+            running = true;
+            try {
+                if (complete || paused || done) {
+                    return;
+                }
+
+                state = TransferState.DOWNLOADING;
+                if (sink != null) {
+                    HttpClient client = HttpClientFactory.getInstance(HttpClientFactory.HttpContext.DOWNLOAD);
+                    client.setListener(new DownloadListener(this));
+                    client.getRange(url, sink.position(), -1, STREAM_TIMEOUT, null);
+                    return;
+                }
+                if (segmentedDownload(this, url, temp, resume)) {
+                    return;
+                }
+                boolean resume = this.resume;
+                File stateFile = SegmentedDownloader.stateFile(temp);
+                if (stateFile.exists()) {
+                    if (resume) {
+                        // the file was preallocated with holes, one stream can't continue it
+                        LOG.warn("Unable to resume the segmented download, starting over one connection: " + url);
+                        temp.delete();
+                        stat.updateTotal(Math.max(0, stat.totalBytes() - received.getAndSet(0)));
+                        resume = false;
+                    }
+                    stateFile.delete();
+                }
+                HttpClient client = HttpClientFactory.getInstance(HttpClientFactory.HttpContext.DOWNLOAD);
+                client.setListener(new DownloadListener(this));
+                client.save(url, temp, resume);
             } catch (Throwable e) {
                 error(e);
+            } finally {
+                running = false;
+                updatePaused();
             }
         }
     }
 
+    /**
+     * The destination of a part that is not saved to a file.
+     */
+    protected interface PartSink {
+
+        /**
+         * @return the bytes already written, where to continue
+         */
+        long position();
+
+        void write(byte[] b, int off, int len) throws IOException;
+    }
+
     public static final class Info {
 
         private final String url;
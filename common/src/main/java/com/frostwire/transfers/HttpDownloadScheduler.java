@@ -0,0 +1,241 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.transfers;
+
+import com.frostwire.logging.Logger;
+import com.frostwire.util.ThreadPool;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs the HTTP downloads with a limit of active downloads, in total and
+ * per host, the rest wait in a queue by priority and then by order of
+ * arrival. Nothing is rejected.
+ * <p>
+ * Only the active downloads take a thread, a waiting (or paused) download
+ * is just an entry in the queue.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class HttpDownloadScheduler {
+
+    private static final Logger LOG = Logger.getLogger(HttpDownloadScheduler.class);
+
+    private final ExecutorService executor;
+
+    private final TreeSet<Job> waiting;
+    private final Map<String, Integer> hosts;
+    private int active;
+    private long seq;
+
+    private int maxActive;
+    private int maxPerHost;
+
+    /**
+     * @param maxPerHost the limit of active downloads from the same host, 0 for no limit
+     */
+    public HttpDownloadScheduler(String name, int maxActive, int maxPerHost) {
+        this.executor = ThreadPool.newThreadPool(name, true);
+        this.waiting = new TreeSet<>(new Comparator<Job>() {
+            @Override
+            public int compare(Job o1, Job o2) {
+                int c = o2.priority.compareTo(o1.priority);
+                return c != 0 ? c : Long.compare(o1.seq, o2.seq);
+            }
+        });
+        this.hosts = new HashMap<>();
+        this.maxActive = maxActive;
+        this.maxPerHost = maxPerHost;
+    }
+
+    public synchronized int maxActive() {
+        return maxActive;
+    }
+
+    /**
+     * Lowering the limit doesn't stop the active downloads, the new ones
+     * wait until there are less than the limit.
+     */
+    public void maxActive(int value) {
+        synchronized (this) {
+            maxActive = value;
+        }
+        dispatch();
+    }
+
+    public synchronized int maxPerHost() {
+        return maxPerHost;
+    }
+
+    public void maxPerHost(int value) {
+        synchronized (this) {
+            maxPerHost = value;
+        }
+        dispatch();
+    }
+
+    public synchronized int active() {
+        return active;
+    }
+
+    public synchronized int waiting() {
+        return waiting.size();
+    }
+
+    /**
+     * Queues the job to download from the url. If the job is active it runs
+     * again after it finishes, ahead of the jobs queued later.
+     */
+    public void submit(Job job, String url) {
+        synchronized (this) {
+            job.host = host(url);
+            if (job.seq == 0) {
+                job.seq = ++seq;
+            }
+            if (job.active) {
+                job.again = true;
+            } else {
+                waiting.add(job);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Removes the job from the queue, an active job is not stopped.
+     *
+     * @return true if the job was waiting
+     */
+    public synchronized boolean cancel(Job job) {
+        job.again = false;
+        return waiting.remove(job);
+    }
+
+    public synchronized Priority priority(Job job) {
+        return job.priority;
+    }
+
+    public void priority(Job job, Priority priority) {
+        synchronized (this) {
+            // the set is sorted by priority
+            boolean queued = waiting.remove(job);
+            job.priority = priority;
+            if (queued) {
+                waiting.add(job);
+            }
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        List<Job> jobs = new ArrayList<>();
+
+        synchronized (this) {
+            Iterator<Job> it = waiting.iterator();
+            while (active < maxActive && it.hasNext()) {
+                Job job = it.next();
+                Integer n = hosts.get(job.host);
+                if (maxPerHost > 0 && n != null && n >= maxPerHost) {
+                    continue;
+                }
+                it.remove();
+                hosts.put(job.host, n != null ? n + 1 : 1);
+                active++;
+                job.active = true;
+                job.activeHost = job.host;
+                jobs.add(job);
+            }
+        }
+
+        for (Job job : jobs) {
+            execute(job);
+        }
+    }
+
+    private void execute(final Job job) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    job.run();
+                } catch (Throwable e) {
+                    LOG.error("Error running download job", e);
+                } finally {
+                    done(job);
+                }
+            }
+        });
+    }
+
+    private void done(Job job) {
+        synchronized (this) {
+            // the job could have been submitted again with another host
+            Integer n = hosts.get(job.activeHost);
+            if (n != null && n > 1) {
+                hosts.put(job.activeHost, n - 1);
+            } else {
+                hosts.remove(job.activeHost);
+            }
+            active--;
+            job.active = false;
+            job.activeHost = null;
+            if (job.again) {
+                job.again = false;
+                waiting.add(job);
+            }
+        }
+        dispatch();
+    }
+
+    private static String host(String url) {
+        try {
+            String host = new URL(url).getHost();
+            return host != null ? host.toLowerCase(Locale.US) : "";
+        } catch (Throwable e) {
+            return "";
+        }
+    }
+
+    public enum Priority {
+        LOW, NORMAL, HIGH
+    }
+
+    /**
+     * A download in the scheduler, the same job is submitted again to resume it
+     * or to download another part.
+     */
+    public static abstract class Job {
+
+        // guarded by the scheduler
+        private Priority priority = Priority.NORMAL;
+        private long seq;
+        private String host;
+        private String activeHost;
+        private boolean active;
+        private boolean again;
+
+        /**
+         * Runs in the scheduler thread, blocking until the download stops.
+         */
+        protected abstract void run();
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.transfers;
+
+import com.frostwire.logging.Logger;
+import com.frostwire.util.HttpClientFactory;
+import com.frostwire.util.http.HttpClient;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Downloads a resource over several connections, each one with a byte
+ * range (segment) of the file, written with positional writes in a
+ * preallocated file.
+ * <p>
+ * When a connection runs out of segments it takes the second half of
+ * the segment that would take the longest to finish. The segments are
+ * saved in a side file, so a resumed download continues each one where
+ * it was.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+final class SegmentedDownloader {
+
+    private static final Logger LOG = Logger.getLogger(SegmentedDownloader.class);
+
+    // segments smaller than this are not split
+    static final long MIN_SEGMENT_SIZE = 512 * 1024;
+
+    private static final int TIMEOUT = 10000;
+    private static final int MAX_RETRIES = 3;
+    private static final long SAVE_STATE_INTERVAL_MILLIS = 2000;
+    private static final int STATE_MAGIC = 0x46575347;
+
+    private final String url;
+    private final File file;
+    private final File stateFile;
+    private final long size;
+    private final int connections;
+    private final Executor executor;
+    private final HttpClient.HttpClientListener listener;
+
+    private final List<Segment> segments;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private volatile boolean aborted;
+    private Throwable error;
+    private long lastSave;
+
+    /**
+     * @param listener receives the {@code onData} of every connection, for the
+     *                 accounting, it can throw to cancel the download
+     */
+    SegmentedDownloader(String url, File file, long size, int connections, Executor executor, HttpClient.HttpClientListener listener) {
+        this.url = url;
+        this.file = file;
+        this.stateFile = stateFile(file);
+        this.size = size;
+        this.connections = connections;
+        this.executor = executor;
+        this.listener = listener;
+        this.segments = new ArrayList<>();
+    }
+
+    static File stateFile(File file) {
+        return new File(file.getAbsolutePath() + ".segments");
+    }
+
+    /**
+     * Opens (and preallocates) the file and sets up the segments.
+     *
+     * @param resume continue from the saved segments, if they match the file
+     * @return the bytes already downloaded
+     */
+    synchronized long prepare(boolean resume) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            if (!resume || !loadState() || raf.length() != size) {
+                segments.clear();
+                // saved before the file has holes, it must not be resumed as a plain download
+                split();
+                saveState();
+                raf.setLength(size);
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        channel = raf.getChannel();
+
+        long n = 0;
+        for (Segment s : segments) {
+            n += s.pos - s.start;
+        }
+        return n;
+    }
+
+    /**
+     * Runs the download, blocking the calling thread until it finishes.
+     */
+    void download() throws Throwable {
+        try {
+
+            final CountDownLatch latch = new CountDownLatch(connections);
+            Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        work();
+                    } catch (Throwable e) {
+                        abort(e);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            };
+            int started = 0;
+            try {
+                for (; started < connections - 1; started++) {
+                    executor.execute(worker);
+                }
+            } catch (RejectedExecutionException e) {
+                abort(e);
+                // the workers that never started, the others see the abort
+                for (int i = started; i < connections - 1; i++) {
+                    latch.countDown();
+                }
+            }
+            // the last connection in this thread
+            worker.run();
+            latch.await();
+        } finally {
+            try {
+                synchronized (this) {
+                    saveState();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+
+        synchronized (this) {
+            if (error != null) {
+                throw error;
+            }
+            for (Segment s : segments) {
+                if (s.pos < s.end) {
+                    throw new IOException("Segmented download incomplete: " + s);
+                }
+            }
+        }
+
+        if (!stateFile.delete() && stateFile.exists()) {
+            LOG.warn("Unable to delete segments file: " + stateFile);
+        }
+    }
+
+    private void work() throws Throwable {
+        Segment s;
+        while (!aborted && (s = next()) != null) {
+            int retries = 0;
+            while (!aborted && remaining(s) > 0) {
+                long before = position(s);
+                IOException failure = null;
+                try {
+                    fetch(s);
+                } catch (IOException e) {
+                    failure = e;
+                }
+                if (position(s) > before) {
+                    retries = 0;
+                } else if (!aborted && ++retries > MAX_RETRIES) {
+                    throw failure != null ? failure : new IOException("No data for segment " + s);
+                } else if (failure != null) {
+                    LOG.warn("Error downloading segment " + s + ", retrying: " + failure.getMessage());
+                }
+            }
+            synchronized (this) {
+                s.active = false;
+            }
+        }
+    }
+
+    private synchronized long position(Segment s) {
+        return s.pos;
+    }
+
+    private synchronized long remaining(Segment s) {
+        return s.remaining();
+    }
+
+    private void fetch(Segment s) throws IOException {
+        HttpClient client = HttpClientFactory.getInstance(HttpClientFactory.HttpContext.DOWNLOAD);
+        client.setListener(new SegmentListener(s));
+        long start;
+        long end;
+        synchronized (this) {
+            start = s.pos;
+            end = s.end;
+        }
+        client.getRange(url, start, end - 1, TIMEOUT, null);
+    }
+
+    /**
+     * @return the next segment to download, a new one split from the slowest
+     * in progress if all are taken, or {@code null} if there is nothing to do
+     */
+    private synchronized Segment next() {
+        for (Segment s : segments) {
+            if (!s.active && s.remaining() > 0) {
+                s.activate();
+                return s;
+            }
+        }
+
+        Segment slowest = null;
+        long slowestEta = 0;
+        long now = System.currentTimeMillis();
+        for (Segment s : segments) {
+            if (s.active && s.remaining() >= 2 * MIN_SEGMENT_SIZE) {
+                long eta = s.eta(now);
+                if (slowest == null || eta > slowestEta) {
+                    slowest = s;
+                    slowestEta = eta;
+                }
+            }
+        }
+
+        if (slowest == null) {
+            return null;
+        }
+
+        long mid = slowest.pos + slowest.remaining() / 2;
+        Segment stolen = new Segment(mid, mid, slowest.end);
+        slowest.end = mid;
+        segments.add(stolen);
+        stolen.activate();
+        return stolen;
+    }
+
+    private void abort(Throwable e) {
+        synchronized (this) {
+            if (error == null) {
+                error = e;
+            }
+        }
+        aborted = true;
+    }
+
+    private void split() {
+        long length = Math.max(size / connections, MIN_SEGMENT_SIZE);
+        long start = 0;
+        while (start < size) {
+            long end = size - start < length + MIN_SEGMENT_SIZE ? size : start + length;
+            segments.add(new Segment(start, start, end));
+            start = end;
+        }
+    }
+
+    private boolean loadState() {
+        if (!stateFile.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)));
+            try {
+                if (in.readInt() != STATE_MAGIC || in.readLong() != size) {
+                    return false;
+                }
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    segments.add(new Segment(in.readLong(), in.readLong(), in.readLong()));
+                }
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (Throwable e) {
+            LOG.warn("Unable to read segments file: " + stateFile, e);
+            segments.clear();
+            return false;
+        }
+    }
+
+    private void saveState() {
+        try {
+            File tmp = new File(stateFile.getAbsolutePath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(STATE_MAGIC);
+                out.writeLong(size);
+                out.writeInt(segments.size());
+                for (Segment s : segments) {
+                    out.writeLong(s.start);
+                    out.writeLong(s.pos);
+                    out.writeLong(s.end);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(stateFile)) {
+                // windows doesn't replace on rename
+                stateFile.delete();
+                if (!tmp.renameTo(stateFile)) {
+                    LOG.warn("Unable to save segments file: " + stateFile);
+                }
+            }
+            lastSave = System.currentTimeMillis();
+        } catch (Throwable e) {
+            LOG.warn("Unable to save segments file: " + stateFile, e);
+        }
+    }
+
+    private final class SegmentListener extends HttpClient.HttpClientListenerAdapter {
+
+        private final Segment s;
+
+        SegmentListener(Segment s) {
+            this.s = s;
+        }
+
+        @Override
+        public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+            if (aborted) {
+                client.cancel();
+                return;
+            }
+
+            long pos;
+            int n;
+            synchronized (SegmentedDownloader.this) {
+                pos = s.pos;
+                // the end could have moved, stolen by another connection
+                n = (int) Math.min(length, s.end - pos);
+            }
+
+            if (n > 0) {
+                try {
+                    ByteBuffer bb = ByteBuffer.wrap(buffer, offset, n);
+                    long p = pos;
+                    while (bb.hasRemaining()) {
+                        p += channel.write(bb, p);
+                    }
+                } catch (IOException e) {
+                    abort(e);
+                    client.cancel();
+                    return;
+                }
+
+                synchronized (SegmentedDownloader.this) {
+                    s.pos = pos + n;
+                    if (System.currentTimeMillis() - lastSave > SAVE_STATE_INTERVAL_MILLIS) {
+                        saveState();
+                    }
+                }
+
+                listener.onData(client, buffer, offset, n);
+            }
+
+            if (n < length || remaining(s) <= 0) {
+                client.cancel();
+            }
+        }
+    }
+
+    private static final class Segment {
+
+        final long start;
+        long pos;
+        long end;
+
+        boolean active;
+        long activeTime;
+        long activePos;
+
+        Segment(long start, long pos, long end) {
+            this.start = start;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        long remaining() {
+            return end - pos;
+        }
+
+        void activate() {
+            active = true;
+            activeTime = System.currentTimeMillis();
+            activePos = pos;
+        }
+
+        /**
+         * @return the estimated milliseconds to finish, by the rate since activated
+         */
+        long eta(long now) {
+            long bytes = pos - activePos;
+            long elapsed = Math.max(now - activeTime, 1);
+            return bytes > 0 ? remaining() * elapsed / bytes : Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start + ", " + pos + ", " + end + ")";
+        }
+    }
+}
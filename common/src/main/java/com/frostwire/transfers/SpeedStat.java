@@ -19,50 +19,176 @@
 package com.frostwire.transfers;
 
 /**
+ * Transfer rate estimator, an exponentially weighted moving average of
+ * the per-interval rates, with a ring of the last rates for graphs.
+ * <p>
+ * The update path does not allocate, it is called for every chunk of
+ * data. There is one writer at a time (the updates are serialized), the
+ * reads from other threads see the last published values.
+ *
  * @author gubatron
  * @author aldenml
  */
-final class SpeedStat {
-
-    private static final int INTERVAL_MILLISECONDS = 1000;
-
-    private long totalBytes;
-    private long averageSpeed; // in bytes
+public final class SpeedStat {
+
+    private static final long DEFAULT_INTERVAL_MILLISECONDS = 1000;
+    private static final double DEFAULT_ALPHA = 0.3;
+    private static final int DEFAULT_HISTORY = 60;
+
+    // with no data for this many intervals the speed is decayed on read
+    private static final int STALL_INTERVALS = 2;
+
+    private final Clock clock;
+    private final long interval; // in nanoseconds
+    private final double alpha;
+    private final long[] history;
+
+    private volatile long totalBytes;
+    private volatile long averageSpeed; // in bytes per second
+
+    private long markTime;
+    private long markBytes;
+    private double ewma;
+    private boolean started;
+    private int head;
+    private int count;
+
+    /**
+     * @param intervalMillis the sampling interval
+     * @param alpha          the weight of a new interval rate, in (0, 1]
+     * @param historySize    the number of interval rates to keep
+     */
+    public SpeedStat(long intervalMillis, double alpha, int historySize) {
+        this(intervalMillis, alpha, historySize, Clock.SYSTEM);
+    }
 
-    private long speedMarkTimestamp;
-    private long lastTotalBytes;
+    SpeedStat(long intervalMillis, double alpha, int historySize, Clock clock) {
+        if (intervalMillis <= 0 || alpha <= 0 || alpha > 1 || historySize <= 0) {
+            throw new IllegalArgumentException("Invalid speed stat parameters");
+        }
+        this.clock = clock;
+        this.interval = intervalMillis * 1000000L;
+        this.alpha = alpha;
+        this.history = new long[historySize];
+    }
 
     public SpeedStat() {
+        this(DEFAULT_INTERVAL_MILLISECONDS, DEFAULT_ALPHA, DEFAULT_HISTORY);
     }
 
     public long totalBytes() {
         return totalBytes;
     }
 
+    /**
+     * @return the smoothed speed, in bytes per second
+     */
     public long averageSpeed() {
+        long now = clock.nanoTime();
+        synchronized (this) {
+            if (started && now - markTime >= STALL_INTERVALS * interval) {
+                // no data for a while, the stall counts as a sample
+                sample(now);
+            }
+        }
         return averageSpeed;
     }
 
-    public void update(long numBytes) {
-        long now = System.currentTimeMillis();
-
+    /**
+     * Adds the bytes received (or sent) since the last update.
+     */
+    public synchronized void update(long numBytes) {
         totalBytes += numBytes;
+        tick(clock.nanoTime());
+    }
 
-        if (now - speedMarkTimestamp > INTERVAL_MILLISECONDS) {
-            averageSpeed = ((totalBytes - lastTotalBytes) * 1000) / (now - speedMarkTimestamp);
-            speedMarkTimestamp = now;
-            lastTotalBytes = totalBytes;
+    /**
+     * Sets the total bytes, for the sources that report an absolute
+     * counter. If the counter goes back (a recheck for example), the
+     * estimation starts again from there.
+     */
+    public synchronized void updateTotal(long total) {
+        if (total < markBytes) {
+            markBytes = total;
         }
+        totalBytes = total;
+        tick(clock.nanoTime());
+    }
+
+    public synchronized void reset() {
+        totalBytes = 0;
+        averageSpeed = 0;
+        markBytes = 0;
+        ewma = 0;
+        started = false;
+        head = 0;
+        count = 0;
+    }
+
+    /**
+     * Copies the interval rates, the oldest first.
+     *
+     * @param dest the destination, it should be at least {@link #historySize()} long
+     * @return the number of rates copied
+     */
+    public synchronized int history(long[] dest) {
+        int n = Math.min(count, dest.length);
+        int start = head - n;
+        for (int i = 0; i < n; i++) {
+            int k = start + i;
+            dest[i] = history[k < 0 ? k + history.length : k];
+        }
+        return n;
+    }
+
+    public int historySize() {
+        return history.length;
     }
 
     public long eta(long size) {
-        return eta(size, totalBytes, averageSpeed);
+        return eta(size, totalBytes, averageSpeed());
     }
 
     public int progress(long size) {
         return progress(size, totalBytes);
     }
 
+    private void tick(long now) {
+        if (!started) {
+            started = true;
+            markTime = now;
+            markBytes = totalBytes;
+            return;
+        }
+        if (now - markTime >= interval) {
+            sample(now);
+        }
+    }
+
+    private void sample(long now) {
+        long elapsed = now - markTime;
+        long rate = (long) ((totalBytes - markBytes) * 1e9 / elapsed);
+
+        if (count == 0) {
+            ewma = rate;
+        } else {
+            // an elapsed time of several intervals weights as that many samples
+            double intervals = (double) elapsed / interval;
+            double a = intervals > 1 ? 1 - Math.pow(1 - alpha, intervals) : alpha;
+            ewma += a * (rate - ewma);
+        }
+
+        history[head] = rate;
+        head = (head + 1) % history.length;
+        if (count < history.length) {
+            count++;
+        }
+
+        markTime = now;
+        markBytes = totalBytes;
+        averageSpeed = Math.round(ewma);
+    }
+
     static long eta(long size, long total, long speed) {
         long left = size - total;
         long rate = speed;
@@ -81,4 +207,19 @@ final class SpeedStat {
     static int progress(long size, long total) {
         return size > 0 ? (int) ((total * 100) / size) : 0;
     }
+
+    /**
+     * The source of the time, replaced in the tests.
+     */
+    interface Clock {
+
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+        };
+
+        long nanoTime();
+    }
 }
@@ -23,6 +23,7 @@ import com.frostwire.mp4.Box;
 import com.frostwire.mp4.IsoFile;
 import com.frostwire.mp4.Mp4Demuxer;
 import com.frostwire.mp4.Mp4Info;
+import com.frostwire.mp4.Mp4StreamMuxer;
 import com.frostwire.platform.FileSystem;
 import com.frostwire.platform.Platforms;
 import com.frostwire.search.youtube.YouTubeCrawledSearchResult;
@@ -51,6 +52,8 @@ public class YouTubeDownload extends BaseHttpDownload {
     private final File tempAudio;
 
     private long demuxerReadCount;
+    // DASH, the streams are muxed as they arrive
+    private Mp4StreamMuxer muxer;
 
     public YouTubeDownload(YouTubeCrawledSearchResult sr) {
         super(convert(sr));
@@ -81,22 +84,6 @@ public class YouTubeDownload extends BaseHttpDownload {
         return null;
     }
 
-    @Override
-    protected void onHttpComplete() throws Throwable {
-        boolean callSuper = true;
-        if (downloadType == DownloadType.DASH) {
-            FileSystem fs = Platforms.fileSystem();
-            if (fs.exists(tempVideo) && !fs.exists(tempAudio)) {
-                start(sr.getAudio().link, tempAudio, false);
-                callSuper = false;
-            }
-        }
-
-        if (callSuper) {
-            super.onHttpComplete();
-        }
-    }
-
     @Override
     protected void onFinishing() throws Throwable {
         if (downloadType == DownloadType.VIDEO) {
@@ -121,35 +108,50 @@ public class YouTubeDownload extends BaseHttpDownload {
             }
 
         } else if (downloadType == DownloadType.DASH) {
-            // intentionally not using FileSystem here
-            if (tempVideo.exists() && tempAudio.exists()) {
-                state = TransferState.DEMUXING;
-                Mp4Demuxer.muxFragments(tempVideo.getAbsoluteFile(), tempAudio.getAbsoluteFile(), tempPath.getAbsoluteFile(), buildMp4Info(false), null);
-
-                moveAndComplete(tempPath, savePath);
-
-                FileSystem fs = Platforms.fileSystem();
-                if (!fs.delete(tempVideo)) {
-                    LOG.warn("Error deleting temporary video file: " + tempVideo);
-                }
-                if (!fs.delete(tempAudio)) {
-                    LOG.warn("Error deleting temporary audio file: " + tempAudio);
-                }
-
-            } else {
-                complete(TransferState.ERROR);
-            }
+            // only the sample tables are left to write
+            muxer.finish(buildMp4Info(false));
+            moveAndComplete(tempPath, savePath);
         }
     }
 
     public void start() {
         if (downloadType == DownloadType.DEMUX) {
             start(sr.getAudio().link, tempAudio, false);
+        } else if (downloadType == DownloadType.DASH) {
+            // both streams at the same time, into the final mp4
+            try {
+                muxer = new Mp4StreamMuxer(tempPath.getAbsoluteFile(), 2);
+            } catch (Throwable e) {
+                error(e);
+                return;
+            }
+            start(sr.getVideo().link, sink(muxer.track(0)));
+            start(sr.getAudio().link, sink(muxer.track(1)));
         } else {
             start(sr.getVideo().link, tempVideo, false);
         }
     }
 
+    @Override
+    public void remove(boolean deleteData) {
+        super.remove(deleteData);
+        if (muxer != null) {
+            // the output stays open after a cancel
+            muxer.close();
+            if (state != TransferState.COMPLETE) {
+                Platforms.fileSystem().delete(tempPath);
+            }
+        }
+    }
+
+    @Override
+    protected void onError() throws Throwable {
+        if (muxer != null) {
+            // the parts still writing get an error, and that's ignored
+            muxer.close();
+        }
+    }
+
     public int demuxingProgress() {
         if (state == TransferState.DEMUXING) {
             if (demuxerReadCount > 0) { // in case fmp4 fail
@@ -162,6 +164,20 @@ public class YouTubeDownload extends BaseHttpDownload {
         return 0;
     }
 
+    private static PartSink sink(final Mp4StreamMuxer.Track track) {
+        return new PartSink() {
+            @Override
+            public long position() {
+                return track.position();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                track.write(b, off, len);
+            }
+        };
+    }
+
     private static Info convert(YouTubeCrawledSearchResult sr) {
         return new Info(sr.getDownloadUrl(), sr.getFilename(), sr.getDisplayName(), sr.getSize());
     }
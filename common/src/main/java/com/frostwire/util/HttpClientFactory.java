@@ -17,9 +17,11 @@
 
 package com.frostwire.util;
 
+import com.frostwire.util.http.HostPermits;
 import com.frostwire.util.http.HttpClient;
 import com.frostwire.util.http.JdkHttpClient;
 import com.frostwire.util.http.OKHTTPClient;
+import com.squareup.okhttp.OkHttpClient;
 
 import java.util.HashMap;
 import java.util.Locale;
@@ -39,7 +41,8 @@ public class HttpClientFactory {
         MISC
     }
 
-    private static Map<HttpContext, ThreadPool> okHttpClientPools = null;
+    private static Map<HttpContext, OkHttpClient> okHttpClients = null;
+    private static Map<HttpContext, HostPermits> hostPermits = null;
 
     private HttpClientFactory() {
     }
@@ -53,17 +56,32 @@ public class HttpClientFactory {
             return new JdkHttpClient();
         }
 
-        if (okHttpClientPools == null) {
-            okHttpClientPools = buildThreadPools();
+        synchronized (HttpClientFactory.class) {
+            if (okHttpClients == null) {
+                okHttpClients = buildOkHttpClients();
+                hostPermits = buildHostPermits();
+            }
         }
-        return new OKHTTPClient(okHttpClientPools.get(context));
+        return new OKHTTPClient(okHttpClients.get(context), hostPermits.get(context));
     }
 
-    private static Map<HttpContext, ThreadPool> buildThreadPools() {
-        final HashMap<HttpContext, ThreadPool> map = new HashMap<>();
-        map.put(HttpContext.SEARCH, new ThreadPool("OkHttpClient-searches", 1, 5, 60, new LinkedBlockingQueue<Runnable>(), true));
-        map.put(HttpContext.DOWNLOAD, new ThreadPool("OkHttpClient-downloads", 1, 10, 5, new LinkedBlockingQueue<Runnable>(), true));
-        map.put(HttpContext.MISC, new ThreadPool("OkHttpClient-misc", 2, 10, 30, new LinkedBlockingQueue<Runnable>(), true));
+    /**
+     * One long lived client per context, each with its own connection pool,
+     * so keep-alive connections (and TLS sessions) are reused between calls.
+     */
+    private static Map<HttpContext, OkHttpClient> buildOkHttpClients() {
+        final HashMap<HttpContext, OkHttpClient> map = new HashMap<>();
+        map.put(HttpContext.SEARCH, OKHTTPClient.newOkHttpClient(new ThreadPool("OkHttpClient-searches", 1, 5, 60, new LinkedBlockingQueue<Runnable>(), true), 16, 5 * 60 * 1000, 6));
+        map.put(HttpContext.DOWNLOAD, OKHTTPClient.newOkHttpClient(new ThreadPool("OkHttpClient-downloads", 1, 10, 5, new LinkedBlockingQueue<Runnable>(), true), 8, 60 * 1000, 0));
+        map.put(HttpContext.MISC, OKHTTPClient.newOkHttpClient(new ThreadPool("OkHttpClient-misc", 2, 10, 30, new LinkedBlockingQueue<Runnable>(), true), 5, 2 * 60 * 1000, 4));
+        return map;
+    }
+
+    private static Map<HttpContext, HostPermits> buildHostPermits() {
+        final HashMap<HttpContext, HostPermits> map = new HashMap<>();
+        map.put(HttpContext.SEARCH, new HostPermits(6));
+        map.put(HttpContext.DOWNLOAD, new HostPermits(0)); // limited by the transfers
+        map.put(HttpContext.MISC, new HostPermits(4));
         return map;
     }
 
@@ -0,0 +1,149 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls for the same work: the first caller for a key
+ * runs the task and the callers arriving while it is in flight wait for it
+ * and receive the same value, or the same error.
+ * <p>
+ * A flight can be registered under a key and an optional alias, for example
+ * the url of a torrent and its info-hash, and joining by any of them works.
+ * Nothing is kept after the flight lands, caching the value is up to the
+ * caller.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class SingleFlight<V> {
+
+    private final ConcurrentHashMap<String, Flight<V>> flights;
+    private final AtomicLong joined;
+
+    public SingleFlight() {
+        this.flights = new ConcurrentHashMap<>();
+        this.joined = new AtomicLong();
+    }
+
+    /**
+     * @param key     the main key, not null
+     * @param alias   another key for the same work, can be null
+     * @param timeout max time to wait for a flight run by another caller, in milliseconds
+     * @param task    the work to run if there is no flight for the key or alias
+     * @return the value of the task
+     * @throws ExecutionException if the task failed, in this or in the leader caller
+     * @throws TimeoutException   if the flight took longer than the timeout
+     */
+    public V execute(String key, String alias, long timeout, Callable<V> task) throws ExecutionException, TimeoutException, InterruptedException {
+        Flight<V> f = new Flight<>();
+
+        Flight<V> current = flights.putIfAbsent(key, f);
+        if (current != null) {
+            return join(current, timeout);
+        }
+
+        if (alias != null && !alias.equals(key)) {
+            current = flights.putIfAbsent(alias, f);
+            if (current != null) {
+                // the same work is in flight by the alias, forward its
+                // result to the callers that already joined by the key
+                try {
+                    V value = join(current, timeout);
+                    f.land(value, null);
+                    return value;
+                } catch (ExecutionException e) {
+                    f.land(null, e.getCause());
+                    throw e;
+                } catch (Throwable e) {
+                    f.land(null, e);
+                    throw e;
+                } finally {
+                    flights.remove(key, f);
+                }
+            }
+        } else {
+            alias = null;
+        }
+
+        try {
+            f.land(task.call(), null);
+        } catch (Throwable e) {
+            f.land(null, e);
+        } finally {
+            flights.remove(key, f);
+            if (alias != null) {
+                flights.remove(alias, f);
+            }
+        }
+
+        return f.value();
+    }
+
+    /**
+     * @return the number of calls that received the value of another call
+     */
+    public long joined() {
+        return joined.get();
+    }
+
+    /**
+     * @return the number of flights in progress, counting aliases
+     */
+    public int size() {
+        return flights.size();
+    }
+
+    private V join(Flight<V> f, long timeout) throws ExecutionException, TimeoutException, InterruptedException {
+        if (!f.latch.await(timeout, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("Flight still in progress after " + timeout + "ms");
+        }
+        joined.incrementAndGet();
+        return f.value();
+    }
+
+    private static final class Flight<V> {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        // written before the latch is released
+        private V value;
+        private Throwable error;
+
+        void land(V value, Throwable error) {
+            this.value = value;
+            this.error = error;
+            latch.countDown();
+        }
+
+        V value() throws ExecutionException {
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return value;
+        }
+    }
+}
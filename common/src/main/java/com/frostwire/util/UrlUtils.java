@@ -19,8 +19,11 @@
 package com.frostwire.util;
 
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.Locale;
 
 /**
  * @author gubatron
@@ -53,4 +56,46 @@ public final class UrlUtils {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Normalizes the url for comparison purposes: lower case scheme and host,
+     * no default port, no fragment and "/" for an empty path.
+     *
+     * @param url
+     * @return the normalized url, or the trimmed url if it can't be parsed
+     */
+    public static String normalize(String url) {
+        if (url == null) {
+            return null;
+        }
+
+        url = url.trim();
+
+        try {
+            URI u = new URI(url);
+            String scheme = u.getScheme();
+            String host = u.getHost();
+            if (scheme == null || host == null) {
+                return url;
+            }
+            scheme = scheme.toLowerCase(Locale.US);
+            host = host.toLowerCase(Locale.US);
+
+            int port = u.getPort();
+            if ((port == 80 && scheme.equals("http")) || (port == 443 && scheme.equals("https"))) {
+                port = -1;
+            }
+
+            String path = u.getRawPath();
+            if (path == null || path.isEmpty()) {
+                path = "/";
+            }
+
+            String query = u.getRawQuery();
+
+            return scheme + "://" + host + (port != -1 ? ":" + port : "") + path + (query != null ? "?" + query : "");
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
 }
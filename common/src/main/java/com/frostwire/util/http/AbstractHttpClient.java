@@ -23,10 +23,10 @@ import com.frostwire.util.UserAgentGenerator;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
-import java.io.Closeable;
-import java.io.File;
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.SecureRandom;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +37,16 @@ import java.util.Map;
  */
 public abstract class AbstractHttpClient implements HttpClient {
     private static final Logger LOG = Logger.getLogger(AbstractHttpClient.class);
+
+    private static final int SAVE_BUFFER_SIZE = 128 * 1024;
+
+    // reused by all the saves of the same thread
+    private static final ThreadLocal<byte[]> SAVE_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[SAVE_BUFFER_SIZE];
+        }
+    };
     protected static final int DEFAULT_TIMEOUT = 10000;
     protected static final String DEFAULT_USER_AGENT = UserAgentGenerator.getUserAgent();
     protected static final SSLSocketFactory CUSTOM_SSL_SOCKET_FACTORY = createCustomSSLSocketFactory();
@@ -142,7 +152,12 @@ public abstract class AbstractHttpClient implements HttpClient {
     }
 
     @Override
-    abstract public byte[] getBytes(String url, int timeout, String userAgent, String referrer, String cookies);
+    public byte[] getBytes(String url, int timeout, String userAgent, String referrer, String cookies) {
+        return getBytes(url, timeout, userAgent, referrer, cookies, null);
+    }
+
+    @Override
+    abstract public byte[] getBytes(String url, int timeout, String userAgent, String referrer, String cookies, Map<String, List<String>> outputHeaders);
 
     @Override
     public void save(String url, File file) throws IOException {
@@ -160,7 +175,85 @@ public abstract class AbstractHttpClient implements HttpClient {
     }
 
     @Override
-    abstract public void save(String url, File file, boolean resume, int timeout, String userAgent, String referrer) throws IOException;
+    public void save(String url, File file, boolean resume, int timeout, String userAgent, String referrer) throws IOException {
+        save(url, file, resume, timeout, userAgent, referrer, SaveOptions.DEFAULT);
+    }
+
+    /**
+     * Copies the body into the channel, reporting the progress and forcing
+     * the data to the disk as the options say, until the end or a cancel.
+     */
+    protected final void transfer(InputStream in, FileChannel out, SaveOptions options) throws IOException {
+        byte[] b = SAVE_BUFFER.get();
+        ByteBuffer bb = ByteBuffer.wrap(b);
+
+        long progressBytes = options.progressBytes();
+        long progressNanos = options.progressMillis() * 1000000L;
+        long syncBytes = options.syncBytes();
+
+        long pending = 0;
+        long unsynced = 0;
+        long lastProgress = System.nanoTime();
+
+        int n = 0;
+        while (!canceled && n != -1) {
+            // fill the buffer for one write, the streams return small reads
+            // (okio hands out 8KB segments) and available() is of no help,
+            // so stop early only when a progress call is due
+            int len = 0;
+            while (len < b.length && (n = in.read(b, len, b.length - len)) != -1) {
+                len += n;
+                if (System.nanoTime() - lastProgress >= progressNanos) {
+                    break;
+                }
+            }
+
+            if (len > 0 && !canceled) {
+                bb.clear();
+                bb.limit(len);
+                while (bb.hasRemaining()) {
+                    out.write(bb);
+                }
+                pending += len;
+                unsynced += len;
+
+                if (syncBytes > 0 && unsynced >= syncBytes) {
+                    out.force(false);
+                    unsynced = 0;
+                }
+
+                long now = System.nanoTime();
+                if (pending >= progressBytes || now - lastProgress >= progressNanos) {
+                    onData(null, 0, (int) pending);
+                    pending = 0;
+                    lastProgress = now;
+                }
+            }
+        }
+
+        if (pending > 0) {
+            onData(null, 0, (int) pending);
+        }
+        if (syncBytes >= 0 && unsynced > 0) {
+            out.force(false);
+        }
+    }
+
+    /**
+     * @return true if the response is the content of the range, a server without
+     * range support answers the whole resource with OK
+     */
+    protected static boolean rangeResponse(int code, long rangeStart, long rangeEnd) {
+        return code == HttpURLConnection.HTTP_PARTIAL ||
+                (code == HttpURLConnection.HTTP_OK && rangeStart == 0 && rangeEnd < 0);
+    }
+
+    /**
+     * @return the channel to save the body, positioned at the end if resuming
+     */
+    protected static FileChannel openSaveChannel(File file, boolean resume) throws IOException {
+        return new FileOutputStream(file, resume).getChannel();
+    }
 
     @Override
     abstract public String post(String url, int timeout, String userAgent, Map<String, String> formData) throws IOException;
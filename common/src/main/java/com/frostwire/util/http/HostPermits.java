@@ -0,0 +1,99 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of requests in flight to the same host, shared by
+ * all the clients of the same {@link com.frostwire.util.HttpClientFactory.HttpContext}.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class HostPermits {
+
+    private final int maxPerHost;
+    private final Map<String, Semaphore> permits;
+
+    /**
+     * @param maxPerHost maximum number of concurrent requests per host, 0 for unlimited
+     */
+    public HostPermits(int maxPerHost) {
+        this.maxPerHost = maxPerHost;
+        this.permits = new HashMap<>();
+    }
+
+    public int maxPerHost() {
+        return maxPerHost;
+    }
+
+    /**
+     * Waits up to {@code timeout} milliseconds for a free slot for the host of {@code url}.
+     *
+     * @return the permit to pass to {@link #release(Semaphore)}, {@code null} if there is no limit
+     */
+    Semaphore acquire(String url, int timeout) throws IOException {
+        if (maxPerHost <= 0) {
+            return null;
+        }
+
+        Semaphore s = hostPermits(host(url));
+        try {
+            if (!s.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new InterruptedIOException("Timeout waiting for a connection slot to " + url);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection slot to " + url);
+        }
+        return s;
+    }
+
+    void release(Semaphore permit) {
+        if (permit != null) {
+            permit.release();
+        }
+    }
+
+    private Semaphore hostPermits(String host) {
+        synchronized (permits) {
+            Semaphore s = permits.get(host);
+            if (s == null) {
+                s = new Semaphore(maxPerHost);
+                permits.put(host, s);
+            }
+            return s;
+        }
+    }
+
+    private static String host(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host : url;
+        } catch (Throwable e) {
+            return url;
+        }
+    }
+}
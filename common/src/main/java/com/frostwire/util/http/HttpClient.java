@@ -67,6 +67,11 @@ public interface HttpClient {
 
     byte[] getBytes(String url, int timeout, String userAgent, String referrer, String cookies);
 
+    /**
+     * @param outputHeaders filled with the headers of the response, if not {@code null}
+     */
+    byte[] getBytes(String url, int timeout, String userAgent, String referrer, String cookies, Map<String, List<String>> outputHeaders);
+
     void save(String url, File file) throws IOException;
 
     void save(String url, File file, boolean resume) throws IOException;
@@ -75,6 +80,24 @@ public interface HttpClient {
 
     void save(String url, File file, boolean resume, int timeout, String userAgent, String referrer) throws IOException;
 
+    /**
+     * Saves the body into the file through a file channel, with a large
+     * buffer. The listener {@code onData} is called with the bytes saved
+     * since the previous call and a {@code null} buffer, as often as
+     * the options say, not for every read.
+     */
+    void save(String url, File file, boolean resume, int timeout, String userAgent, String referrer, SaveOptions options) throws IOException;
+
+    /**
+     * Requests the bytes [rangeStart, rangeEnd] of the resource, the body is only
+     * passed to the listener {@code onData}, nothing is saved.
+     *
+     * @param rangeEnd the last byte (inclusive), or -1 for the rest of the resource
+     * @throws RangeNotSupportedException if the server doesn't answer with partial content,
+     *                                    a full response is fine for the whole resource
+     */
+    void getRange(String url, long rangeStart, long rangeEnd, int timeout, String userAgent) throws IOException;
+
     String post(String url, int timeout, String userAgent, Map<String, String> formData) throws IOException;
 
     String post(String url, int timeout, String userAgent, String content, boolean gzip) throws IOException;
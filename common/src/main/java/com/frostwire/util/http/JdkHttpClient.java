@@ -26,6 +26,7 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -52,14 +53,14 @@ public final class JdkHttpClient extends AbstractHttpClient {
     }
 
     @Override
-    public byte[] getBytes(String url, int timeout, String userAgent, String referrer, String cookies) {
+    public byte[] getBytes(String url, int timeout, String userAgent, String referrer, String cookies, Map<String, List<String>> outputHeaders) {
         byte[] result = null;
 
         ByteArrayOutputStream baos = null;
 
         try {
             baos = new ByteArrayOutputStream();
-            get(url, baos, timeout, userAgent, referrer, cookies, -1);
+            get(url, baos, timeout, userAgent, referrer, cookies, -1, -1, null, outputHeaders);
 
             result = baos.toByteArray();
         } catch (Throwable e) {
@@ -79,7 +80,7 @@ public final class JdkHttpClient extends AbstractHttpClient {
 
         try {
             baos = new ByteArrayOutputStream();
-            get(url, baos, timeout, userAgent, referrer, cookie, -1, -1, customHeaders);
+            get(url, baos, timeout, userAgent, referrer, cookie, -1, -1, customHeaders, null);
 
             result = new String(baos.toByteArray(), "UTF-8");
         } catch (java.net.SocketTimeoutException timeoutException) {
@@ -94,22 +95,74 @@ public final class JdkHttpClient extends AbstractHttpClient {
     }
 
     @Override
-    public void save(String url, File file, boolean resume, int timeout, String userAgent, String referrer) throws IOException {
-        FileOutputStream fos = null;
-        long rangeStart;
+    public void save(String url, File file, boolean resume, int timeout, String userAgent, String referrer, SaveOptions options) throws IOException {
+        canceled = false;
+        resume = resume && file.exists();
+        final URLConnection conn = connect(url, timeout, userAgent, referrer, null, resume ? file.length() : -1, -1, null);
+        final InputStream in = inputStream(conn);
+        FileChannel out = null;
 
         try {
-            if (resume && file.exists()) {
-                fos = new FileOutputStream(file, true);
-                rangeStart = file.length();
+            out = openSaveChannel(file, resume);
+            transfer(in, out, options);
+            closeQuietly(out);
+
+            if (canceled) {
+                onCancel();
             } else {
-                fos = new FileOutputStream(file, false);
-                rangeStart = -1;
+                onComplete();
+            }
+        } catch (Exception e) {
+            onError(e);
+        } finally {
+            closeQuietly(out);
+            closeQuietly(in);
+            closeQuietly(conn);
+        }
+    }
+
+    @Override
+    public void getRange(String url, long rangeStart, long rangeEnd, int timeout, String userAgent) throws IOException {
+        canceled = false;
+        final HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+
+        conn.setConnectTimeout(timeout);
+        conn.setReadTimeout(timeout);
+        conn.setRequestProperty("User-Agent", userAgent != null ? userAgent : DEFAULT_USER_AGENT);
+        conn.setRequestProperty("Range", "bytes=" + rangeStart + "-" + (rangeEnd >= 0 ? String.valueOf(rangeEnd) : ""));
+        conn.setInstanceFollowRedirects(true);
+
+        if (conn instanceof HttpsURLConnection) {
+            setHostnameVerifier((HttpsURLConnection) conn);
+        }
+
+        try {
+            int httpResponseCode = getResponseCode(conn);
+            if (!rangeResponse(httpResponseCode, rangeStart, rangeEnd)) {
+                throw new RangeNotSupportedException("Server does not support bytes range request, code: " + httpResponseCode);
+            }
+            onHeaders(conn.getHeaderFields());
+
+            InputStream in = conn.getInputStream();
+            try {
+                byte[] b = new byte[4096];
+                int n;
+                while (!canceled && (n = in.read(b, 0, b.length)) != -1) {
+                    if (!canceled) {
+                        onData(b, 0, n);
+                    }
+                }
+            } finally {
+                closeQuietly(in);
             }
 
-            get(url, fos, timeout, userAgent, null, referrer, rangeStart);
+            if (canceled) {
+                onCancel();
+            } else {
+                onComplete();
+            }
         } finally {
-            closeQuietly(fos);
+            closeQuietly(conn);
         }
     }
 
@@ -231,12 +284,42 @@ public final class JdkHttpClient extends AbstractHttpClient {
         }
     }
 
-    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, long rangeStart) throws IOException {
-        get(url, out, timeout, userAgent, referrer, cookie, rangeStart, -1, null);
+    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, long rangeStart, long rangeLength, final Map<String, String> customHeaders, Map<String, List<String>> outputHeaders) throws IOException {
+        canceled = false;
+        final URLConnection conn = connect(url, timeout, userAgent, referrer, cookie, rangeStart, rangeLength, customHeaders);
+        final InputStream in = inputStream(conn);
+        copyMultiMap(conn.getHeaderFields(), outputHeaders);
+
+        try {
+            byte[] b = new byte[4096];
+            int n;
+            while (!canceled && (n = in.read(b, 0, b.length)) != -1) {
+                if (!canceled) {
+                    out.write(b, 0, n);
+                    onData(b, 0, n);
+                }
+            }
+
+            closeQuietly(out);
+
+            if (canceled) {
+                onCancel();
+            } else {
+                onComplete();
+            }
+        } catch (Exception e) {
+            onError(e);
+        } finally {
+            closeQuietly(in);
+            closeQuietly(conn);
+        }
     }
 
-    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, long rangeStart, long rangeLength, final Map<String, String> customHeaders) throws IOException {
-        canceled = false;
+    /**
+     * Opens the connection and checks the response, the headers are passed
+     * to the listener.
+     */
+    private URLConnection connect(String url, int timeout, String userAgent, String referrer, String cookie, long rangeStart, long rangeLength, final Map<String, String> customHeaders) throws IOException {
         final URL u = new URL(url);
         final URLConnection conn = u.openConnection();
 
@@ -274,10 +357,8 @@ public final class JdkHttpClient extends AbstractHttpClient {
             setCustomHeaders(conn, customHeaders);
         }
 
-        InputStream in = conn.getInputStream();
-        if ("gzip".equals(conn.getContentEncoding())) {
-            in = new GZIPInputStream(in);
-        }
+        // the stream is cached by the connection, opened here to fail as before
+        conn.getInputStream();
 
         int httpResponseCode = getResponseCode(conn);
 
@@ -290,29 +371,15 @@ public final class JdkHttpClient extends AbstractHttpClient {
         onHeaders(conn.getHeaderFields());
         checkRangeSupport(rangeStart, conn);
 
-        try {
-            byte[] b = new byte[4096];
-            int n;
-            while (!canceled && (n = in.read(b, 0, b.length)) != -1) {
-                if (!canceled) {
-                    out.write(b, 0, n);
-                    onData(b, 0, n);
-                }
-            }
-
-            closeQuietly(out);
+        return conn;
+    }
 
-            if (canceled) {
-                onCancel();
-            } else {
-                onComplete();
-            }
-        } catch (Exception e) {
-            onError(e);
-        } finally {
-            closeQuietly(in);
-            closeQuietly(conn);
+    private static InputStream inputStream(URLConnection conn) throws IOException {
+        InputStream in = conn.getInputStream();
+        if ("gzip".equals(conn.getContentEncoding())) {
+            in = new GZIPInputStream(in);
         }
+        return in;
     }
 
     private void post(String url, OutputStream out, int timeout, String userAgent, Map<String, String> formData) throws IOException {
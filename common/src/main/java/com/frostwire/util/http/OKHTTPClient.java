@@ -30,12 +30,14 @@ import okio.Okio;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLSession;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 /** An OkHttpClient based HTTP Client.
@@ -45,14 +47,31 @@ import java.util.concurrent.TimeUnit;
 */
 public class OKHTTPClient extends AbstractHttpClient {
     private static final Logger LOG = Logger.getLogger(OKHTTPClient.class);
-    private final ThreadPool pool;
 
-    public OKHTTPClient(final ThreadPool pool) {
-        this.pool = pool;
+    private final OkHttpClient client;
+    private final HostPermits hostPermits;
+
+    /**
+     * @param client      the long lived client of the context, every call works
+     *                    over a cheap clone of it, sharing its connection pool and dispatcher
+     * @param hostPermits the per host limits of the context
+     */
+    public OKHTTPClient(final OkHttpClient client, final HostPermits hostPermits) {
+        this.client = client;
+        this.hostPermits = hostPermits;
     }
 
     @Override
     public int head(String url, int connectTimeoutInMillis, Map<String, List<String>> outputHeaders) throws IOException {
+        Semaphore permit = hostPermits.acquire(url, connectTimeoutInMillis);
+        try {
+            return headSupport(url, connectTimeoutInMillis, outputHeaders);
+        } finally {
+            hostPermits.release(permit);
+        }
+    }
+
+    private int headSupport(String url, int connectTimeoutInMillis, Map<String, List<String>> outputHeaders) throws IOException {
         final OkHttpClient okHttpClient = newOkHttpClient();
         okHttpClient.setConnectTimeout(connectTimeoutInMillis, TimeUnit.MILLISECONDS);
         okHttpClient.setFollowRedirects(false);
@@ -63,17 +82,22 @@ public class OKHTTPClient extends AbstractHttpClient {
                 build();
         Response resp = okHttpClient.newCall(req).execute();
         copyMultiMap(resp.headers().toMultimap(), outputHeaders);
+        closeQuietly(resp.body());
         return resp.code();
     }
 
     @Override
-    public byte[] getBytes(String url, int timeout, String userAgent, String referrer, String cookies) {
+    public byte[] getBytes(String url, int timeout, String userAgent, String referrer, String cookies, Map<String, List<String>> outputHeaders) {
         byte[] result = null;
         final OkHttpClient okHttpClient = newOkHttpClient();
         final Request.Builder builder = prepareRequestBuilder(okHttpClient, url, timeout, userAgent, referrer, cookies);
         ResponseBody responseBody = null;
+        Semaphore permit = null;
         try {
-            responseBody = getSyncResponse(okHttpClient, builder).body();
+            permit = hostPermits.acquire(url, timeout);
+            final Response response = getSyncResponse(okHttpClient, builder);
+            copyMultiMap(response.headers().toMultimap(), outputHeaders);
+            responseBody = response.body();
             result = responseBody.bytes();
         } catch (Throwable e) {
             LOG.error("Error getting bytes from http body response: " + e.getMessage(), e);
@@ -81,6 +105,7 @@ public class OKHTTPClient extends AbstractHttpClient {
            if (responseBody != null) {
                closeQuietly(responseBody);
            }
+           hostPermits.release(permit);
         }
         return result;
     }
@@ -92,6 +117,7 @@ public class OKHTTPClient extends AbstractHttpClient {
         final Request.Builder builder = prepareRequestBuilder(okHttpClient, url, timeout, userAgent, referrer, cookie);
         addCustomHeaders(customHeaders, builder);
         ResponseBody responseBody = null;
+        Semaphore permit = hostPermits.acquire(url, timeout);
         try {
             responseBody = getSyncResponse(okHttpClient, builder).body();
             result = responseBody.string();
@@ -104,22 +130,25 @@ public class OKHTTPClient extends AbstractHttpClient {
             if (responseBody != null) {
                 closeQuietly(responseBody);
             }
+            hostPermits.release(permit);
         }
         return result;
     }
 
     @Override
-    public void save(String url, File file, boolean resume, int timeout, String userAgent, String referrer) throws IOException {
-        FileOutputStream fos;
-        long rangeStart;
-        canceled = false;
-        if (resume && file.exists()) {
-            fos = new FileOutputStream(file, true);
-            rangeStart = file.length();
-        } else {
-            fos = new FileOutputStream(file, false);
-            rangeStart = -1;
+    public void save(String url, File file, boolean resume, int timeout, String userAgent, String referrer, SaveOptions options) throws IOException {
+        Semaphore permit = hostPermits.acquire(url, timeout);
+        try {
+            saveSupport(url, file, resume, timeout, userAgent, referrer, options);
+        } finally {
+            hostPermits.release(permit);
         }
+    }
+
+    private void saveSupport(String url, File file, boolean resume, int timeout, String userAgent, String referrer, SaveOptions options) throws IOException {
+        canceled = false;
+        resume = resume && file.exists();
+        final long rangeStart = resume ? file.length() : -1;
 
         final OkHttpClient okHttpClient = newOkHttpClient();
         final Request.Builder builder = prepareRequestBuilder(okHttpClient, url, timeout, userAgent, referrer, null);
@@ -127,18 +156,54 @@ public class OKHTTPClient extends AbstractHttpClient {
         final Response response = getSyncResponse(okHttpClient, builder);
         final Headers headers = response.headers();
         onHeaders(headers);
-        final InputStream in = response.body().byteStream();
-
-        byte[] b = new byte[4096];
-        int n;
-        while (!canceled && (n = in.read(b, 0, b.length)) != -1) {
-            if (!canceled) {
-                fos.write(b, 0, n);
-                onData(b, 0, n);
+
+        final FileChannel out = openSaveChannel(file, resume);
+        try {
+            transfer(response.body().byteStream(), out, options);
+        } finally {
+            closeQuietly(out);
+            closeQuietly(response.body());
+        }
+        if (canceled) {
+            onCancel();
+        } else {
+            onComplete();
+        }
+    }
+
+    @Override
+    public void getRange(String url, long rangeStart, long rangeEnd, int timeout, String userAgent) throws IOException {
+        Semaphore permit = hostPermits.acquire(url, timeout);
+        try {
+            getRangeSupport(url, rangeStart, rangeEnd, timeout, userAgent);
+        } finally {
+            hostPermits.release(permit);
+        }
+    }
+
+    private void getRangeSupport(String url, long rangeStart, long rangeEnd, int timeout, String userAgent) throws IOException {
+        canceled = false;
+        final OkHttpClient okHttpClient = newOkHttpClient();
+        final Request.Builder builder = prepareRequestBuilder(okHttpClient, url, timeout, userAgent, null, null);
+        builder.header("Range", "bytes=" + rangeStart + "-" + (rangeEnd >= 0 ? String.valueOf(rangeEnd) : ""));
+        final Response response = getSyncResponse(okHttpClient, builder);
+        try {
+            if (!rangeResponse(response.code(), rangeStart, rangeEnd)) {
+                throw new RangeNotSupportedException("Server does not support bytes range request, code: " + response.code());
             }
+            onHeaders(response.headers());
+            final InputStream in = response.body().byteStream();
+
+            byte[] b = new byte[4096];
+            int n;
+            while (!canceled && (n = in.read(b, 0, b.length)) != -1) {
+                if (!canceled) {
+                    onData(b, 0, n);
+                }
+            }
+        } finally {
+            closeQuietly(response.body());
         }
-        closeQuietly(fos);
-        closeQuietly(response.body());
         if (canceled) {
             onCancel();
         } else {
@@ -167,6 +232,15 @@ public class OKHTTPClient extends AbstractHttpClient {
     }
 
     private String post(String url, int timeout, String userAgent, String postContentType, byte[] postData, boolean gzip) throws IOException {
+        Semaphore permit = hostPermits.acquire(url, timeout);
+        try {
+            return postSupport(url, timeout, userAgent, postContentType, postData, gzip);
+        } finally {
+            hostPermits.release(permit);
+        }
+    }
+
+    private String postSupport(String url, int timeout, String userAgent, String postContentType, byte[] postData, boolean gzip) throws IOException {
         canceled = false;
         final OkHttpClient okHttpClient = newOkHttpClient();
         final Request.Builder builder = prepareRequestBuilder(okHttpClient, url, timeout, userAgent, null, null);
@@ -256,8 +330,31 @@ public class OKHTTPClient extends AbstractHttpClient {
         return okHttpClient.newCall(request).execute();
     }
 
+    /**
+     * Per call timeouts and interceptors are set on a clone, the connection
+     * pool, dispatcher and ssl setup are shared with the context client.
+     */
     private OkHttpClient newOkHttpClient() {
-        return newOkHttpClient(pool);
+        return client.clone();
+    }
+
+    /**
+     * Creates the long lived client of one context. There should be only one
+     * per context, since each owns a connection pool.
+     *
+     * @param pool               executor of the asynchronous calls
+     * @param maxIdleConnections idle connections kept alive for reuse
+     * @param keepAliveMillis    time an idle connection is kept alive
+     * @param maxRequestsPerHost limit of asynchronous calls per host
+     */
+    public static OkHttpClient newOkHttpClient(ThreadPool pool, int maxIdleConnections, long keepAliveMillis, int maxRequestsPerHost) {
+        OkHttpClient client = newOkHttpClient(pool);
+        client.setConnectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis));
+        client.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        if (maxRequestsPerHost > 0) {
+            client.getDispatcher().setMaxRequestsPerHost(maxRequestsPerHost);
+        }
+        return client;
     }
 
     public static OkHttpClient newOkHttpClient(ThreadPool pool) {
@@ -273,8 +370,6 @@ public class OKHTTPClient extends AbstractHttpClient {
         });
         searchClient.setSslSocketFactory(CUSTOM_SSL_SOCKET_FACTORY);
         searchClient.setConnectTimeout(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
-        // Maybe we should use a custom connection pool here. Using default.
-        //searchClient.setConnectionPool(?);
         return searchClient;
     }
 
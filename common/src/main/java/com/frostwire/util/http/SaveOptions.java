@@ -0,0 +1,62 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.util.http;
+
+/**
+ * How {@link HttpClient#save(String, java.io.File, boolean, int, String, String, SaveOptions)}
+ * reports the progress and flushes the data to the disk.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public final class SaveOptions {
+
+    /**
+     * Progress every 256KB or 250ms, no fsync.
+     */
+    public static final SaveOptions DEFAULT = new SaveOptions(256 * 1024, 250, -1);
+
+    private final long progressBytes;
+    private final long progressMillis;
+    private final long syncBytes;
+
+    /**
+     * @param progressBytes  call the listener {@code onData} after this many bytes
+     * @param progressMillis or after this many milliseconds, whatever comes first
+     * @param syncBytes      force the data to the disk every this many bytes, 0 only
+     *                       at the end, -1 never (left to the OS)
+     */
+    public SaveOptions(long progressBytes, long progressMillis, long syncBytes) {
+        this.progressBytes = progressBytes;
+        this.progressMillis = progressMillis;
+        this.syncBytes = syncBytes;
+    }
+
+    public long progressBytes() {
+        return progressBytes;
+    }
+
+    public long progressMillis() {
+        return progressMillis;
+    }
+
+    public long syncBytes() {
+        return syncBytes;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class BTDownloadProgressTest {
+
+    @Test
+    public void testFilesAcrossPieces() {
+        // pieces of 10 bytes, files: [0,25) [25,25) [25,40) [40,43)
+        BTDownloadProgress p = new BTDownloadProgress(new long[]{0, 25, 25, 40}, new long[]{25, 0, 15, 3}, 10, 5, 43);
+
+        assertTrue(p.setComplete(2)); // [20,30)
+        assertFalse(p.setComplete(2));
+        assertEquals(5, p.downloaded(0));
+        assertEquals(0, p.downloaded(1));
+        assertEquals(5, p.downloaded(2));
+        assertEquals(0, p.sequentialDownloaded(0));
+        assertEquals(5, p.sequentialDownloaded(2));
+
+        p.setComplete(0);
+        p.setComplete(1);
+        assertEquals(25, p.downloaded(0));
+        assertEquals(25, p.sequentialDownloaded(0));
+
+        p.setComplete(4); // the last one, [40,43)
+        assertEquals(3, p.downloaded(3));
+        assertEquals(3, p.sequentialDownloaded(3));
+        assertEquals(5, p.sequentialDownloaded(2));
+
+        p.setComplete(3);
+        assertEquals(15, p.downloaded(2));
+        assertEquals(15, p.sequentialDownloaded(2));
+
+        p.reset();
+        assertFalse(p.isComplete(3));
+        assertEquals(0, p.downloaded(2));
+        assertEquals(0, p.sequentialDownloaded(0));
+    }
+
+    @Test
+    public void testRandomOrder() {
+        Random r = new Random(7);
+        int numFiles = 500;
+        long[] offsets = new long[numFiles];
+        long[] sizes = new long[numFiles];
+        long total = 0;
+        for (int i = 0; i < numFiles; i++) {
+            offsets[i] = total;
+            sizes[i] = r.nextInt(100000);
+            total += sizes[i];
+        }
+        int pieceLength = 16384;
+        int numPieces = (int) ((total + pieceLength - 1) / pieceLength);
+        BTDownloadProgress p = new BTDownloadProgress(offsets, sizes, pieceLength, numPieces, total);
+
+        for (int i = numPieces - 1; i >= 0; i--) {
+            p.setComplete(i);
+        }
+
+        for (int i = 0; i < numFiles; i++) {
+            assertEquals(sizes[i], p.downloaded(i));
+            assertEquals(sizes[i], p.sequentialDownloaded(i));
+        }
+    }
+}
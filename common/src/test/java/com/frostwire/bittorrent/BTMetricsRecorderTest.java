@@ -0,0 +1,98 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static com.frostwire.bittorrent.BTMetricsRecorder.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class BTMetricsRecorderTest {
+
+    @Test
+    public void testRates() {
+        BTMetricsRecorder r = new BTMetricsRecorder(10, new int[METRICS.length]);
+        assertNull(r.last());
+
+        long[] v = new long[METRICS.length];
+        v[DISK_QUEUE] = 3;
+        v[PEERS_CONNECTED] = 40;
+        v[RECV_PAYLOAD] = 1000000;
+        v[RECV_BYTES] = 1100000;
+        r.record(10000, v.clone());
+
+        BTMetrics first = r.last();
+        assertEquals(3, first.diskQueue());
+        assertEquals(40, first.peersConnected());
+        // no previous sample, no rates
+        assertEquals(0, first.payloadDownRate());
+
+        v[DISK_READ_TIME] = 5000;
+        v[DISK_READ_OPS] = 10;
+        v[BLOCKS_READ] = 100;
+        v[CACHE_HITS] = 25;
+        v[RECV_PAYLOAD] = 3000000;
+        v[RECV_BYTES] = 3300000;
+        v[DHT_LOOKUPS] = 20;
+        r.record(12000, v.clone());
+
+        BTMetrics m = r.last();
+        assertEquals(500, m.diskReadLatency());
+        assertEquals(0, m.diskWriteLatency());
+        assertEquals(0.25f, m.cacheHitRate(), 0.0001f);
+        assertEquals(1000000, m.payloadDownRate());
+        assertEquals(100000, m.overheadDownRate());
+        assertEquals(10, m.dhtLookups());
+    }
+
+    @Test
+    public void testRing() throws IOException {
+        BTMetricsRecorder r = new BTMetricsRecorder(4, new int[METRICS.length]);
+        long[] v = new long[METRICS.length];
+        for (int i = 0; i < 10; i++) {
+            v[DHT_NODES] = i;
+            r.record(1000 * i, v);
+        }
+
+        List<BTMetrics> l = r.snapshots();
+        assertEquals(4, l.size());
+        assertEquals(6, l.get(0).dhtNodes());
+        assertEquals(9, l.get(3).dhtNodes());
+
+        File f = File.createTempFile("metrics", ".csv");
+        try {
+            r.dump(f);
+            List<String> lines = FileUtils.readLines(f, "UTF-8");
+            assertEquals(5, lines.size());
+            assertEquals(BTMetrics.CSV_HEADER, lines.get(0));
+            assertTrue(lines.get(4).startsWith("9000,"));
+        } finally {
+            f.delete();
+        }
+    }
+}
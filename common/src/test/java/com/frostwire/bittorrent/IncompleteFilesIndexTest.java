@@ -0,0 +1,87 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class IncompleteFilesIndexTest {
+
+    @Test
+    public void testUpdateAndRemove() {
+        IncompleteFilesIndex index = new IncompleteFilesIndex();
+        Set<File> view = index.files();
+
+        File a = new File("/t/a.mp3");
+        File b = new File("/t/b.mp3");
+        File parts = new File("/t/.h1.parts");
+
+        index.update("h1", set(a, b, parts));
+        assertTrue(index.contains(a));
+        assertTrue(view.contains(b));
+        assertEquals(3, index.size());
+
+        index.remove("h1", a);
+        assertFalse(view.contains(a));
+        // not from this download
+        index.remove("h2", b);
+        assertTrue(index.contains(b));
+
+        index.update("h1", set(parts));
+        assertFalse(index.contains(b));
+        assertTrue(index.contains(parts));
+
+        index.removeAll("h1");
+        assertTrue(view.isEmpty());
+    }
+
+    @Test
+    public void testSharedFiles() {
+        IncompleteFilesIndex index = new IncompleteFilesIndex();
+        File a = new File("/t/a.mp3");
+
+        // two downloads writing the same file
+        index.update("h1", set(a));
+        index.update("h2", set(a));
+
+        index.removeAll("h1");
+        assertTrue(index.contains(a));
+        index.remove("h2", a);
+        assertFalse(index.contains(a));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnlyView() {
+        new IncompleteFilesIndex().files().add(new File("a"));
+    }
+
+    private static Set<File> set(File... files) {
+        return new HashSet<>(Arrays.asList(files));
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class LogMetadataStoreTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("metadata", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testPutAndReopen() throws IOException {
+        LogMetadataStore store = new LogMetadataStore(dir);
+        store.putTorrent("a", bytes(100, 1));
+        store.putResume("a", bytes(10, 2));
+        store.putResume("a", bytes(20, 3));
+        store.putTorrent("b", bytes(50, 4));
+        store.putTorrent("c", bytes(50, 5));
+        store.remove("c");
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), store.infoHashes());
+        assertArrayEquals(bytes(20, 3), store.resume("a"));
+        assertNull(store.resume("b"));
+        assertNull(store.torrent("c"));
+        store.close();
+
+        // from the index
+        store = new LogMetadataStore(dir);
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), store.infoHashes());
+        assertArrayEquals(bytes(100, 1), store.torrent("a"));
+        assertArrayEquals(bytes(20, 3), store.resume("a"));
+        store.putResume("b", bytes(5, 6));
+        store.sync();
+        // no close, the tail after the index is scanned
+        store = new LogMetadataStore(dir);
+        assertArrayEquals(bytes(5, 6), store.resume("b"));
+        store.close();
+
+        // without the index
+        new File(dir, LogMetadataStore.INDEX_FILE).delete();
+        store = new LogMetadataStore(dir);
+        assertArrayEquals(bytes(50, 4), store.torrent("b"));
+        assertArrayEquals(bytes(5, 6), store.resume("b"));
+        assertNull(store.torrent("c"));
+        store.close();
+    }
+
+    @Test
+    public void testTornTail() throws IOException {
+        LogMetadataStore store = new LogMetadataStore(dir);
+        store.putTorrent("a", bytes(100, 1));
+        store.putResume("a", bytes(100, 2));
+        store.sync();
+        long good = store.size();
+        store.putResume("a", bytes(100, 3));
+        store.sync();
+
+        // a crash in the middle of the last append
+        new File(dir, LogMetadataStore.INDEX_FILE).delete();
+        RandomAccessFile f = new RandomAccessFile(new File(dir, LogMetadataStore.DATA_FILE), "rw");
+        f.setLength(good + 50);
+        f.close();
+
+        store = new LogMetadataStore(dir);
+        assertArrayEquals(bytes(100, 2), store.resume("a"));
+        assertEquals(good, store.size());
+
+        // appends after the truncation are fine
+        store.putResume("a", bytes(10, 4));
+        store.close();
+        store = new LogMetadataStore(dir);
+        assertArrayEquals(bytes(10, 4), store.resume("a"));
+        store.close();
+    }
+
+    @Test
+    public void testCorruptedRecord() throws IOException {
+        LogMetadataStore store = new LogMetadataStore(dir);
+        store.putTorrent("a", bytes(100, 1));
+        long good = store.size();
+        store.putTorrent("b", bytes(100, 2));
+        store.close();
+
+        new File(dir, LogMetadataStore.INDEX_FILE).delete();
+        RandomAccessFile f = new RandomAccessFile(new File(dir, LogMetadataStore.DATA_FILE), "rw");
+        f.seek(good + 40);
+        f.write(0xff);
+        f.close();
+
+        store = new LogMetadataStore(dir);
+        assertEquals(new HashSet<>(Arrays.asList("a")), store.infoHashes());
+        store.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        LogMetadataStore store = new LogMetadataStore(dir);
+        for (int i = 0; i < 10; i++) {
+            store.putTorrent("t" + i, bytes(1000, i));
+        }
+        // lots of shadowed resume data
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < 10; i++) {
+                store.putResume("t" + i, bytes(1000, round));
+            }
+        }
+        store.remove("t9");
+
+        // waits for the background one, if any, then runs it again
+        store.compact();
+        assertEquals(0, store.garbage());
+        assertTrue(store.size() < 20 * 1100);
+
+        for (int i = 0; i < 9; i++) {
+            assertArrayEquals(bytes(1000, i), store.torrent("t" + i));
+            assertArrayEquals(bytes(1000, 199), store.resume("t" + i));
+        }
+        assertNull(store.torrent("t9"));
+
+        store.putResume("t0", bytes(10, 7));
+        store.close();
+
+        store = new LogMetadataStore(dir);
+        assertEquals(9, store.infoHashes().size());
+        assertArrayEquals(bytes(10, 7), store.resume("t0"));
+        assertArrayEquals(bytes(1000, 199), store.resume("t8"));
+        store.close();
+    }
+
+    @Test
+    public void testFailedSwap() throws Exception {
+        // like windows, the data file is deleted and the rename fails
+        LogMetadataStore store = new LogMetadataStore(dir) {
+            @Override
+            void rename(File src, File dest) throws IOException {
+                dest.delete();
+                throw new IOException("File in use: " + src);
+            }
+        };
+        fill(store);
+
+        store.compact();
+        assertEntries(store);
+        store.putResume("t0", bytes(10, 7));
+        store.close();
+
+        store = new LogMetadataStore(dir);
+        assertEquals(10, store.infoHashes().size());
+        assertArrayEquals(bytes(10, 7), store.resume("t0"));
+        assertArrayEquals(bytes(1000, 19), store.resume("t9"));
+        assertFalse(new File(dir, LogMetadataStore.COMPACT_FILE).exists());
+        store.close();
+    }
+
+    @Test
+    public void testCrashDuringSwap() throws Exception {
+        LogMetadataStore store = new LogMetadataStore(dir);
+        fill(store);
+        store.compact();
+        store.close();
+
+        // a crash after the data file was deleted, before the rename
+        File data = new File(dir, LogMetadataStore.DATA_FILE);
+        File compact = new File(dir, LogMetadataStore.COMPACT_FILE);
+        assertTrue(data.renameTo(compact));
+        assertTrue(LogMetadataStore.exists(dir));
+
+        store = new LogMetadataStore(dir);
+        assertEntries(store);
+        assertFalse(compact.exists());
+        store.close();
+
+        // a crash while writing the compacted file, the data file is kept
+        FileUtils.writeByteArrayToFile(compact, bytes(5, 1));
+        store = new LogMetadataStore(dir);
+        assertEntries(store);
+        assertFalse(compact.exists());
+        store.close();
+    }
+
+    private static void fill(LogMetadataStore store) throws IOException {
+        for (int i = 0; i < 10; i++) {
+            store.putTorrent("t" + i, bytes(1000, i));
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 10; i++) {
+                store.putResume("t" + i, bytes(1000, round));
+            }
+        }
+    }
+
+    private static void assertEntries(LogMetadataStore store) {
+        assertEquals(10, store.infoHashes().size());
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(bytes(1000, i), store.torrent("t" + i));
+            assertArrayEquals(bytes(1000, 19), store.resume("t" + i));
+        }
+    }
+
+    private static byte[] bytes(int n, int seed) {
+        byte[] arr = new byte[n];
+        for (int i = 0; i < n; i++) {
+            arr[i] = (byte) (seed * 31 + i);
+        }
+        return arr;
+    }
+}
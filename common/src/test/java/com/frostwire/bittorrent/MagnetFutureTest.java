@@ -0,0 +1,91 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class MagnetFutureTest {
+
+    @Test
+    public void testCompleteWakesWaiters() throws Exception {
+        final MagnetFuture f = new MagnetFuture("abc", null);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                f.complete(new byte[]{1});
+            }
+        }).start();
+
+        long start = System.nanoTime();
+        assertArrayEquals(new byte[]{1}, f.get(5, TimeUnit.SECONDS));
+        // no polling, it wakes up right after the completion
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertTrue(f.isDone());
+    }
+
+    @Test
+    public void testCompleteOnlyOnce() throws Exception {
+        MagnetFuture f = new MagnetFuture("abc", null);
+        f.complete(null); // timed out
+        f.complete(new byte[]{1});
+        assertNull(f.get());
+    }
+
+    @Test
+    public void testListeners() {
+        MagnetFuture f = new MagnetFuture("abc", null);
+        final AtomicInteger calls = new AtomicInteger();
+        Runnable l = new Runnable() {
+            @Override
+            public void run() {
+                calls.incrementAndGet();
+            }
+        };
+
+        f.addListener(l);
+        assertEquals(0, calls.get());
+        f.complete(new byte[0]);
+        assertEquals(1, calls.get());
+
+        // already done, runs right away
+        f.addListener(l);
+        assertEquals(2, calls.get());
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void testGetTimeout() throws Exception {
+        new MagnetFuture("abc", null).get(10, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import com.frostwire.util.ThreadPool;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the restore pipeline, and a startup benchmark with a synthetic
+ * home dir of {@link #NUM_TORRENTS} torrents, the session is simulated by
+ * a single thread that confirms each add after {@link #ADD_LATENCY_MICROS}.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public class RestorePipelineTest {
+
+    private static final int NUM_TORRENTS = 1000;
+    private static final int TORRENT_SIZE = 16 * 1024;
+    private static final int RESUME_SIZE = 2 * 1024;
+    private static final long ADD_LATENCY_MICROS = 500;
+    private static final long RESTORE_TIMEOUT = 60000;
+
+    private File homeDir;
+    private ExecutorService workers;
+
+    @Before
+    public void setUp() throws IOException {
+        homeDir = File.createTempFile("restore", "");
+        homeDir.delete();
+        homeDir.mkdirs();
+        workers = new ThreadPool("RestorePipelineTest", 4, 4, 1L, new LinkedBlockingQueue<Runnable>(), true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        workers.shutdownNow();
+        FileUtils.deleteDirectory(homeDir);
+    }
+
+    @Test
+    public void testWindowIsBounded() throws Exception {
+        List<File> torrents = createHomeDir(200);
+        FakeSession session = new FakeSession(0);
+        RestorePipeline<File, String[]> pipeline = newPipeline(torrents, session, 8, 16);
+        session.pipeline = pipeline;
+
+        pipeline.start();
+        waitFinished(pipeline);
+
+        assertEquals(200, pipeline.done());
+        assertEquals(200, session.added.size());
+        assertTrue("Window exceeded: " + session.maxInFlight, session.maxInFlight <= 8);
+    }
+
+    @Test
+    public void testFailures() throws Exception {
+        List<File> torrents = createHomeDir(10);
+        // a missing source fails in the prepare stage
+        torrents.add(new File(homeDir, "missing.torrent"));
+
+        final List<Integer> progress = Collections.synchronizedList(new ArrayList<Integer>());
+        final BlockingQueue<String> adds = new LinkedBlockingQueue<>();
+        final RestorePipeline<File, String[]> pipeline = new RestorePipeline<>(torrents, new FileStage() {
+            @Override
+            public void add(String[] item) {
+                adds.add(item[0]);
+            }
+        }, workers, 2, 4, new RestorePipeline.Listener() {
+            @Override
+            public void progress(int done, int total) {
+                progress.add(done);
+            }
+        });
+        pipeline.start();
+
+        // the session rejects every other add, without saying which
+        for (int i = 0; i < 10; i++) {
+            String key = adds.poll(5, TimeUnit.SECONDS);
+            assertNotNull(key);
+            if (i % 2 == 0) {
+                assertTrue(pipeline.added(key));
+            } else {
+                // alternating, with and without the key
+                assertTrue(pipeline.failed(i % 4 == 1 ? key : null));
+            }
+        }
+        waitFinished(pipeline);
+
+        assertEquals(11, pipeline.done());
+        assertEquals(11, progress.size());
+        assertFalse(pipeline.added("not-in-this-restore"));
+        assertFalse(pipeline.failed("not-in-this-restore"));
+    }
+
+    @Test
+    public void testStartupBenchmark() throws Exception {
+        List<File> torrents = createHomeDir(NUM_TORRENTS);
+
+        // the old restore: read one, add one, wait for the alert
+        long serial = restore(torrents, 1, 1);
+        // the pipeline with the engine settings
+        long pipelined = restore(torrents, 32, 64);
+
+        System.out.println("Restore of " + NUM_TORRENTS + " torrents: serial=" + serial + "ms, pipelined=" + pipelined + "ms");
+    }
+
+    private long restore(List<File> torrents, int window, int prefetch) throws Exception {
+        FakeSession session = new FakeSession(ADD_LATENCY_MICROS);
+        RestorePipeline<File, String[]> pipeline = newPipeline(torrents, session, window, prefetch);
+        session.pipeline = pipeline;
+
+        long start = System.nanoTime();
+        pipeline.start();
+        waitFinished(pipeline);
+        long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        session.close();
+        assertEquals(torrents.size(), session.added.size());
+        assertTrue(session.maxInFlight <= window);
+        return time;
+    }
+
+    private RestorePipeline<File, String[]> newPipeline(List<File> torrents, final FakeSession session, int window, int prefetch) {
+        return new RestorePipeline<>(torrents, new FileStage() {
+            @Override
+            public void add(String[] item) {
+                session.asyncAdd(item[0]);
+            }
+        }, workers, window, prefetch, null);
+    }
+
+    private List<File> createHomeDir(int n) throws IOException {
+        Random r = new Random(n);
+        List<File> torrents = new ArrayList<>();
+        byte[] torrent = new byte[TORRENT_SIZE];
+        byte[] resume = new byte[RESUME_SIZE];
+        for (int i = 0; i < n; i++) {
+            r.nextBytes(torrent);
+            r.nextBytes(resume);
+            String name = String.format("%040x", i);
+            File t = new File(homeDir, name + ".torrent");
+            FileUtils.writeByteArrayToFile(t, torrent);
+            FileUtils.writeByteArrayToFile(new File(homeDir, name + ".resume"), resume);
+            torrents.add(t);
+        }
+        return torrents;
+    }
+
+    private static void waitFinished(RestorePipeline<?, ?> pipeline) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + RESTORE_TIMEOUT;
+        while (!pipeline.isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue("Restore did not finish", pipeline.isFinished());
+    }
+
+    /**
+     * Reads the torrent and resume files, the info-hash (SHA-1 of the
+     * torrent) stands for the bdecoding work.
+     */
+    private static abstract class FileStage implements RestorePipeline.Stage<File, String[]> {
+
+        @Override
+        public String[] prepare(File torrent) throws Throwable {
+            byte[] data = FileUtils.readFileToByteArray(torrent);
+            File resume = new File(torrent.getParentFile(), torrent.getName().replace(".torrent", ".resume"));
+            FileUtils.readFileToByteArray(resume);
+
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            String infoHash = String.format("%040x", new BigInteger(1, md.digest(data)));
+            return new String[]{infoHash};
+        }
+
+        @Override
+        public String key(String[] item) {
+            return item[0];
+        }
+    }
+
+    /**
+     * Processes the adds in order in its own thread, like the libtorrent
+     * network thread, and confirms them to the pipeline.
+     */
+    private static final class FakeSession {
+
+        private final long latencyMicros;
+        private final ExecutorService thread;
+        private final Set<String> inFlight;
+        final List<String> added;
+        volatile RestorePipeline<File, String[]> pipeline;
+        volatile int maxInFlight;
+
+        FakeSession(long latencyMicros) {
+            this.latencyMicros = latencyMicros;
+            this.thread = Executors.newSingleThreadExecutor();
+            this.inFlight = Collections.synchronizedSet(new HashSet<String>());
+            this.added = Collections.synchronizedList(new ArrayList<String>());
+        }
+
+        void asyncAdd(final String infoHash) {
+            synchronized (inFlight) {
+                inFlight.add(infoHash);
+                maxInFlight = Math.max(maxInFlight, inFlight.size());
+            }
+            thread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long until = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+                    while (System.nanoTime() < until) {
+                        // busy, like the real add
+                    }
+                    inFlight.remove(infoHash);
+                    added.add(infoHash);
+                    pipeline.added(infoHash);
+                }
+            });
+        }
+
+        void close() {
+            thread.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class ResumeDataWriterTest {
+
+    private File dir;
+    private DirMetadataStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("resume", "");
+        dir.delete();
+        dir.mkdirs();
+        store = new DirMetadataStore(dir);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testWriteAtomic() throws IOException {
+        File f = new File(dir, "a.resume");
+        DirMetadataStore.writeAtomic(f, new byte[]{1, 2});
+        DirMetadataStore.writeAtomic(f, new byte[]{3});
+
+        assertArrayEquals(new byte[]{3}, FileUtils.readFileToByteArray(f));
+        assertFalse(new File(dir, "a.resume.tmp").exists());
+    }
+
+    @Test
+    public void testBatchedRequests() {
+        final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        ResumeDataWriter w = new ResumeDataWriter(60000, store, new ResumeDataWriter.Requester() {
+            @Override
+            public boolean request(String infoHash) {
+                requests.add(infoHash);
+                return false;
+            }
+        });
+
+        // many pieces finished, only one request per torrent
+        for (int i = 0; i < 100; i++) {
+            w.markDirty("a");
+            w.markDirty("b");
+        }
+        assertTrue(requests.isEmpty());
+
+        w.flushAll(1000);
+        assertEquals(2, requests.size());
+        assertTrue(requests.contains("a"));
+        assertTrue(requests.contains("b"));
+
+        w.flushAll(1000);
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void testFlushAllWaitsForData() throws IOException {
+        final ResumeDataWriter[] w = new ResumeDataWriter[1];
+        w[0] = new ResumeDataWriter(60000, store, new ResumeDataWriter.Requester() {
+            @Override
+            public boolean request(final String infoHash) {
+                // the alert comes later from another thread
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException e) {
+                            // ignore
+                        }
+                        w[0].write(infoHash, new byte[]{1});
+                    }
+                }).start();
+                return true;
+            }
+        });
+
+        w[0].markDirty("a");
+        w[0].flushAll(5000);
+
+        assertArrayEquals(new byte[]{1}, store.resume("a"));
+        assertEquals(1, w[0].flushes());
+        assertEquals(1, w[0].flushesPerMinute());
+    }
+
+    @Test
+    public void testRemoveDropsPendingData() throws Exception {
+        ResumeDataWriter w = new ResumeDataWriter(60000, store, new ResumeDataWriter.Requester() {
+            @Override
+            public boolean request(String infoHash) {
+                return false;
+            }
+        });
+
+        w.write("a", new byte[]{1});
+        w.write("b", new byte[]{2});
+        w.remove("b");
+        store.remove("b");
+        w.flushAll(1000);
+
+        assertNotNull(store.resume("a"));
+        assertNull(store.resume("b"));
+    }
+
+    @Test
+    public void testNoWriteAfterRemove() throws Exception {
+        ResumeDataWriter w = new ResumeDataWriter(60000, store, new ResumeDataWriter.Requester() {
+            @Override
+            public boolean request(String infoHash) {
+                return true;
+            }
+        });
+
+        w.write("a", new byte[]{1});
+        w.flushAll(1000);
+        w.flush("a");
+        w.remove("a");
+        store.remove("a");
+        // the alert of the request before the remove
+        w.write("a", new byte[]{2});
+        w.flushAll(1000);
+        assertNull(store.resume("a"));
+        assertFalse(store.resumeFile("a").exists());
+
+        // added back
+        w.flush("a");
+        w.write("a", new byte[]{3});
+        w.flushAll(1000);
+        assertArrayEquals(new byte[]{3}, store.resume("a"));
+    }
+}
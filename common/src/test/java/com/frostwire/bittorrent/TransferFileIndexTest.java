@@ -0,0 +1,56 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.bittorrent;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class TransferFileIndexTest {
+
+    @Test
+    public void testLookup() {
+        TransferFileIndex index = new TransferFileIndex();
+        File dir = new File("downloads", "album");
+
+        index.update("h1", null, new File[]{new File(dir, "1.mp3"), new File(dir, "2.mp3")});
+
+        TransferFileIndex.Location l = index.lookup(new File(dir, "2.mp3").getAbsoluteFile());
+        assertNotNull(l);
+        assertEquals(1, l.index());
+        assertNull(index.lookup(new File(dir, "3.mp3")));
+
+        // moved storage
+        File moved = new File("moved", "album");
+        index.update("h1", null, new File[]{new File(moved, "1.mp3"), new File(moved, "2.mp3")});
+        assertNull(index.lookup(new File(dir, "1.mp3")));
+        assertEquals(0, index.lookup(new File(moved, "1.mp3")).index());
+        assertEquals(2, index.size());
+
+        index.removeAll("h1");
+        assertNull(index.lookup(new File(moved, "1.mp3")));
+        assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.mp4;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Generated fragmented tracks muxed as they arrive, the result should
+ * have the same samples and tables as the muxing of the complete files.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public class Mp4StreamMuxerTest {
+
+    private File dir;
+    private List<byte[]> videoSamples;
+    private List<byte[]> audioSamples;
+    private File video;
+    private File audio;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("mux", "");
+        dir.delete();
+        dir.mkdirs();
+
+        Random r = new Random(5);
+        videoSamples = new ArrayList<>();
+        audioSamples = new ArrayList<>();
+        video = new File(dir, "video.m4v");
+        audio = new File(dir, "audio.m4a");
+        fragmented(video, Box.vide, 40, 30, 2000, r, videoSamples);
+        fragmented(audio, Box.soun, 60, 20, 300, r, audioSamples);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSameAsBatch() throws IOException {
+        File batch = new File(dir, "batch.mp4");
+        Mp4Demuxer.muxFragments(video, audio, batch, info(), null);
+
+        File stream = new File(dir, "stream.mp4");
+        Mp4StreamMuxer muxer = new Mp4StreamMuxer(stream, 2);
+        byte[] v = FileUtils.readFileToByteArray(video);
+        byte[] a = FileUtils.readFileToByteArray(audio);
+        // arriving in pieces of any size, one stream ahead of the other
+        Random r = new Random(7);
+        int vp = 0;
+        int ap = 0;
+        while (vp < v.length || ap < a.length) {
+            if (vp < v.length) {
+                int n = Math.min(1 + r.nextInt(20000), v.length - vp);
+                muxer.track(0).write(v, vp, n);
+                vp += n;
+            }
+            if (ap < a.length && r.nextInt(3) == 0) {
+                int n = Math.min(1 + r.nextInt(5000), a.length - ap);
+                muxer.track(1).write(a, ap, n);
+                ap += n;
+            }
+        }
+        assertEquals(v.length, muxer.track(0).position());
+        assertEquals(a.length, muxer.track(1).position());
+        muxer.finish(info());
+
+        LinkedList<Box> batchBoxes = read(batch);
+        LinkedList<Box> streamBoxes = read(stream);
+        for (int i = 0; i < 2; i++) {
+            SampleTableBox b = trak(batchBoxes, i).findFirst(Box.stbl);
+            SampleTableBox s = trak(streamBoxes, i).findFirst(Box.stbl);
+            assertTablesEqual(b, s);
+        }
+
+        assertSamples(videoSamples, stream, trak(streamBoxes, 0));
+        assertSamples(audioSamples, stream, trak(streamBoxes, 1));
+        assertSamples(videoSamples, batch, trak(batchBoxes, 0));
+
+        // a single mdat with all the samples, no copy of the inputs
+        MediaDataBox mdat = Box.findFirst(streamBoxes, Box.mdat);
+        assertEquals(total(videoSamples) + total(audioSamples), mdat.length());
+        assertTrue(stream.length() < v.length + a.length);
+    }
+
+    @Test
+    public void testConcurrentTracks() throws Throwable {
+        final File stream = new File(dir, "stream.mp4");
+        final Mp4StreamMuxer muxer = new Mp4StreamMuxer(stream, 2);
+        Thread[] threads = new Thread[2];
+        final Throwable[] errors = new Throwable[2];
+        final File[] inputs = {video, audio};
+        for (int i = 0; i < 2; i++) {
+            final int t = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        byte[] data = FileUtils.readFileToByteArray(inputs[t]);
+                        for (int p = 0; p < data.length; p += 4096) {
+                            muxer.track(t).write(data, p, Math.min(4096, data.length - p));
+                        }
+                    } catch (Throwable e) {
+                        errors[t] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < 2; i++) {
+            threads[i].join();
+            if (errors[i] != null) {
+                throw errors[i];
+            }
+        }
+        muxer.finish(info());
+
+        LinkedList<Box> boxes = read(stream);
+        assertSamples(videoSamples, stream, trak(boxes, 0));
+        assertSamples(audioSamples, stream, trak(boxes, 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void testIncompleteTrack() throws IOException {
+        Mp4StreamMuxer muxer = new Mp4StreamMuxer(new File(dir, "stream.mp4"), 2);
+        byte[] v = FileUtils.readFileToByteArray(video);
+        byte[] a = FileUtils.readFileToByteArray(audio);
+        muxer.track(0).write(v, 0, v.length);
+        muxer.track(1).write(a, 0, a.length - 10);
+        muxer.finish(info());
+    }
+
+    private static Mp4Info info() {
+        return Mp4Info.avc("title", "author", "album", null);
+    }
+
+    private static void assertTablesEqual(SampleTableBox b, SampleTableBox s) {
+        SampleSizeBox bStsz = b.findFirst(Box.stsz);
+        SampleSizeBox sStsz = s.findFirst(Box.stsz);
+        assertEquals(bStsz.sample_count, sStsz.sample_count);
+        for (int i = 0; i < bStsz.sample_count; i++) {
+            assertEquals(bStsz.entries[i].entry_size, sStsz.entries[i].entry_size);
+        }
+
+        TimeToSampleBox bStts = b.findFirst(Box.stts);
+        TimeToSampleBox sStts = s.findFirst(Box.stts);
+        assertEquals(bStts.entry_count, sStts.entry_count);
+        for (int i = 0; i < bStts.entry_count; i++) {
+            assertEquals(bStts.entries[i].sample_count, sStts.entries[i].sample_count);
+            assertEquals(bStts.entries[i].sample_delta, sStts.entries[i].sample_delta);
+        }
+
+        SyncSampleBox bStss = b.findFirst(Box.stss);
+        SyncSampleBox sStss = s.findFirst(Box.stss);
+        if (bStss != null) {
+            assertEquals(bStss.entry_count, sStss.entry_count);
+            for (int i = 0; i < bStss.entry_count; i++) {
+                assertEquals(bStss.entries[i].sample_number, sStss.entries[i].sample_number);
+            }
+        }
+
+        SampleToChunkBox bStsc = b.findFirst(Box.stsc);
+        SampleToChunkBox sStsc = s.findFirst(Box.stsc);
+        assertEquals(bStsc.entry_count, sStsc.entry_count);
+        for (int i = 0; i < bStsc.entry_count; i++) {
+            assertEquals(bStsc.entries[i].first_chunk, sStsc.entries[i].first_chunk);
+            assertEquals(bStsc.entries[i].samples_per_chunk, sStsc.entries[i].samples_per_chunk);
+        }
+    }
+
+    /**
+     * Reads the samples where the tables say and compares them.
+     */
+    private static void assertSamples(List<byte[]> expected, File file, TrackBox trak) throws IOException {
+        SampleToChunkBox stsc = trak.findFirst(Box.stsc);
+        SampleSizeBox stsz = trak.findFirst(Box.stsz);
+        ChunkOffsetBox stco = trak.findFirst(Box.stco);
+
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            int sample = 0;
+            for (int c = 0; c < stco.entry_count; c++) {
+                long offset = stco.entries[c].chunk_offset & 0xFFFFFFFFL;
+                int n = samplesPerChunk(stsc, c + 1);
+                for (int i = 0; i < n; i++) {
+                    byte[] data = new byte[stsz.entries[sample].entry_size];
+                    f.seek(offset);
+                    f.readFully(data);
+                    assertArrayEquals("sample " + sample, expected.get(sample), data);
+                    offset += data.length;
+                    sample++;
+                }
+            }
+            assertEquals(expected.size(), sample);
+        } finally {
+            f.close();
+        }
+    }
+
+    private static int samplesPerChunk(SampleToChunkBox stsc, int chunk) {
+        int n = 0;
+        for (int i = 0; i < stsc.entry_count; i++) {
+            if (stsc.entries[i].first_chunk <= chunk) {
+                n = stsc.entries[i].samples_per_chunk;
+            }
+        }
+        return n;
+    }
+
+    private static TrackBox trak(LinkedList<Box> boxes, int index) {
+        MovieBox moov = Box.findFirst(boxes, Box.moov);
+        return moov.<TrackBox>find(Box.trak).get(index);
+    }
+
+    private static LinkedList<Box> read(File file) throws IOException {
+        final LinkedList<Box> boxes = new LinkedList<>();
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            InputChannel ch = new InputChannel(f.getChannel());
+            IsoMedia.read(ch, f.length(), null, ByteBuffer.allocate(100 * 1024), new IsoMedia.OnBoxListener() {
+                @Override
+                public boolean onBox(Box b) {
+                    if (b.parent == null) {
+                        boxes.add(b);
+                    }
+                    return true;
+                }
+            });
+        } finally {
+            f.close();
+        }
+        return boxes;
+    }
+
+    private static long total(List<byte[]> samples) {
+        long n = 0;
+        for (byte[] s : samples) {
+            n += s.length;
+        }
+        return n;
+    }
+
+    /**
+     * Writes a DASH like file, the moov without samples and fragments of
+     * moof and mdat.
+     */
+    private static void fragmented(File file, int handler, int fragments, int samplesPerFragment, int maxSampleSize, Random r, List<byte[]> samples) throws IOException {
+        LinkedList<Box> boxes = new LinkedList<>();
+
+        FileTypeBox ftyp = new FileTypeBox();
+        ftyp.major_brand = Box.dash;
+        ftyp.compatible_brands = new int[]{Box.iso6, Box.mp41};
+        boxes.add(ftyp);
+
+        MovieBox moov = new MovieBox();
+        MovieHeaderBox mvhd = new MovieHeaderBox();
+        mvhd.timescale = 1000;
+        mvhd.next_track_ID = 2;
+        moov.boxes.add(mvhd);
+
+        TrackBox trak = new TrackBox();
+        TrackHeaderBox tkhd = new TrackHeaderBox();
+        tkhd.trackId(1);
+        trak.boxes.add(tkhd);
+        MediaBox mdia = new MediaBox();
+        MediaHeaderBox mdhd = new MediaHeaderBox();
+        mdhd.timescale = 1000;
+        mdhd.language("und");
+        mdia.boxes.add(mdhd);
+        HandlerBox hdlr = new HandlerBox();
+        hdlr.handler_type = handler;
+        hdlr.name = new byte[]{'t'};
+        mdia.boxes.add(hdlr);
+        MediaInformationBox minf = new MediaInformationBox();
+        minf.boxes.add(handler == Box.vide ? new VideoMediaHeaderBox() : new SoundMediaHeaderBox());
+        SampleTableBox stbl = new SampleTableBox();
+        stbl.boxes.add(new SampleDescriptionBox());
+        stbl.boxes.add(new TimeToSampleBox());
+        stbl.boxes.add(new SampleToChunkBox());
+        stbl.boxes.add(new SampleSizeBox());
+        stbl.boxes.add(new ChunkOffsetBox());
+        if (handler == Box.vide) {
+            stbl.boxes.add(new SyncSampleBox());
+        }
+        minf.boxes.add(stbl);
+        mdia.boxes.add(minf);
+        trak.boxes.add(mdia);
+        moov.boxes.add(trak);
+
+        MovieExtendsBox mvex = new MovieExtendsBox();
+        TrackExtendsBox trex = new TrackExtendsBox();
+        trex.track_ID = 1;
+        trex.default_sample_description_index = 1;
+        trex.default_sample_duration = 33;
+        trex.default_sample_flags = 0x00010000;
+        mvex.boxes.add(trex);
+        moov.boxes.add(mvex);
+        boxes.add(moov);
+
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            OutputChannel out = new OutputChannel(fos.getChannel());
+            ByteBuffer buf = ByteBuffer.allocate(100 * 1024);
+            ContainerBox.length(boxes);
+            IsoMedia.write(out, boxes, buf, IsoMedia.OnBoxListener.ALL);
+
+            for (int f = 0; f < fragments; f++) {
+                MovieFragmentBox moof = new MovieFragmentBox();
+                MovieFragmentHeaderBox mfhd = new MovieFragmentHeaderBox();
+                mfhd.sequence_number = f + 1;
+                moof.boxes.add(mfhd);
+                TrackFragmentBox traf = new TrackFragmentBox();
+                TrackFragmentHeaderBox tfhd = new TrackFragmentHeaderBox();
+                tfhd.track_ID = 1;
+                traf.boxes.add(tfhd);
+                TrackRunBox trun = new TrackRunBox();
+                // durations, sizes and flags present, the durations change
+                trun.flags = 0x100 | 0x200 | 0x400;
+                trun.sample_count = samplesPerFragment;
+                trun.entries = new TrackRunBox.Entry[samplesPerFragment];
+
+                ByteBuffer payload = ByteBuffer.allocate(samplesPerFragment * maxSampleSize);
+                for (int i = 0; i < samplesPerFragment; i++) {
+                    byte[] sample = new byte[1 + r.nextInt(maxSampleSize)];
+                    r.nextBytes(sample);
+                    samples.add(sample);
+                    payload.put(sample);
+
+                    TrackRunBox.Entry e = new TrackRunBox.Entry();
+                    e.sample_duration = 33 + (i % 3 == 0 ? 1 : 0);
+                    e.sample_size = sample.length;
+                    e.sample_flags = i == 0 ? 0x00010000 : 0;
+                    trun.entries[i] = e;
+                }
+                traf.boxes.add(trun);
+                moof.boxes.add(traf);
+
+                MediaDataBox mdat = new MediaDataBox();
+                mdat.length(payload.position());
+
+                LinkedList<Box> fragment = new LinkedList<>();
+                fragment.add(moof);
+                ContainerBox.length(fragment);
+                fragment.add(mdat);
+                IsoMedia.write(out, fragment, buf, IsoMedia.OnBoxListener.ALL);
+
+                payload.flip();
+                while (payload.hasRemaining()) {
+                    out.write(payload);
+                }
+            }
+        } finally {
+            fos.close();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.net.*;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local http proxy that answers the requests of the performers with the
+ * recorded pages in the test resources ({@code /fixtures}), so the search
+ * code runs unmodified and without network access.
+ * <p>
+ * Only plain http is proxied, the https requests are refused.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+final class FixtureServer implements Closeable {
+
+    private final ServerSocket server;
+    private final Map<String, byte[]> routes;
+    private final AtomicInteger requests;
+
+    private ProxySelector previous;
+
+    FixtureServer() throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        this.routes = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>());
+        this.requests = new AtomicInteger();
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "FixtureServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Answers the urls starting with {@code prefix} (host and path, without
+     * the scheme) with the fixture file.
+     */
+    FixtureServer route(String prefix, String fixture) throws IOException {
+        InputStream is = FixtureServer.class.getResourceAsStream("/fixtures/" + fixture);
+        if (is == null) {
+            throw new FileNotFoundException("Fixture not found: " + fixture);
+        }
+        try {
+            routes.put(prefix, IOUtils.toByteArray(is));
+        } finally {
+            is.close();
+        }
+        return this;
+    }
+
+    FixtureServer route(String prefix, byte[] data) {
+        routes.put(prefix, data);
+        return this;
+    }
+
+    /**
+     * Makes this server the proxy of all the http connections of the process.
+     */
+    void install() {
+        previous = ProxySelector.getDefault();
+        final Proxy proxy = new Proxy(Proxy.Type.HTTP, server.getLocalSocketAddress());
+        ProxySelector.setDefault(new ProxySelector() {
+            @Override
+            public List<Proxy> select(URI uri) {
+                return Collections.singletonList(proxy);
+            }
+
+            @Override
+            public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+            }
+        });
+    }
+
+    int requests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (previous != null) {
+            ProxySelector.setDefault(previous);
+        }
+        server.close();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                final Socket s = server.accept();
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(s);
+                    }
+                });
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket s) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), "ISO-8859-1"));
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split(" ");
+                int contentLength = 0;
+                String header;
+                while ((header = in.readLine()) != null && !header.isEmpty()) {
+                    if (header.toLowerCase().startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(header.substring(15).trim());
+                    }
+                }
+                for (int i = 0; i < contentLength; i++) {
+                    in.read();
+                }
+                requests.incrementAndGet();
+
+                if ("CONNECT".equals(parts[0])) {
+                    respond(out, 403, null);
+                    break;
+                }
+                respond(out, 200, lookup(parts[1]));
+            }
+        } catch (IOException e) {
+            // client closed
+        } finally {
+            IOUtils.closeQuietly(s);
+        }
+    }
+
+    private byte[] lookup(String url) {
+        String key = url.substring(url.indexOf("://") + 3);
+        synchronized (routes) {
+            for (Map.Entry<String, byte[]> e : routes.entrySet()) {
+                if (key.startsWith(e.getKey())) {
+                    return e.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void respond(OutputStream out, int code, byte[] body) throws IOException {
+        if (body == null && code == 200) {
+            code = 404;
+        }
+        if (body == null) {
+            body = new byte[0];
+        }
+        String status = code == 200 ? "OK" : code == 404 ? "Not Found" : "Forbidden";
+        out.write(("HTTP/1.1 " + code + " " + status + "\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Connection: keep-alive\r\n\r\n").getBytes("ISO-8859-1"));
+        out.write(body);
+        out.flush();
+    }
+}
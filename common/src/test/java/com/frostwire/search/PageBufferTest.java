@@ -0,0 +1,134 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import com.frostwire.regex.Pattern;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class PageBufferTest {
+
+    private static final Pattern PATTERN = Pattern.compile("(?is)<a href=\"/torrent/(?<id>[0-9]+)\">(?<name>.*?)</a>");
+
+    @Test
+    public void testReduceAndMatch() throws Exception {
+        StringBuilder sb = new StringBuilder("<html><div id=\"header\"><a href=\"/torrent/0\">ignored</a></div>");
+        sb.append("<div id=\"results\">");
+        for (int i = 1; i <= 3; i++) {
+            sb.append("<a href=\"/torrent/").append(i).append("\">Café ").append(i).append("</a>");
+        }
+        sb.append("</div><div id=\"footer\"><a href=\"/torrent/9\">ignored</a></div></html>");
+        String html = sb.toString();
+
+        PageBuffer page = PageBuffer.decode(html.getBytes("UTF-8"));
+        try {
+            assertEquals(html.length(), page.length());
+            assertEquals(html, page.toString());
+            assertEquals(html.indexOf("id=\"results\""), page.indexOf("id=\"results\""));
+            assertEquals(-1, page.indexOf("not there"));
+
+            PageBuffer reduced = page.reduce(page.indexOf("id=\"results\""), page.indexOf("id=\"footer\""));
+            assertEquals(html.substring(html.indexOf("id=\"results\""), html.indexOf("id=\"footer\"")), reduced.toString());
+            assertEquals(reduced.indexOf("<a"), reduced.toString().indexOf("<a"));
+
+            List<String> names = new ArrayList<>();
+            SearchMatcher matcher = SearchMatcher.from(PATTERN, reduced);
+            while (matcher.find()) {
+                names.add(matcher.group("id") + ":" + matcher.group("name"));
+            }
+            assertEquals("[1:Café 1, 2:Café 2, 3:Café 3]", names.toString());
+
+            assertNull(page.reduce(-1, page.length()));
+        } finally {
+            page.release();
+        }
+    }
+
+    @Test
+    public void testReuseAndNested() {
+        PageBuffer p1 = PageBuffer.wrap("first page");
+        // a nested page while the first is in use must not share the buffer
+        PageBuffer p2 = PageBuffer.wrap("second");
+        assertEquals("first page", p1.toString());
+        assertEquals("second", p2.toString());
+        p2.release();
+        p1.release();
+
+        PageBuffer p3 = PageBuffer.wrap("third");
+        assertEquals("third", p3.toString());
+        assertEquals("hir", p3.window(1, 4).toString());
+        assertEquals("ir", p3.window(1, 4).subSequence(1, 3).toString());
+        p3.release();
+    }
+
+    @Test
+    public void testCharset() throws Exception {
+        String html = "<a href=\"/torrent/1\">Café Señor</a>";
+
+        PageBuffer page = PageBuffer.decode(html.getBytes("ISO-8859-1"), "ISO-8859-1");
+        try {
+            assertEquals(html, page.toString());
+        } finally {
+            page.release();
+        }
+
+        // nothing given, or unknown
+        page = PageBuffer.decode(html.getBytes("UTF-8"), null);
+        try {
+            assertEquals(html, page.toString());
+        } finally {
+            page.release();
+        }
+        page = PageBuffer.decode(html.getBytes("UTF-8"), "x-not-a-charset");
+        try {
+            assertEquals(html, page.toString());
+        } finally {
+            page.release();
+        }
+    }
+
+    @Test
+    public void testContentTypeCharset() {
+        Map<String, List<String>> headers = new HashMap<>();
+        assertNull(WebSearchPerformer.charset(headers));
+
+        headers.put(null, Collections.singletonList("HTTP/1.1 200 OK"));
+        headers.put("content-type", Collections.singletonList("text/html"));
+        assertNull(WebSearchPerformer.charset(headers));
+
+        headers.put("content-type", Collections.singletonList("text/html; charset=ISO-8859-1"));
+        assertEquals("ISO-8859-1", WebSearchPerformer.charset(headers));
+
+        headers.put("content-type", Arrays.asList("text/html;Charset=\"windows-1252\"", "text/plain"));
+        assertEquals("windows-1252", WebSearchPerformer.charset(headers));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class PagedWebSearchPerformerTest {
+
+    @Test
+    public void testBusyDomainDoesntBlockOthers() throws InterruptedException {
+        // many more pages of a slow domain than threads in the pool
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            final TestPerformer slow = new TestPerformer("slow.test", 4, 400, 0);
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    slow.perform();
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+        Thread.sleep(100);
+
+        TestPerformer fast = new TestPerformer("fast.test", 2, 0, 0);
+        long start = System.currentTimeMillis();
+        fast.perform();
+        long time = System.currentTimeMillis() - start;
+
+        assertEquals(2, fast.pages.size());
+        assertTrue("time: " + time, time < 350);
+
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    @Test
+    public void testPageOrder() {
+        // the first page is the slowest
+        TestPerformer p = new TestPerformer("order.test", 3, 0, 200);
+        p.setPaging(true, true);
+        p.perform();
+        assertEquals(Arrays.asList(1, 2, 3), p.pages);
+
+        p = new TestPerformer("any.test", 3, 0, 200);
+        p.perform();
+        assertEquals(3, p.pages.size());
+        assertEquals(1, (int) p.pages.get(2));
+    }
+
+    private static final class TestPerformer extends PagedWebSearchPerformer {
+
+        private final long delay;
+        private final long firstPageDelay;
+        final List<Integer> pages;
+
+        TestPerformer(String domainName, int pages, long delay, long firstPageDelay) {
+            super(domainName, 1, "test", 5000, pages);
+            this.delay = delay;
+            this.firstPageDelay = firstPageDelay;
+            this.pages = new CopyOnWriteArrayList<>();
+        }
+
+        @Override
+        protected List<? extends SearchResult> searchPage(int page) {
+            try {
+                Thread.sleep(page == 1 ? delay + firstPageDelay : delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // the size says the page
+            return Collections.<SearchResult>nCopies(page, null);
+        }
+
+        @Override
+        protected void onResults(List<? extends SearchResult> results) {
+            pages.add(results.size());
+        }
+
+        @Override
+        protected String getUrl(int page, String encodedKeywords) {
+            return null;
+        }
+
+        @Override
+        protected List<? extends SearchResult> searchPage(String page) {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import com.frostwire.licenses.License;
+import org.junit.Test;
+
+import java.text.Normalizer;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class RelevanceFilterTest {
+
+    private static final String[] NAMES = {
+            "Ubuntu 16.04 LTS Desktop amd64 [ISO]",
+            "The.Big.Bang.Theory.S09E24.720p.HDTV.x264-AVS[rarbg]",
+            "Pink Floyd - The Dark Side Of The Moon (1973) [FLAC] {24-96}",
+            "Beyoncé - Lemonade (2016) [MP3 320kbps] www.torrentsite.com",
+            "Sigur Rós - Ágætis byrjun (1999) 320kbps",
+            "Björk_-_Homogenic_(1997)_FLAC/01 - Hunter.flac",
+            "Linux Mint 18 &amp; Cinnamon &quot;Sarah&quot; 64-bit.torrent",
+            "<b>Creative Commons</b> - Free Music Archive - Jazz Collection",
+            "Game.of.Thrones.S06E10.The.Winds.of.Winter.1080p.WEB-DL.DD5.1.H264-NTb",
+            "Mozart - Requiem in D minor, K. 626 (Karajan, Berliner Philharmoniker)",
+            "Café del Mar Vol. 22 [2CD] (2016) ~ chill out",
+            "ＦＵＬＬＷＩＤＴＨ Ｔｅｘｔ － 全角 Album",
+            "Der Herr der Ringe - Die Gefährten (Extended Edition) GERMAN DL 1080p",
+            "Frostwire_Sample_Pack/Drums/Kick 01.wav",
+            "Archive.org - Night of the Living Dead (1968) public domain"
+    };
+
+    private static final String[] QUERIES = {
+            "ubuntu iso",
+            "big bang theory s09e24",
+            "pink floyd dark side",
+            "beyonce lemonade",
+            "sigur ros agaetis",
+            "bjork homogenic",
+            "linux mint sarah",
+            "creative commons jazz",
+            "game of thrones winter",
+            "mozart requiem karajan",
+            "cafe del mar",
+            "fullwidth text",
+            "gefahrten extended",
+            "frostwire kick",
+            "night living dead",
+            "torrent",
+            "Ágætis",
+            "..."
+    };
+
+    @Test
+    public void testSameAsLegacy() {
+        for (String q : QUERIES) {
+            RelevanceFilter f = RelevanceFilter.compile(q);
+            List<String> legacyTokens = legacyTokenize(q);
+
+            legacyTokens.remove("");
+            assertEquals(q, new HashSet<>(legacyTokens), new HashSet<>(f.tokens()));
+
+            for (String name : NAMES) {
+                assertEquals(q + " | " + name, legacyFilter(legacyTokenize(q), name), f.accept(name));
+            }
+        }
+    }
+
+    @Test
+    public void testAcceptResult() {
+        RelevanceFilter f = RelevanceFilter.compile("floyd moon flac");
+
+        assertTrue(f.accept(new FileResult("Pink Floyd - Dark Side Of The Moon", "01 - Speak To Me.flac")));
+        assertFalse(f.accept(new FileResult("Pink Floyd - Dark Side Of The Moon", "01 - Speak To Me.mp3")));
+
+        assertTrue(RelevanceFilter.compile("").accept(new FileResult("a", "b")));
+    }
+
+    @Test
+    public void testOverlappingTokens() {
+        RelevanceFilter f = RelevanceFilter.compile("she he hers his");
+
+        assertTrue(f.accept("ushers this"));
+        assertFalse(f.accept("ushers thi"));
+    }
+
+    /**
+     * Simple benchmark, runs the legacy code and the compiled filter over
+     * a realistic list of names, as done for every crawled file.
+     */
+    @Test
+    public void testBenchmark() {
+        int rounds = 50;
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            names.addAll(Arrays.asList(NAMES));
+        }
+
+        // warm up
+        int legacyCount = runLegacy(names, 20);
+        int count = runCompiled(names, 20);
+        assertEquals(legacyCount, count);
+
+        long t0 = System.nanoTime();
+        runLegacy(names, rounds);
+        long legacyTime = System.nanoTime() - t0;
+
+        t0 = System.nanoTime();
+        runCompiled(names, rounds);
+        long time = System.nanoTime() - t0;
+
+        long checks = (long) rounds * QUERIES.length * names.size();
+        System.out.println("RelevanceFilter benchmark, " + checks + " checks");
+        System.out.println("legacy:   " + (legacyTime / checks) + " ns/check");
+        System.out.println("compiled: " + (time / checks) + " ns/check");
+    }
+
+    private static int runLegacy(List<String> names, int rounds) {
+        int count = 0;
+        List<List<String>> queries = new ArrayList<>();
+        for (String q : QUERIES) {
+            queries.add(legacyTokenize(q));
+        }
+        for (int r = 0; r < rounds; r++) {
+            for (List<String> tokens : queries) {
+                for (String name : names) {
+                    if (legacyFilter(new LinkedList<>(tokens), name)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int runCompiled(List<String> names, int rounds) {
+        int count = 0;
+        List<RelevanceFilter> filters = new ArrayList<>();
+        for (String q : QUERIES) {
+            filters.add(RelevanceFilter.compile(q));
+        }
+        for (int r = 0; r < rounds; r++) {
+            for (RelevanceFilter f : filters) {
+                for (String name : names) {
+                    if (f.accept(name)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    // the code used by the front-ends before the compiled filter
+
+    private static boolean legacyFilter(List<String> tokens, String str) {
+        str = legacySanitize(str);
+        str = legacyNormalize(str);
+
+        Iterator<String> it = tokens.iterator();
+        while (it.hasNext()) {
+            String token = it.next();
+            if (str.contains(token)) {
+                it.remove();
+            }
+        }
+
+        return tokens.isEmpty();
+    }
+
+    private static String legacySanitize(String str) {
+        str = str.replaceAll("\\<.*?>", "");
+        str = str.replaceAll("\\&.*?\\;", "");
+        str = str.replaceAll("\\.torrent|www\\.|\\.com|\\.net|[\\\\\\/%_;\\-\\.\\(\\)\\[\\]\\n\\rÐ&~{}\\*@\\^'=!,¡|#ÀÁ]", " ");
+        str = str.replaceAll("\\s+", " ");
+        return str.trim();
+    }
+
+    private static String legacyNormalize(String token) {
+        String norm = Normalizer.normalize(token, Normalizer.Form.NFKD);
+        norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+        return norm.toLowerCase(Locale.US);
+    }
+
+    private static List<String> legacyTokenize(String keywords) {
+        keywords = legacySanitize(keywords);
+        Set<String> tokens = new HashSet<>(Arrays.asList(keywords.toLowerCase(Locale.US).split(" ")));
+        List<String> r = new ArrayList<>();
+        for (String t : tokens) {
+            r.add(legacyNormalize(t));
+        }
+        return r;
+    }
+
+    private static final class FileResult implements FileSearchResult {
+
+        private final String displayName;
+        private final String filename;
+
+        FileResult(String displayName, String filename) {
+            this.displayName = displayName;
+            this.filename = filename;
+        }
+
+        @Override
+        public String getFilename() {
+            return filename;
+        }
+
+        @Override
+        public long getSize() {
+            return 0;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        @Override
+        public String getDetailsUrl() {
+            return null;
+        }
+
+        @Override
+        public long getCreationTime() {
+            return 0;
+        }
+
+        @Override
+        public String getSource() {
+            return "test";
+        }
+
+        @Override
+        public License getLicense() {
+            return null;
+        }
+
+        @Override
+        public String getThumbnailUrl() {
+            return null;
+        }
+
+        @Override
+        public int uid() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.frostwire.search;
+
+import com.frostwire.licenses.License;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class SearchManagerTest {
+
+    @Test
+    public void testRoundRobin() throws InterruptedException {
+        SearchManager manager = new SearchManager(1);
+        List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = stopped(manager, 2);
+
+        TestPerformer gate = block(manager);
+        manager.perform(new TestPerformer("a", 1, 3, events));
+        manager.perform(new TestPerformer("b", 2, 3, events));
+        gate.release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("perform a", "perform b",
+                "crawl a0", "crawl b0", "crawl a1", "crawl b1", "crawl a2", "crawl b2"), events);
+    }
+
+    @Test
+    public void testPerformBeforeCrawl() throws InterruptedException {
+        final SearchManager manager = new SearchManager(1);
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = stopped(manager, 2);
+
+        TestPerformer gate = block(manager);
+        manager.perform(new TestPerformer("a", 1, 3, events) {
+            @Override
+            public void perform() {
+                super.perform();
+                // a new search of the same engine, after the crawls
+                manager.perform(new TestPerformer("a", 2, 0, events));
+            }
+        });
+        gate.release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("perform a", "perform a", "crawl a0", "crawl a1", "crawl a2"), events);
+    }
+
+    @Test
+    public void testStopRemovesTasks() throws InterruptedException {
+        SearchManager manager = new SearchManager(1);
+        List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final List<Long> stopped = Collections.synchronizedList(new ArrayList<Long>());
+        manager.setListener(new SearchListener() {
+            @Override
+            public void onResults(long token, List<? extends SearchResult> results) {
+            }
+
+            @Override
+            public void onError(long token, SearchError error) {
+            }
+
+            @Override
+            public void onStopped(long token) {
+                stopped.add(token);
+            }
+        });
+
+        TestPerformer gate = block(manager);
+        manager.perform(new TestPerformer("a", 1, 3, events));
+        manager.perform(new TestPerformer("b", 2, 3, events));
+        assertEquals(1, manager.pendingTasks(1));
+
+        manager.stop(1);
+        assertEquals(0, manager.pendingTasks(1));
+        assertEquals(Collections.singletonList(1L), stopped);
+        assertEquals(1, manager.pendingTasks(2));
+
+        gate.release.countDown();
+        manager.stop(0);
+        Thread.sleep(200);
+
+        assertFalse(events.contains("perform a"));
+        assertEquals(0, manager.pendingTasks(2));
+    }
+
+    private static CountDownLatch stopped(SearchManager manager, int searches) {
+        final CountDownLatch latch = new CountDownLatch(searches);
+        manager.setListener(new SearchListener() {
+            @Override
+            public void onResults(long token, List<? extends SearchResult> results) {
+            }
+
+            @Override
+            public void onError(long token, SearchError error) {
+            }
+
+            @Override
+            public void onStopped(long token) {
+                if (token != 0) {
+                    latch.countDown();
+                }
+            }
+        });
+        return latch;
+    }
+
+    /**
+     * Keeps the only thread busy until released, so the tasks queue up.
+     */
+    private static TestPerformer block(SearchManager manager) throws InterruptedException {
+        TestPerformer gate = new TestPerformer("gate", 0, 0, new ArrayList<String>());
+        manager.perform(gate);
+        assertTrue(gate.started.await(5, TimeUnit.SECONDS));
+        return gate;
+    }
+
+    private static class TestPerformer extends WebSearchPerformer {
+
+        private final String name;
+        private final int crawls;
+        private final List<String> events;
+
+        final CountDownLatch started;
+        final CountDownLatch release;
+
+        TestPerformer(String name, long token, int crawls, List<String> events) {
+            super(name + ".test", token, "test", 1000);
+            this.name = name;
+            this.crawls = crawls;
+            this.events = events;
+            this.started = new CountDownLatch(1);
+            this.release = new CountDownLatch(token == 0 ? 1 : 0);
+        }
+
+        @Override
+        public void perform() {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add("perform " + name);
+            List<TestResult> results = new ArrayList<>();
+            for (int i = 0; i < crawls; i++) {
+                results.add(new TestResult(name + i));
+            }
+            onResults(results);
+        }
+
+        @Override
+        public void crawl(CrawlableSearchResult sr) {
+            events.add("crawl " + sr.getDisplayName());
+        }
+    }
+
+    private static final class TestResult implements CrawlableSearchResult {
+
+        private final String name;
+
+        TestResult(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return false;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return name;
+        }
+
+        @Override
+        public String getDetailsUrl() {
+            return null;
+        }
+
+        @Override
+        public long getCreationTime() {
+            return 0;
+        }
+
+        @Override
+        public String getSource() {
+            return null;
+        }
+
+        @Override
+        public License getLicense() {
+            return null;
+        }
+
+        @Override
+        public String getThumbnailUrl() {
+            return null;
+        }
+
+        @Override
+        public int uid() {
+            return name.hashCode();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of the engines with recorded pages replayed by a local
+ * {@link FixtureServer}, it goes through the real {@link SearchManager}
+ * scheduling, http client, parsing and crawling, and reports the
+ * {@link SearchEngineStats} of each engine.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public class SearchPerformanceTest {
+
+    private static final int ROUNDS = 10;
+    private static final long SEARCH_TIMEOUT = 30000;
+
+    private static final List<SearchEngine> ENGINES = Arrays.asList(
+            SearchManager.EXTRATORRENT, SearchManager.MININOVA, SearchManager.BTJUNKIE);
+
+    private FixtureServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FixtureServer()
+                .route("extratorrent.cc/json/", "extratorrent/search.json")
+                .route("extratorrent.cc/torrent_files/", "extratorrent/torrent_files.html")
+                .route("extratorrent.cc/download/", new byte[]{'d', 'e'})
+                .route("www.mininova.org/vuze.php", "mininova/vuze.json")
+                .route("btjunkie.eu/all/", "btjunkie/search.html");
+        server.install();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testReplay() throws InterruptedException {
+        SearchManager manager = SearchManager.getInstance();
+        Map<String, List<SearchEngineStats>> byEngine = new LinkedHashMap<>();
+
+        for (int i = 0; i < ROUNDS; i++) {
+            long token = 1000 + i;
+            for (SearchEngine e : ENGINES) {
+                manager.perform(e.newPerformer(token, "frostwire"));
+            }
+
+            long deadline = System.currentTimeMillis() + SEARCH_TIMEOUT;
+            while (manager.pendingTasks(token) > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("Search did not finish", 0, manager.pendingTasks(token));
+
+            List<SearchEngineStats> stats = manager.engineStats(token);
+            assertEquals(ENGINES.size(), stats.size());
+            for (SearchEngineStats s : stats) {
+                List<SearchEngineStats> list = byEngine.get(s.engine());
+                if (list == null) {
+                    list = new ArrayList<>();
+                    byEngine.put(s.engine(), list);
+                }
+                list.add(s);
+            }
+        }
+
+        for (Map.Entry<String, List<SearchEngineStats>> e : byEngine.entrySet()) {
+            long first = 0, completion = 0, parse = 0;
+            for (SearchEngineStats s : e.getValue()) {
+                assertTrue(s.engine() + ": no pages", s.pages() > 0);
+                assertTrue(s.engine() + ": no results", s.results() > 0);
+                assertTrue(s.engine() + ": no bytes", s.bytes() > 0);
+                assertTrue(s.timeToCompletion() >= s.timeToFirstResult());
+                first += s.timeToFirstResult();
+                completion += s.timeToCompletion();
+                parse += s.parseTime();
+            }
+            int n = e.getValue().size();
+            SearchEngineStats last = e.getValue().get(n - 1);
+            System.out.println(e.getKey() + ": avg firstResult=" + (first / n) + "ms, avg completion=" + (completion / n) +
+                    "ms, avg parse=" + (parse / n) + "ms, last=" + last);
+        }
+
+        // pages of the first round plus the crawls
+        assertTrue(server.requests() > ROUNDS * ENGINES.size());
+    }
+}
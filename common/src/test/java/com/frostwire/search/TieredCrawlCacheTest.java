@@ -0,0 +1,223 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class TieredCrawlCacheTest {
+
+    @Test
+    public void testMemoryHitAndWriteBehind() throws Exception {
+        TestStore store = new TestStore();
+        TieredCrawlCache cache = new TieredCrawlCache(store, 1024 * 1024);
+
+        byte[] data = new byte[]{1, 2, 3};
+        cache.put("a", data);
+        assertArrayEquals(data, cache.get("a"));
+        assertEquals(0, store.reads);
+
+        waitForWrites(cache);
+        assertTrue(store.contains("a"));
+
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        waitForWrites(cache);
+        assertFalse(store.contains("a"));
+
+        CrawlCacheStats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(2, stats.writes());
+    }
+
+    @Test
+    public void testStoreHitFillsMemory() {
+        TestStore store = new TestStore();
+        store.put("b", new byte[]{4});
+        TieredCrawlCache cache = new TieredCrawlCache(store, 1024 * 1024);
+
+        assertArrayEquals(new byte[]{4}, cache.get("b"));
+        assertArrayEquals(new byte[]{4}, cache.get("b"));
+        assertEquals(1, store.reads);
+
+        CrawlCacheStats stats = cache.stats();
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.storeHits());
+        assertEquals(1, stats.hits());
+    }
+
+    @Test
+    public void testFailedOnlyInMemory() throws Exception {
+        TestStore store = new TestStore();
+        TieredCrawlCache cache = new TieredCrawlCache(store, 1024 * 1024, 50);
+
+        String key = TieredCrawlCache.FAILED_PREFIX + "http://failed.com";
+        cache.put(key, new byte[]{1});
+        assertArrayEquals(new byte[]{1}, cache.get(key));
+
+        Thread.sleep(100);
+        assertNull(cache.get(key));
+
+        waitForWrites(cache);
+        assertEquals(0, store.reads);
+        assertEquals(0, store.map.size());
+        assertEquals(1, cache.stats().failedHits());
+    }
+
+    @Test
+    public void testByteBudget() {
+        TestStore store = new TestStore();
+        // 16 segments of 1KB
+        TieredCrawlCache cache = new TieredCrawlCache(store, 16 * 1024);
+
+        for (int i = 0; i < 200; i++) {
+            cache.put("k" + i, new byte[256]);
+        }
+
+        CrawlCacheStats stats = cache.stats();
+        assertTrue(stats.memoryBytes() <= 16 * 1024);
+        assertTrue(stats.evictions() > 0);
+        assertEquals(200 - stats.evictions(), stats.memoryEntries());
+    }
+
+    @Test
+    public void testPutWhileReadingStore() throws Exception {
+        final TestStore store = new TestStore();
+        store.put("c", new byte[]{1});
+        final TieredCrawlCache cache = new TieredCrawlCache(store, 1024 * 1024);
+
+        store.block = new CountDownLatch(1);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                cache.get("c");
+            }
+        };
+        reader.start();
+        assertTrue(store.reading.await(5, TimeUnit.SECONDS));
+
+        // the old value is being read from the store
+        cache.put("c", new byte[]{2});
+        store.block.countDown();
+        reader.join();
+        waitForWrites(cache);
+
+        assertArrayEquals(new byte[]{2}, cache.get("c"));
+        assertArrayEquals(new byte[]{2}, store.map.get("c"));
+    }
+
+    @Test
+    public void testClearWhileReadingStore() throws Exception {
+        final TestStore store = new TestStore();
+        store.put("d", new byte[]{1});
+        final TieredCrawlCache cache = new TieredCrawlCache(store, 1024 * 1024);
+
+        store.block = new CountDownLatch(1);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                cache.get("d");
+            }
+        };
+        reader.start();
+        assertTrue(store.reading.await(5, TimeUnit.SECONDS));
+
+        cache.clear();
+        store.block.countDown();
+        reader.join();
+        store.block = null;
+        waitForWrites(cache);
+        Thread.sleep(50); // the store clear is not a pending write
+
+        assertNull(cache.get("d"));
+    }
+
+    private static void waitForWrites(TieredCrawlCache cache) throws InterruptedException {
+        for (int i = 0; i < 100 && cache.stats().pendingWrites() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, cache.stats().pendingWrites());
+    }
+
+    private static final class TestStore implements CrawlCache {
+
+        private final Map<String, byte[]> map = new HashMap<>();
+        private int reads;
+
+        // blocks the reads until released
+        private final CountDownLatch reading = new CountDownLatch(1);
+        private volatile CountDownLatch block;
+
+        @Override
+        public byte[] get(String key) {
+            byte[] data;
+            synchronized (this) {
+                reads++;
+                data = map.get(key);
+            }
+            reading.countDown();
+            if (block != null) {
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return data;
+        }
+
+        @Override
+        public synchronized void put(String key, byte[] data) {
+            map.put(key, data);
+        }
+
+        @Override
+        public synchronized void remove(String key) {
+            map.remove(key);
+        }
+
+        @Override
+        public synchronized void clear() {
+            map.clear();
+        }
+
+        @Override
+        public synchronized long size() {
+            return map.size();
+        }
+
+        synchronized boolean contains(String key) {
+            return map.containsKey(key);
+        }
+    }
+}
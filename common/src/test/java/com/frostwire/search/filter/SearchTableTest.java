@@ -20,11 +20,20 @@ package com.frostwire.search.filter;
 import com.frostwire.search.SearchResult;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -73,6 +82,10 @@ public class SearchTableTest {
             public void viewAdded(SearchView view, List<SearchResult> results) {
                 b1.set(true);
             }
+
+            @Override
+            public void viewMerged(SearchView view, List<SearchResult> results) {
+            }
         });
 
         t.add(new TestSearchResult("a"));
@@ -81,4 +94,123 @@ public class SearchTableTest {
         t.clear();
         assertTrue(b2.get());
     }
+
+    @Test
+    public void testMergeSameInfoHash() {
+        SearchTable t = new SearchTable(0);
+
+        final AtomicInteger added = new AtomicInteger();
+        final AtomicInteger merged = new AtomicInteger();
+
+        SearchView view = t.view(SearchFilter.NONE);
+        view.setListener(new SearchViewListener() {
+            @Override
+            public void viewChanged(SearchView view) {
+            }
+
+            @Override
+            public void viewAdded(SearchView view, List<SearchResult> results) {
+                added.addAndGet(results.size());
+            }
+
+            @Override
+            public void viewMerged(SearchView view, List<SearchResult> results) {
+                merged.addAndGet(results.size());
+            }
+        });
+
+        TestTorrentSearchResult sr1 = new TestTorrentSearchResult("a", "ABCDEF", 10);
+        TestTorrentSearchResult sr2 = new TestTorrentSearchResult("b", "abcdef", 30);
+        sr2.source("test2");
+        TestTorrentSearchResult sr3 = new TestTorrentSearchResult("c", "123456", 5);
+
+        t.add(Arrays.<SearchResult>asList(sr1, sr3));
+        t.add(sr2);
+
+        assertEquals(2, t.data().size());
+        assertEquals(2, added.get());
+        assertEquals(1, merged.get());
+
+        MergedResult m = t.merged(sr2);
+        assertSame(sr1, m.result());
+        assertEquals(2, m.results().size());
+        assertEquals(2, m.sources().size());
+        assertEquals(30, m.seeds());
+
+        t.clear();
+        assertNull(t.merged(sr1));
+    }
+
+    @Test
+    public void testConcurrentAddBatches() throws Exception {
+        final SearchTable t = new SearchTable(0);
+
+        final int threads = 4;
+        final int perThread = 500;
+
+        final AtomicInteger added = new AtomicInteger();
+        final AtomicInteger batches = new AtomicInteger();
+        final AtomicBoolean wrongThread = new AtomicBoolean(false);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        final ExecutorService ui = Executors.newSingleThreadExecutor();
+        final Thread[] uiThread = new Thread[1];
+        ui.submit(new Runnable() {
+            @Override
+            public void run() {
+                uiThread[0] = Thread.currentThread();
+            }
+        }).get();
+
+        SearchView view = t.view(SearchFilter.NONE);
+        view.setListener(new SearchViewListener() {
+            @Override
+            public void viewChanged(SearchView view) {
+            }
+
+            @Override
+            public void viewAdded(SearchView view, List<SearchResult> results) {
+                if (Thread.currentThread() != uiThread[0]) {
+                    wrongThread.set(true);
+                }
+                batches.incrementAndGet();
+                if (added.addAndGet(results.size()) == threads * perThread) {
+                    done.countDown();
+                }
+            }
+
+            @Override
+            public void viewMerged(SearchView view, List<SearchResult> results) {
+            }
+        }, ui, 50);
+
+        Thread[] writers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perThread; j++) {
+                        t.add(new TestSearchResult("r" + n + "-" + j));
+                        // readers must always get a consistent snapshot
+                        for (SearchResult sr : t.data()) {
+                            sr.getDisplayName();
+                        }
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        for (Thread w : writers) {
+            w.join();
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(threads * perThread, t.data().size());
+        assertEquals(threads * perThread, added.get());
+        assertTrue(batches.get() < threads * perThread);
+        assertFalse(wrongThread.get());
+
+        ui.shutdown();
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search.filter;
+
+import com.frostwire.search.torrent.TorrentSearchResult;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+class TestTorrentSearchResult extends TestSearchResult implements TorrentSearchResult {
+
+    private final String hash;
+    private final int seeds;
+
+    public TestTorrentSearchResult(String id, String hash, int seeds) {
+        super(id);
+        this.hash = hash;
+        this.seeds = seeds;
+    }
+
+    @Override
+    public String getFilename() {
+        return getDisplayName() + ".torrent";
+    }
+
+    @Override
+    public long getSize() {
+        return 0;
+    }
+
+    @Override
+    public String getTorrentUrl() {
+        return getDetailsUrl() + "/torrent";
+    }
+
+    @Override
+    public String getReferrerUrl() {
+        return getDetailsUrl();
+    }
+
+    @Override
+    public int getSeeds() {
+        return seeds;
+    }
+
+    @Override
+    public String getHash() {
+        return hash;
+    }
+}
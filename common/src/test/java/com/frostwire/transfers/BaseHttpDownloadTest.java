@@ -0,0 +1,383 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.transfers;
+
+import com.frostwire.platform.*;
+import com.frostwire.util.ThreadPool;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Downloads with two parts at the same time (like the YouTube DASH
+ * video and audio) from a local server that streams slowly.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public class BaseHttpDownloadTest {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private static final int CHUNK = 16 * 1024;
+    private static final int CHUNKS = 40;
+    private static final long CHUNK_DELAY = 25;
+
+    private File dir;
+    private HttpServer server;
+    private AtomicInteger connections;
+    private AtomicInteger maxConnections;
+    private AtomicLong slowSent;
+    private byte[] ranged;
+    private volatile boolean headFails;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("downloads", "");
+        dir.delete();
+        dir.mkdirs();
+        Platforms.set(new TestPlatform(dir));
+
+        connections = new AtomicInteger();
+        maxConnections = new AtomicInteger();
+        slowSent = new AtomicLong();
+        ranged = new byte[5 * 1024 * 1024];
+        new Random(3).nextBytes(ranged);
+        headFails = false;
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange e) throws IOException {
+                serve(e);
+            }
+        });
+        server.createContext("/ranged", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange e) throws IOException {
+                serveRanged(e);
+            }
+        });
+        server.setExecutor(ThreadPool.newThreadPool("BaseHttpDownloadTest-server", 16, true));
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testPartsAtTheSameTime() throws Exception {
+        TwoPartDownload d = new TwoPartDownload(url("/video"), url("/audio"));
+        long start = System.currentTimeMillis();
+        d.start();
+        assertTrue(d.finished.await(20, TimeUnit.SECONDS));
+        long time = System.currentTimeMillis() - start;
+
+        assertEquals(1, d.httpComplete.get());
+        assertEquals(2, maxConnections.get());
+        assertEquals(2 * CHUNK * CHUNKS, d.getBytesReceived());
+        assertEquals(CHUNK * CHUNKS, d.first.length());
+        assertEquals(CHUNK * CHUNKS, d.second.length());
+        // one after the other it would take two times the delays
+        assertTrue("time: " + time, time < 2 * CHUNKS * CHUNK_DELAY);
+    }
+
+    @Test
+    public void testErrorStopsTheOtherPart() throws Exception {
+        TwoPartDownload d = new TwoPartDownload(url("/video"), url("/broken"));
+        d.start();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!d.isComplete() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(TransferState.ERROR, d.getState());
+        assertEquals(0, d.httpComplete.get());
+        // give the slow part time to see the error
+        Thread.sleep(CHUNK_DELAY * 4);
+        assertTrue("sent: " + slowSent.get(), slowSent.get() < CHUNK * CHUNKS);
+    }
+
+    @Test
+    public void testSegmentedResumeWithoutRanges() throws Exception {
+        OnePartDownload d = new OnePartDownload(url("/ranged"), ranged.length);
+        d.start();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (d.getBytesReceived() < ranged.length / 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        d.pause();
+        while (d.getState() != TransferState.PAUSED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(TransferState.PAUSED, d.getState());
+        assertTrue(SegmentedDownloader.stateFile(d.temp).exists());
+
+        // the probe of the resume fails, the holes must not be kept
+        headFails = true;
+        d.resume();
+        assertTrue(d.finished.await(20, TimeUnit.SECONDS));
+
+        assertEquals(TransferState.COMPLETE, d.getState());
+        assertArrayEquals(ranged, FileUtils.readFileToByteArray(d.temp));
+        assertFalse(SegmentedDownloader.stateFile(d.temp).exists());
+        assertEquals(ranged.length, d.getBytesReceived());
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private void serve(HttpExchange e) throws IOException {
+        if ("HEAD".equals(e.getRequestMethod())) {
+            // no ranges, no segments
+            e.sendResponseHeaders(200, -1);
+            e.close();
+            return;
+        }
+
+        int c = connections.incrementAndGet();
+        while (true) {
+            int m = maxConnections.get();
+            if (c <= m || maxConnections.compareAndSet(m, c)) {
+                break;
+            }
+        }
+
+        String path = e.getRequestURI().getPath();
+        byte[] chunk = new byte[CHUNK];
+        try {
+            e.sendResponseHeaders(200, CHUNK * CHUNKS);
+            OutputStream os = e.getResponseBody();
+            int n = "/broken".equals(path) ? 2 : CHUNKS;
+            for (int i = 0; i < n; i++) {
+                os.write(chunk);
+                os.flush();
+                if ("/video".equals(path)) {
+                    slowSent.addAndGet(CHUNK);
+                }
+                Thread.sleep(CHUNK_DELAY);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            // closed by the client
+        } finally {
+            connections.decrementAndGet();
+            e.close();
+        }
+    }
+
+    private void serveRanged(HttpExchange e) throws IOException {
+        try {
+            if ("HEAD".equals(e.getRequestMethod())) {
+                if (headFails) {
+                    e.sendResponseHeaders(500, -1);
+                } else {
+                    e.getResponseHeaders().set("Accept-Ranges", "bytes");
+                    e.getResponseHeaders().set("Content-Length", String.valueOf(ranged.length));
+                    e.sendResponseHeaders(200, -1);
+                }
+                return;
+            }
+
+            int start = 0;
+            int end = ranged.length - 1;
+            String range = e.getRequestHeaders().getFirst("Range");
+            Matcher m = range != null ? RANGE.matcher(range) : null;
+            if (m != null && m.matches()) {
+                start = Integer.parseInt(m.group(1));
+                if (!m.group(2).isEmpty()) {
+                    end = Math.min(Integer.parseInt(m.group(2)), end);
+                }
+                e.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + ranged.length);
+                e.sendResponseHeaders(206, end - start + 1);
+            } else {
+                e.sendResponseHeaders(200, ranged.length);
+            }
+            OutputStream os = e.getResponseBody();
+            for (int p = start; p <= end; p += CHUNK) {
+                os.write(ranged, p, Math.min(CHUNK, end + 1 - p));
+                os.flush();
+                Thread.sleep(2);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            // closed by the client
+        } finally {
+            e.close();
+        }
+    }
+
+    private static final class OnePartDownload extends BaseHttpDownload {
+
+        final String url;
+        final File temp;
+        final CountDownLatch finished;
+
+        OnePartDownload(String url, long size) {
+            super(new Info(url, "test.dat", "test", size));
+            this.url = url;
+            this.temp = tempPath.getAbsoluteFile();
+            this.finished = new CountDownLatch(1);
+        }
+
+        void start() {
+            start(url, temp, false);
+        }
+
+        @Override
+        protected void onFinishing() throws Throwable {
+            complete(TransferState.COMPLETE);
+            finished.countDown();
+        }
+    }
+
+    private static final class TwoPartDownload extends BaseHttpDownload {
+
+        final String firstUrl;
+        final String secondUrl;
+        final File first;
+        final File second;
+        final AtomicInteger httpComplete;
+        final CountDownLatch finished;
+
+        TwoPartDownload(String firstUrl, String secondUrl) {
+            super(new Info(firstUrl, "test.mp4", "test", 2 * CHUNK * CHUNKS));
+            this.firstUrl = firstUrl;
+            this.secondUrl = secondUrl;
+            this.first = new File(tempPath.getAbsolutePath() + ".first");
+            this.second = new File(tempPath.getAbsolutePath() + ".second");
+            this.httpComplete = new AtomicInteger();
+            this.finished = new CountDownLatch(1);
+        }
+
+        void start() {
+            start(firstUrl, first, false);
+            start(secondUrl, second, false);
+        }
+
+        @Override
+        protected void onHttpComplete() throws Throwable {
+            httpComplete.incrementAndGet();
+            super.onHttpComplete();
+        }
+
+        @Override
+        protected void onFinishing() throws Throwable {
+            complete(TransferState.COMPLETE);
+            finished.countDown();
+        }
+    }
+
+    private static final class TestPlatform implements Platform {
+
+        private final FileSystem fs;
+        private final SystemPaths paths;
+
+        TestPlatform(final File dir) {
+            this.fs = new DefaultFileSystem();
+            this.paths = new SystemPaths() {
+                @Override
+                public File data() {
+                    return new File(dir, "data");
+                }
+
+                @Override
+                public File torrents() {
+                    return new File(dir, "torrents");
+                }
+
+                @Override
+                public File temp() {
+                    return new File(dir, "temp");
+                }
+
+                @Override
+                public File libtorrent() {
+                    return new File(dir, "libtorrent");
+                }
+
+                @Override
+                public File update() {
+                    return new File(dir, "update");
+                }
+            };
+        }
+
+        @Override
+        public FileSystem fileSystem() {
+            return fs;
+        }
+
+        @Override
+        public SystemPaths systemPaths() {
+            return paths;
+        }
+
+        @Override
+        public AppSettings appSettings() {
+            return null;
+        }
+
+        @Override
+        public boolean android() {
+            return false;
+        }
+
+        @Override
+        public int androidVersion() {
+            return -1;
+        }
+
+        @Override
+        public boolean experimental() {
+            return false;
+        }
+
+        @Override
+        public NetworkType networkType() {
+            return NetworkType.UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.transfers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class HttpDownloadSchedulerTest {
+
+    @Test
+    public void testActiveLimit() throws InterruptedException {
+        HttpDownloadScheduler scheduler = new HttpDownloadScheduler("test", 3, 0);
+        int n = 50;
+        final CountDownLatch done = new CountDownLatch(n);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger max = new AtomicInteger();
+
+        for (int i = 0; i < n; i++) {
+            scheduler.submit(new HttpDownloadScheduler.Job() {
+                @Override
+                protected void run() {
+                    track(running, max);
+                    done.countDown();
+                }
+            }, "http://host" + i + ".com/file");
+        }
+
+        // more than the old fixed pool, nothing is rejected
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue("max: " + max.get(), max.get() <= 3);
+        waitIdle(scheduler);
+    }
+
+    @Test
+    public void testHostLimit() throws InterruptedException {
+        HttpDownloadScheduler scheduler = new HttpDownloadScheduler("test", 10, 2);
+        int n = 12;
+        final CountDownLatch done = new CountDownLatch(n);
+        final AtomicInteger runningA = new AtomicInteger();
+        final AtomicInteger maxA = new AtomicInteger();
+        final AtomicInteger runningB = new AtomicInteger();
+        final AtomicInteger maxB = new AtomicInteger();
+
+        for (int i = 0; i < n; i++) {
+            final boolean a = i % 2 == 0;
+            scheduler.submit(new HttpDownloadScheduler.Job() {
+                @Override
+                protected void run() {
+                    if (a) {
+                        track(runningA, maxA);
+                    } else {
+                        track(runningB, maxB);
+                    }
+                    done.countDown();
+                }
+            }, a ? "http://a.com/" + i : "https://B.com/" + i);
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue("max a: " + maxA.get(), maxA.get() <= 2);
+        assertTrue("max b: " + maxB.get(), maxB.get() <= 2);
+    }
+
+    @Test
+    public void testPriorityAndCancel() throws InterruptedException {
+        HttpDownloadScheduler scheduler = new HttpDownloadScheduler("test", 1, 0);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<String> order = new CopyOnWriteArrayList<>();
+
+        scheduler.submit(new HttpDownloadScheduler.Job() {
+            @Override
+            protected void run() {
+                await(gate);
+            }
+        }, "http://a.com/blocker");
+
+        HttpDownloadScheduler.Job low = new NamedJob("low", order);
+        HttpDownloadScheduler.Job normal1 = new NamedJob("normal1", order);
+        HttpDownloadScheduler.Job normal2 = new NamedJob("normal2", order);
+        HttpDownloadScheduler.Job high = new NamedJob("high", order);
+        HttpDownloadScheduler.Job canceled = new NamedJob("canceled", order);
+
+        scheduler.priority(low, HttpDownloadScheduler.Priority.LOW);
+        scheduler.priority(high, HttpDownloadScheduler.Priority.HIGH);
+        scheduler.submit(low, "http://a.com/low");
+        scheduler.submit(normal1, "http://a.com/normal1");
+        scheduler.submit(canceled, "http://a.com/canceled");
+        scheduler.submit(normal2, "http://a.com/normal2");
+        scheduler.submit(high, "http://a.com/high");
+        assertEquals(5, scheduler.waiting());
+
+        assertTrue(scheduler.cancel(canceled));
+        scheduler.priority(normal2, HttpDownloadScheduler.Priority.HIGH);
+
+        gate.countDown();
+        waitIdle(scheduler);
+
+        // normal2 was queued before high
+        assertEquals(Arrays.asList("normal2", "high", "normal1", "low"), order);
+    }
+
+    @Test
+    public void testSubmitWhileActive() throws InterruptedException {
+        final HttpDownloadScheduler scheduler = new HttpDownloadScheduler("test", 1, 0);
+        final AtomicInteger runs = new AtomicInteger();
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        // like a download that starts its next part when the first one finishes
+        HttpDownloadScheduler.Job job = new HttpDownloadScheduler.Job() {
+            @Override
+            protected void run() {
+                order.add("part" + runs.incrementAndGet());
+                if (runs.get() == 1) {
+                    scheduler.submit(this, "http://b.com/part2");
+                }
+            }
+        };
+        final CountDownLatch gate = new CountDownLatch(1);
+        scheduler.submit(new HttpDownloadScheduler.Job() {
+            @Override
+            protected void run() {
+                await(gate);
+            }
+        }, "http://a.com/blocker");
+        scheduler.submit(job, "http://b.com/part1");
+        scheduler.submit(new NamedJob("other", order), "http://c.com/other");
+
+        gate.countDown();
+        waitIdle(scheduler);
+
+        // the second part goes ahead of the downloads queued later
+        assertEquals(Arrays.asList("part1", "part2", "other"), order);
+    }
+
+    @Test
+    public void testSubmitWhileActiveOtherHost() throws InterruptedException {
+        final HttpDownloadScheduler scheduler = new HttpDownloadScheduler("test", 2, 1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        // the next part comes from a mirror
+        scheduler.submit(new HttpDownloadScheduler.Job() {
+            private boolean first = true;
+
+            @Override
+            protected void run() {
+                if (first) {
+                    first = false;
+                    order.add("part1");
+                    scheduler.submit(this, "http://b.com/part2");
+                } else {
+                    order.add("part2");
+                }
+            }
+        }, "http://a.com/part1");
+        waitIdle(scheduler);
+
+        // the slot of a.com was released
+        final CountDownLatch done = new CountDownLatch(1);
+        scheduler.submit(new HttpDownloadScheduler.Job() {
+            @Override
+            protected void run() {
+                order.add("other");
+                done.countDown();
+            }
+        }, "http://a.com/other");
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("part1", "part2", "other"), order);
+    }
+
+    private static void track(AtomicInteger running, AtomicInteger max) {
+        int r = running.incrementAndGet();
+        while (true) {
+            int m = max.get();
+            if (r <= m || max.compareAndSet(m, r)) {
+                break;
+            }
+        }
+        sleep(5);
+        running.decrementAndGet();
+    }
+
+    private static void waitIdle(HttpDownloadScheduler scheduler) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (scheduler.active() > 0 || scheduler.waiting() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class NamedJob extends HttpDownloadScheduler.Job {
+
+        private final String name;
+        private final List<String> order;
+
+        NamedJob(String name, List<String> order) {
+            this.name = name;
+            this.order = order;
+        }
+
+        @Override
+        protected void run() {
+            order.add(name);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.transfers;
+
+import com.frostwire.util.ThreadPool;
+import com.frostwire.util.http.HttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Segmented downloads against a local server with byte ranges, where
+ * the first range is served slowly, so the other connections steal it.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public class SegmentedDownloaderTest {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private byte[] data;
+    private HttpServer server;
+    private AtomicInteger requests;
+    private ExecutorService pool;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        data = new byte[6 * 1024 * 1024];
+        new Random(11).nextBytes(data);
+        requests = new AtomicInteger();
+        pool = ThreadPool.newThreadPool("SegmentedDownloaderTest", 8, true);
+        file = File.createTempFile("segmented", ".dat");
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/file", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange e) throws IOException {
+                serve(e);
+            }
+        });
+        server.setExecutor(ThreadPool.newThreadPool("SegmentedDownloaderTest-server", 16, true));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        pool.shutdownNow();
+        file.delete();
+        SegmentedDownloader.stateFile(file).delete();
+    }
+
+    @Test
+    public void testDownloadWithStealing() throws Throwable {
+        final AtomicLong received = new AtomicLong();
+        SegmentedDownloader d = new SegmentedDownloader(url(), file, data.length, 4, pool, new HttpClient.HttpClientListenerAdapter() {
+            @Override
+            public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+                received.addAndGet(length);
+            }
+        });
+
+        assertEquals(0, d.prepare(false));
+        d.download();
+
+        assertArrayEquals(data, FileUtils.readFileToByteArray(file));
+        assertEquals(data.length, received.get());
+        assertFalse(SegmentedDownloader.stateFile(file).exists());
+        // the slow first segment was split
+        assertTrue("requests: " + requests.get(), requests.get() > 4);
+    }
+
+    @Test
+    public void testResume() throws Throwable {
+        final AtomicLong received = new AtomicLong();
+        HttpClient.HttpClientListener cancelling = new HttpClient.HttpClientListenerAdapter() {
+            @Override
+            public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+                if (received.addAndGet(length) > data.length / 3) {
+                    throw new RuntimeException("Invalid status, transfer cancelled");
+                }
+            }
+        };
+
+        SegmentedDownloader d = new SegmentedDownloader(url(), file, data.length, 4, pool, cancelling);
+        d.prepare(false);
+        try {
+            d.download();
+            fail("the download should be cancelled");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertTrue(SegmentedDownloader.stateFile(file).exists());
+
+        final AtomicLong resumed = new AtomicLong();
+        d = new SegmentedDownloader(url(), file, data.length, 4, pool, new HttpClient.HttpClientListenerAdapter() {
+            @Override
+            public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+                resumed.addAndGet(length);
+            }
+        });
+        long downloaded = d.prepare(true);
+        assertTrue(downloaded > 0);
+        d.download();
+
+        assertArrayEquals(data, FileUtils.readFileToByteArray(file));
+        assertEquals(data.length, downloaded + resumed.get());
+    }
+
+    @Test
+    public void testPoolFull() throws Throwable {
+        // room for only one of the other connections
+        ExecutorService small = ThreadPool.newThreadPool("SegmentedDownloaderTest-small", 1, true);
+        final AtomicLong received = new AtomicLong();
+        HttpClient.HttpClientListener listener = new HttpClient.HttpClientListenerAdapter() {
+            @Override
+            public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+                received.addAndGet(length);
+            }
+        };
+
+        SegmentedDownloader d = new SegmentedDownloader(url(), file, data.length, 4, small, listener);
+        d.prepare(false);
+        try {
+            d.download();
+            fail("the download should fail");
+        } catch (RejectedExecutionException e) {
+            // expected
+        } finally {
+            small.shutdown();
+        }
+
+        // the started connections stopped before the file was closed
+        long n = received.get();
+        Thread.sleep(200);
+        assertEquals(n, received.get());
+
+        d = new SegmentedDownloader(url(), file, data.length, 4, pool, listener);
+        d.prepare(true);
+        d.download();
+        assertArrayEquals(data, FileUtils.readFileToByteArray(file));
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+    }
+
+    private void serve(HttpExchange e) throws IOException {
+        requests.incrementAndGet();
+        String range = e.getRequestHeaders().getFirst("Range");
+        int start = 0;
+        int end = data.length - 1;
+        Matcher m = range != null ? RANGE.matcher(range) : null;
+        if (m != null && m.matches()) {
+            start = Integer.parseInt(m.group(1));
+            if (!m.group(2).isEmpty()) {
+                end = Math.min(Integer.parseInt(m.group(2)), end);
+            }
+            e.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+            e.sendResponseHeaders(206, end - start + 1);
+        } else {
+            e.getResponseHeaders().set("Accept-Ranges", "bytes");
+            e.sendResponseHeaders(200, data.length);
+        }
+
+        OutputStream os = e.getResponseBody();
+        try {
+            for (int i = start; i <= end; i += 16384) {
+                os.write(data, i, Math.min(16384, end - i + 1));
+                if (start == 0) {
+                    // the slow one
+                    Thread.sleep(20);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            // closed by the client
+        } finally {
+            e.close();
+        }
+    }
+}
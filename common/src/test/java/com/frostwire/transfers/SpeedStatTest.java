@@ -0,0 +1,147 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.transfers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class SpeedStatTest {
+
+    @Test
+    public void testSmoothedRate() {
+        FakeClock clock = new FakeClock();
+        SpeedStat stat = new SpeedStat(20, 0.5, 8, clock);
+        stat.update(0);
+
+        // 100KB every 20ms, 5MB/s
+        for (int i = 0; i < 20; i++) {
+            clock.advance(20);
+            stat.update(100000);
+        }
+
+        long speed = stat.averageSpeed();
+        assertEquals(5000000, speed);
+        assertEquals(2000000, stat.totalBytes());
+
+        long[] history = new long[stat.historySize()];
+        assertEquals(8, stat.history(history));
+        for (long rate : history) {
+            assertEquals(5000000, rate);
+        }
+
+        assertEquals(10, stat.eta(2000000 + speed * 10));
+        assertEquals(50, stat.progress(4000000));
+    }
+
+    @Test
+    public void testIrregularUpdates() {
+        FakeClock clock = new FakeClock();
+        SpeedStat stat = new SpeedStat(10, 0.5, 4, clock);
+        stat.update(0);
+
+        // inside the interval, no sample yet
+        clock.advance(5);
+        stat.update(50000);
+        assertEquals(0, stat.averageSpeed());
+
+        clock.advance(5);
+        stat.update(50000);
+        assertEquals(10000000, stat.averageSpeed());
+
+        // half the rate, weighted by alpha
+        clock.advance(10);
+        stat.update(50000);
+        assertEquals(7500000, stat.averageSpeed());
+    }
+
+    @Test
+    public void testStallDecays() {
+        FakeClock clock = new FakeClock();
+        SpeedStat stat = new SpeedStat(10, 0.5, 4, clock);
+        stat.update(0);
+        clock.advance(15);
+        stat.update(100000);
+        long speed = stat.averageSpeed();
+        assertEquals(6666666, speed);
+
+        // no data for 5 intervals, weighted as 5 samples of 0
+        clock.advance(50);
+        assertEquals(208333, stat.averageSpeed());
+    }
+
+    @Test
+    public void testUpdateTotal() {
+        FakeClock clock = new FakeClock();
+        SpeedStat stat = new SpeedStat(10, 1, 4, clock);
+        stat.updateTotal(1000000); // resumed, not a rate
+        clock.advance(15);
+        stat.updateTotal(1010000);
+        assertEquals(666666, stat.averageSpeed());
+
+        // recheck, the counter goes back
+        stat.updateTotal(500);
+        clock.advance(15);
+        stat.updateTotal(600);
+        assertEquals(6666, stat.averageSpeed());
+    }
+
+    /**
+     * The update is called for every chunk of data, it should take
+     * millions of calls per second.
+     */
+    @Test
+    public void testUpdateBenchmark() {
+        SpeedStat stat = new SpeedStat();
+        int n = 10000000;
+
+        // warm up
+        for (int i = 0; i < n / 10; i++) {
+            stat.update(4096);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            stat.update(4096);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double perSecond = n * 1e9 / elapsed;
+        System.out.printf("SpeedStat.update: %.1f M updates/s (%.1f ns/update)%n", perSecond / 1e6, (double) elapsed / n);
+        assertTrue(perSecond > 1000000);
+    }
+
+    private static final class FakeClock implements SpeedStat.Clock {
+
+        private long now = 1000000000L;
+
+        void advance(long millis) {
+            now += millis * 1000000L;
+        }
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ */
+public class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    @Test
+    public void testConcurrentCallsShareOneRun() throws Exception {
+        final SingleFlight<String> flights = new SingleFlight<>();
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> futures = submit(flights, "url", "hash", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                runs.incrementAndGet();
+                release.await();
+                return "data";
+            }
+        });
+
+        waitForJoins(flights);
+        release.countDown();
+
+        for (Future<String> f : futures) {
+            assertEquals("data", f.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, runs.get());
+        assertEquals(CALLERS - 1, flights.joined());
+        assertEquals(0, flights.size());
+    }
+
+    @Test
+    public void testFailureIsShared() throws Exception {
+        final SingleFlight<String> flights = new SingleFlight<>();
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> futures = submit(flights, "url", null, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                runs.incrementAndGet();
+                release.await();
+                throw new IOException("failed");
+            }
+        });
+
+        waitForJoins(flights);
+        release.countDown();
+
+        for (Future<String> f : futures) {
+            try {
+                f.get(5, TimeUnit.SECONDS);
+                fail("Expected the failure of the flight");
+            } catch (ExecutionException e) {
+                // the task exception wrapped by the flight, wrapped by the future
+                assertTrue(e.getCause().getCause() instanceof IOException);
+            }
+        }
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testJoinByAlias() throws Exception {
+        final SingleFlight<String> flights = new SingleFlight<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<String> leader = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return flights.execute("url1", "hash", 5000, new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        started.countDown();
+                        release.await();
+                        return "data1";
+                    }
+                });
+            }
+        });
+
+        started.await();
+        Future<String> other = Executors.newSingleThreadExecutor().submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return flights.execute("url2", "hash", 5000, new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return "data2";
+                    }
+                });
+            }
+        });
+
+        waitForJoins(flights);
+        release.countDown();
+
+        assertEquals("data1", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("data1", other.get(5, TimeUnit.SECONDS));
+        assertEquals(0, flights.size());
+    }
+
+    private static List<Future<String>> submit(final SingleFlight<String> flights, final String key, final String alias, final Callable<String> task) {
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return flights.execute(key, alias, 5000, task);
+                }
+            }));
+        }
+        executor.shutdown();
+        return futures;
+    }
+
+    // gives time to the callers to reach the flight
+    private static void waitForJoins(SingleFlight<String> flights) throws InterruptedException {
+        for (int i = 0; i < 50 && flights.size() == 0; i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.util.http;
+
+import com.frostwire.util.ThreadPool;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of the channel save path against the old 4KB stream copy
+ * with a callback per read, for both clients, using a local server.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public class HttpSaveTest {
+
+    private static final int SIZE = 64 * 1024 * 1024;
+    private static final int ROUNDS = 3;
+
+    private byte[] chunk;
+    private HttpServer server;
+    private ThreadPool pool;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        chunk = new byte[64 * 1024];
+        new Random(3).nextBytes(chunk);
+        pool = new ThreadPool("HttpSaveTest", 4, new java.util.concurrent.LinkedBlockingQueue<Runnable>(), true);
+        file = File.createTempFile("save", ".dat");
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/file", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange e) throws IOException {
+                // only the ranges from a chunk boundary, enough for the test
+                String range = e.getRequestHeaders().getFirst("Range");
+                int start = range != null ? Integer.parseInt(range.replaceAll("bytes=(\\d+)-.*", "$1")) : 0;
+                if (start > 0) {
+                    e.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (SIZE - 1) + "/" + SIZE);
+                    e.sendResponseHeaders(206, SIZE - start);
+                } else {
+                    e.sendResponseHeaders(200, SIZE);
+                }
+                OutputStream os = e.getResponseBody();
+                try {
+                    for (int i = start; i < SIZE; i += chunk.length) {
+                        os.write(chunk, 0, Math.min(chunk.length, SIZE - i));
+                    }
+                } finally {
+                    e.close();
+                }
+            }
+        });
+        server.setExecutor(pool);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        pool.shutdownNow();
+        file.delete();
+    }
+
+    @Test
+    public void testSaveThroughput() throws Exception {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+        HttpClient jdk = new JdkHttpClient();
+        OkHttpClient okHttpClient = OKHTTPClient.newOkHttpClient(new ThreadPool("HttpSaveTest-ok", 2, new java.util.concurrent.LinkedBlockingQueue<Runnable>(), true));
+        HttpClient ok = new OKHTTPClient(okHttpClient, new HostPermits(0));
+
+        // warm up
+        streamCopy(url, new AtomicLong());
+        okStreamCopy(okHttpClient, url, new AtomicLong());
+        jdk.save(url, file, false);
+        ok.save(url, file, false);
+
+        long streamNanos = 0;
+        long jdkNanos = 0;
+        long okNanos = 0;
+        long okStreamNanos = 0;
+        AtomicLong streamCalls = new AtomicLong();
+        AtomicLong okStreamCalls = new AtomicLong();
+        AtomicLong jdkCalls = new AtomicLong();
+        AtomicLong okCalls = new AtomicLong();
+
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            streamCopy(url, streamCalls);
+            streamNanos += System.nanoTime() - start;
+            assertEquals(SIZE, file.length());
+
+            start = System.nanoTime();
+            save(jdk, url, jdkCalls);
+            jdkNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            okStreamCopy(okHttpClient, url, okStreamCalls);
+            okStreamNanos += System.nanoTime() - start;
+            assertEquals(SIZE, file.length());
+
+            start = System.nanoTime();
+            save(ok, url, okCalls);
+            okNanos += System.nanoTime() - start;
+        }
+
+        report("stream 4KB", streamNanos, streamCalls.get());
+        report("jdk channel", jdkNanos, jdkCalls.get());
+        report("okhttp 4KB", okStreamNanos, okStreamCalls.get());
+        report("okhttp channel", okNanos, okCalls.get());
+
+        // at most a progress call every 256KB (plus the time based ones)
+        assertTrue(okCalls.get() < streamCalls.get() / 8);
+        assertTrue(jdkCalls.get() < streamCalls.get() / 8);
+    }
+
+    @Test
+    public void testResumeAndSync() throws IOException {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+        HttpClient jdk = new JdkHttpClient();
+
+        OutputStream os = new FileOutputStream(file);
+        os.write(chunk);
+        os.close();
+
+        final AtomicLong bytes = new AtomicLong();
+        jdk.setListener(new HttpClient.HttpClientListenerAdapter() {
+            @Override
+            public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+                assertNull(buffer);
+                bytes.addAndGet(length);
+            }
+        });
+        jdk.save(url, file, true, 10000, null, null, new SaveOptions(1024 * 1024, 1000, 8 * 1024 * 1024));
+        assertEquals(SIZE - chunk.length, bytes.get());
+        assertEquals(SIZE, file.length());
+    }
+
+    private void save(HttpClient client, String url, final AtomicLong calls) throws IOException {
+        final AtomicLong bytes = new AtomicLong();
+        client.setListener(new HttpClient.HttpClientListenerAdapter() {
+            @Override
+            public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+                calls.incrementAndGet();
+                bytes.addAndGet(length);
+            }
+        });
+        client.save(url, file, false);
+        assertEquals(SIZE, bytes.get());
+        assertEquals(SIZE, file.length());
+    }
+
+    /**
+     * The previous save loop.
+     */
+    private void streamCopy(String url, AtomicLong calls) throws IOException {
+        URLConnection conn = new URL(url).openConnection();
+        copy(conn.getInputStream(), calls);
+    }
+
+    /**
+     * The previous OKHTTPClient.save loop.
+     */
+    private void okStreamCopy(OkHttpClient client, String url, AtomicLong calls) throws IOException {
+        Response response = client.newCall(new Request.Builder().url(url).build()).execute();
+        try {
+            copy(response.body().byteStream(), calls);
+        } finally {
+            response.body().close();
+        }
+    }
+
+    private void copy(InputStream in, AtomicLong calls) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] b = new byte[4096];
+            int n;
+            while ((n = in.read(b, 0, b.length)) != -1) {
+                out.write(b, 0, n);
+                calls.incrementAndGet();
+            }
+        } finally {
+            out.close();
+            in.close();
+        }
+    }
+
+    private static void report(String name, long nanos, long calls) {
+        double mb = (double) SIZE * ROUNDS / (1024 * 1024);
+        System.out.printf("%-15s %8.1f MB/s %10d callbacks%n", name, mb * 1e9 / nanos, calls / ROUNDS);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2016, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util.http;
+
+import com.frostwire.util.ThreadPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of the connection reuse of a shared context client against
+ * a client (and connection pool) per call, using a local keep-alive server
+ * that counts the accepted connections.
+ *
+ * @author gubatron
+ * @author aldenml
+ */
+public class OKHTTPClientTest {
+
+    private static final int REQUESTS = 200;
+    private static final byte[] BODY = new byte[16 * 1024];
+
+    private ServerSocket server;
+    private Thread acceptor;
+    private AtomicInteger connections;
+    private ThreadPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        connections = new AtomicInteger();
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        final Socket s = server.accept();
+                        connections.incrementAndGet();
+                        Thread t = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(s);
+                            }
+                        });
+                        t.setDaemon(true);
+                        t.start();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        pool = new ThreadPool("OKHTTPClientTest", 1, 4, 5, new LinkedBlockingQueue<Runnable>(), true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testSharedClientReusesConnections() throws IOException {
+        String url = "http://127.0.0.1:" + server.getLocalPort() + "/data";
+
+        HttpClient shared = new OKHTTPClient(OKHTTPClient.newOkHttpClient(pool, 5, 60000, 0), new HostPermits(0));
+        get(shared, url, 10); // warm up
+
+        connections.set(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            assertEquals(BODY.length, shared.getBytes(url).length);
+        }
+        long sharedTime = System.nanoTime() - start;
+        int sharedConnections = connections.get();
+
+        connections.set(0);
+        start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            HttpClient perCall = new OKHTTPClient(OKHTTPClient.newOkHttpClient(pool, 5, 60000, 0), new HostPermits(0));
+            assertEquals(BODY.length, perCall.getBytes(url).length);
+        }
+        long perCallTime = System.nanoTime() - start;
+        int perCallConnections = connections.get();
+
+        System.out.println("shared client:   " + REQUESTS + " requests, " + sharedConnections + " connections, " + sharedTime / 1000000 + "ms");
+        System.out.println("client per call: " + REQUESTS + " requests, " + perCallConnections + " connections, " + perCallTime / 1000000 + "ms");
+
+        assertTrue(sharedConnections <= 1);
+        assertEquals(REQUESTS, perCallConnections);
+    }
+
+    @Test
+    public void testHostPermitsTimeout() throws IOException {
+        HostPermits permits = new HostPermits(1);
+        String url = "http://127.0.0.1:" + server.getLocalPort() + "/data";
+
+        permits.acquire(url, 100);
+        boolean timeout = false;
+        try {
+            permits.acquire(url, 100);
+        } catch (InterruptedIOException e) {
+            timeout = true;
+        }
+        assertTrue(timeout);
+    }
+
+    private static void get(HttpClient client, String url, int n) {
+        for (int i = 0; i < n; i++) {
+            client.getBytes(url);
+        }
+    }
+
+    private static void serve(Socket s) {
+        try {
+            s.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), "US-ASCII"));
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), 32 * 1024);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + BODY.length + "\r\nConnection: keep-alive\r\n\r\n").getBytes("US-ASCII"));
+                    out.write(BODY);
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // connection closed
+        } finally {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
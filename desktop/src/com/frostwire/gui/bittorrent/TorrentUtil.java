@@ -42,13 +42,14 @@
  */
 package com.frostwire.gui.bittorrent;
 
+import com.frostwire.bittorrent.BTEngine;
 import com.frostwire.bittorrent.MagnetUriBuilder;
+import com.frostwire.bittorrent.TransferFileIndex;
 import com.frostwire.jlibtorrent.AnnounceEntry;
 import com.frostwire.jlibtorrent.Session;
 import com.frostwire.jlibtorrent.TorrentInfo;
 import com.frostwire.jlibtorrent.Vectors;
 import com.frostwire.jlibtorrent.swig.*;
-import com.frostwire.transfers.TransferItem;
 import com.frostwire.transfers.TransferState;
 import com.frostwire.util.UrlUtils;
 import com.frostwire.uxstats.UXAction;
@@ -63,7 +64,6 @@ import javax.swing.*;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -76,53 +76,20 @@ public final class TorrentUtil {
     }
 
     public static BittorrentDownload getDownloadManager(File f) {
-        List<BTDownload> downloads = BTDownloadMediator.instance().getDownloads();
-        for (BTDownload d : downloads) {
-            if (d instanceof BittorrentDownload) {
-                BittorrentDownload bt = (BittorrentDownload) d;
-                com.frostwire.bittorrent.BTDownload dl = bt.getDl();
-
-                List<TransferItem> items = dl.getItems();
-
-                for (TransferItem item : items) {
-                    if (f.equals(item.getFile())) {
-                        return bt;
-                    }
-                }
-            }
-        }
-
-        return null;
-    }
-
-    private static Set<File> getIncompleteFiles() {
-        Set<File> set = new HashSet<>();
-
-        List<BTDownload> downloads = BTDownloadMediator.instance().getDownloads();
-        for (BTDownload d : downloads) {
-            if (d instanceof BittorrentDownload) {
-                BittorrentDownload bt = (BittorrentDownload) d;
-                com.frostwire.bittorrent.BTDownload dl = bt.getDl();
-                set.addAll(dl.getIncompleteFiles());
-            }
+        TransferFileIndex.Location location = BTEngine.getInstance().fileIndex().lookup(f);
+        if (location == null) {
+            return null;
         }
 
-        return set;
-    }
-
-    private static Set<File> getPartsFiles() {
-        Set<File> set = new HashSet<>();
-
+        String infoHash = location.download().getInfoHash();
         List<BTDownload> downloads = BTDownloadMediator.instance().getDownloads();
         for (BTDownload d : downloads) {
-            if (d instanceof BittorrentDownload) {
-                BittorrentDownload bt = (BittorrentDownload) d;
-                com.frostwire.bittorrent.BTDownload dl = bt.getDl();
-                set.add(dl.partsFile());
+            if (d instanceof BittorrentDownload && infoHash.equals(d.getHash())) {
+                return (BittorrentDownload) d;
             }
         }
 
-        return set;
+        return null;
     }
 
     public static String getMagnet(String hash) {
@@ -152,10 +119,11 @@ public final class TorrentUtil {
         return sb.toString();
     }
 
+    /**
+     * @return a live, read only, view of the incomplete and parts files of all the downloads
+     */
     public static Set<File> getIgnorableFiles() {
-        Set<File> set = TorrentUtil.getIncompleteFiles();
-        set.addAll(getPartsFiles());
-        return set;
+        return BTEngine.getInstance().incompleteFiles().files();
     }
 
     public static boolean askForPermissionToSeedAndSeedDownloads(BTDownload[] downloaders) {
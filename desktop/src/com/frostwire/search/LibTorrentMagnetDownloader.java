@@ -19,6 +19,8 @@ package com.frostwire.search;
 
 import com.frostwire.bittorrent.BTEngine;
 
+import java.util.concurrent.Future;
+
 /**
  * @author gubatron
  * @author aldenml
@@ -31,4 +33,8 @@ public class LibTorrentMagnetDownloader implements MagnetDownloader {
     public byte[] download(String magnet, int timeout) {
         return BTEngine.getInstance().fetchMagnet(magnet, timeout);
     }
+
+    public Future<byte[]> downloadAsync(String magnet, int timeout) {
+        return BTEngine.getInstance().fetchMagnetAsync(magnet, timeout);
+    }
 }
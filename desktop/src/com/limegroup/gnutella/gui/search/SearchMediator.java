@@ -36,7 +36,6 @@ import org.limewire.util.StringUtils;
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
-import java.text.Normalizer;
 import java.util.*;
 
 /**
@@ -49,6 +48,8 @@ public final class SearchMediator {
 
     public static final Logger LOG = Logger.getLogger(SearchMediator.class);
 
+    private static final long CRAWL_CACHE_MEMORY_SIZE = 32 * 1024 * 1024; // 32MB
+
     /**
      * Query text is valid.
      */
@@ -131,7 +132,7 @@ public final class SearchMediator {
         });
 
         try {
-            CrawlPagedWebSearchPerformer.setCache(new DatabaseCrawlCache());
+            CrawlPagedWebSearchPerformer.setCache(new TieredCrawlCache(new DatabaseCrawlCache(), CRAWL_CACHE_MEMORY_SIZE));
         } catch (Throwable t) {
             LOG.error("could not set database crawl cache", t);
         }
@@ -265,19 +266,19 @@ public final class SearchMediator {
         }
     }
 
-    private List<SearchResult> filter(List<SearchResult> results, List<String> searchTokens) {
+    private List<SearchResult> filter(List<SearchResult> results, RelevanceFilter relevanceFilter) {
         List<SearchResult> list;
 
-        if (searchTokens == null || searchTokens.isEmpty()) {
+        if (relevanceFilter == null) {
             list = Collections.emptyList();
         } else {
-            list = filter2(results, searchTokens);
+            list = filter2(results, relevanceFilter);
         }
 
         return list;
     }
 
-    private List<SearchResult> filter2(List<? extends SearchResult> results, List<String> searchTokens) {
+    private List<SearchResult> filter2(List<? extends SearchResult> results, RelevanceFilter relevanceFilter) {
         List<SearchResult> list = new LinkedList<SearchResult>();
 
         try {
@@ -286,7 +287,7 @@ public final class SearchMediator {
                     // special case for youtube
                     if (sr instanceof YouTubeCrawledSearchResult) {
                         list.add(sr);
-                    } else if (filter(new LinkedList<String>(searchTokens), sr)) {
+                    } else if (relevanceFilter.accept(sr)) {
                         list.add(sr);
                     }
                 } else {
@@ -301,73 +302,6 @@ public final class SearchMediator {
         return list;
     }
 
-    private boolean filter(List<String> tokens, SearchResult sr) {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append(sr.getDisplayName());
-        if (sr instanceof CrawledSearchResult) {
-            sb.append(((CrawledSearchResult) sr).getParent().getDisplayName());
-        }
-
-        if (sr instanceof FileSearchResult) {
-            sb.append(((FileSearchResult) sr).getFilename());
-        }
-
-        String str = sanitize(sb.toString());
-        str = normalize(str);
-
-        Iterator<String> it = tokens.iterator();
-        while (it.hasNext()) {
-            String token = it.next();
-            if (str.contains(token)) {
-                it.remove();
-            }
-        }
-
-        return tokens.isEmpty();
-    }
-
-    private static String stripHtml(String str) {
-        str = str.replaceAll("\\<.*?>", "");
-        str = str.replaceAll("\\&.*?\\;", "");
-        return str;
-    }
-
-    private String sanitize(String str) {
-        str = stripHtml(str);
-        str = str.replaceAll("\\.torrent|www\\.|\\.com|\\.net|[\\\\\\/%_;\\-\\.\\(\\)\\[\\]\\n\\rÐ&~{}\\*@\\^'=!,¡|#ÀÁ]", " ");
-        str = StringUtils.removeDoubleSpaces(str);
-
-        return str.trim();
-    }
-
-    private List<String> tokenize(String keywords) {
-        keywords = sanitize(keywords);
-
-        Set<String> tokens = new HashSet<String>(Arrays.asList(keywords.toLowerCase(Locale.US).split(" ")));
-
-        return new ArrayList<String>(normalizeTokens(tokens));
-    }
-
-    private Set<String> normalizeTokens(Set<String> tokens) {
-        Set<String> normalizedTokens = new HashSet<String>();
-
-        for (String token : tokens) {
-            String norm = normalize(token);
-            normalizedTokens.add(norm);
-        }
-
-        return normalizedTokens;
-    }
-
-    private String normalize(String token) {
-        String norm = Normalizer.normalize(token, Normalizer.Form.NFKD);
-        norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-        norm = norm.toLowerCase(Locale.US);
-
-        return norm;
-    }
-
     private static void updateSearchIcon(final long token, final boolean active) {
         GUIMediator.safeInvokeAndWait(new Runnable() {
             public void run() {
@@ -410,8 +344,8 @@ public final class SearchMediator {
      * standard query string, and XML query string.
      */
     private static SearchResultMediator addResultTab(long token, SearchInformation info) {
-        List<String> searchTokens = instance().tokenize(info.getQuery());
-        return getSearchResultDisplayer().addResultTab(token, searchTokens, info);
+        RelevanceFilter relevanceFilter = RelevanceFilter.compile(info.getQuery());
+        return getSearchResultDisplayer().addResultTab(token, relevanceFilter, info);
     }
 
     /**
@@ -537,7 +471,7 @@ public final class SearchMediator {
 
         if (rp != null && !rp.isStopped()) {
             @SuppressWarnings("unchecked")
-            List<SearchResult> filtered = filter((List<SearchResult>) results, rp.getSearchTokens());
+            List<SearchResult> filtered = filter((List<SearchResult>) results, rp.getRelevanceFilter());
 
             if (filtered != null && !filtered.isEmpty()) {
 
@@ -22,6 +22,7 @@ package com.limegroup.gnutella.gui.search;
 import com.frostwire.gui.components.slides.MultimediaSlideshowPanel;
 import com.frostwire.gui.components.slides.Slide;
 import com.frostwire.gui.components.slides.SlideshowPanel;
+import com.frostwire.search.RelevanceFilter;
 import com.limegroup.gnutella.gui.BoxPanel;
 import com.limegroup.gnutella.gui.GUIMediator;
 import com.limegroup.gnutella.gui.I18n;
@@ -169,8 +170,8 @@ public final class SearchResultDisplayer implements RefreshListener {
         _activeSearchListener = listener;
     }
 
-    SearchResultMediator addResultTab(long token, List<String> searchTokens, SearchInformation info) {
-        SearchResultMediator panel = new SearchResultMediator(token, searchTokens, info);
+    SearchResultMediator addResultTab(long token, RelevanceFilter relevanceFilter, SearchInformation info) {
+        SearchResultMediator panel = new SearchResultMediator(token, relevanceFilter, info);
 
         if (MAIN_PANEL.getHeight() < SearchResultDisplayer.MIN_HEIGHT) {
             GUIMediator.instance().getMainFrame().resizeSearchTransferDivider(SearchResultDisplayer.MIN_HEIGHT);
@@ -25,6 +25,7 @@ import com.frostwire.gui.theme.SkinMenu;
 import com.frostwire.gui.theme.SkinMenuItem;
 import com.frostwire.gui.theme.SkinPopupMenu;
 import com.frostwire.gui.theme.ThemeMediator;
+import com.frostwire.search.RelevanceFilter;
 import com.frostwire.search.SearchResult;
 import com.frostwire.search.torrent.TorrentSearchResult;
 import com.frostwire.uxstats.UXAction;
@@ -75,7 +76,7 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
      */
     private long token;
 
-    private final List<String> searchTokens;
+    private final RelevanceFilter relevanceFilter;
 
     /**
      * The CompositeFilter for this ResultPanel.
@@ -120,7 +121,7 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
         SEARCH_INFO = SearchInformation.createKeywordSearch("", null, MediaType.getAnyTypeMediaType());
         FILTER = null;
         this.token = 0;
-        this.searchTokens = null;
+        this.relevanceFilter = null;
         setButtonEnabled(SearchButtons.TORRENT_DETAILS_BUTTON_INDEX, false);
         // disable dnd for overlay panel
         TABLE.setDragEnabled(false);
@@ -135,11 +136,11 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
      * @param token the guid of the query.  Used to match results.
      * @param info the info of the search
      */
-    SearchResultMediator(long token, List<String> searchTokens, SearchInformation info) {
+    SearchResultMediator(long token, RelevanceFilter relevanceFilter, SearchInformation info) {
         super(SEARCH_TABLE);
         SEARCH_INFO = info;
         this.token = token;
-        this.searchTokens = searchTokens;
+        this.relevanceFilter = relevanceFilter;
         setupRealTable();
         resetFilters();
     }
@@ -332,7 +333,7 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
 
             menu.add(createSearchAgainMenu(lines[0]));
         } else {
-            SeasonalContentSearchSuggestion.attemptToAddSeasonalContentSearchSuggestion(null, menu, searchTokens);
+            SeasonalContentSearchSuggestion.attemptToAddSeasonalContentSearchSuggestion(null, menu, getSearchTokens());
             menu.add(new SkinMenuItem(new RepeatSearchAction()));
             menu.add(new JSeparator(JSeparator.HORIZONTAL));
             menu.add(new SkinMenuItem(new CloseTabAction()));
@@ -360,7 +361,7 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
         String keywords = QueryUtils.createQueryString(line.getFilename());
         SearchInformation info = SearchInformation.createKeywordSearch(keywords, null, MediaType.getAnyTypeMediaType());
         if (SearchMediator.validateInfo(info) == SearchMediator.QUERY_VALID) {
-            SeasonalContentSearchSuggestion.attemptToAddSeasonalContentSearchSuggestion(menu, null, searchTokens);
+            SeasonalContentSearchSuggestion.attemptToAddSeasonalContentSearchSuggestion(menu, null, getSearchTokens());
             menu.add(new SkinMenuItem(new SearchAction(info, I18n.tr("Search for Keywords: {0}"))));
         }
 
@@ -861,7 +862,11 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
     }
 
     List<String> getSearchTokens() {
-        return searchTokens;
+        return relevanceFilter != null ? relevanceFilter.tokens() : null;
+    }
+
+    RelevanceFilter getRelevanceFilter() {
+        return relevanceFilter;
     }
 
     void updateFiltersPanel() {